@@ -0,0 +1,56 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Encodes and decodes {@link org.apache.mailet.Mail} attribute values of one
+ * type for the {@link MailEnvelopeCodec}
+ * 
+ * @param <T>
+ *            the type of the attribute values
+ */
+public interface AttributeCodec<T extends Serializable> {
+
+    /**
+     * Write the given value to the {@link DataOutput}
+     * 
+     * @param value
+     * @param out
+     * @throws IOException
+     */
+    void encode(T value, DataOutput out) throws IOException;
+
+    /**
+     * Read a value which was written by {@link #encode(Serializable, DataOutput)}.
+     * The {@link DataInput} only contains the bytes of the value, which must
+     * all be read
+     * 
+     * @param in
+     * @param length
+     *            the count of bytes which were written for the value
+     * @return value
+     * @throws IOException
+     */
+    T decode(DataInput in, int length) throws IOException;
+}
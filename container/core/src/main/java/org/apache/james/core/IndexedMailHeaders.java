@@ -0,0 +1,119 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.mail.Header;
+import javax.mail.MessagingException;
+
+/**
+ * {@link MailHeaders} which keep an index of the contained header names, so
+ * lookups for headers which are not present do not need to scan all headers.
+ * The index is built on the first lookup and dropped on every modification.
+ */
+public class IndexedMailHeaders extends MailHeaders {
+
+    private static final long serialVersionUID = 2960475129811393342L;
+
+    private transient Map<String, Integer> index;
+
+    public IndexedMailHeaders() {
+        super();
+    }
+
+    public IndexedMailHeaders(InputStream in) throws MessagingException {
+        super(in);
+    }
+
+    /**
+     * Return the count of headers with the given name
+     * 
+     * @param name
+     * @return count
+     */
+    public synchronized int getHeaderCount(String name) {
+        if (index == null) {
+            index = new HashMap<String, Integer>();
+            Enumeration<?> all = getAllHeaders();
+            while (all.hasMoreElements()) {
+                String key = ((Header) all.nextElement()).getName().toLowerCase(Locale.US);
+                Integer count = index.get(key);
+                index.put(key, count == null ? 1 : count + 1);
+            }
+        }
+        Integer count = index.get(name.toLowerCase(Locale.US));
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public synchronized String[] getHeader(String name) {
+        if (getHeaderCount(name) == 0) {
+            return null;
+        }
+        return super.getHeader(name);
+    }
+
+    @Override
+    public synchronized String getHeader(String name, String delimiter) {
+        if (getHeaderCount(name) == 0) {
+            return null;
+        }
+        return super.getHeader(name, delimiter);
+    }
+
+    @Override
+    public boolean isSet(String name) {
+        return getHeaderCount(name) > 0;
+    }
+
+    @Override
+    public synchronized void load(InputStream is) throws MessagingException {
+        super.load(is);
+        index = null;
+    }
+
+    @Override
+    public synchronized void addHeader(String name, String value) {
+        super.addHeader(name, value);
+        index = null;
+    }
+
+    @Override
+    public synchronized void setHeader(String name, String value) {
+        super.setHeader(name, value);
+        index = null;
+    }
+
+    @Override
+    public synchronized void removeHeader(String name) {
+        super.removeHeader(name);
+        index = null;
+    }
+
+    @Override
+    public synchronized void addHeaderLine(String line) {
+        super.addHeaderLine(line);
+        index = null;
+    }
+}
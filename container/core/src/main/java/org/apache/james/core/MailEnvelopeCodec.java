@@ -0,0 +1,418 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.internet.AddressException;
+
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+
+/**
+ * Compact binary format for the meta-data of a {@link Mail} which can be used
+ * instead of the Java serialization of {@link MailImpl}. The
+ * {@link javax.mail.internet.MimeMessage} itself is not part of the envelope.
+ * <p>
+ * The envelope starts with two magic bytes, a version byte and the length of
+ * the remaining data. Attribute values are written with the
+ * {@link AttributeCodec} which was registered for their exact class. Values of
+ * other types fall back to Java serialization.
+ * </p>
+ * <p>
+ * Codecs must be registered before the {@link MailEnvelopeCodec} is used.
+ * After that it is safe to use it from many threads.
+ * </p>
+ */
+public class MailEnvelopeCodec {
+
+    /**
+     * The version of the format which is written
+     */
+    public final static int VERSION = 1;
+
+    /**
+     * The first id which can be used by {@link #register(int, Class, AttributeCodec)}.
+     * All ids below are reserved for the codecs which are registered by default
+     */
+    public final static int FIRST_CUSTOM_ID = 64;
+
+    // java serialization streams start with 0xACED, so we never mix them up
+    private final static byte MAGIC_1 = 'J';
+    private final static byte MAGIC_2 = 'E';
+
+    private final static int SERIALIZED_ID = 0;
+    private final static int MAX_ID = 255;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<Class<?>, Integer> ids = new HashMap<Class<?>, Integer>();
+    private final AttributeCodec<?>[] codecs = new AttributeCodec<?>[MAX_ID + 1];
+
+    /**
+     * Create a new {@link MailEnvelopeCodec} which has codecs for
+     * {@link String}, {@link Long}, {@link Integer}, {@link Boolean},
+     * <code>byte[]</code> and {@link MailAddress} attribute values registered
+     */
+    public MailEnvelopeCodec() {
+        doRegister(1, String.class, new AttributeCodec<String>() {
+
+            @Override
+            public void encode(String value, DataOutput out) throws IOException {
+                out.write(value.getBytes(UTF8));
+            }
+
+            @Override
+            public String decode(DataInput in, int length) throws IOException {
+                byte[] data = new byte[length];
+                in.readFully(data);
+                return new String(data, UTF8);
+            }
+        });
+        doRegister(2, Long.class, new AttributeCodec<Long>() {
+
+            @Override
+            public void encode(Long value, DataOutput out) throws IOException {
+                out.writeLong(value);
+            }
+
+            @Override
+            public Long decode(DataInput in, int length) throws IOException {
+                return in.readLong();
+            }
+        });
+        doRegister(3, Integer.class, new AttributeCodec<Integer>() {
+
+            @Override
+            public void encode(Integer value, DataOutput out) throws IOException {
+                out.writeInt(value);
+            }
+
+            @Override
+            public Integer decode(DataInput in, int length) throws IOException {
+                return in.readInt();
+            }
+        });
+        doRegister(4, Boolean.class, new AttributeCodec<Boolean>() {
+
+            @Override
+            public void encode(Boolean value, DataOutput out) throws IOException {
+                out.writeBoolean(value);
+            }
+
+            @Override
+            public Boolean decode(DataInput in, int length) throws IOException {
+                return in.readBoolean();
+            }
+        });
+        doRegister(5, byte[].class, new AttributeCodec<byte[]>() {
+
+            @Override
+            public void encode(byte[] value, DataOutput out) throws IOException {
+                out.write(value);
+            }
+
+            @Override
+            public byte[] decode(DataInput in, int length) throws IOException {
+                byte[] data = new byte[length];
+                in.readFully(data);
+                return data;
+            }
+        });
+        doRegister(6, MailAddress.class, new AttributeCodec<MailAddress>() {
+
+            @Override
+            public void encode(MailAddress value, DataOutput out) throws IOException {
+                out.write(value.toString().getBytes(UTF8));
+            }
+
+            @Override
+            public MailAddress decode(DataInput in, int length) throws IOException {
+                byte[] data = new byte[length];
+                in.readFully(data);
+                return toMailAddress(new String(data, UTF8));
+            }
+        });
+    }
+
+    /**
+     * Register an {@link AttributeCodec} for attribute values of the given
+     * class. The id is written to the envelope, so it must never change once
+     * envelopes were stored with it.
+     * 
+     * @param id
+     *            the id of the codec, between {@link #FIRST_CUSTOM_ID} and 255
+     * @param type
+     *            the exact class of the attribute values
+     * @param codec
+     */
+    public <T extends Serializable> void register(int id, Class<T> type, AttributeCodec<T> codec) {
+        if (id < FIRST_CUSTOM_ID || id > MAX_ID) {
+            throw new IllegalArgumentException("Id must be between " + FIRST_CUSTOM_ID + " and " + MAX_ID);
+        }
+        doRegister(id, type, codec);
+    }
+
+    private <T extends Serializable> void doRegister(int id, Class<T> type, AttributeCodec<T> codec) {
+        if (codecs[id] != null) {
+            throw new IllegalArgumentException("Id " + id + " is already registered");
+        }
+        codecs[id] = codec;
+        ids.put(type, id);
+    }
+
+    /**
+     * Return <code>true</code> if the given {@link InputStream} starts with an
+     * envelope. The {@link InputStream} must support
+     * {@link InputStream#mark(int)}, its position is not changed.
+     * 
+     * @param in
+     * @return encoded
+     * @throws IOException
+     */
+    public static boolean isEncoded(InputStream in) throws IOException {
+        in.mark(2);
+        try {
+            return in.read() == MAGIC_1 && in.read() == MAGIC_2;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Encode the meta-data of the given {@link Mail}
+     * 
+     * @param mail
+     * @return envelope
+     * @throws IOException
+     */
+    public byte[] encode(Mail mail) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        encode(mail, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the meta-data of the given {@link Mail} to the
+     * {@link OutputStream}
+     * 
+     * @param mail
+     * @param out
+     * @throws IOException
+     */
+    public void encode(Mail mail, OutputStream out) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(512);
+        DataOutputStream data = new DataOutputStream(body);
+        writeString(data, mail.getName());
+        writeString(data, mail.getState());
+        writeString(data, mail.getErrorMessage());
+        MailAddress sender = mail.getSender();
+        writeString(data, sender == null ? null : sender.toString());
+        writeString(data, mail.getRemoteHost());
+        writeString(data, mail.getRemoteAddr());
+        Date lastUpdated = mail.getLastUpdated();
+        data.writeLong(lastUpdated == null ? -1 : lastUpdated.getTime());
+
+        Collection<?> recipients = mail.getRecipients();
+        if (recipients == null) {
+            data.writeInt(-1);
+        } else {
+            data.writeInt(recipients.size());
+            for (Object rcpt : recipients) {
+                writeString(data, rcpt.toString());
+            }
+        }
+
+        List<String> names = new ArrayList<String>();
+        Iterator<?> it = mail.getAttributeNames();
+        while (it.hasNext()) {
+            names.add((String) it.next());
+        }
+        data.writeInt(names.size());
+        ByteArrayOutputStream value = new ByteArrayOutputStream(64);
+        for (String name : names) {
+            writeString(data, name);
+            value.reset();
+            int id = writeAttribute(mail.getAttribute(name), value);
+            data.writeByte(id);
+            data.writeInt(value.size());
+            value.writeTo(data);
+        }
+        data.flush();
+
+        int length = body.size();
+        out.write(new byte[] { MAGIC_1, MAGIC_2, VERSION, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+        body.writeTo(out);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int writeAttribute(Serializable value, ByteArrayOutputStream out) throws IOException {
+        Integer id = value == null ? null : ids.get(value.getClass());
+        if (id == null) {
+            ObjectOutputStream oout = new ObjectOutputStream(out);
+            oout.writeObject(value);
+            oout.close();
+            return SERIALIZED_ID;
+        }
+        DataOutputStream dout = new DataOutputStream(out);
+        ((AttributeCodec<Serializable>) codecs[id]).encode(value, dout);
+        dout.flush();
+        return id;
+    }
+
+    /**
+     * Decode an envelope
+     * 
+     * @param envelope
+     * @return mail the {@link MailImpl} without a
+     *         {@link javax.mail.internet.MimeMessage}
+     * @throws IOException
+     */
+    public MailImpl decode(byte[] envelope) throws IOException {
+        return decode(new ByteArrayInputStream(envelope));
+    }
+
+    /**
+     * Read an envelope from the {@link InputStream}. Only the bytes of the
+     * envelope are consumed.
+     * 
+     * @param in
+     * @return mail the {@link MailImpl} without a
+     *         {@link javax.mail.internet.MimeMessage}
+     * @throws IOException
+     */
+    public MailImpl decode(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        if (din.readByte() != MAGIC_1 || din.readByte() != MAGIC_2) {
+            throw new IOException("Not a mail envelope");
+        }
+        int version = din.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported mail envelope version " + version);
+        }
+        byte[] body = new byte[din.readInt()];
+        din.readFully(body);
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(body));
+        MailImpl mail = new MailImpl();
+        mail.setName(readString(data));
+        mail.setState(readString(data));
+        mail.setErrorMessage(readString(data));
+        String sender = readString(data);
+        mail.setSender(sender == null ? null : toMailAddress(sender));
+        mail.setRemoteHost(readString(data));
+        mail.setRemoteAddr(readString(data));
+        long lastUpdated = data.readLong();
+        mail.setLastUpdated(lastUpdated == -1 ? null : new Date(lastUpdated));
+
+        int count = data.readInt();
+        if (count == -1) {
+            mail.setRecipients(null);
+        } else {
+            List<MailAddress> recipients = new ArrayList<MailAddress>(count);
+            for (int i = 0; i < count; i++) {
+                recipients.add(toMailAddress(readString(data)));
+            }
+            mail.setRecipients(recipients);
+        }
+
+        count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = readString(data);
+            int id = data.readUnsignedByte();
+            int length = data.readInt();
+            mail.setAttribute(name, readAttribute(id, length, data));
+        }
+        return mail;
+    }
+
+    private Serializable readAttribute(int id, int length, DataInputStream data) throws IOException {
+        // the value is read completely, so a codec can never read into the
+        // following fields
+        byte[] value = new byte[length];
+        data.readFully(value);
+        if (id == SERIALIZED_ID) {
+            ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(value));
+            try {
+                return (Serializable) oin.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unable to deserialize attribute: " + e.getMessage());
+            } finally {
+                oin.close();
+            }
+        }
+        AttributeCodec<?> codec = codecs[id];
+        if (codec == null) {
+            throw new IOException("No codec registered for id " + id);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(value);
+        Serializable decoded = codec.decode(new DataInputStream(in), length);
+        if (in.available() > 0) {
+            throw new IOException("Codec for id " + id + " left " + in.available() + " of " + length + " bytes unread");
+        }
+        return decoded;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] data = value.getBytes(UTF8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, UTF8);
+    }
+
+    private static MailAddress toMailAddress(String address) throws IOException {
+        try {
+            return new MailAddress(address);
+        } catch (AddressException e) {
+            throw new IOException("Error parsing address " + address + ": " + e.getMessage());
+        }
+    }
+}
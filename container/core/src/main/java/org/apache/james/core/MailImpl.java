@@ -109,6 +109,11 @@ public class MailImpl implements Disposable, Mail {
      * Attributes added to this MailImpl instance
      */
     private Map<String, Object> attributes;
+    /**
+     * True if the attributes map is shared with a copy of this mail, so it
+     * must be copied before it gets modified
+     */
+    private boolean attributesShared;
 
     /**
      * A constructor that creates a new, uninitialized MailImpl
@@ -161,12 +166,14 @@ public class MailImpl implements Disposable, Mail {
         setLastUpdated(mail.getLastUpdated());
         try {
             if (mail instanceof MailImpl) {
-                setAttributesRaw((HashMap) cloneSerializableObject(((MailImpl) mail).getAttributesRaw()));
+                MailImpl original = (MailImpl) mail;
+                attributes = original.shareAttributes();
+                attributesShared = attributes == original.attributes;
             } else {
                 HashMap<String, Object> attribs = new HashMap<String, Object>();
                 for (Iterator i = mail.getAttributeNames(); i.hasNext(); ) {
                     String hashKey = (String) i.next();
-                    attribs.put(hashKey, cloneSerializableObject(mail.getAttribute(hashKey)));
+                    attribs.put(hashKey, copyAttribute(mail.getAttribute(hashKey)));
                 }
                 setAttributesRaw(attribs);
             }
@@ -550,6 +557,7 @@ public class MailImpl implements Disposable, Mail {
      * @since 2.2.0
      */
     public Map<String, Object> getAttributesRaw() {
+        unshareAttributes();
         return attributes;
     }
 
@@ -568,6 +576,7 @@ public class MailImpl implements Disposable, Mail {
      */
     public void setAttributesRaw(HashMap<String, Object> attr) {
         this.attributes = (attr == null) ? new HashMap<String, Object>() : attr;
+        this.attributesShared = false;
     }
 
     @Override
@@ -577,21 +586,30 @@ public class MailImpl implements Disposable, Mail {
 
     @Override
     public Serializable setAttribute(String key, Serializable object) {
+        unshareAttributes();
         return (Serializable) attributes.put(key, object);
     }
 
     @Override
     public Serializable removeAttribute(String key) {
+        unshareAttributes();
         return (Serializable) attributes.remove(key);
     }
 
     @Override
     public void removeAllAttributes() {
-        attributes.clear();
+        if (attributesShared) {
+            attributes = new HashMap<String, Object>();
+            attributesShared = false;
+        } else {
+            attributes.clear();
+        }
     }
 
     @Override
     public Iterator getAttributeNames() {
+        // the iterator allows to remove attributes
+        unshareAttributes();
         return attributes.keySet().iterator();
     }
 
@@ -600,6 +618,64 @@ public class MailImpl implements Disposable, Mail {
         return !attributes.isEmpty();
     }
 
+    /**
+     * Return the attributes map for a copy of this mail. The map is shared with
+     * the copy if all values are immutable, and both mails copy it before
+     * they modify it. Otherwise a copy with cloned mutable values is
+     * returned.
+     *
+     * @return attributes
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private Map<String, Object> shareAttributes() throws IOException, ClassNotFoundException {
+        for (Object value : attributes.values()) {
+            if (!isImmutable(value)) {
+                HashMap<String, Object> copy = new HashMap<String, Object>(attributes.size() * 2);
+                for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                    copy.put(entry.getKey(), copyAttribute(entry.getValue()));
+                }
+                return copy;
+            }
+        }
+        attributesShared = true;
+        return attributes;
+    }
+
+    /**
+     * Copy the attributes map if it is shared with another mail
+     */
+    private void unshareAttributes() {
+        if (attributesShared) {
+            attributes = new HashMap<String, Object>(attributes);
+            attributesShared = false;
+        }
+    }
+
+    /**
+     * Return the given attribute value if it is immutable, or a deep copy of
+     * it otherwise
+     *
+     * @param o the value
+     * @return copy
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Object copyAttribute(Object o) throws IOException, ClassNotFoundException {
+        if (isImmutable(o)) {
+            return o;
+        }
+        return cloneSerializableObject(o);
+    }
+
+    private static boolean isImmutable(Object o) {
+        if (o == null || o instanceof String || o instanceof Boolean || o instanceof Character || o instanceof Enum || o instanceof MailAddress) {
+            return true;
+        }
+        Class<?> type = o.getClass();
+        return type == Integer.class || type == Long.class || type == Short.class || type == Byte.class || type == Double.class || type == Float.class;
+    }
+
     /**
      * This methods provide cloning for serializable objects. Mail Attributes
      * are Serializable but not Clonable so we need a deep copy
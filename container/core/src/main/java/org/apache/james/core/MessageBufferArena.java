@@ -0,0 +1,123 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * Pool of direct {@link ByteBuffer} chunks which hold messages off-heap while
+ * they are received. The arena never allocates more than its budget, if it is
+ * exhausted the message gets spilled to disk.
+ */
+public class MessageBufferArena implements MessageBufferArenaMBean {
+
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final LinkedList<ByteBuffer> pool = new LinkedList<ByteBuffer>();
+    private final long budget;
+    private final int chunkSize;
+    private long allocated;
+    private long inUse;
+    private long spilledBytes;
+    private long spillCount;
+
+    /**
+     * @param budget
+     *            the maximal count of bytes to allocate
+     * @param chunkSize
+     *            the size of one chunk
+     */
+    public MessageBufferArena(long budget, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        this.budget = budget;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Return a cleared chunk or <code>null</code> if the budget is exhausted
+     * 
+     * @return chunk or <code>null</code>
+     */
+    public synchronized ByteBuffer allocate() {
+        ByteBuffer chunk = pool.poll();
+        if (chunk == null) {
+            if (allocated + chunkSize > budget) {
+                return null;
+            }
+            chunk = ByteBuffer.allocateDirect(chunkSize);
+            allocated += chunkSize;
+        }
+        inUse += chunkSize;
+        return chunk;
+    }
+
+    /**
+     * Give the chunk back to the arena
+     * 
+     * @param chunk
+     */
+    public synchronized void release(ByteBuffer chunk) {
+        chunk.clear();
+        inUse -= chunkSize;
+        pool.add(chunk);
+    }
+
+    /**
+     * Record that a message with the given size was spilled to disk
+     * 
+     * @param bytes
+     */
+    public synchronized void spilled(long bytes) {
+        spilledBytes += bytes;
+        spillCount++;
+    }
+
+    @Override
+    public long getBudget() {
+        return budget;
+    }
+
+    @Override
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public synchronized long getInMemoryBytes() {
+        return inUse;
+    }
+
+    @Override
+    public synchronized long getAllocatedBytes() {
+        return allocated;
+    }
+
+    @Override
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    @Override
+    public synchronized long getSpillCount() {
+        return spillCount;
+    }
+}
@@ -0,0 +1,68 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+/**
+ * JMX MBean for a {@link MessageBufferArena}
+ */
+public interface MessageBufferArenaMBean {
+
+    /**
+     * Return the maximal count of bytes which are hold off-heap
+     * 
+     * @return budget
+     */
+    long getBudget();
+
+    /**
+     * Return the size of one buffer chunk in bytes
+     * 
+     * @return chunkSize
+     */
+    int getChunkSize();
+
+    /**
+     * Return the count of bytes which are used by messages right now
+     * 
+     * @return inMemoryBytes
+     */
+    long getInMemoryBytes();
+
+    /**
+     * Return the count of bytes which are allocated off-heap, including the
+     * unused chunks in the pool
+     * 
+     * @return allocatedBytes
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Return the count of bytes which were spilled to disk since startup
+     * 
+     * @return spilledBytes
+     */
+    long getSpilledBytes();
+
+    /**
+     * Return the count of messages which were spilled to disk since startup
+     * 
+     * @return spillCount
+     */
+    long getSpillCount();
+}
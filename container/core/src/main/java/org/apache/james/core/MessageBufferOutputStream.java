@@ -0,0 +1,359 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+/**
+ * {@link OutputStream} which writes into chunks of a
+ * {@link MessageBufferArena} and spills to a temporary file once the threshold
+ * is reached or the arena is exhausted.
+ * <p>
+ * The chunks are given back to the arena on spill or dispose, so streams which
+ * were returned by {@link #getInputStream()} before fail with an
+ * {@link IOException} from then on instead of reading recycled chunks.
+ * </p>
+ */
+class MessageBufferOutputStream extends OutputStream {
+
+    private final MessageBufferArena arena;
+    private final long threshold;
+    private final String prefix;
+    private final String suffix;
+    private final File directory;
+    private final Chunks chunks = new Chunks();
+    private ByteBuffer current;
+    private OutputStream fileOut;
+    private File file;
+    private long count;
+    private boolean closed;
+    private boolean disposed;
+
+    public MessageBufferOutputStream(MessageBufferArena arena, long threshold, String prefix, String suffix, File directory) {
+        this.arena = arena;
+        this.threshold = threshold;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (file == null && count + 1 > threshold) {
+            spill();
+        }
+        if (file == null && (current == null || !current.hasRemaining()) && !nextChunk()) {
+            spill();
+        }
+        if (file != null) {
+            fileOut.write(b);
+        } else {
+            current.put((byte) b);
+        }
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (file == null && count + len > threshold) {
+            spill();
+        }
+        while (file == null && len > 0) {
+            if ((current == null || !current.hasRemaining()) && !nextChunk()) {
+                spill();
+                break;
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+            count += n;
+        }
+        if (len > 0) {
+            fileOut.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private boolean nextChunk() {
+        current = arena.allocate();
+        if (current == null) {
+            return false;
+        }
+        chunks.buffers.add(current);
+        return true;
+    }
+
+    /**
+     * Move the content of the chunks to a temporary file and give the chunks
+     * back to the arena
+     */
+    private void spill() throws IOException {
+        file = File.createTempFile(prefix, suffix, directory);
+        FileOutputStream out = new FileOutputStream(file);
+        FileChannel channel = out.getChannel();
+        for (ByteBuffer chunk : chunks.buffers) {
+            ByteBuffer data = chunk.duplicate();
+            data.flip();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        fileOut = new BufferedOutputStream(out);
+        releaseChunks();
+    }
+
+    private void releaseChunks() {
+        synchronized (chunks) {
+            for (ByteBuffer chunk : chunks.buffers) {
+                arena.release(chunk);
+            }
+            chunks.buffers.clear();
+            chunks.released = true;
+        }
+        current = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut != null) {
+            fileOut.close();
+        }
+        if (!closed) {
+            closed = true;
+            if (file != null) {
+                // record the complete size and not only the bytes which were
+                // written up to the spill
+                arena.spilled(count);
+            }
+        }
+    }
+
+    /**
+     * Return the count of bytes written so far
+     * 
+     * @return count
+     */
+    public long getByteCount() {
+        return count;
+    }
+
+    /**
+     * Return <code>true</code> if the data is still hold by the arena
+     * 
+     * @return inMemory
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Return the temporary file or <code>null</code> if the data was not
+     * spilled
+     * 
+     * @return file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Return a new {@link SharedInputStream} over all written data
+     * 
+     * @return in
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        if (disposed) {
+            throw new IOException("Message buffer was already disposed");
+        }
+        if (file != null) {
+            return new SharedFileInputStream(file);
+        }
+        ByteBuffer[] views = new ByteBuffer[chunks.buffers.size()];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = chunks.buffers.get(i).duplicate();
+        }
+        return new ChunkInputStream(chunks, views, arena.getChunkSize(), 0, count);
+    }
+
+    /**
+     * Give the chunks back to the arena and delete the temporary file
+     */
+    public void dispose() {
+        disposed = true;
+        releaseChunks();
+        try {
+            close();
+        } catch (IOException e) {
+            // ignore on dispose
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * The chunks of a {@link MessageBufferOutputStream}. Streams over the
+     * chunks read while holding the lock of this object, so the chunks can not
+     * be given back to the arena while they are read
+     */
+    private final static class Chunks {
+        private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        private boolean released;
+    }
+
+    /**
+     * {@link InputStream} which reads from a range of equally sized chunks
+     */
+    private final static class ChunkInputStream extends InputStream implements SharedInputStream {
+        private final Chunks owner;
+        private final ByteBuffer[] chunks;
+        private final int chunkSize;
+        private final long start;
+        private final long end;
+        private long pos;
+        private long mark;
+
+        public ChunkInputStream(Chunks owner, ByteBuffer[] chunks, int chunkSize, long start, long end) {
+            this.owner = owner;
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+            this.start = start;
+            this.end = end;
+            this.pos = start;
+            this.mark = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            synchronized (owner) {
+                checkReleased();
+                int b = chunks[(int) (pos / chunkSize)].get((int) (pos % chunkSize)) & 0xff;
+                pos++;
+                return b;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= end) {
+                return -1;
+            }
+            int read = 0;
+            synchronized (owner) {
+                checkReleased();
+                while (len > 0 && pos < end) {
+                    ByteBuffer chunk = chunks[(int) (pos / chunkSize)];
+                    int index = (int) (pos % chunkSize);
+                    int n = (int) Math.min(Math.min(len, chunkSize - index), end - pos);
+                    chunk.position(index);
+                    chunk.get(b, off, n);
+                    off += n;
+                    len -= n;
+                    pos += n;
+                    read += n;
+                }
+            }
+            return read;
+        }
+
+        /**
+         * Must be called while holding the lock of the owner
+         */
+        private void checkReleased() throws IOException {
+            if (owner.released) {
+                throw new IOException("Message buffer was already spilled or disposed");
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, end - pos));
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = pos;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            pos = mark;
+        }
+
+        @Override
+        public long getPosition() {
+            return pos - start;
+        }
+
+        @Override
+        public InputStream newStream(long start, long end) {
+            if (start < 0) {
+                throw new IllegalArgumentException("start < 0");
+            }
+            if (end == -1) {
+                end = this.end - this.start;
+            }
+            ByteBuffer[] views = new ByteBuffer[chunks.length];
+            for (int i = 0; i < views.length; i++) {
+                views[i] = chunks[i].duplicate();
+            }
+            return new ChunkInputStream(owner, views, chunkSize, this.start + start, Math.min(this.end, this.start + end));
+        }
+    }
+}
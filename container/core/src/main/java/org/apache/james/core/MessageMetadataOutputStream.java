@@ -0,0 +1,102 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link FilterOutputStream} which collects the offset of the body and the
+ * count of body lines of the message written through it, so they do not
+ * need to be computed by reading the message again
+ */
+class MessageMetadataOutputStream extends FilterOutputStream {
+
+    private final static byte CR = '\r';
+    private final static byte LF = '\n';
+
+    private long count;
+    private long bodyStartOffset = -1;
+    private int bodyLineCount;
+    private int lineLength;
+    private boolean lastCR;
+
+    public MessageMetadataOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        update((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (int i = off; i < off + len; i++) {
+            update(b[i]);
+        }
+    }
+
+    private void update(byte b) {
+        count++;
+        if (bodyStartOffset < 0) {
+            if (b == LF) {
+                if (lineLength == 0) {
+                    // empty line, so the body starts with the next byte
+                    bodyStartOffset = count;
+                }
+                lineLength = 0;
+            } else if (b != CR) {
+                lineLength++;
+            }
+        } else {
+            // count the line terminators the same way as a LineNumberReader
+            if (b == LF) {
+                if (!lastCR) {
+                    bodyLineCount++;
+                }
+            } else if (b == CR) {
+                bodyLineCount++;
+            }
+            lastCR = b == CR;
+        }
+    }
+
+    /**
+     * Return the offset of the first body byte or -1 if the end of the
+     * headers was not written yet
+     * 
+     * @return offset
+     */
+    public long getBodyStartOffset() {
+        return bodyStartOffset;
+    }
+
+    /**
+     * Return the count of lines of the body written so far
+     * 
+     * @return lineCount
+     */
+    public int getBodyLineCount() {
+        return bodyLineCount;
+    }
+}
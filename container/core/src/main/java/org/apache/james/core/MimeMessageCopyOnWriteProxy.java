@@ -39,6 +39,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This object wraps a "possibly shared" MimeMessage tracking copies and
@@ -48,25 +49,27 @@ public class MimeMessageCopyOnWriteProxy extends MimeMessage implements Disposab
 
     /**
      * Used internally to track the reference count It is important that this is
-     * static otherwise it will keep a reference to the parent object.
+     * static otherwise it will keep a reference to the parent object. The
+     * counter is atomic so sharing and reading the message does not need any
+     * lock.
      */
     protected static class MessageReferenceTracker {
 
         /**
          * reference counter
          */
-        private int referenceCount = 1;
+        private final AtomicInteger referenceCount = new AtomicInteger(1);
 
         /**
          * The mime message in memory
          */
-        private MimeMessage wrapped = null;
+        private volatile MimeMessage wrapped = null;
 
         public MessageReferenceTracker(MimeMessage ref) {
             wrapped = ref;
         }
 
-        protected synchronized void incrementReferenceCount() {
+        protected void incrementReferenceCount() {
             /*
              * Used to track references while debugging try { throw new
              * Exception("incrementReferenceCount: "+(wrapped != null ?
@@ -74,10 +77,10 @@ public class MimeMessageCopyOnWriteProxy extends MimeMessage implements Disposab
              * "null")+" ["+referenceCount+"]"); } catch (Exception e) {
              * e.printStackTrace(); }
              */
-            referenceCount++;
+            referenceCount.incrementAndGet();
         }
 
-        protected synchronized void decrementReferenceCount() {
+        protected void decrementReferenceCount() {
             /*
              * Used to track references while debugging try { throw new
              * Exception("decrementReferenceCount: "+(wrapped != null ?
@@ -85,24 +88,24 @@ public class MimeMessageCopyOnWriteProxy extends MimeMessage implements Disposab
              * "null")+" ["+referenceCount+"]"); } catch (Exception e) {
              * e.printStackTrace(); }
              */
-            referenceCount--;
-            if (referenceCount <= 0) {
-                LifecycleUtil.dispose(wrapped);
+            if (referenceCount.decrementAndGet() == 0) {
+                MimeMessage message = wrapped;
                 wrapped = null;
+                LifecycleUtil.dispose(message);
             }
         }
 
-        protected synchronized int getReferenceCount() {
-            return referenceCount;
+        protected int getReferenceCount() {
+            return referenceCount.get();
         }
 
-        public synchronized MimeMessage getWrapped() {
+        public MimeMessage getWrapped() {
             return wrapped;
         }
 
     }
 
-    protected MessageReferenceTracker refCount;
+    protected volatile MessageReferenceTracker refCount;
 
     public MimeMessageCopyOnWriteProxy(MimeMessage original) {
         this(original, false);
@@ -137,9 +140,12 @@ public class MimeMessageCopyOnWriteProxy extends MimeMessage implements Disposab
      *             exception
      */
     protected synchronized MimeMessage getWrappedMessageForWriting() throws MessagingException {
-        if (refCount.getReferenceCount() > 1) {
-            refCount.decrementReferenceCount();
-            refCount = new MessageReferenceTracker(new MimeMessageWrapper(refCount.getWrapped()));
+        MessageReferenceTracker current = refCount;
+        if (current.getReferenceCount() > 1) {
+            // copy before releasing the shared message, so it can not be
+            // disposed by the other references in between
+            refCount = new MessageReferenceTracker(new MimeMessageWrapper(current.getWrapped()));
+            current.decrementReferenceCount();
         }
         return refCount.getWrapped();
     }
@@ -149,7 +155,7 @@ public class MimeMessageCopyOnWriteProxy extends MimeMessage implements Disposab
      * 
      * @return wrapped return the wrapped mimeMessage
      */
-    public synchronized MimeMessage getWrappedMessage() {
+    public MimeMessage getWrappedMessage() {
         return refCount.getWrapped();
     }
 
@@ -37,7 +37,9 @@ import java.util.List;
 /**
  * Takes an input stream and creates a repeatable input stream source for a
  * MimeMessageWrapper. It does this by completely reading the input stream and
- * saving that to data to an {@link DeferredFileOutputStream} with its threshold set to 100kb
+ * saving that to data to an {@link DeferredFileOutputStream} with its threshold set to 100kb.
+ * The threshold and the directory of the temporary file can be changed, and the
+ * data can be hold off-heap in a {@link MessageBufferArena} instead.
  */
 public class MimeMessageInputStreamSource extends MimeMessageSource implements Disposable {
 
@@ -48,11 +50,21 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      */
     private DeferredFileOutputStream out;
 
+    /**
+     * Used instead of out if the data is hold in a {@link MessageBufferArena}
+     */
+    private MessageBufferOutputStream bufferOut;
+
     /**
      * The full path of the temporary file
      */
     private String sourceId;
 
+    /**
+     * Collects the body offset and line count while the data is written
+     */
+    private MessageMetadataOutputStream metadataOut;
+
     /**
      * 100kb threshold for the stream.
      */
@@ -77,7 +89,7 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
         // Create a temp file and channel the input stream into it
         try {
             out = new DeferredFileOutputStream(THRESHOLD, key, ".m64", TMPDIR);
-            IOUtils.copy(in, out);
+            IOUtils.copy(in, getWritableOutputStream());
             sourceId = key;
         } catch (IOException ioe) {
             throw new MessagingException("Unable to retrieve the data: " + ioe.getMessage(), ioe);
@@ -112,6 +124,31 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
         sourceId = key;
     }
 
+    /**
+     * Construct a new empty MimeMessageInputStreamSource which needs to get
+     * filled using {@link #getWritableOutputStream()}
+     *
+     * @param key       the prefix for the name of the temp file
+     * @param threshold the count of bytes after which the data is written to a
+     *                  temp file
+     * @param directory the directory for the temp file or <code>null</code> for
+     *                  the default temporary directory
+     * @param arena     the arena to hold the data before it is written to a temp
+     *                  file or <code>null</code> to hold it on the heap
+     */
+    public MimeMessageInputStreamSource(String key, int threshold, File directory, MessageBufferArena arena) {
+        super();
+        if (directory == null) {
+            directory = TMPDIR;
+        }
+        if (arena == null) {
+            out = new DeferredFileOutputStream(threshold, key, ".m64", directory);
+        } else {
+            bufferOut = new MessageBufferOutputStream(arena, threshold, key, ".m64", directory);
+        }
+        sourceId = key;
+    }
+
     /**
      * Returns the unique identifier of this input stream source
      *
@@ -128,7 +165,9 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      */
     public synchronized InputStream getInputStream() throws IOException {
         InputStream in;
-        if (out.isInMemory()) {
+        if (bufferOut != null) {
+            in = bufferOut.getInputStream();
+        } else if (out.isInMemory()) {
             in = new SharedByteArrayInputStream(out.getData());
         } else {
             in = new SharedFileInputStream(out.getFile());
@@ -146,11 +185,59 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      */
     @Override
     public long getMessageSize() throws IOException {
+        return getWrittenBytes();
+    }
+
+    public synchronized OutputStream getWritableOutputStream() {
+        if (metadataOut == null) {
+            if (bufferOut != null) {
+                metadataOut = new MessageMetadataOutputStream(bufferOut);
+            } else {
+                metadataOut = new MessageMetadataOutputStream(out);
+            }
+        }
+        return metadataOut;
+    }
+
+    /**
+     * Return the count of bytes which were written to the
+     * {@link #getWritableOutputStream()} so far
+     *
+     * @return written bytes
+     */
+    public long getWrittenBytes() {
+        if (bufferOut != null) {
+            return bufferOut.getByteCount();
+        }
         return out.getByteCount();
     }
 
-    public OutputStream getWritableOutputStream() {
-        return out;
+    /**
+     * Return the offset of the first byte of the body as recorded while the
+     * message was written, or -1 if the end of the headers was not written
+     *
+     * @return offset or -1
+     */
+    @Override
+    public long getBodyStartOffset() {
+        if (metadataOut == null) {
+            return -1;
+        }
+        return metadataOut.getBodyStartOffset();
+    }
+
+    /**
+     * Return the count of body lines as recorded while the message was written,
+     * or -1 if the end of the headers was not written
+     *
+     * @return lineCount or -1
+     */
+    @Override
+    public int getBodyLineCount() {
+        if (metadataOut == null || metadataOut.getBodyStartOffset() < 0) {
+            return -1;
+        }
+        return metadataOut.getBodyLineCount();
     }
 
     @Override
@@ -169,6 +256,11 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
             }
             out = null;
         }
+
+        if (bufferOut != null) {
+            bufferOut.dispose();
+            bufferOut = null;
+        }
     }
 
 }
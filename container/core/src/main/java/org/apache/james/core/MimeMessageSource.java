@@ -81,4 +81,25 @@ public abstract class MimeMessageSource {
         return size;
     }
 
+    /**
+     * Return the offset of the first byte of the body, which is the byte after
+     * the empty line which terminates the headers, or -1 if it is unknown.
+     * Sources which see the data while it is written can override this so the
+     * headers and body size are known without reading the data again.
+     * 
+     * @return offset or -1
+     */
+    public long getBodyStartOffset() {
+        return -1;
+    }
+
+    /**
+     * Return the count of lines of the body or -1 if it is unknown
+     * 
+     * @return lineCount or -1
+     */
+    public int getBodyLineCount() {
+        return -1;
+    }
+
 }
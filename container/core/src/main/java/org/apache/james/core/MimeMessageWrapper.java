@@ -55,24 +55,34 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
     public final static String USE_MEMORY_COPY = "james.message.usememorycopy";
 
     /**
-     * Can provide an input stream to the data
+     * System property which tells JAMES to parse the headers into
+     * {@link IndexedMailHeaders} and to not touch the body when only headers
+     * are modified, so the body is never loaded unless it is accessed. Default
+     * is false
      */
-    protected MimeMessageSource source = null;
+    public final static String LAZY_HEADERS = "james.message.lazyheaders";
+
+    /**
+     * Can provide an input stream to the data. The state fields are volatile
+     * so the methods which only read an unmodified message do not need to
+     * lock it.
+     */
+    protected volatile MimeMessageSource source = null;
 
     /**
      * This is false until we parse the message
      */
-    protected boolean messageParsed = false;
+    protected volatile boolean messageParsed = false;
 
     /**
      * This is false until we parse the message
      */
-    protected boolean headersModified = false;
+    protected volatile boolean headersModified = false;
 
     /**
      * This is false until we parse the message
      */
-    protected boolean bodyModified = false;
+    protected volatile boolean bodyModified = false;
 
     /**
      * Keep a reference to the sourceIn so we can close it only when we dispose
@@ -82,12 +92,15 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
 
     private long initialHeaderSize;
 
+    private final boolean lazyHeaders;
+
     private MimeMessageWrapper(Session session) {
         super(session);
         this.headers = null;
         this.modified = false;
         this.headersModified = false;
         this.bodyModified = false;
+        this.lazyHeaders = Boolean.getBoolean(LAZY_HEADERS);
     }
 
     /**
@@ -120,6 +133,11 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
         this(Session.getDefaultInstance(System.getProperties()));
         flags = original.getFlags();
 
+        if (original instanceof MimeMessageWrapper) {
+            // share the unmodified body of the original instead of copying it
+            ((MimeMessageWrapper) original).shareSource(this);
+        }
+
         if (source == null) {
             InputStream in;
 
@@ -159,6 +177,31 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
         }
     }
 
+    /**
+     * Let the given copy of this message use the same source if the body was
+     * not modified, so only the headers need to be copied.
+     *
+     * @param copy the new copy of this message
+     * @throws MessagingException
+     */
+    private synchronized void shareSource(MimeMessageWrapper copy) throws MessagingException {
+        if (source == null || bodyModified) {
+            return;
+        }
+        if (!(source instanceof SharedMimeMessageSource)) {
+            source = new SharedMimeMessageSource(source);
+        }
+        copy.source = ((SharedMimeMessageSource) source).retain();
+        if (headersModified) {
+            InputStream in = new InternetHeadersInputStream(headers.getAllHeaderLines());
+            copy.headers = lazyHeaders ? new IndexedMailHeaders(in) : new MailHeaders(in);
+            copy.initialHeaderSize = initialHeaderSize;
+            copy.headersModified = true;
+            copy.modified = true;
+            copy.saved = saved;
+        }
+    }
+
     /**
      * Overrides default javamail behaviour by not altering the Message-ID by
      * default, see <a href="https://issues.apache.org/jira/browse/JAMES-875">JAMES-875</a> and
@@ -178,7 +221,7 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      * 
      * @see MimeMessageSource
      */
-    public synchronized String getSourceId() {
+    public String getSourceId() {
         return source != null ? source.getSourceId() : null;
     }
 
@@ -241,7 +284,7 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      * 
      * @return whether the message has been modified
      */
-    public synchronized boolean isModified() {
+    public boolean isModified() {
         return headersModified || bodyModified || modified;
     }
 
@@ -250,7 +293,7 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      * 
      * @return bodyModified
      */
-    public synchronized boolean isBodyModified() {
+    public boolean isBodyModified() {
         return bodyModified;
     }
 
@@ -259,7 +302,7 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      * 
      * @return headersModified
      */
-    public synchronized boolean isHeaderModified() {
+    public boolean isHeaderModified() {
         return headersModified;
     }
 
@@ -291,8 +334,25 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
         writeTo(headerOs, bodyOs, ignoreList, false);
     }
 
-    public synchronized void writeTo(OutputStream headerOs, OutputStream bodyOs, String[] ignoreList, boolean preLoad) throws IOException, MessagingException {
-        
+    public void writeTo(OutputStream headerOs, OutputStream bodyOs, String[] ignoreList, boolean preLoad) throws IOException, MessagingException {
+        MimeMessageSource src = source;
+        if (!preLoad && src != null && !bodyModified && !headersModified) {
+            // The message was not modified, so it is written from the source
+            // without locking it
+            InputStream in = src.getInputStream();
+            try {
+                MailHeaders myHeaders = new MailHeaders(in);
+                IOUtils.copy(new InternetHeadersInputStream(myHeaders.getNonMatchingHeaderLines(ignoreList)), headerOs);
+                IOUtils.copy(in, bodyOs);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        } else {
+            writeModifiedTo(headerOs, bodyOs, ignoreList, preLoad);
+        }
+    }
+
+    private synchronized void writeModifiedTo(OutputStream headerOs, OutputStream bodyOs, String[] ignoreList, boolean preLoad) throws IOException, MessagingException {
         if (!preLoad && source != null && !isBodyModified()) {
             // We do not want to instantiate the message... just read from
             // source
@@ -302,12 +362,12 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
             InputStream in = source.getInputStream();
             try {
                 InternetHeaders myHeaders;
-                MailHeaders parsedHeaders = new MailHeaders(in);
 
                 // check if we should use the parsed headers or not
                 if (!isHeaderModified()) {
-                    myHeaders = parsedHeaders;
+                    myHeaders = new MailHeaders(in);
                 } else {
+                    skipHeaders(source, in);
                     // The headers was modified so we need to call saveChanges() just to be sure
                     // See JAMES-1320
                     if (!saved)
@@ -345,7 +405,24 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      * never change on {@link #saveChanges()}
      */
     @Override
-    public synchronized int getSize() throws MessagingException {
+    public int getSize() throws MessagingException {
+        MimeMessageSource src = source;
+        if (src != null) {
+            try {
+                long bodyStartOffset = src.getBodyStartOffset();
+                if (bodyStartOffset >= 0) {
+                    // the source knows where the body starts, so there is no
+                    // need to parse the headers or to lock the message
+                    return (int) (src.getMessageSize() - bodyStartOffset);
+                }
+            } catch (IOException e) {
+                throw new MessagingException("Unable to calculate message size");
+            }
+        }
+        return calculateSize();
+    }
+
+    private synchronized int calculateSize() throws MessagingException {
         if (source != null) {
             try {
                 long fullSize = source.getMessageSize();
@@ -374,6 +451,12 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      */
     @Override
     public int getLineCount() throws MessagingException {
+        if (source != null && !bodyModified) {
+            int lineCount = source.getBodyLineCount();
+            if (lineCount >= 0) {
+                return lineCount;
+            }
+        }
         InputStream in;
         try {
             in = getContentStream();
@@ -420,9 +503,25 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
             } catch (IOException ioe) {
                 throw new MessagingException("Error retrieving message size", ioe);
             }
-        } else {
-            return MimeMessageUtil.calculateMessageSize(this);
         }
+        if (source != null && !bodyModified && headers instanceof MailHeaders && source.getBodyStartOffset() >= 0) {
+            // writeTo saves pending changes before writing, which may add
+            // headers like MIME-Version or Message-ID, so they are counted
+            if (!saved) {
+                saveChanges();
+            }
+            if (!bodyModified) {
+                // only the headers were modified, so the size is the size of
+                // the current headers, the empty line and the unchanged body
+                // as written by writeTo
+                try {
+                    return ((MailHeaders) headers).getSize() + 2 + source.getMessageSize() - source.getBodyStartOffset();
+                } catch (IOException ioe) {
+                    throw new MessagingException("Error retrieving message size", ioe);
+                }
+            }
+        }
+        return MimeMessageUtil.calculateMessageSize(this);
     }
 
     /**
@@ -603,7 +702,7 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
         // we could put that code in the else and simple write an "header"
         // skipping
         // reader for the others.
-        MailHeaders newHeaders = new MailHeaders(is);
+        MailHeaders newHeaders = lazyHeaders ? new IndexedMailHeaders(is) : new MailHeaders(is);
 
         if (headers != null) {
             return headers;
@@ -614,6 +713,60 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
         }
     }
 
+    /**
+     * Skip the headers of the given stream of the source. If the source knows
+     * where the body starts the headers are skipped without parsing them.
+     *
+     * @param src the source
+     * @param in the stream of the source
+     * @throws MessagingException
+     * @throws IOException
+     */
+    private static void skipHeaders(MimeMessageSource src, InputStream in) throws MessagingException, IOException {
+        long offset = src.getBodyStartOffset();
+        if (offset < 0) {
+            new MailHeaders(in);
+        } else {
+            while (offset > 0) {
+                long skipped = in.skip(offset);
+                if (skipped <= 0) {
+                    throw new IOException("Unexpected end of stream while skipping the headers");
+                }
+                offset -= skipped;
+            }
+        }
+    }
+
+    /**
+     * Keep the message saved after the headers were updated. The updates are
+     * done via {@link #setHeader(String, String)}, which marks the message as
+     * not saved again.
+     *
+     * @see javax.mail.internet.MimeMessage#saveChanges()
+     */
+    @Override
+    public synchronized void saveChanges() throws MessagingException {
+        super.saveChanges();
+        saved = true;
+    }
+
+    /**
+     * If only headers were modified there is no need to update the content
+     * related headers, as the body is written unchanged from the source. The
+     * super implementation would need to load the full body for this.
+     *
+     * @see javax.mail.internet.MimeMessage#updateHeaders()
+     */
+    @Override
+    protected synchronized void updateHeaders() throws MessagingException {
+        if (lazyHeaders && source != null && !bodyModified && !messageParsed) {
+            setHeader("MIME-Version", "1.0");
+            updateMessageID();
+        } else {
+            super.updateHeaders();
+        }
+    }
+
     /**
      * @see javax.mail.internet.MimeMessage#getContentStream()
      */
@@ -629,13 +782,14 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      * @see javax.mail.internet.MimeMessage#getRawInputStream()
      */
     @Override
-    public synchronized InputStream getRawInputStream() throws MessagingException {
-        if (!messageParsed && !isModified() && source != null) {
+    public InputStream getRawInputStream() throws MessagingException {
+        MimeMessageSource src = source;
+        if (!messageParsed && !isModified() && src != null) {
             InputStream is;
             try {
-                is = source.getInputStream();
+                is = src.getInputStream();
                 // skip the headers.
-                new MailHeaders(is);
+                skipHeaders(src, is);
                 return is;
             } catch (IOException e) {
                 throw new MessagingException("Unable to read the stream: " + e.getMessage(), e);
@@ -656,40 +810,45 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
      */
 
     @SuppressWarnings("unchecked")
-    public synchronized InputStream getMessageInputStream() throws MessagingException {
-        if (!messageParsed && !isModified() && source != null) {
+    public InputStream getMessageInputStream() throws MessagingException {
+        MimeMessageSource src = source;
+        if (!messageParsed && !isModified() && src != null) {
             try {
-                return source.getInputStream();
+                return src.getInputStream();
             } catch (IOException e) {
                 throw new MessagingException("Unable to get inputstream", e);
             }
         } else {
-            try {
+            return getModifiedMessageInputStream();
+        }
+    }
 
-                // Try to optimize if possible to prevent OOM on big mails.
-                // See JAMES-1252 for an example
-                if (!bodyModified && source != null) {
-                    // ok only the headers were modified so we don't need to
-                    // copy the whole message content into memory
-                    InputStream in = source.getInputStream();
-                    
-                    // skip over headers from original stream we want to use the
-                    // in memory ones
-                    new MailHeaders(in);
-
-                    // now construct the new stream using the in memory headers
-                    // and the body from the original source
-                    return new SequenceInputStream(new InternetHeadersInputStream(getAllHeaderLines()), in);
-                } else {
-                    // the body was changed so we have no other solution to copy
-                    // it into memory first :(
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
-                    writeTo(out);
-                    return new ByteArrayInputStream(out.toByteArray());
-                }
-            } catch (IOException e) {
-                throw new MessagingException("Unable to get inputstream", e);
+    private synchronized InputStream getModifiedMessageInputStream() throws MessagingException {
+        try {
+
+            // Try to optimize if possible to prevent OOM on big mails.
+            // See JAMES-1252 for an example
+            if (!bodyModified && source != null) {
+                // ok only the headers were modified so we don't need to
+                // copy the whole message content into memory
+                InputStream in = source.getInputStream();
+
+                // skip over headers from original stream we want to use the
+                // in memory ones
+                skipHeaders(source, in);
+
+                // now construct the new stream using the in memory headers
+                // and the body from the original source
+                return new SequenceInputStream(new InternetHeadersInputStream(getAllHeaderLines()), in);
+            } else {
+                // the body was changed so we have no other solution to copy
+                // it into memory first :(
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                writeTo(out);
+                return new ByteArrayInputStream(out.toByteArray());
             }
+        } catch (IOException e) {
+            throw new MessagingException("Unable to get inputstream", e);
         }
     }
 
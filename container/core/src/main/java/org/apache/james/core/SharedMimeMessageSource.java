@@ -0,0 +1,93 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+
+/**
+ * {@link MimeMessageSource} which is shared by several
+ * {@link MimeMessageWrapper} instances. The wrapped source is disposed once
+ * the last user disposed it.
+ */
+public class SharedMimeMessageSource extends MimeMessageSource implements Disposable {
+
+    private final MimeMessageSource source;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public SharedMimeMessageSource(MimeMessageSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Add a reference to this source which must be released by calling
+     * {@link #dispose()}
+     * 
+     * @return this
+     */
+    public SharedMimeMessageSource retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Return the wrapped source
+     * 
+     * @return source
+     */
+    public MimeMessageSource getSource() {
+        return source;
+    }
+
+    @Override
+    public String getSourceId() {
+        return source.getSourceId();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return source.getInputStream();
+    }
+
+    @Override
+    public long getMessageSize() throws IOException {
+        return source.getMessageSize();
+    }
+
+    @Override
+    public long getBodyStartOffset() {
+        return source.getBodyStartOffset();
+    }
+
+    @Override
+    public int getBodyLineCount() {
+        return source.getBodyLineCount();
+    }
+
+    @Override
+    public void dispose() {
+        if (references.decrementAndGet() == 0) {
+            LifecycleUtil.dispose(source);
+        }
+    }
+}
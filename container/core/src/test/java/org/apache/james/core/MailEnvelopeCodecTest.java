@@ -0,0 +1,191 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.Test;
+
+public class MailEnvelopeCodecTest {
+
+    private MailImpl createMail() throws Exception {
+        List<MailAddress> recipients = new ArrayList<MailAddress>();
+        recipients.add(new MailAddress("rcpt1@localhost"));
+        recipients.add(new MailAddress("rcpt2@localhost"));
+        MailImpl mail = new MailImpl("name", new MailAddress("sender@localhost"), recipients);
+        mail.setState(Mail.TRANSPORT);
+        mail.setErrorMessage("error");
+        mail.setRemoteHost("host");
+        mail.setRemoteAddr("10.0.0.1");
+        mail.setLastUpdated(new Date(1000));
+        return mail;
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        MailImpl mail = createMail();
+        mail.setAttribute("string", "value");
+        mail.setAttribute("long", 1L);
+        mail.setAttribute("int", 2);
+        mail.setAttribute("boolean", true);
+        mail.setAttribute("bytes", new byte[] { 1, 2, 3 });
+        mail.setAttribute("address", new MailAddress("attr@localhost"));
+        mail.setAttribute("serialized", new ArrayList<String>(Arrays.asList("a", "b")));
+
+        MailEnvelopeCodec codec = new MailEnvelopeCodec();
+        MailImpl decoded = codec.decode(codec.encode(mail));
+
+        assertEquals("name", decoded.getName());
+        assertEquals(Mail.TRANSPORT, decoded.getState());
+        assertEquals("error", decoded.getErrorMessage());
+        assertEquals(mail.getSender(), decoded.getSender());
+        assertEquals(mail.getRecipients(), new ArrayList<Object>(decoded.getRecipients()));
+        assertEquals("host", decoded.getRemoteHost());
+        assertEquals("10.0.0.1", decoded.getRemoteAddr());
+        assertEquals(new Date(1000), decoded.getLastUpdated());
+
+        assertEquals("value", decoded.getAttribute("string"));
+        assertEquals(1L, decoded.getAttribute("long"));
+        assertEquals(2, decoded.getAttribute("int"));
+        assertEquals(true, decoded.getAttribute("boolean"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) decoded.getAttribute("bytes"));
+        assertEquals(new MailAddress("attr@localhost"), decoded.getAttribute("address"));
+        assertEquals(Arrays.asList("a", "b"), decoded.getAttribute("serialized"));
+    }
+
+    @Test
+    public void testNullValues() throws Exception {
+        MailImpl mail = new MailImpl();
+        mail.setRemoteAddr(null);
+
+        MailEnvelopeCodec codec = new MailEnvelopeCodec();
+        MailImpl decoded = codec.decode(codec.encode(mail));
+        assertNull(decoded.getName());
+        assertNull(decoded.getSender());
+        assertNull(decoded.getRemoteAddr());
+        assertFalse(decoded.hasAttributes());
+    }
+
+    @Test
+    public void testCustomCodec() throws Exception {
+        MailEnvelopeCodec codec = new MailEnvelopeCodec();
+        codec.register(MailEnvelopeCodec.FIRST_CUSTOM_ID, Date.class, new AttributeCodec<Date>() {
+
+            @Override
+            public void encode(Date value, DataOutput out) throws IOException {
+                out.writeLong(value.getTime());
+            }
+
+            @Override
+            public Date decode(DataInput in, int length) throws IOException {
+                return new Date(in.readLong());
+            }
+        });
+
+        MailImpl mail = createMail();
+        mail.setAttribute("date", new Date(5000));
+        byte[] envelope = codec.encode(mail);
+        assertEquals(new Date(5000), codec.decode(envelope).getAttribute("date"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCustomCodecMustReadWholeValue() throws Exception {
+        MailEnvelopeCodec codec = new MailEnvelopeCodec();
+        codec.register(MailEnvelopeCodec.FIRST_CUSTOM_ID, Date.class, new AttributeCodec<Date>() {
+
+            @Override
+            public void encode(Date value, DataOutput out) throws IOException {
+                out.writeLong(value.getTime());
+                out.writeInt(0);
+            }
+
+            @Override
+            public Date decode(DataInput in, int length) throws IOException {
+                return new Date(in.readLong());
+            }
+        });
+
+        MailImpl mail = createMail();
+        mail.setAttribute("date", new Date(5000));
+        mail.setAttribute("string", "value");
+        codec.decode(codec.encode(mail));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCustomCodecMustNotReadBeyondValue() throws Exception {
+        MailEnvelopeCodec codec = new MailEnvelopeCodec();
+        codec.register(MailEnvelopeCodec.FIRST_CUSTOM_ID, Date.class, new AttributeCodec<Date>() {
+
+            @Override
+            public void encode(Date value, DataOutput out) throws IOException {
+                out.writeInt((int) value.getTime());
+            }
+
+            @Override
+            public Date decode(DataInput in, int length) throws IOException {
+                return new Date(in.readLong());
+            }
+        });
+
+        MailImpl mail = createMail();
+        mail.setAttribute("date", new Date(5000));
+        mail.setAttribute("string", "value");
+        codec.decode(codec.encode(mail));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedId() {
+        new MailEnvelopeCodec().register(1, Date.class, null);
+    }
+
+    @Test
+    public void testIsEncoded() throws Exception {
+        MailImpl mail = createMail();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(out);
+        oout.writeObject(mail);
+        oout.close();
+        assertFalse(MailEnvelopeCodec.isEncoded(new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()))));
+
+        byte[] envelope = new MailEnvelopeCodec().encode(mail);
+        assertTrue(envelope.length < out.size());
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(envelope));
+        assertTrue(MailEnvelopeCodec.isEncoded(in));
+        // the stream position must not change
+        assertEquals("name", new MailEnvelopeCodec().decode(in).getName());
+    }
+}
@@ -102,4 +102,32 @@ public class MailImplTest extends MailTestAllImplementations {
         helperTestInitialState(duplicate);
         helperTestMessageSize(duplicate, 0);
     }
+
+    @Test
+    public void testCopyAttributes() throws MessagingException {
+        MailImpl mail = new MailImpl();
+        mail.setAttribute("string", "value");
+        MailImpl copy = new MailImpl(mail, "copy");
+        assertSame(mail.getAttribute("string"), copy.getAttribute("string"));
+
+        copy.setAttribute("string", "changed");
+        copy.setAttribute("new", "new");
+        assertEquals("value", mail.getAttribute("string"));
+        assertNull(mail.getAttribute("new"));
+
+        mail.removeAttribute("string");
+        assertEquals("changed", copy.getAttribute("string"));
+    }
+
+    @Test
+    public void testCopyMutableAttributes() throws MessagingException {
+        MailImpl mail = new MailImpl();
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("value");
+        mail.setAttribute("list", list);
+        MailImpl copy = new MailImpl(mail, "copy");
+
+        list.add("changed");
+        assertEquals(1, ((ArrayList<?>) copy.getAttribute("list")).size());
+    }
 }
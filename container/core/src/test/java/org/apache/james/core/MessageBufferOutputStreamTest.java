@@ -0,0 +1,195 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.junit.Test;
+
+public class MessageBufferOutputStreamTest {
+
+    private final static File TMPDIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[100];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        MessageBufferArena arena = new MessageBufferArena(1024, 256);
+        MessageBufferOutputStream out = new MessageBufferOutputStream(arena, 1000, "test", ".m64", TMPDIR);
+        byte[] data = createData(700);
+        out.write(data, 0, 300);
+        out.write(data[300]);
+        out.write(data, 301, 399);
+        out.close();
+
+        assertTrue(out.isInMemory());
+        assertEquals(700, out.getByteCount());
+        assertEquals(768, arena.getInMemoryBytes());
+        assertArrayEquals(data, read(out.getInputStream()));
+
+        out.dispose();
+        assertEquals(0, arena.getInMemoryBytes());
+        assertEquals(768, arena.getAllocatedBytes());
+        assertEquals(0, arena.getSpillCount());
+    }
+
+    @Test
+    public void testNewStream() throws Exception {
+        MessageBufferArena arena = new MessageBufferArena(1024, 256);
+        MessageBufferOutputStream out = new MessageBufferOutputStream(arena, 1000, "test", ".m64", TMPDIR);
+        byte[] data = createData(700);
+        out.write(data);
+        out.close();
+
+        SharedInputStream in = (SharedInputStream) out.getInputStream();
+        byte[] part = read(in.newStream(200, 600));
+        assertEquals(400, part.length);
+        assertEquals(data[200], part[0]);
+        assertEquals(data[599], part[399]);
+        out.dispose();
+    }
+
+    @Test
+    public void testSpillOnThreshold() throws Exception {
+        MessageBufferArena arena = new MessageBufferArena(4096, 256);
+        MessageBufferOutputStream out = new MessageBufferOutputStream(arena, 500, "test", ".m64", TMPDIR);
+        byte[] data = createData(700);
+        out.write(data, 0, 400);
+        out.write(data, 400, 300);
+        out.close();
+
+        assertFalse(out.isInMemory());
+        assertNotNull(out.getFile());
+        assertEquals(0, arena.getInMemoryBytes());
+        assertEquals(1, arena.getSpillCount());
+        assertEquals(700, arena.getSpilledBytes());
+        assertArrayEquals(data, read(out.getInputStream()));
+
+        File file = out.getFile();
+        out.dispose();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSpillOnExhaustedArena() throws Exception {
+        MessageBufferArena arena = new MessageBufferArena(512, 256);
+        MessageBufferOutputStream first = new MessageBufferOutputStream(arena, 1000, "test", ".m64", TMPDIR);
+        MessageBufferOutputStream second = new MessageBufferOutputStream(arena, 1000, "test", ".m64", TMPDIR);
+        byte[] data = createData(300);
+        first.write(data);
+        second.write(data);
+        first.close();
+        second.close();
+
+        assertTrue(first.isInMemory());
+        assertFalse(second.isInMemory());
+        assertArrayEquals(data, read(first.getInputStream()));
+        assertArrayEquals(data, read(second.getInputStream()));
+
+        first.dispose();
+        second.dispose();
+        assertEquals(0, arena.getInMemoryBytes());
+    }
+
+    @Test
+    public void testStreamsFailAfterDispose() throws Exception {
+        MessageBufferArena arena = new MessageBufferArena(1024, 256);
+        MessageBufferOutputStream out = new MessageBufferOutputStream(arena, 1000, "test", ".m64", TMPDIR);
+        out.write(createData(700));
+        out.close();
+
+        SharedInputStream in = (SharedInputStream) out.getInputStream();
+        InputStream part = in.newStream(200, 600);
+        out.dispose();
+
+        // the chunks may already hold the data of another message
+        MessageBufferOutputStream other = new MessageBufferOutputStream(arena, 1000, "test", ".m64", TMPDIR);
+        other.write(new byte[700]);
+        other.close();
+        assertReadFails((InputStream) in);
+        assertReadFails(part);
+        try {
+            out.getInputStream();
+            fail("Buffer was disposed");
+        } catch (IOException e) {
+            // expected
+        }
+        other.dispose();
+    }
+
+    @Test
+    public void testStreamsFailAfterSpill() throws Exception {
+        MessageBufferArena arena = new MessageBufferArena(1024, 256);
+        MessageBufferOutputStream out = new MessageBufferOutputStream(arena, 500, "test", ".m64", TMPDIR);
+        byte[] data = createData(700);
+        out.write(data, 0, 300);
+        InputStream in = out.getInputStream();
+        out.write(data, 300, 400);
+        out.close();
+
+        assertFalse(out.isInMemory());
+        assertReadFails(in);
+        assertArrayEquals(data, read(out.getInputStream()));
+        out.dispose();
+    }
+
+    private void assertReadFails(InputStream in) {
+        try {
+            in.read();
+            fail("Read from released chunks");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            in.read(new byte[10]);
+            fail("Read from released chunks");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
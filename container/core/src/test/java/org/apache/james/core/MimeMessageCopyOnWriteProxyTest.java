@@ -18,7 +18,9 @@
  ****************************************************************/
 package org.apache.james.core;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Properties;
 
 import javax.mail.MessagingException;
@@ -248,6 +250,48 @@ public class MimeMessageCopyOnWriteProxyTest extends MimeMessageFromStreamTest {
         LifecycleUtil.dispose(mm);
     }
 
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final MimeMessageCopyOnWriteProxy original = (MimeMessageCopyOnWriteProxy) getMessageFromSources(content + sep + body);
+        final String expected = content + sep + body;
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final boolean writer = i == 0;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        MimeMessageCopyOnWriteProxy copy = new MimeMessageCopyOnWriteProxy(original);
+                        try {
+                            if (writer) {
+                                copy.setSubject("changed");
+                            }
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            copy.writeTo(out);
+                            if (!writer && !expected.equals(out.toString())) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        } finally {
+                            LifecycleUtil.dispose(copy);
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, original.refCount.getReferenceCount());
+        assertEquals("foo", original.getSubject());
+        LifecycleUtil.dispose(original);
+    }
+
     private static String getReferences(MimeMessage m) {
         StringBuilder ref = new StringBuilder("/");
         while (m instanceof MimeMessageCopyOnWriteProxy) {
@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 
 import static org.junit.Assert.*;
@@ -46,6 +47,7 @@ public class MimeMessageWrapperTest extends MimeMessageFromStreamTest {
 
         boolean messageLoadable = true;
         boolean headersLoadable = true;
+        boolean sizeCalculable = true;
 
         private TestableMimeMessageWrapper(MimeMessageSource source) throws MessagingException {
             super(source);
@@ -100,6 +102,19 @@ public class MimeMessageWrapperTest extends MimeMessageFromStreamTest {
                 throw new IllegalStateException("messageLoadable disabled");
             }
         }
+
+        public void setSizeCalculable(boolean sizeCalculable) {
+            this.sizeCalculable = sizeCalculable;
+        }
+
+        @Override
+        public int getSize() throws MessagingException {
+            if (sizeCalculable) {
+                return super.getSize();
+            } else {
+                throw new IllegalStateException("sizeCalculable disabled");
+            }
+        }
     }
     TestableMimeMessageWrapper mw = null;
     final String content = "Subject: foo\r\nContent-Transfer-Encoding2: plain";
@@ -327,4 +342,145 @@ public class MimeMessageWrapperTest extends MimeMessageFromStreamTest {
         mw.saveChanges();
         assertEquals(body.length(), mw.getSize());
     }
+
+    @Test
+    public void testLazyHeadersWriteWithoutLoadingBody() throws Exception {
+        System.setProperty(MimeMessageWrapper.LAZY_HEADERS, "true");
+        TestableMimeMessageWrapper message;
+        try {
+            message = (TestableMimeMessageWrapper) getMessageFromSources(content + sep + body);
+        } finally {
+            System.clearProperty(MimeMessageWrapper.LAZY_HEADERS);
+        }
+        try {
+            message.setMessageLoadable(false);
+            assertTrue(message.getInnerHeaders() == null);
+            assertNull(message.getHeader("X-Test"));
+            assertTrue(message.getInnerHeaders() instanceof IndexedMailHeaders);
+
+            message.addHeader("X-Test", "value");
+            assertEquals("value", message.getHeader("X-Test")[0]);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            message.writeTo(out);
+            String written = out.toString();
+            assertTrue(written.contains("X-Test: value\r\n"));
+            assertTrue(written.endsWith(sep + body));
+            assertFalse(message.messageParsed());
+        } finally {
+            LifecycleUtil.dispose(message);
+        }
+    }
+
+    @Test
+    public void testCopySharesSource() throws Exception {
+        mw.addHeader("X-Original", "value");
+        mw.setMessageLoadable(false);
+        MimeMessageWrapper copy = new MimeMessageWrapper(mw);
+        try {
+            assertTrue(copy.getSourceId().equals(mw.getSourceId()));
+            assertEquals("value", copy.getHeader("X-Original")[0]);
+
+            copy.setHeader("X-Original", "changed");
+            assertEquals("value", mw.getHeader("X-Original")[0]);
+            assertFalse(mw.messageParsed());
+
+            LifecycleUtil.dispose(mw);
+            mw = null;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy.writeTo(out);
+            assertTrue(out.toString().contains("X-Original: changed\r\n"));
+            assertTrue(out.toString().endsWith(sep + body));
+        } finally {
+            LifecycleUtil.dispose(copy);
+        }
+    }
+
+    @Test
+    public void testSizeFromSourceMetadata() throws Exception {
+        mw.setHeadersLoadable(false);
+        mw.setMessageLoadable(false);
+        assertEquals(body.length(), mw.getSize());
+        assertEquals(1, mw.getLineCount());
+        assertEquals(content.length() + sep.length() + body.length(), mw.getMessageSize());
+
+        mw.setHeadersLoadable(true);
+        mw.setMessageLoadable(true);
+        mw.setHeader("X-Test", "value");
+        mw.saveChanges();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mw.writeTo(out);
+        assertEquals(out.size(), mw.getMessageSize());
+    }
+
+    @Test
+    public void testSizeOfModifiedHeadersFromSourceMetadata() throws Exception {
+        final AtomicBoolean readable = new AtomicBoolean(true);
+        MimeMessageInputStreamSource source = new MimeMessageInputStreamSource("test", new SharedByteArrayInputStream((content + sep + body).getBytes())) {
+
+            @Override
+            public synchronized InputStream getInputStream() throws IOException {
+                if (!readable.get()) {
+                    throw new IOException("source must not be read");
+                }
+                return super.getInputStream();
+            }
+        };
+        TestableMimeMessageWrapper message = new TestableMimeMessageWrapper(source);
+        try {
+            message.setHeader("X-Test", "value");
+            message.saveChanges();
+
+            // neither the source nor the body size calculation of the
+            // fallback may be used
+            readable.set(false);
+            message.setMessageLoadable(false);
+            message.setSizeCalculable(false);
+            long size = message.getMessageSize();
+
+            readable.set(true);
+            message.setMessageLoadable(true);
+            message.setSizeCalculable(true);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            message.writeTo(out);
+            assertEquals(out.size(), size);
+        } finally {
+            LifecycleUtil.dispose(message);
+        }
+    }
+
+    @Test
+    public void testSizeOfUnsavedModifiedHeaders() throws Exception {
+        mw.setHeader("X-Test", "value");
+        assertSizeOfUnsavedHeadersMatchesWrittenSize(mw);
+    }
+
+    @Test
+    public void testSizeOfUnsavedModifiedLazyHeaders() throws Exception {
+        System.setProperty(MimeMessageWrapper.LAZY_HEADERS, "true");
+        TestableMimeMessageWrapper message;
+        try {
+            message = (TestableMimeMessageWrapper) getMessageFromSources(content + sep + body);
+        } finally {
+            System.clearProperty(MimeMessageWrapper.LAZY_HEADERS);
+        }
+        try {
+            message.setHeader("X-Test", "value");
+            assertSizeOfUnsavedHeadersMatchesWrittenSize(message);
+        } finally {
+            LifecycleUtil.dispose(message);
+        }
+    }
+
+    private void assertSizeOfUnsavedHeadersMatchesWrittenSize(MimeMessageWrapper message) throws Exception {
+        // writeTo saves the changes first, which adds MIME-Version and
+        // Message-ID to the headers of the source
+        assertNull(message.getHeader("MIME-Version"));
+        long size = message.getMessageSize();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        assertTrue(out.toString().contains("MIME-Version: 1.0\r\n"));
+        assertEquals(out.size(), size);
+    }
 }
@@ -21,6 +21,7 @@ package org.apache.james.mailrepository.file;
 
 import org.apache.commons.configuration.DefaultConfigurationBuilder;
 import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.core.MailEnvelopeCodec;
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
 import org.apache.james.core.MimeMessageWrapper;
 import org.apache.james.filesystem.api.FileSystem;
@@ -69,6 +70,7 @@ public class FileMailRepository extends AbstractMailRepository {
     private boolean fifo;
     private boolean cacheKeys; // experimental: for use with write mostly
     // repositories such as spam and error
+    private boolean binaryEnvelope;
     private FileSystem fileSystem;
 
     @Inject
@@ -85,6 +87,7 @@ public class FileMailRepository extends AbstractMailRepository {
         }
         fifo = config.getBoolean("[@FIFO]", false);
         cacheKeys = config.getBoolean("[@CACHEKEYS]", true);
+        binaryEnvelope = config.getBoolean("[@BINARYENVELOPE]", false);
         // ignore model
     }
 
@@ -94,7 +97,11 @@ public class FileMailRepository extends AbstractMailRepository {
             DefaultConfigurationBuilder reposConfiguration = new DefaultConfigurationBuilder();
 
             reposConfiguration.addProperty("[@destinationURL]", destination);
-            objectRepository = new FilePersistentObjectRepository();
+            if (binaryEnvelope) {
+                objectRepository = new FileMailEnvelopeRepository(new MailEnvelopeCodec());
+            } else {
+                objectRepository = new FilePersistentObjectRepository();
+            }
             objectRepository.setLog(getLogger());
             objectRepository.setFileSystem(fileSystem);
             objectRepository.configure(reposConfiguration);
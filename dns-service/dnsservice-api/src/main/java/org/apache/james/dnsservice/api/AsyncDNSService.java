@@ -0,0 +1,60 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.api;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+/**
+ * {@link DNSService} which can resolve without blocking the calling thread.
+ * 
+ * Every method returns a {@link Future} for the result of the blocking method
+ * of the same name. Exceptions of the blocking method are reported as the
+ * cause of the {@link java.util.concurrent.ExecutionException} thrown by
+ * {@link Future#get()}.
+ */
+public interface AsyncDNSService extends DNSService {
+
+    /**
+     * @see DNSService#findMXRecords(String)
+     */
+    Future<Collection<String>> findMXRecordsAsync(String hostname);
+
+    /**
+     * @see DNSService#findTXTRecords(String)
+     */
+    Future<Collection<String>> findTXTRecordsAsync(String hostname);
+
+    /**
+     * @see DNSService#getAllByName(String)
+     */
+    Future<InetAddress[]> getAllByNameAsync(String host);
+
+    /**
+     * @see DNSService#getByName(String)
+     */
+    Future<InetAddress> getByNameAsync(String host);
+
+    /**
+     * @see DNSService#getHostName(InetAddress)
+     */
+    Future<String> getHostNameAsync(InetAddress addr);
+
+}
@@ -49,4 +49,48 @@ public interface DNSServiceMBean {
      * Clear the cache of the service
      */
     void clearCache();
+
+    /**
+     * Return the maximum count of parsed results which are cached
+     * 
+     * @return maxResultCacheSize
+     */
+    int getMaximumResultCacheSize();
+
+    /**
+     * Return the current count of cached parsed results
+     * 
+     * @return currentResultCacheSize
+     */
+    int getCurrentResultCacheSize();
+
+    /**
+     * Return the count of lookups which were answered by the result cache
+     * 
+     * @return hits
+     */
+    long getResultCacheHits();
+
+    /**
+     * Return the count of lookups which were not answered by the result cache
+     * 
+     * @return misses
+     */
+    long getResultCacheMisses();
+
+    /**
+     * Return the count of results which were evicted from the full result
+     * cache
+     * 
+     * @return evictions
+     */
+    long getResultCacheEvictions();
+
+    /**
+     * Return the count of cached results which were refreshed before they
+     * expired
+     * 
+     * @return prefetches
+     */
+    long getResultCachePrefetches();
 }
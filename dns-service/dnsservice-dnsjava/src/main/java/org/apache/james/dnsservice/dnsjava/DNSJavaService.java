@@ -20,13 +20,14 @@ package org.apache.james.dnsservice.dnsjava;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.AsyncDNSService;
 import org.apache.james.dnsservice.api.DNSServiceMBean;
 import org.apache.james.dnsservice.api.TemporaryResolutionException;
 import org.apache.james.lifecycle.api.Configurable;
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.slf4j.Logger;
 import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Address;
 import org.xbill.DNS.Cache;
 import org.xbill.DNS.Credibility;
 import org.xbill.DNS.DClass;
@@ -39,11 +40,13 @@ import org.xbill.DNS.Record;
 import org.xbill.DNS.Resolver;
 import org.xbill.DNS.ResolverConfig;
 import org.xbill.DNS.ReverseMap;
+import org.xbill.DNS.SOARecord;
 import org.xbill.DNS.TXTRecord;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -52,11 +55,22 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Provides DNS client functionality to services running inside James
  */
-public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled, Configurable {
+public class DNSJavaService implements AsyncDNSService, DNSServiceMBean, LogEnabled, Configurable {
 
     /**
      * A resolver instance used to retrieve DNS records. This is a reference to
@@ -109,6 +123,58 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
 
     private Logger logger;
 
+    /**
+     * The number of threads which resolve for the asynchronous methods
+     */
+    private int asyncThreads = 20;
+
+    private ExecutorService asyncExecutor;
+
+    /**
+     * The lookups which are in progress. Concurrent lookups of the same record
+     * wait for the first one instead of querying the DNS servers again.
+     */
+    private final ConcurrentMap<String, FutureTask<LookupResult>> inFlightLookups = new ConcurrentHashMap<String, FutureTask<LookupResult>>();
+
+    /**
+     * The fraction of the TTL which is left when a hot MX entry of the result
+     * cache is refreshed
+     */
+    private static final double PREFETCH_RATIO = 0.1;
+
+    /**
+     * Maximum number of parsed results to cache, 0 to disable the result cache
+     */
+    private int resultCacheSize = 10000;
+
+    /**
+     * The seconds to cache a name or record type which does not exist, if the
+     * SOA record of the zone is not known
+     */
+    private int negativeCacheTTL = 300;
+
+    /**
+     * The maximum seconds to cache a result
+     */
+    private int maxCacheTTL = 86400;
+
+    /**
+     * The count of hits after which a MX entry of the result cache is
+     * refreshed before it expires, 0 to never refresh entries
+     */
+    private int prefetchHits = 3;
+
+    /**
+     * A cache of the parsed results of the lookups
+     */
+    private DNSResultCache resultCache;
+
+    /**
+     * The negative TTL of the SOA record which was received by the lookup
+     * running on the current thread
+     */
+    private final ThreadLocal<Long> soaNegativeTTL = new ThreadLocal<Long>();
+
     public void setLog(Logger logger) {
         this.logger = logger;
     }
@@ -170,6 +236,16 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         dnsCredibility = authoritative ? Credibility.AUTH_ANSWER : Credibility.NONAUTH_ANSWER;
 
         maxCacheSize = configuration.getInt("maxcachesize", maxCacheSize);
+
+        asyncThreads = configuration.getInt("asyncThreads", asyncThreads);
+        if (asyncThreads < 1) {
+            throw new ConfigurationException("asyncThreads must be at least 1");
+        }
+
+        resultCacheSize = configuration.getInt("resultCacheSize", resultCacheSize);
+        negativeCacheTTL = configuration.getInt("negativeCacheTTL", negativeCacheTTL);
+        maxCacheTTL = configuration.getInt("maxCacheTTL", maxCacheTTL);
+        prefetchHits = configuration.getInt("prefetchHits", prefetchHits);
     }
 
     @PostConstruct
@@ -201,9 +277,13 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
             throw uhe;
         }
 
-        cache = new Cache(DClass.IN);
+        cache = new NegativeTTLCache();
         cache.setMaxEntries(maxCacheSize);
 
+        if (resultCacheSize > 0) {
+            resultCache = new DNSResultCache(resultCacheSize, prefetchHits, PREFETCH_RATIO);
+        }
+
         if (setAsDNSJavaDefault) {
             Lookup.setDefaultResolver(resolver);
             Lookup.setDefaultCache(cache, DClass.IN);
@@ -220,9 +300,26 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         localHostName = addr.getHostName();
         localAddress = addr.getHostAddress();
 
+        asyncExecutor = Executors.newFixedThreadPool(asyncThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "dnsservice-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
         logger.debug("DNSService ...init end");
     }
 
+    @PreDestroy
+    public void dispose() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+    }
+
     /**
      * Return the list of DNS servers in use by this service
      *
@@ -251,10 +348,59 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
      * @throws TemporaryResolutionException get thrown on temporary problems
      */
     private List<String> findMXRecordsRaw(String hostname) throws TemporaryResolutionException {
-        Record answers[] = lookup(hostname, Type.MX, "MX");
         List<String> servers = new ArrayList<String>();
+        for (List<String> samePrio : getMXPriorities(hostname)) {
+            // shuffle entries with same prio
+            // JAMES-913
+            List<String> shuffled = new ArrayList<String>(samePrio);
+            Collections.shuffle(shuffled);
+            servers.addAll(shuffled);
+        }
+        return servers;
+    }
+
+    /**
+     * Return the targets of the MX records of the given domain grouped by
+     * their priority, taking them from the result cache if possible. Hot
+     * entries are refreshed in the background before they expire.
+     *
+     * @param hostname domain name to look up
+     * @return the targets of the same priority, ordered by priority
+     * @throws TemporaryResolutionException get thrown on temporary problems
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<String>> getMXPriorities(final String hostname) throws TemporaryResolutionException {
+        DNSResultCache.Entry cached = getCachedResult(Type.MX, hostname);
+        if (cached == null) {
+            return resolveMXPriorities(hostname);
+        }
+        if (resultCache.needsPrefetch(cached, System.currentTimeMillis())) {
+            try {
+                asyncExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            resolveMXPriorities(hostname);
+                        } catch (TemporaryResolutionException e) {
+                            logger.debug("Unable to refresh MX records of " + hostname, e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the service is disposed
+            }
+        }
+        if (cached.isNegative()) {
+            return Collections.emptyList();
+        }
+        return (List<List<String>>) cached.getValue();
+    }
+
+    private List<List<String>> resolveMXPriorities(String hostname) throws TemporaryResolutionException {
+        LookupResult result = lookupResultToCache(hostname, Type.MX, "MX");
+        Record answers[] = result.records;
         if (answers == null) {
-            return servers;
+            cacheResult(Type.MX, hostname, null, result);
+            return Collections.emptyList();
         }
 
         MXRecord[] mxAnswers = new MXRecord[answers.length];
@@ -266,43 +412,24 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         // are in sequence
         Arrays.sort(mxAnswers, mxComparator);
 
-        // now add the mx records to the right list and take care of shuffle
-        // mx records with the same priority
+        // now group the mx records with the same priority, so they can be
+        // shuffled
+        List<List<String>> priorities = new ArrayList<List<String>>();
+        List<String> samePrio = null;
         int currentPrio = -1;
-        List<String> samePrio = new ArrayList<String>();
-        for (int i = 0; i < mxAnswers.length; i++) {
-            boolean same = false;
-            boolean lastItem = i + 1 == mxAnswers.length;
-            MXRecord mx = mxAnswers[i];
-            if (i == 0) {
+        for (MXRecord mx : mxAnswers) {
+            if (samePrio == null || currentPrio != mx.getPriority()) {
                 currentPrio = mx.getPriority();
-            } else {
-                same = currentPrio == mx.getPriority();
+                samePrio = new ArrayList<String>();
+                priorities.add(samePrio);
             }
-
             String mxRecord = mx.getTarget().toString();
-            if (same) {
-                samePrio.add(mxRecord);
-            } else {
-                // shuffle entries with same prio
-                // JAMES-913
-                Collections.shuffle(samePrio);
-                servers.addAll(samePrio);
-
-                samePrio.clear();
-                samePrio.add(mxRecord);
-
-            }
-
-            if (lastItem) {
-                // shuffle entries with same prio
-                // JAMES-913
-                Collections.shuffle(samePrio);
-                servers.addAll(samePrio);
-            }
+            samePrio.add(mxRecord);
             logger.debug("Found MX record " + mxRecord);
         }
-        return servers;
+        priorities = Collections.unmodifiableList(priorities);
+        cacheResult(Type.MX, hostname, priorities, result);
+        return priorities;
     }
 
     @Override
@@ -334,29 +461,119 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
     /**
      * Looks up DNS records of the specified type for the specified name.
      * <p/>
-     * This method is a public wrapper for the private implementation method
+     * If the same records are looked up by another thread right now, the
+     * result of that lookup is returned instead of querying again. The
+     * returned array is shared, so it must not be modified.
      *
      * @param namestr  the name of the host to be looked up
      * @param type     the type of record desired
      * @param typeDesc the description of the record type, for debugging purpose
      */
-    protected Record[] lookup(String namestr, int type, String typeDesc) throws TemporaryResolutionException {
+    protected Record[] lookup(final String namestr, final int type, final String typeDesc) throws TemporaryResolutionException {
+        return lookupResult(namestr, type, typeDesc, false).records;
+    }
+
+    /**
+     * Looks up DNS records of the specified type for the specified name for the
+     * result cache. If the result cache is enabled the shared dnsjava cache is
+     * bypassed, as its answers carry the TTL they were received with instead of
+     * the time they may still be cached.
+     *
+     * @param namestr  the name of the host to be looked up
+     * @param type     the type of record desired
+     * @param typeDesc the description of the record type, for debugging purpose
+     */
+    private LookupResult lookupResultToCache(String namestr, int type, String typeDesc) throws TemporaryResolutionException {
+        return lookupResult(namestr, type, typeDesc, resultCache != null);
+    }
+
+    /**
+     * Looks up DNS records of the specified type for the specified name, like
+     * {@link #lookup(String, int, String)} does, and returns them together with
+     * the time they may be cached
+     *
+     * @param namestr     the name of the host to be looked up
+     * @param type        the type of record desired
+     * @param typeDesc    the description of the record type, for debugging purpose
+     * @param bypassCache <code>true</code> to query the DNS servers instead of
+     *                    using the shared dnsjava cache
+     */
+    private LookupResult lookupResult(final String namestr, final int type, final String typeDesc, final boolean bypassCache) throws TemporaryResolutionException {
+        String key = type + " " + namestr + (bypassCache ? " bypass" : "");
+        FutureTask<LookupResult> lookup = new FutureTask<LookupResult>(new Callable<LookupResult>() {
+            public LookupResult call() throws TemporaryResolutionException {
+                return runLookup(namestr, type, typeDesc, bypassCache);
+            }
+        });
+        FutureTask<LookupResult> inFlight = inFlightLookups.putIfAbsent(key, lookup);
+        if (inFlight == null) {
+            // no one else looks it up, so do it on this thread
+            try {
+                lookup.run();
+            } finally {
+                inFlightLookups.remove(key, lookup);
+            }
+            inFlight = lookup;
+        } else {
+            logger.debug("Waiting for the lookup of " + typeDesc + " records of " + namestr + " which is in progress");
+        }
+
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TemporaryResolutionException("Interrupted while looking up " + typeDesc + " records of " + namestr);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TemporaryResolutionException) {
+                throw (TemporaryResolutionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Looks up DNS records of the specified type for the specified name on the
+     * calling thread
+     *
+     * @param namestr     the name of the host to be looked up
+     * @param type        the type of record desired
+     * @param typeDesc    the description of the record type, for debugging purpose
+     * @param bypassCache <code>true</code> to query the DNS servers instead of
+     *                    using the shared dnsjava cache
+     */
+    private LookupResult runLookup(String namestr, int type, String typeDesc, boolean bypassCache) throws TemporaryResolutionException {
         // Name name = null;
         try {
             // name = Name.fromString(namestr, Name.root);
             Lookup l = new Lookup(namestr, type);
 
-            l.setCache(cache);
+            l.setCache(bypassCache ? newLookupCache() : cache);
             l.setResolver(resolver);
             l.setCredibility(dnsCredibility);
             l.setSearchPath(searchPaths);
+            soaNegativeTTL.remove();
             Record[] r = l.run();
 
             try {
-                if (l.getResult() == Lookup.TRY_AGAIN) {
+                int result = l.getResult();
+                if (result == Lookup.TRY_AGAIN) {
                     throw new TemporaryResolutionException("DNSService is temporary not reachable");
+                } else if (r != null) {
+                    long ttl = maxCacheTTL;
+                    for (Record record : r) {
+                        ttl = Math.min(ttl, record.getTTL());
+                    }
+                    return new LookupResult(r, ttl);
+                } else if (result == Lookup.HOST_NOT_FOUND || result == Lookup.TYPE_NOT_FOUND) {
+                    Long ttl = soaNegativeTTL.get();
+                    return new LookupResult(null, Math.min(ttl == null ? negativeCacheTTL : ttl, maxCacheTTL));
                 } else {
-                    return r;
+                    return new LookupResult(null, 0);
                 }
             } catch (IllegalStateException ise) {
                 // This is okay, because it mimics the original behaviour
@@ -369,8 +586,81 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         } catch (TextParseException tpe) {
             // TODO: Figure out how to handle this correctly.
             logger.error("Couldn't parse name " + namestr, tpe);
+            return new LookupResult(null, 0);
+        } finally {
+            soaNegativeTTL.remove();
+        }
+    }
+
+    /**
+     * Return the cached result of the given lookup or <code>null</code> if it
+     * is not cached
+     */
+    private DNSResultCache.Entry getCachedResult(int type, String namestr) {
+        if (resultCache == null) {
             return null;
         }
+        return resultCache.get(type + " " + namestr, System.currentTimeMillis());
+    }
+
+    /**
+     * Cache the given parsed result of the given lookup
+     */
+    private void cacheResult(int type, String namestr, Object value, LookupResult result) {
+        if (resultCache != null) {
+            resultCache.put(type + " " + namestr, value, result.ttl * 1000, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * The records found by a lookup
+     */
+    /**
+     * Return the cache for a lookup which bypasses the shared dnsjava cache.
+     * It is only used by a single lookup, so the TTLs of its answers are the
+     * ones the DNS servers returned.
+     */
+    protected Cache newLookupCache() {
+        return new NegativeTTLCache();
+    }
+
+    /**
+     * A dnsjava {@link Cache} which records the negative TTL of the SOA
+     * records it receives for the lookup running on the current thread
+     */
+    private final class NegativeTTLCache extends Cache {
+
+        private NegativeTTLCache() {
+            super(DClass.IN);
+        }
+
+        @Override
+        public void addNegative(Name name, int type, SOARecord soa, int cred) {
+            super.addNegative(name, type, soa, cred);
+            if (soa != null) {
+                // RFC 2308: the negative TTL is the minimum of the SOA TTL
+                // and the SOA minimum field
+                soaNegativeTTL.set(Math.min(soa.getTTL(), soa.getMinimum()));
+            }
+        }
+    }
+
+    private static final class LookupResult {
+
+        /**
+         * The records or <code>null</code> if none were found
+         */
+        private final Record[] records;
+
+        /**
+         * The seconds the result may be cached
+         */
+        private final long ttl;
+
+        private LookupResult(Record[] records, long ttl) {
+            this.records = records;
+            this.ttl = ttl;
+        }
     }
 
     protected Record[] lookupNoException(String namestr, int type, String typeDesc) {
@@ -423,65 +713,120 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         return host;
     }
 
+    /**
+     * Return the address of the given IP literal or <code>null</code> if it is
+     * not an IP literal. Unlike {@link Address#getByAddress(String)} this does
+     * not throw an exception for host names.
+     */
+    private static InetAddress getByAddressLiteral(String name) throws UnknownHostException {
+        byte[] bytes = Address.toByteArray(name, Address.IPv4);
+        if (bytes == null) {
+            bytes = Address.toByteArray(name, Address.IPv6);
+        }
+        if (bytes == null) {
+            return null;
+        }
+        return InetAddress.getByAddress(name, bytes);
+    }
+
     @Override
     public InetAddress getByName(String host) throws UnknownHostException {
         String name = allowIPLiteral(host);
 
-        try {
-            // Check if its local
-            if (name.equalsIgnoreCase(localHostName) || name.equalsIgnoreCase(localCanonicalHostName) || name.equals(localAddress)) {
-                return getLocalHost();
-            }
-
-            return org.xbill.DNS.Address.getByAddress(name);
-        } catch (UnknownHostException e) {
-            Record[] records = lookupNoException(name, Type.A, "A");
+        // Check if its local
+        if (name.equalsIgnoreCase(localHostName) || name.equalsIgnoreCase(localCanonicalHostName) || name.equals(localAddress)) {
+            return getLocalHost();
+        }
 
-            if (records != null && records.length >= 1) {
-                ARecord a = (ARecord) records[0];
-                return InetAddress.getByAddress(name, a.getAddress().getAddress());
-            } else
-                throw e;
+        InetAddress addr = getByAddressLiteral(name);
+        if (addr != null) {
+            return addr;
         }
+        return findAddresses(name)[0];
     }
 
     @Override
     public InetAddress[] getAllByName(String host) throws UnknownHostException {
         String name = allowIPLiteral(host);
-        try {
-            // Check if its local
-            if (name.equalsIgnoreCase(localHostName) || name.equalsIgnoreCase(localCanonicalHostName) || name.equals(localAddress)) {
-                return new InetAddress[]{getLocalHost()};
-            }
 
-            InetAddress addr = org.xbill.DNS.Address.getByAddress(name);
+        // Check if its local
+        if (name.equalsIgnoreCase(localHostName) || name.equalsIgnoreCase(localCanonicalHostName) || name.equals(localAddress)) {
+            return new InetAddress[]{getLocalHost()};
+        }
+
+        InetAddress addr = getByAddressLiteral(name);
+        if (addr != null) {
             return new InetAddress[]{addr};
-        } catch (UnknownHostException e) {
-            Record[] records = lookupNoException(name, Type.A, "A");
-
-            if (records != null && records.length >= 1) {
-                InetAddress[] addrs = new InetAddress[records.length];
-                for (int i = 0; i < records.length; i++) {
-                    ARecord a = (ARecord) records[i];
-                    addrs[i] = InetAddress.getByAddress(name, a.getAddress().getAddress());
-                }
-                return addrs;
-            } else
-                throw e;
         }
+        return findAddresses(name).clone();
+    }
+
+    /**
+     * Return the addresses of the A records of the given host name, taking them
+     * from the result cache if possible. The returned array is shared, so it
+     * must not be modified.
+     *
+     * @param name the host name
+     * @return the addresses, never empty
+     * @throws UnknownHostException if there is no A record or the lookup failed
+     */
+    private InetAddress[] findAddresses(String name) throws UnknownHostException {
+        DNSResultCache.Entry cached = getCachedResult(Type.A, name);
+        if (cached != null) {
+            if (cached.isNegative()) {
+                throw new UnknownHostException("Invalid address: " + name);
+            }
+            return (InetAddress[]) cached.getValue();
+        }
+
+        LookupResult result;
+        try {
+            result = lookupResultToCache(name, Type.A, "A");
+        } catch (TemporaryResolutionException e) {
+            throw new UnknownHostException("Invalid address: " + name);
+        }
+        Record[] records = result.records;
+        if (records == null || records.length == 0) {
+            cacheResult(Type.A, name, null, result);
+            throw new UnknownHostException("Invalid address: " + name);
+        }
+
+        InetAddress[] addrs = new InetAddress[records.length];
+        for (int i = 0; i < records.length; i++) {
+            ARecord a = (ARecord) records[i];
+            addrs[i] = InetAddress.getByAddress(name, a.getAddress().getAddress());
+        }
+        cacheResult(Type.A, name, addrs, result);
+        return addrs;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public Collection<String> findTXTRecords(String hostname) {
+        DNSResultCache.Entry cached = getCachedResult(Type.TXT, hostname);
+        if (cached != null) {
+            if (cached.isNegative()) {
+                return new ArrayList<String>();
+            }
+            return new ArrayList<String>((List<String>) cached.getValue());
+        }
+
         List<String> txtR = new ArrayList<String>();
-        Record[] records = lookupNoException(hostname, Type.TXT, "TXT");
+        LookupResult result;
+        try {
+            result = lookupResultToCache(hostname, Type.TXT, "TXT");
+        } catch (TemporaryResolutionException e) {
+            return txtR;
+        }
 
-        if (records != null) {
-            for (Record record : records) {
+        if (result.records != null) {
+            for (Record record : result.records) {
                 TXTRecord txt = (TXTRecord) record;
                 txtR.add(txt.rdataToString());
             }
-
+            cacheResult(Type.TXT, hostname, Collections.unmodifiableList(new ArrayList<String>(txtR)), result);
+        } else {
+            cacheResult(Type.TXT, hostname, null, result);
         }
         return txtR;
     }
@@ -506,6 +851,51 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         return InetAddress.getLocalHost();
     }
 
+    @Override
+    public Future<Collection<String>> findMXRecordsAsync(final String hostname) {
+        return asyncExecutor.submit(new Callable<Collection<String>>() {
+            public Collection<String> call() throws TemporaryResolutionException {
+                return findMXRecords(hostname);
+            }
+        });
+    }
+
+    @Override
+    public Future<Collection<String>> findTXTRecordsAsync(final String hostname) {
+        return asyncExecutor.submit(new Callable<Collection<String>>() {
+            public Collection<String> call() {
+                return findTXTRecords(hostname);
+            }
+        });
+    }
+
+    @Override
+    public Future<InetAddress[]> getAllByNameAsync(final String host) {
+        return asyncExecutor.submit(new Callable<InetAddress[]>() {
+            public InetAddress[] call() throws UnknownHostException {
+                return getAllByName(host);
+            }
+        });
+    }
+
+    @Override
+    public Future<InetAddress> getByNameAsync(final String host) {
+        return asyncExecutor.submit(new Callable<InetAddress>() {
+            public InetAddress call() throws UnknownHostException {
+                return getByName(host);
+            }
+        });
+    }
+
+    @Override
+    public Future<String> getHostNameAsync(final InetAddress addr) {
+        return asyncExecutor.submit(new Callable<String>() {
+            public String call() {
+                return getHostName(addr);
+            }
+        });
+    }
+
     @Override
     public int getMaximumCacheSize() {
         return maxCacheSize;
@@ -519,6 +909,39 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
     @Override
     public void clearCache() {
         cache.clearCache();
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+    }
+
+    @Override
+    public int getMaximumResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    @Override
+    public int getCurrentResultCacheSize() {
+        return resultCache == null ? 0 : resultCache.getSize();
+    }
+
+    @Override
+    public long getResultCacheHits() {
+        return resultCache == null ? 0 : resultCache.getHitCount();
+    }
+
+    @Override
+    public long getResultCacheMisses() {
+        return resultCache == null ? 0 : resultCache.getMissCount();
+    }
+
+    @Override
+    public long getResultCacheEvictions() {
+        return resultCache == null ? 0 : resultCache.getEvictionCount();
+    }
+
+    @Override
+    public long getResultCachePrefetches() {
+        return resultCache == null ? 0 : resultCache.getPrefetchCount();
     }
 
 }
@@ -0,0 +1,231 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.dnsjava;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the results of DNS lookups, which holds the parsed results
+ * instead of the raw records. A result of <code>null</code> marks a name or
+ * record type which does not exist.
+ * <p/>
+ * Entries expire after their TTL. If the cache is full the least recently used
+ * entry is evicted. Entries which are hit often can be refreshed shortly before
+ * they expire, see {@link #needsPrefetch(Entry, long)}.
+ */
+public class DNSResultCache {
+
+    private final int maxEntries;
+
+    /**
+     * The count of hits after which an entry is refreshed before it expires
+     */
+    private final int prefetchHits;
+
+    /**
+     * The fraction of the TTL which must be left for an entry to be refreshed
+     */
+    private final double prefetchRatio;
+
+    private final Map<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+
+    /**
+     * Create a new cache
+     * 
+     * @param maxEntries
+     *            the maximum count of entries
+     * @param prefetchHits
+     *            the count of hits after which an entry is refreshed before it
+     *            expires, or 0 to never refresh entries
+     * @param prefetchRatio
+     *            the fraction of the TTL which is left when an entry is
+     *            refreshed
+     */
+    public DNSResultCache(final int maxEntries, int prefetchHits, double prefetchRatio) {
+        this.maxEntries = maxEntries;
+        this.prefetchHits = prefetchHits;
+        this.prefetchRatio = prefetchRatio;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return the entry for the given key or <code>null</code> if there is no
+     * entry or it is expired
+     * 
+     * @param key
+     * @param now
+     *            the current time in milliseconds
+     * @return entry or null
+     */
+    public Entry get(String key, long now) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires <= now) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry != null) {
+                entry.hits++;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Store the given result
+     * 
+     * @param key
+     * @param value
+     *            the result or <code>null</code> if the name or record type
+     *            does not exist
+     * @param ttl
+     *            the time to live in milliseconds
+     * @param now
+     *            the current time in milliseconds
+     */
+    public void put(String key, Object value, long ttl, long now) {
+        if (ttl <= 0 || maxEntries <= 0) {
+            return;
+        }
+        Entry entry = new Entry(value, now, now + ttl);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Return true if the given entry, which was just returned by
+     * {@link #get(String, long)}, is hit often and expires soon, so it should
+     * be refreshed. Only the first caller gets true for an entry.
+     * 
+     * @param entry
+     * @param now
+     *            the current time in milliseconds
+     * @return true if the caller should refresh the entry
+     */
+    public boolean needsPrefetch(Entry entry, long now) {
+        if (prefetchHits <= 0) {
+            return false;
+        }
+        synchronized (entries) {
+            if (entry.prefetching || entry.hits < prefetchHits || entry.expires - now > (entry.expires - entry.created) * prefetchRatio) {
+                return false;
+            }
+            entry.prefetching = true;
+        }
+        prefetches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /**
+     * A cached result
+     */
+    public static final class Entry {
+
+        private final Object value;
+        private final long created;
+        private final long expires;
+        private int hits;
+        private boolean prefetching;
+
+        private Entry(Object value, long created, long expires) {
+            this.value = value;
+            this.created = created;
+            this.expires = expires;
+        }
+
+        /**
+         * Return the result or <code>null</code> if the name or record type
+         * does not exist
+         * 
+         * @return value
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * Return true if the name or record type does not exist
+         * 
+         * @return negative
+         */
+        public boolean isNegative() {
+            return value == null;
+        }
+    }
+}
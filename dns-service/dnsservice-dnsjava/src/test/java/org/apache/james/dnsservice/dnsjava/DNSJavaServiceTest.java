@@ -27,6 +27,8 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doAnswer;
@@ -37,6 +39,8 @@ import org.xbill.DNS.DClass;
 import org.xbill.DNS.Lookup;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Resolver;
+import org.xbill.DNS.SetResponse;
+import org.xbill.DNS.Type;
 import org.xbill.DNS.Zone;
 
 import java.io.ByteArrayInputStream;
@@ -44,6 +48,12 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DNSJavaServiceTest {
 
@@ -84,6 +94,7 @@ public class DNSJavaServiceTest {
     @After
     public void tearDown() throws Exception {
         dnsServer.setCache(null);
+        dnsServer.dispose();
         dnsServer = null;
         Lookup.setDefaultCache(defaultCache, DClass.IN);
         Lookup.setDefaultResolver(defaultResolver);
@@ -207,6 +218,113 @@ public class DNSJavaServiceTest {
         assertEquals(1, records.size());
         assertTrue(records.contains("mx1.one-mx.bar."));
     }
+
+    @Test
+    public void testFindMXRecordsAsync() throws Exception {
+        doAnswer(new ZoneCacheLookupRecordsAnswer(loadZone("one-mx.bar.")))
+                .when(mockedCache).lookupRecords(any(Name.class), anyInt(), anyInt());
+        dnsServer.setCache(mockedCache);
+
+        Collection<String> records = dnsServer.findMXRecordsAsync("one-mx.bar.").get();
+        assertEquals(1, records.size());
+        assertTrue(records.contains("mx1.one-mx.bar."));
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        final ZoneCacheLookupRecordsAnswer zoneAnswer = new ZoneCacheLookupRecordsAnswer(loadZone("one-mx.bar."));
+        final AtomicInteger mxLookups = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch joined = new CountDownLatch(1);
+        doAnswer(new Answer<SetResponse>() {
+            public SetResponse answer(InvocationOnMock invocation) throws Throwable {
+                if ((Integer) invocation.getArguments()[1] == Type.MX) {
+                    mxLookups.incrementAndGet();
+                    // keep the lookup in progress until the second one joined
+                    started.countDown();
+                    assertTrue(joined.await(10, TimeUnit.SECONDS));
+                }
+                return zoneAnswer.answer(invocation);
+            }
+        }).when(mockedCache).lookupRecords(any(Name.class), anyInt(), anyInt());
+        dnsServer.setCache(mockedCache);
+
+        Future<Collection<String>> first = dnsServer.findMXRecordsAsync("one-mx.bar.");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        FutureTask<Collection<String>> second = new FutureTask<Collection<String>>(new Callable<Collection<String>>() {
+            public Collection<String> call() throws Exception {
+                return dnsServer.findMXRecords("one-mx.bar.");
+            }
+        });
+        Thread secondThread = new Thread(second);
+        secondThread.start();
+        // the second lookup parks on the one in progress
+        long deadline = System.currentTimeMillis() + 10000;
+        while (secondThread.getState() != Thread.State.WAITING) {
+            assertTrue("second lookup did not join", System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+        joined.countDown();
+
+        assertTrue(first.get().contains("mx1.one-mx.bar."));
+        assertTrue(second.get().contains("mx1.one-mx.bar."));
+        assertEquals(1, mxLookups.get());
+    }
+
+    @Test
+    public void testResultsAreCached() throws Exception {
+        final AtomicInteger mxLookups = countMXLookups(loadZone("one-mx.bar."));
+
+        assertTrue(dnsServer.findMXRecords("one-mx.bar.").contains("mx1.one-mx.bar."));
+        assertTrue(dnsServer.findMXRecords("one-mx.bar.").contains("mx1.one-mx.bar."));
+        assertEquals(1, mxLookups.get());
+        assertEquals(1, dnsServer.getResultCacheHits());
+
+        dnsServer.clearCache();
+        assertTrue(dnsServer.findMXRecords("one-mx.bar.").contains("mx1.one-mx.bar."));
+        assertEquals(2, mxLookups.get());
+    }
+
+    @Test
+    public void testNegativeResultsAreCached() throws Exception {
+        final AtomicInteger mxLookups = countMXLookups(loadZone("dnstest.com."));
+
+        assertEquals("nomx.dnstest.com.", dnsServer.findMXRecords("nomx.dnstest.com.").iterator().next());
+        assertEquals("nomx.dnstest.com.", dnsServer.findMXRecords("nomx.dnstest.com.").iterator().next());
+        assertEquals(1, mxLookups.get());
+    }
+
+    @Test
+    public void testCachedResultsBypassSharedCache() throws Exception {
+        doAnswer(new ZoneCacheLookupRecordsAnswer(loadZone("one-mx.bar.")))
+                .when(mockedCache).lookupRecords(any(Name.class), anyInt(), anyInt());
+        dnsServer.setCache(mockedCache);
+
+        assertTrue(dnsServer.findMXRecords("one-mx.bar.").contains("mx1.one-mx.bar."));
+        assertEquals(1, dnsServer.lookupCaches.get());
+
+        // plain lookups are not stored in the result cache, so they use the
+        // shared cache
+        assertNotNull(dnsServer.lookup("one-mx.bar.", Type.MX, "MX"));
+        assertEquals(1, dnsServer.lookupCaches.get());
+    }
+
+    private AtomicInteger countMXLookups(Zone zone) {
+        final ZoneCacheLookupRecordsAnswer zoneAnswer = new ZoneCacheLookupRecordsAnswer(zone);
+        final AtomicInteger mxLookups = new AtomicInteger();
+        doAnswer(new Answer<SetResponse>() {
+            public SetResponse answer(InvocationOnMock invocation) throws Throwable {
+                if ((Integer) invocation.getArguments()[1] == Type.MX) {
+                    mxLookups.incrementAndGet();
+                }
+                return zoneAnswer.answer(invocation);
+            }
+        }).when(mockedCache).lookupRecords(any(Name.class), anyInt(), anyInt());
+        dnsServer.setCache(mockedCache);
+        return mxLookups;
+    }
+
     /*
      * public void testCNAMEasMXrecords() throws Exception { // Zone z =
      * loadZone("brandilyncollins.com."); dnsServer.setResolver(null);
@@ -225,6 +343,8 @@ public class DNSJavaServiceTest {
 
     private final class TestableDNSServer extends DNSJavaService {
 
+        private final AtomicInteger lookupCaches = new AtomicInteger();
+
         public void setResolver(Resolver r) {
             resolver = r;
         }
@@ -232,5 +352,12 @@ public class DNSJavaServiceTest {
         public void setCache(Cache c) {
             cache = c;
         }
+
+        @Override
+        protected Cache newLookupCache() {
+            // the test zones are only served by the mocked cache
+            lookupCaches.incrementAndGet();
+            return cache;
+        }
     }
 }
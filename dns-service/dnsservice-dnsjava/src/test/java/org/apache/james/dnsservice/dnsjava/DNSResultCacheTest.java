@@ -0,0 +1,77 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.dnsjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DNSResultCacheTest {
+
+    @Test
+    public void testEntriesExpire() {
+        DNSResultCache cache = new DNSResultCache(10, 0, 0.1);
+        cache.put("key", "value", 1000, 0);
+        cache.put("negative", null, 1000, 0);
+
+        assertEquals("value", cache.get("key", 999).getValue());
+        assertTrue(cache.get("negative", 999).isNegative());
+        assertNull(cache.get("key", 1000));
+        assertNull(cache.get("unknown", 0));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        DNSResultCache cache = new DNSResultCache(2, 0, 0.1);
+        cache.put("a", "a", 1000, 0);
+        cache.put("b", "b", 1000, 0);
+        cache.get("a", 0);
+        cache.put("c", "c", 1000, 0);
+
+        assertNotNull(cache.get("a", 0));
+        assertNull(cache.get("b", 0));
+        assertNotNull(cache.get("c", 0));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testHotEntriesArePrefetchedOnce() {
+        DNSResultCache cache = new DNSResultCache(10, 2, 0.1);
+        cache.put("hot", "hot", 1000, 0);
+        cache.put("cold", "cold", 1000, 0);
+
+        // hot, but not expiring soon
+        cache.get("hot", 100);
+        assertFalse(cache.needsPrefetch(cache.get("hot", 100), 100));
+        DNSResultCache.Entry hot = cache.get("hot", 950);
+        assertTrue(cache.needsPrefetch(hot, 950));
+        assertFalse(cache.needsPrefetch(hot, 960));
+
+        // hit only once
+        assertFalse(cache.needsPrefetch(cache.get("cold", 950), 950));
+        assertEquals(1, cache.getPrefetchCount());
+    }
+}
@@ -0,0 +1,406 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.library.dnsbl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.james.dnsservice.api.AsyncDNSService;
+import org.apache.james.dnsservice.api.DNSService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks up names in DNS based block or allow lists like RBL's and URIBL's.
+ * 
+ * All names of a check are looked up in all lists concurrently if the
+ * {@link DNSService} is an {@link AsyncDNSService}, and the check waits for the
+ * answers at most until a common deadline. The answers are cached, listed and
+ * not listed ones with different TTL's, so the same names of the following
+ * mails are not looked up again. The {@link DNSService} does not expose the TTL
+ * of the records, so the TTL's are configured.
+ */
+public class DNSBLLookup implements DNSBLLookupMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DNSBLLookup.class);
+
+    public final static long DEFAULT_TIMEOUT = 5000;
+    public final static long DEFAULT_LISTED_TTL = 300000;
+    public final static long DEFAULT_NOT_LISTED_TTL = 60000;
+    public final static int DEFAULT_MAX_CACHE_ENTRIES = 10000;
+
+    private DNSService dns;
+    private long timeout = DEFAULT_TIMEOUT;
+    private long listedTtl = DEFAULT_LISTED_TTL;
+    private long notListedTtl = DEFAULT_NOT_LISTED_TTL;
+    private int maxCacheEntries = DEFAULT_MAX_CACHE_ENTRIES;
+
+    private final ConcurrentMap<String, Answer> cache = new ConcurrentHashMap<String, Answer>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong listed = new AtomicLong();
+
+    public DNSBLLookup() {
+    }
+
+    public DNSBLLookup(DNSService dns) {
+        this.dns = dns;
+    }
+
+    @Inject
+    public void setDNSService(@Named("dnsservice") DNSService dns) {
+        this.dns = dns;
+    }
+
+    /**
+     * Set the time in ms to wait for the answers of a check
+     * 
+     * @param timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Set the time in ms to cache that a name is listed
+     * 
+     * @param listedTtl
+     */
+    public void setListedTtl(long listedTtl) {
+        this.listedTtl = listedTtl;
+    }
+
+    /**
+     * Set the time in ms to cache that a name is not listed
+     * 
+     * @param notListedTtl
+     */
+    public void setNotListedTtl(long notListedTtl) {
+        this.notListedTtl = notListedTtl;
+    }
+
+    /**
+     * Set the maximum count of cached answers
+     * 
+     * @param maxCacheEntries
+     */
+    public void setMaxCacheEntries(int maxCacheEntries) {
+        this.maxCacheEntries = maxCacheEntries;
+    }
+
+    /**
+     * Return the name which is looked up to check if the given name is listed
+     * in the given list
+     * 
+     * @param name
+     *            the name or the reversed ip address
+     * @param zone
+     *            the zone of the list
+     * @return query
+     */
+    public static String getQuery(String name, String zone) {
+        if (name.endsWith(".")) {
+            return name + zone;
+        }
+        return name + "." + zone;
+    }
+
+    /**
+     * Check if any of the given names is listed in any of the given lists. The
+     * first {@link Listing} in the order of the names and then the zones is
+     * returned. Names whose answers are not received in time are handled as
+     * not listed.
+     * 
+     * @param names
+     *            the names or reversed ip addresses
+     * @param zones
+     *            the zones of the lists
+     * @return listing or null if none of the names is listed
+     */
+    public Listing findListing(Collection<String> names, Collection<String> zones) {
+        List<Listing> candidates = new ArrayList<Listing>(names.size() * zones.size());
+        List<Answer> answers = new ArrayList<Answer>(names.size() * zones.size());
+        for (String name : names) {
+            for (String zone : zones) {
+                Listing candidate = new Listing(name, zone);
+                candidates.add(candidate);
+                answers.add(lookup(candidate.getQuery()));
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < answers.size(); i++) {
+            if (isListed(answers.get(i), deadline)) {
+                // the remaining answers are cached once they arrive
+                return candidates.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the given name is listed
+     * 
+     * @param query
+     *            the name to look up which includes the zone of the list
+     * @return listed
+     */
+    public boolean isListed(String query) {
+        return isListed(lookup(query), System.currentTimeMillis() + timeout);
+    }
+
+    /**
+     * Start the lookups of the given names, so later checks find the answers
+     * in the cache. This does nothing if the {@link DNSService} is no
+     * {@link AsyncDNSService}.
+     * 
+     * @param queries
+     *            the names to look up which include the zones of the lists
+     */
+    public void prefetch(Collection<String> queries) {
+        if (dns instanceof AsyncDNSService) {
+            for (String query : queries) {
+                lookup(query);
+            }
+        }
+    }
+
+    /**
+     * Return the cached answer for the given name or start to look it up
+     */
+    private Answer lookup(String query) {
+        long now = System.currentTimeMillis();
+        Answer answer = cache.get(query);
+        if (answer != null && !answer.isExpired(now)) {
+            hits.incrementAndGet();
+            return answer;
+        }
+
+        misses.incrementAndGet();
+        Future<InetAddress> future = null;
+        if (dns instanceof AsyncDNSService) {
+            future = ((AsyncDNSService) dns).getByNameAsync(query);
+        }
+        answer = new Answer(query, future, now + Math.max(listedTtl, notListedTtl));
+        cache.put(query, answer);
+        if (cache.size() > maxCacheEntries) {
+            evict(now);
+        }
+        return answer;
+    }
+
+    /**
+     * Wait until the given deadline for the answer
+     */
+    private boolean isListed(Answer answer, long deadline) {
+        Boolean result = answer.listed;
+        if (result != null) {
+            return result;
+        }
+
+        try {
+            if (answer.future == null) {
+                dns.getByName(answer.query);
+            } else {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                answer.future.get(remaining, TimeUnit.MILLISECONDS);
+            }
+            answer.complete(true, listedTtl);
+            listed.incrementAndGet();
+            return true;
+        } catch (UnknownHostException e) {
+            answer.complete(false, notListedTtl);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                answer.complete(false, notListedTtl);
+            } else {
+                LOG.info("Unable to look up " + answer.query, e.getCause());
+                cache.remove(answer.query, answer);
+            }
+        } catch (TimeoutException e) {
+            // keep the lookup, so the answer can be used once it arrives
+            timeouts.incrementAndGet();
+            LOG.debug("No answer for " + answer.query + " in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Remove the expired answers and if that was not enough, any answers
+     */
+    private void evict(long now) {
+        Iterator<Answer> answers = cache.values().iterator();
+        while (answers.hasNext()) {
+            if (answers.next().isExpired(now)) {
+                answers.remove();
+            }
+        }
+        answers = cache.values().iterator();
+        while (cache.size() > maxCacheEntries && answers.hasNext()) {
+            answers.next();
+            answers.remove();
+        }
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.library.dnsbl.DNSBLLookupMBean#getCacheHitCount()
+     */
+    public long getCacheHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.library.dnsbl.DNSBLLookupMBean#getCacheMissCount()
+     */
+    public long getCacheMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.library.dnsbl.DNSBLLookupMBean#getCacheHitRate()
+     */
+    public double getCacheHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) hitCount / total;
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.library.dnsbl.DNSBLLookupMBean#getTimeoutCount()
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.library.dnsbl.DNSBLLookupMBean#getListedCount()
+     */
+    public long getListedCount() {
+        return listed.get();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.library.dnsbl.DNSBLLookupMBean#getCacheSize()
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.library.dnsbl.DNSBLLookupMBean#clearCache()
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * The answer for one name which may still be looked up
+     */
+    private final static class Answer {
+        private final String query;
+        private final Future<InetAddress> future;
+        private volatile Boolean listed;
+        private volatile long expires;
+
+        private Answer(String query, Future<InetAddress> future, long expires) {
+            this.query = query;
+            this.future = future;
+            this.expires = expires;
+        }
+
+        private void complete(boolean listed, long ttl) {
+            this.expires = System.currentTimeMillis() + ttl;
+            this.listed = listed;
+        }
+
+        private boolean isExpired(long now) {
+            // answers of the synchronous DNSService are only cached once known
+            return expires <= now || (future == null && listed == null);
+        }
+    }
+
+    /**
+     * A name which is listed in the list with the given zone
+     */
+    public final static class Listing {
+        private final String name;
+        private final String zone;
+
+        public Listing(String name, String zone) {
+            this.name = name;
+            this.zone = zone;
+        }
+
+        /**
+         * Return the listed name or reversed ip address
+         * 
+         * @return name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Return the zone of the list
+         * 
+         * @return zone
+         */
+        public String getZone() {
+            return zone;
+        }
+
+        /**
+         * Return the name which was looked up
+         * 
+         * @return query
+         */
+        public String getQuery() {
+            return DNSBLLookup.getQuery(name, zone);
+        }
+
+        @Override
+        public String toString() {
+            return getQuery();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.library.dnsbl;
+
+/**
+ * JMX MBean of the {@link DNSBLLookup}
+ */
+public interface DNSBLLookupMBean {
+
+    /**
+     * Return the count of lookups which were answered by the cache
+     * 
+     * @return hits
+     */
+    long getCacheHitCount();
+
+    /**
+     * Return the count of lookups which were sent to the DNS servers
+     * 
+     * @return misses
+     */
+    long getCacheMissCount();
+
+    /**
+     * Return the fraction of lookups which were answered by the cache
+     * 
+     * @return hitRate
+     */
+    double getCacheHitRate();
+
+    /**
+     * Return the count of lookups which were not answered before the deadline
+     * 
+     * @return timeouts
+     */
+    long getTimeoutCount();
+
+    /**
+     * Return the count of lookups which found a listing
+     * 
+     * @return listed
+     */
+    long getListedCount();
+
+    /**
+     * Return the count of cached answers
+     * 
+     * @return size
+     */
+    int getCacheSize();
+
+    /**
+     * Remove all cached answers
+     */
+    void clearCache();
+}
@@ -39,4 +39,20 @@ public interface InetNetwork {
      */
     boolean contains(InetAddress ip);
 
+    /**
+     * Return the address of the network, which is the address the network was
+     * created with after the subnet mask was applied
+     * 
+     * @return address
+     */
+    byte[] getAddress();
+
+    /**
+     * Return the subnet mask which is applied on an address before it is
+     * compared with the address of the network
+     * 
+     * @return mask
+     */
+    byte[] getMask();
+
 }
@@ -20,9 +20,10 @@ package org.apache.james.dnsservice.library.netmatcher;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -35,6 +36,9 @@ import org.apache.james.dnsservice.library.inetnetwork.model.InetNetwork;
  * 
  * NetMatcher provides a means for checking whether a particular IPv4 or IPv6
  * address or domain name is within a set of subnets.
+ * 
+ * The subnets are kept in a {@link NetworkTrie} per address length, so the
+ * time to match an address does not grow with the count of subnets.
  */
 public class NetMatcher {
 
@@ -48,6 +52,22 @@ public class NetMatcher {
      */
     private SortedSet<InetNetwork> networks;
 
+    /**
+     * The IPv4 networks to match against.
+     */
+    private NetworkTrie inet4Networks;
+
+    /**
+     * The IPv6 networks to match against.
+     */
+    private NetworkTrie inet6Networks;
+
+    /**
+     * The networks which can not be represented by a {@link NetworkTrie}, as
+     * their subnet mask is not a prefix mask.
+     */
+    private List<InetNetwork> otherNetworks;
+
     /**
      * Create a new instance of Netmatcher.
      * 
@@ -106,14 +126,19 @@ public class NetMatcher {
      */
     public boolean matchInetNetwork(final InetAddress ip) {
 
-        boolean sameNet = false;
+        byte[] address = ip.getAddress();
+        NetworkTrie trie = address.length == 4 ? inet4Networks : inet6Networks;
+        if (trie.contains(address)) {
+            return true;
+        }
 
-        for (Iterator<InetNetwork> iter = networks.iterator(); (!sameNet) && iter.hasNext();) {
-            InetNetwork network = iter.next();
-            sameNet = network.contains(ip);
+        for (InetNetwork network : otherNetworks) {
+            if (network.contains(ip)) {
+                return true;
+            }
         }
 
-        return sameNet;
+        return false;
 
     }
 
@@ -166,6 +191,26 @@ public class NetMatcher {
             }
         }
 
+        inet4Networks = new NetworkTrie(4);
+        inet6Networks = new NetworkTrie(16);
+        otherNetworks = new ArrayList<InetNetwork>();
+
+        for (InetNetwork network : networks) {
+            byte[] address = network.getAddress();
+            byte[] mask = network.getMask();
+            boolean added = false;
+            if (address.length == mask.length) {
+                if (address.length == 4) {
+                    added = inet4Networks.add(address, mask);
+                } else if (address.length == 16) {
+                    added = inet6Networks.add(address, mask);
+                }
+            }
+            if (!added) {
+                otherNetworks.add(network);
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,265 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.library.netmatcher;
+
+/**
+ * A PATRICIA trie (a binary trie whose chains of single child nodes are
+ * compressed into one node) of network prefixes with the same address length.
+ * 
+ * Looking up an address only walks the bits of the address once, so the time
+ * does not depend on the count of networks but on the address length. The
+ * lookup does not allocate any objects.
+ */
+public class NetworkTrie {
+
+    /**
+     * The length of the addresses in bytes
+     */
+    private final int addressLength;
+
+    private Node root;
+
+    private int size;
+
+    /**
+     * Create a new empty trie
+     * 
+     * @param addressLength
+     *            the length in bytes of the addresses, 4 for IPv4 and 16 for
+     *            IPv6
+     */
+    public NetworkTrie(int addressLength) {
+        this.addressLength = addressLength;
+    }
+
+    /**
+     * Add the network with the given address and mask. Only masks whose bits
+     * are all set before the first unset bit can be represented by the trie.
+     * 
+     * @param address
+     *            the address of the network
+     * @param mask
+     *            the mask of the network
+     * @return true if the network was added, false if the mask is not a prefix
+     *         mask
+     */
+    public boolean add(byte[] address, byte[] mask) {
+        checkLength(address);
+        checkLength(mask);
+        int prefixLength = getPrefixLength(mask);
+        if (prefixLength < 0) {
+            return false;
+        }
+        add(mask(address, prefixLength), prefixLength);
+        return true;
+    }
+
+    /**
+     * Return true if the given address is contained in one of the networks of
+     * the trie
+     * 
+     * @param address
+     *            the address to look up
+     * @return true if a network contains the address
+     */
+    public boolean contains(byte[] address) {
+        if (address.length != addressLength) {
+            return false;
+        }
+        Node node = root;
+        // the count of bits which are known to match already
+        int matched = 0;
+        while (node != null) {
+            if (!matches(address, node, matched)) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+            matched = node.prefixLength;
+            if (matched == addressLength * 8) {
+                return false;
+            }
+            node = node.children[bit(address, matched)];
+        }
+        return false;
+    }
+
+    /**
+     * Return the count of networks in the trie
+     * 
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    private void add(byte[] prefix, int prefixLength) {
+        if (root == null) {
+            root = new Node(prefix, prefixLength, true);
+            size++;
+            return;
+        }
+        Node parent = null;
+        Node node = root;
+        while (true) {
+            int common = commonPrefixLength(prefix, prefixLength, node);
+            if (common < node.prefixLength) {
+                // the new prefix diverges inside of the node, so split it
+                Node split = new Node(mask(prefix, common), common, common == prefixLength);
+                split.children[bit(node.prefix, common)] = node;
+                if (common < prefixLength) {
+                    split.children[bit(prefix, common)] = new Node(prefix, prefixLength, true);
+                }
+                if (parent == null) {
+                    root = split;
+                } else {
+                    parent.children[bit(prefix, parent.prefixLength)] = split;
+                }
+                size++;
+                return;
+            }
+            if (prefixLength == node.prefixLength) {
+                if (!node.terminal) {
+                    node.terminal = true;
+                    size++;
+                }
+                return;
+            }
+            int b = bit(prefix, node.prefixLength);
+            if (node.children[b] == null) {
+                node.children[b] = new Node(prefix, prefixLength, true);
+                size++;
+                return;
+            }
+            parent = node;
+            node = node.children[b];
+        }
+    }
+
+    private void checkLength(byte[] bytes) {
+        if (bytes.length != addressLength) {
+            throw new IllegalArgumentException("Length must be equal to " + addressLength + ".");
+        }
+    }
+
+    /**
+     * Return true if the first bits of the given address equal the prefix of
+     * the node. The bits before offset are known to match already.
+     */
+    private static boolean matches(byte[] address, Node node, int offset) {
+        int fullBytes = node.prefixLength >>> 3;
+        for (int i = offset >>> 3; i < fullBytes; i++) {
+            if (address[i] != node.prefix[i]) {
+                return false;
+            }
+        }
+        int remainder = node.prefixLength & 7;
+        if (remainder == 0) {
+            return true;
+        }
+        int mask = (0xFF << (8 - remainder)) & 0xFF;
+        return (address[fullBytes] & mask) == (node.prefix[fullBytes] & 0xFF);
+    }
+
+    private static int commonPrefixLength(byte[] prefix, int prefixLength, Node node) {
+        int max = Math.min(prefixLength, node.prefixLength);
+        int common = 0;
+        while (common < max) {
+            int diff = (prefix[common >>> 3] ^ node.prefix[common >>> 3]) & 0xFF;
+            if (diff == 0) {
+                common += 8;
+            } else {
+                common = (common & ~7) + Integer.numberOfLeadingZeros(diff) - 24;
+                break;
+            }
+        }
+        return Math.min(common, max);
+    }
+
+    private static int bit(byte[] bytes, int index) {
+        return (bytes[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * Return a copy of the given address of which only the first bits are
+     * kept
+     */
+    private static byte[] mask(byte[] address, int prefixLength) {
+        byte[] masked = new byte[address.length];
+        int fullBytes = prefixLength >>> 3;
+        System.arraycopy(address, 0, masked, 0, fullBytes);
+        int remainder = prefixLength & 7;
+        if (remainder != 0) {
+            masked[fullBytes] = (byte) (address[fullBytes] & (0xFF << (8 - remainder)));
+        }
+        return masked;
+    }
+
+    /**
+     * Return the count of leading set bits of the mask, or -1 if a set bit
+     * follows an unset bit
+     */
+    private static int getPrefixLength(byte[] mask) {
+        int length = 0;
+        int i = 0;
+        while (i < mask.length && mask[i] == (byte) 0xFF) {
+            length += 8;
+            i++;
+        }
+        if (i < mask.length) {
+            int b = mask[i] & 0xFF;
+            int ones = Integer.numberOfLeadingZeros(~(b << 24));
+            if (((b << ones) & 0xFF) != 0) {
+                return -1;
+            }
+            length += ones;
+            for (i++; i < mask.length; i++) {
+                if (mask[i] != 0) {
+                    return -1;
+                }
+            }
+        }
+        return length;
+    }
+
+    private static final class Node {
+
+        /**
+         * The bits of the prefix, all bits after prefixLength are unset
+         */
+        private final byte[] prefix;
+
+        private final int prefixLength;
+
+        private final Node[] children = new Node[2];
+
+        /**
+         * True if the prefix of this node is a network which was added, false
+         * if the node only branches
+         */
+        private boolean terminal;
+
+        private Node(byte[] prefix, int prefixLength, boolean terminal) {
+            this.prefix = prefix;
+            this.prefixLength = prefixLength;
+            this.terminal = terminal;
+        }
+    }
+}
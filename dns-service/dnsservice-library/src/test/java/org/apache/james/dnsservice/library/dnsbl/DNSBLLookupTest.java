@@ -0,0 +1,165 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.library.dnsbl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.dnsservice.api.AsyncDNSService;
+import org.apache.james.dnsservice.api.mock.MockDNSService;
+import org.junit.After;
+import org.junit.Test;
+
+public class DNSBLLookupTest {
+
+    private final static String LISTED = "listed.example.";
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private class BlacklistDNSService extends MockDNSService {
+        private final long delay;
+
+        public BlacklistDNSService(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public InetAddress getByName(String host) throws UnknownHostException {
+            queries.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (host.startsWith(LISTED)) {
+                return InetAddress.getByName("127.0.0.2");
+            }
+            throw new UnknownHostException(host);
+        }
+    }
+
+    private final class AsyncBlacklistDNSService extends BlacklistDNSService implements AsyncDNSService {
+
+        public AsyncBlacklistDNSService(long delay) {
+            super(delay);
+        }
+
+        public Future<InetAddress> getByNameAsync(final String host) {
+            return executor.submit(new Callable<InetAddress>() {
+                public InetAddress call() throws UnknownHostException {
+                    return getByName(host);
+                }
+            });
+        }
+
+        public Future<Collection<String>> findMXRecordsAsync(String hostname) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Future<Collection<String>> findTXTRecordsAsync(String hostname) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Future<InetAddress[]> getAllByNameAsync(String host) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Future<String> getHostNameAsync(InetAddress addr) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFindListingAndCache() {
+        DNSBLLookup lookup = new DNSBLLookup(new BlacklistDNSService(0));
+        List<String> names = Arrays.asList("good.example", "listed.example");
+        List<String> zones = Arrays.asList("rbl1.example", "rbl2.example");
+
+        DNSBLLookup.Listing listing = lookup.findListing(names, zones);
+        assertEquals("listed.example", listing.getName());
+        assertEquals("rbl1.example", listing.getZone());
+        assertEquals(3, queries.get());
+
+        // the answers are cached now
+        listing = lookup.findListing(names, zones);
+        assertEquals("listed.example.rbl1.example", listing.getQuery());
+        assertEquals(3, queries.get());
+        assertTrue(lookup.getCacheHitCount() >= 3);
+
+        assertTrue(lookup.isListed("listed.example.rbl2.example"));
+        assertNull(lookup.findListing(Arrays.asList("good.example"), zones));
+    }
+
+    @Test
+    public void testLookupsRunConcurrently() {
+        DNSBLLookup lookup = new DNSBLLookup(new AsyncBlacklistDNSService(200));
+        List<String> names = Arrays.asList("a.example", "b.example", "c.example", "d.example", "listed.example");
+        List<String> zones = Arrays.asList("rbl1.example", "rbl2.example");
+
+        long start = System.currentTimeMillis();
+        DNSBLLookup.Listing listing = lookup.findListing(names, zones);
+        long duration = System.currentTimeMillis() - start;
+
+        assertEquals("listed.example.rbl1.example", listing.getQuery());
+        // ten sequential lookups would take 2 seconds
+        assertTrue("Took " + duration + "ms", duration < 1500);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        DNSBLLookup lookup = new DNSBLLookup(new AsyncBlacklistDNSService(500));
+        lookup.setTimeout(50);
+
+        assertNull(lookup.findListing(Arrays.asList("listed.example"), Arrays.asList("rbl1.example")));
+        assertEquals(1, lookup.getTimeoutCount());
+
+        // the answer is used once it arrived
+        Thread.sleep(700);
+        assertTrue(lookup.isListed("listed.example.rbl1.example"));
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        DNSBLLookup lookup = new DNSBLLookup(new BlacklistDNSService(0));
+        lookup.setMaxCacheEntries(10);
+        for (int i = 0; i < 100; i++) {
+            lookup.isListed("host" + i + ".rbl.example");
+        }
+        assertTrue(lookup.getCacheSize() <= 10);
+    }
+}
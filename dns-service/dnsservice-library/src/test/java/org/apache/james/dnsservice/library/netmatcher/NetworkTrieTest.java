@@ -0,0 +1,129 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.library.netmatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.james.dnsservice.library.inetnetwork.model.Inet4Network;
+import org.apache.james.dnsservice.library.inetnetwork.model.InetNetwork;
+import org.junit.Test;
+
+/**
+ * Test the NetworkTrie class with IPv4 and IPv6 networks.
+ */
+public class NetworkTrieTest {
+
+    @Test
+    public void testNestedNetworks() throws Exception {
+        NetworkTrie trie = new NetworkTrie(4);
+        assertTrue(trie.add(address("10.0.0.0"), address("255.0.0.0")));
+        assertTrue(trie.add(address("10.1.0.0"), address("255.255.0.0")));
+        assertTrue(trie.add(address("192.168.1.128"), address("255.255.255.128")));
+        assertTrue(trie.add(address("192.168.1.0"), address("255.255.255.192")));
+        assertEquals(4, trie.size());
+
+        assertTrue(trie.contains(address("10.200.3.4")));
+        assertTrue(trie.contains(address("10.1.3.4")));
+        assertTrue(trie.contains(address("192.168.1.255")));
+        assertTrue(trie.contains(address("192.168.1.63")));
+        assertFalse(trie.contains(address("192.168.1.64")));
+        assertFalse(trie.contains(address("11.0.0.1")));
+    }
+
+    @Test
+    public void testHostAndDefaultRoute() throws Exception {
+        NetworkTrie trie = new NetworkTrie(4);
+        assertTrue(trie.add(address("127.0.0.1"), address("255.255.255.255")));
+        assertTrue(trie.contains(address("127.0.0.1")));
+        assertFalse(trie.contains(address("127.0.0.2")));
+
+        assertTrue(trie.add(address("0.0.0.0"), address("0.0.0.0")));
+        assertTrue(trie.contains(address("127.0.0.2")));
+    }
+
+    @Test
+    public void testNonPrefixMaskIsRejected() throws Exception {
+        NetworkTrie trie = new NetworkTrie(4);
+        assertFalse(trie.add(address("10.0.0.0"), address("255.0.255.0")));
+        assertFalse(trie.add(address("10.0.0.0"), address("255.255.244.0")));
+        assertEquals(0, trie.size());
+        assertFalse(trie.contains(address("10.0.0.0")));
+    }
+
+    @Test
+    public void testIpV6Networks() throws Exception {
+        NetworkTrie trie = new NetworkTrie(16);
+        byte[] mask = new byte[16];
+        for (int i = 0; i < 6; i++) {
+            mask[i] = (byte) 0xFF;
+        }
+        assertTrue(trie.add(address("2781:db8:1234:0:0:0:0:0"), mask));
+
+        assertTrue(trie.contains(address("2781:0db8:1234:8612:45ee:ffff:fffe:0001")));
+        assertFalse(trie.contains(address("2781:0db8:1235:8612:45ee:ffff:fffe:0001")));
+        assertFalse(trie.contains(address("10.0.0.1")));
+    }
+
+    /**
+     * The trie must match the same addresses as the networks do
+     */
+    @Test
+    public void testMatchesLikeNetworks() throws Exception {
+        Random random = new Random(42);
+        List<InetNetwork> networks = new ArrayList<InetNetwork>();
+        NetworkTrie trie = new NetworkTrie(4);
+        for (int i = 0; i < 200; i++) {
+            int prefixLength = 8 + random.nextInt(25);
+            byte[] mask = toBytes(-1 << (32 - prefixLength));
+            InetNetwork network = new Inet4Network(InetAddress.getByAddress(toBytes(random.nextInt())), InetAddress.getByAddress(mask));
+            networks.add(network);
+            assertTrue(trie.add(network.getAddress(), network.getMask()));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            InetAddress ip = InetAddress.getByAddress(toBytes(random.nextInt()));
+            // also test addresses which are contained in one of the networks
+            if (i % 2 == 0) {
+                byte[] bytes = networks.get(random.nextInt(networks.size())).getAddress();
+                bytes[3] ^= (byte) random.nextInt(2);
+                ip = InetAddress.getByAddress(bytes);
+            }
+            boolean expected = false;
+            for (InetNetwork network : networks) {
+                expected |= network.contains(ip);
+            }
+            assertEquals(ip.toString(), expected, trie.contains(ip.getAddress()));
+        }
+    }
+
+    private static byte[] address(String ip) throws Exception {
+        return InetAddress.getByName(ip).getAddress();
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+}
@@ -0,0 +1,136 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.api;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.mailet.MailAddress;
+
+/**
+ * Set of recipients which keeps the insertion order and supports cheap
+ * difference, intersection and union operations. The operations return a new
+ * {@link RecipientSet} and need time proportional to the size of the involved
+ * collections, so it should be used in place of {@link java.util.List}
+ * arithmetic on the recipients of a {@link org.apache.mailet.Mail}.
+ */
+public class RecipientSet extends LinkedHashSet<MailAddress> {
+
+    private static final long serialVersionUID = 2458346522894614571L;
+
+    public RecipientSet() {
+        super();
+    }
+
+    public RecipientSet(Collection<MailAddress> recipients) {
+        super(recipients);
+    }
+
+    /**
+     * Return the given recipients as {@link RecipientSet}. The given instance
+     * is returned if it is a {@link RecipientSet} already.
+     * 
+     * @param recipients
+     * @return recipientSet
+     */
+    public static RecipientSet of(Collection<MailAddress> recipients) {
+        if (recipients instanceof RecipientSet) {
+            return (RecipientSet) recipients;
+        }
+        return new RecipientSet(recipients);
+    }
+
+    /**
+     * Return the recipients of this set which are not contained in the given
+     * recipients
+     * 
+     * @param recipients
+     * @return difference
+     */
+    public RecipientSet difference(Collection<MailAddress> recipients) {
+        Set<MailAddress> other = asSet(recipients);
+        RecipientSet result = new RecipientSet();
+        for (MailAddress recipient : this) {
+            if (!other.contains(recipient)) {
+                result.add(recipient);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the recipients of this set which are contained in the given
+     * recipients
+     * 
+     * @param recipients
+     * @return intersection
+     */
+    public RecipientSet intersection(Collection<MailAddress> recipients) {
+        Set<MailAddress> other = asSet(recipients);
+        RecipientSet result = new RecipientSet();
+        for (MailAddress recipient : this) {
+            if (other.contains(recipient)) {
+                result.add(recipient);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the recipients of this set followed by the given recipients which
+     * are not contained in this set
+     * 
+     * @param recipients
+     * @return union
+     */
+    public RecipientSet union(Collection<MailAddress> recipients) {
+        RecipientSet result = new RecipientSet(this);
+        result.addAll(recipients);
+        return result;
+    }
+
+    /**
+     * Return the recipients which are contained either in this set or in the
+     * given recipients, but not in both
+     * 
+     * @param recipients
+     * @return symmetricDifference
+     */
+    public RecipientSet symmetricDifference(Collection<MailAddress> recipients) {
+        RecipientSet result = new RecipientSet(this);
+        for (MailAddress recipient : asSet(recipients)) {
+            if (!result.remove(recipient)) {
+                result.add(recipient);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return a {@link Set} with the given recipients, in the same order, which
+     * can be used for cheap lookups
+     */
+    private static Set<MailAddress> asSet(Collection<MailAddress> recipients) {
+        if (recipients instanceof Set) {
+            return (Set<MailAddress>) recipients;
+        }
+        return new LinkedHashSet<MailAddress>(recipients);
+    }
+}
@@ -67,4 +67,43 @@ public interface MailProcessorManagementMBean {
      */
     long getLastProcessing();
 
+    /**
+     * Return the time in ms which was not exceeded by half of the processings
+     * of the last minute, or -1 if there were none
+     * 
+     * @return median
+     */
+    double getMedianProcessing();
+
+    /**
+     * Return the time in ms which was not exceeded by 95% of the processings
+     * of the last minute, or -1 if there were none
+     * 
+     * @return percentile
+     */
+    double getPercentile95Processing();
+
+    /**
+     * Return the time in ms which was not exceeded by 99% of the processings
+     * of the last minute, or -1 if there were none
+     * 
+     * @return percentile
+     */
+    double getPercentile99Processing();
+
+    /**
+     * Return the time in ms which was not exceeded by 99.9% of the processings
+     * of the last minute, or -1 if there were none
+     * 
+     * @return percentile
+     */
+    double getPercentile999Processing();
+
+    /**
+     * Return the count of processings per second during the last minute
+     * 
+     * @return throughput
+     */
+    double getThroughput();
+
 }
@@ -36,4 +36,41 @@ public interface MailSpoolerMBean {
      */
     int getCurrentSpoolCount();
 
+    /**
+     * Return the executor mode used for spooling, which is either "platform"
+     * or "virtual"
+     * 
+     * @return executorMode
+     */
+    String getExecutorMode();
+
+    /**
+     * Return the maximum number of mails which are processed concurrently
+     * 
+     * @return concurrencyLimit
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * Return the number of mails which are processed right now
+     * 
+     * @return in-flight count
+     */
+    int getInFlightCount();
+
+    /**
+     * Return the number of mails which were dequeued but wait for their
+     * processing to start
+     * 
+     * @return waiting count
+     */
+    int getWaitingCount();
+
+    /**
+     * Return the number of mails which were processed since the start
+     * 
+     * @return completed count
+     */
+    long getCompletedCount();
+
 }
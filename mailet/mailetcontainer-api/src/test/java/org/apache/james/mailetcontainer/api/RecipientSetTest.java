@@ -0,0 +1,85 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mailet.MailAddress;
+import org.junit.Test;
+
+public class RecipientSetTest {
+
+    private final MailAddress a;
+    private final MailAddress b;
+    private final MailAddress c;
+
+    public RecipientSetTest() throws Exception {
+        a = new MailAddress("a@localhost");
+        b = new MailAddress("b@localhost");
+        c = new MailAddress("c@localhost");
+    }
+
+    @Test
+    public void testDifference() {
+        RecipientSet set = new RecipientSet(Arrays.asList(a, b, c));
+        assertEquals(Arrays.asList(a, c), new ArrayList<MailAddress>(set.difference(Arrays.asList(b))));
+    }
+
+    @Test
+    public void testIntersection() {
+        RecipientSet set = new RecipientSet(Arrays.asList(a, b, c));
+        assertEquals(Arrays.asList(a, c), new ArrayList<MailAddress>(set.intersection(Arrays.asList(c, a))));
+    }
+
+    @Test
+    public void testUnion() {
+        RecipientSet set = new RecipientSet(Arrays.asList(b, a));
+        assertEquals(Arrays.asList(b, a, c), new ArrayList<MailAddress>(set.union(Arrays.asList(a, c))));
+        // the operations do not modify the set
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testSymmetricDifference() {
+        RecipientSet set = new RecipientSet(Arrays.asList(a, b));
+        assertEquals(Arrays.asList(a, c), new ArrayList<MailAddress>(set.symmetricDifference(Arrays.asList(b, c, b))));
+    }
+
+    @Test
+    public void testLargeDifference() throws Exception {
+        List<MailAddress> recipients = new ArrayList<MailAddress>();
+        List<MailAddress> matched = new ArrayList<MailAddress>();
+        for (int i = 0; i < 10000; i++) {
+            MailAddress address = new MailAddress("user" + i + "@localhost");
+            recipients.add(address);
+            if (i % 2 == 0) {
+                matched.add(address);
+            }
+        }
+        RecipientSet remaining = new RecipientSet(recipients).difference(matched);
+        assertEquals(5000, remaining.size());
+        assertTrue(remaining.contains(new MailAddress("user1@localhost")));
+        assertEquals(new MailAddress("user9999@localhost"), new ArrayList<MailAddress>(remaining).get(4999));
+    }
+}
@@ -0,0 +1,167 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.mailetcontainer.impl.camel.CamelProcessor;
+import org.apache.james.mailetcontainer.impl.camel.MatcherSplitter;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
+import org.apache.mailet.Mail;
+import org.apache.mailet.Mailet;
+import org.apache.mailet.MailetConfig;
+import org.apache.mailet.Matcher;
+
+/**
+ * {@link AbstractStateMailetProcessor} implementation which does not route the
+ * {@link Mail} through Camel. The {@link MatcherMailetPair}'s get compiled to
+ * an array of steps which get called in a plain loop, with the same semantics
+ * as the Camel route of
+ * {@link org.apache.james.mailetcontainer.impl.camel.CamelMailetProcessor}:
+ * 
+ * <ul>
+ * <li>The {@link Matcher} of each step splits the {@link Mail} via the
+ * {@link MatcherSplitter}. The matched part is processed till the end of the
+ * processor before the not matched part is processed further</li>
+ * <li>The {@link Mailet} is only called for the matched part</li>
+ * <li>A {@link Mail} in {@link Mail#GHOST} state gets disposed</li>
+ * <li>A {@link Mail} which changed its state is handed over to the processor
+ * of the new state</li>
+ * <li>A {@link Mail} which reaches the end of the processor is handled by the
+ * {@link AbstractStateMailetProcessor.TerminatingMailet}</li>
+ * </ul>
+ */
+public class CompiledMailetProcessor extends AbstractStateMailetProcessor {
+
+    private final MatcherSplitter splitter = new MatcherSplitter();
+
+    private Step[] steps;
+
+    private CamelProcessor terminatingMailetProcessor;
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.api.MailProcessor#service(org.apache.mailet.Mail)
+     */
+    public void service(Mail mail) throws MessagingException {
+        process(mail, 0);
+    }
+
+    /**
+     * Process the given {@link Mail} starting with the given step
+     * 
+     * @param mail
+     * @param start
+     * @throws MessagingException
+     */
+    private void process(Mail mail, int start) throws MessagingException {
+        for (int i = start; i < steps.length; i++) {
+            Step step = steps[i];
+            List<Mail> mails = splitter.split(step.matcher, step.onMatchException, getLogger(), this, mail);
+
+            // the mails which were split off are processed till the end first,
+            // the last mail is the one which was passed in
+            int last = mails.size() - 1;
+            for (int j = 0; j < last; j++) {
+                Mail splitMail = mails.get(j);
+                if (afterMatch(step, splitMail)) {
+                    process(splitMail, i + 1);
+                }
+            }
+            mail = mails.get(last);
+            if (!afterMatch(step, mail)) {
+                return;
+            }
+        }
+
+        // the mail state did not change till the end of the processor, so we
+        // need to call the TerminatingMailet to make sure we don't fall into
+        // an endless loop
+        terminatingMailetProcessor.process(mail);
+    }
+
+    /**
+     * Call the {@link Mailet} of the step if the {@link Matcher} matched and
+     * check if the {@link Mail} needs to be processed further by this
+     * processor
+     * 
+     * @param step
+     * @param mail
+     * @return true if the mail needs to be processed by the next step
+     * @throws MessagingException
+     */
+    private boolean afterMatch(Step step, Mail mail) throws MessagingException {
+        if (mail.removeAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE) != null) {
+            step.mailetProcessor.process(mail);
+        }
+
+        if (Mail.GHOST.equals(mail.getState())) {
+            LifecycleUtil.dispose(mail.getMessage());
+            LifecycleUtil.dispose(mail);
+            return false;
+        }
+        if (!getState().equals(mail.getState())) {
+            toProcessor(mail);
+            getLogger().debug("End of mailetprocessor for state " + getState() + " reached");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor#setupRouting
+     * (java.util.List)
+     */
+    protected void setupRouting(List<MatcherMailetPair> pairs) throws MessagingException {
+        Step[] compiled = new Step[pairs.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            MatcherMailetPair pair = pairs.get(i);
+            Mailet mailet = pair.getMailet();
+
+            String onMatchException = null;
+            MailetConfig mailetConfig = mailet.getMailetConfig();
+            if (mailetConfig instanceof MailetConfigImpl) {
+                onMatchException = ((MailetConfigImpl) mailetConfig).getInitAttribute("onMatchException");
+            }
+            compiled[i] = new Step(pair.getMatcher(), onMatchException, new CamelProcessor(mailet, getLogger(), this));
+        }
+        terminatingMailetProcessor = new CamelProcessor(new TerminatingMailet(), getLogger(), this);
+        steps = compiled;
+    }
+
+    /**
+     * A compiled {@link MatcherMailetPair}
+     */
+    private final static class Step {
+
+        private final Matcher matcher;
+        private final String onMatchException;
+        private final CamelProcessor mailetProcessor;
+
+        public Step(Matcher matcher, String onMatchException, CamelProcessor mailetProcessor) {
+            this.matcher = matcher;
+            this.onMatchException = onMatchException;
+            this.mailetProcessor = mailetProcessor;
+        }
+    }
+}
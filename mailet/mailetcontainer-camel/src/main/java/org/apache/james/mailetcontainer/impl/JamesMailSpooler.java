@@ -38,9 +38,17 @@ import org.slf4j.Logger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages the mail spool. This class is responsible for retrieving messages
@@ -49,6 +57,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class JamesMailSpooler implements Runnable, Disposable, Configurable, LogEnabled, MailSpoolerMBean {
 
+    /**
+     * Process the mails by a fixed pool of platform threads
+     */
+    public final static String PLATFORM_EXECUTOR = "platform";
+
+    /**
+     * Process every mail by a new virtual thread if the JVM supports them
+     */
+    public final static String VIRTUAL_EXECUTOR = "virtual";
+
     private MailQueue queue;
 
     /**
@@ -63,6 +81,28 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
 
     private final AtomicInteger processingActive = new AtomicInteger(0);
 
+    /**
+     * Number of mails which were dequeued but are not processed yet
+     */
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    /**
+     * Number of mails which were processed
+     */
+    private final AtomicLong completed = new AtomicLong(0);
+
+    /**
+     * The configured executor mode and the one which is used
+     */
+    private String executorMode;
+
+    /**
+     * The maximum number of mails which are processed concurrently
+     */
+    private int maxConcurrency;
+
+    private Semaphore concurrency;
+
     /**
      * Spool threads are active
      */
@@ -86,6 +126,11 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
 
     private int numDequeueThreads;
 
+    /**
+     * The maximum number of mails which are dequeued at once
+     */
+    private int batchSize;
+
     @Inject
     public void setMailQueueFactory(MailQueueFactory queueFactory) {
         this.queueFactory = queueFactory;
@@ -103,6 +148,21 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         numDequeueThreads = config.getInt("dequeueThreads", 2);
 
         numThreads = config.getInt("threads", 100);
+
+        executorMode = config.getString("executor", PLATFORM_EXECUTOR);
+        if (!PLATFORM_EXECUTOR.equals(executorMode) && !VIRTUAL_EXECUTOR.equals(executorMode)) {
+            throw new ConfigurationException("Unknown executor " + executorMode);
+        }
+
+        maxConcurrency = config.getInt("maxConcurrency", numThreads);
+        if (maxConcurrency < 1) {
+            throw new ConfigurationException("maxConcurrency must be at least 1");
+        }
+
+        batchSize = config.getInt("batchSize", 1);
+        if (batchSize < 1) {
+            throw new ConfigurationException("batchSize must be at least 1");
+        }
     }
 
     /**
@@ -114,13 +174,24 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
 
         queue = queueFactory.getQueue(MailQueueFactory.SPOOL);
 
+        active.set(true);
+        concurrency = new Semaphore(maxConcurrency);
+        if (VIRTUAL_EXECUTOR.equals(executorMode)) {
+            workerService = newVirtualThreadExecutor();
+            if (workerService == null) {
+                logger.warn("Virtual threads are not supported by this JVM, using a pool of " + numThreads + " platform threads");
+                executorMode = PLATFORM_EXECUTOR;
+            }
+        }
+        if (workerService == null) {
+            workerService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "spooler", numThreads);
+        }
+
         if (logger.isInfoEnabled()) {
-            String infoBuffer = getClass().getName() + " uses " + numThreads + " Thread(s)";
+            String infoBuffer = getClass().getName() + " uses " + (PLATFORM_EXECUTOR.equals(executorMode) ? numThreads + " platform" : "virtual") + " Thread(s) to process up to " + maxConcurrency + " mails concurrently";
             logger.info(infoBuffer);
         }
 
-        active.set(true);
-        workerService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "spooler", numThreads);
         dequeueService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "dequeuer", numDequeueThreads);
 
         for (int i = 0; i < numDequeueThreads; i++) {
@@ -129,6 +200,24 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         }
     }
 
+    /**
+     * Create an {@link ExecutorService} which starts a virtual thread per task.
+     * The factory method is looked up reflectively, so the spooler still runs
+     * on JVM's without virtual threads.
+     * 
+     * @return executor or null if virtual threads are not supported
+     */
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            logger.warn("Unable to create virtual thread executor", e);
+            return null;
+        }
+    }
+
     /**
      * This routinely checks the message spool for messages, and processes them
      * as necessary
@@ -143,50 +232,35 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
 
         while (active.get()) {
 
-            final MailQueueItem queueItem;
             try {
-                queueItem = queue.deQueue();
-                workerService.execute(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            numActive.incrementAndGet();
-
-                            // increase count
-                            processingActive.incrementAndGet();
-
-                            Mail mail = queueItem.getMail();
-                            if (logger.isDebugEnabled()) {
-                                String debugBuffer = "==== Begin processing mail " + mail.getName() + "====";
-                                logger.debug(debugBuffer);
-                            }
-
-                            try {
-                                mailProcessor.service(mail);
-                                queueItem.done(true);
-                            } catch (Exception e) {
-                                if (active.get() && logger.isErrorEnabled()) {
-                                    logger.error("Exception processing mail while spooling " + e.getMessage(), e);
-                                }
-                                queueItem.done(false);
-
-                            } finally {
-                                LifecycleUtil.dispose(mail);
-                                mail = null;
-                            }
-                        } catch (Throwable e) {
-                            if (active.get() && logger.isErrorEnabled()) {
-                                logger.error("Exception processing mail while spooling " + e.getMessage(), e);
-
-                            }
-                        } finally {
-                            processingActive.decrementAndGet();
-                            numActive.decrementAndGet();
-                        }
-
+                List<MailQueueItem> queueItems = queue.deQueue(batchSize, 1, TimeUnit.SECONDS);
+                if (queueItems.isEmpty()) {
+                    continue;
+                }
+                SpoolBatch batch = new SpoolBatch(queueItems.size());
+                waiting.addAndGet(queueItems.size());
+                for (int i = 0; i < queueItems.size(); i++) {
+                    MailQueueItem queueItem = queueItems.get(i);
+                    try {
+                        // the permit limits the concurrency independent of
+                        // the count of threads
+                        concurrency.acquire();
+                    } catch (InterruptedException e) {
+                        // the spooler is stopped, so put the remaining mails
+                        // back into the queue
+                        rollback(batch, queueItems, i);
+                        Thread.currentThread().interrupt();
+                        break;
                     }
-                });
+                    try {
+                        execute(batch, queueItem);
+                    } catch (RejectedExecutionException e) {
+                        // the workers were shut down in the meantime
+                        concurrency.release();
+                        rollback(batch, queueItems, i);
+                        break;
+                    }
+                }
             } catch (MailQueueException e1) {
                 if (active.get() && logger.isErrorEnabled()) {
                     logger.error("Exception dequeue mail", e1);
@@ -199,6 +273,103 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         }
     }
 
+    /**
+     * Put the not yet processed mails of the batch, starting with the given
+     * index, back into the queue
+     */
+    private void rollback(SpoolBatch batch, List<MailQueueItem> queueItems, int start) {
+        for (int i = start; i < queueItems.size(); i++) {
+            waiting.decrementAndGet();
+            batch.done(queueItems.get(i), false);
+        }
+    }
+
+    /**
+     * Process the given mail by the workers. The caller must hold a permit,
+     * which is released once the mail was processed
+     */
+    private void execute(final SpoolBatch batch, final MailQueueItem queueItem) {
+        workerService.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    waiting.decrementAndGet();
+                    numActive.incrementAndGet();
+
+                    // increase count
+                    processingActive.incrementAndGet();
+
+                    Mail mail = queueItem.getMail();
+                    if (logger.isDebugEnabled()) {
+                        String debugBuffer = "==== Begin processing mail " + mail.getName() + "====";
+                        logger.debug(debugBuffer);
+                    }
+
+                    try {
+                        mailProcessor.service(mail);
+                        success = true;
+                    } catch (Exception e) {
+                        if (active.get() && logger.isErrorEnabled()) {
+                            logger.error("Exception processing mail while spooling " + e.getMessage(), e);
+                        }
+                    } finally {
+                        LifecycleUtil.dispose(mail);
+                        mail = null;
+                    }
+                } catch (Throwable e) {
+                    if (active.get() && logger.isErrorEnabled()) {
+                        logger.error("Exception processing mail while spooling " + e.getMessage(), e);
+
+                    }
+                } finally {
+                    // count it before the batch gets acknowledged, so the
+                    // count is complete once the queue saw the outcome
+                    completed.incrementAndGet();
+                    batch.done(queueItem, success);
+                    processingActive.decrementAndGet();
+                    numActive.decrementAndGet();
+                    concurrency.release();
+                }
+
+            }
+        });
+    }
+
+    /**
+     * Collects the outcome of all {@link MailQueueItem}'s which were dequeued
+     * together and acknowledges them as a group once the last one was processed
+     */
+    private final class SpoolBatch {
+
+        private final Map<MailQueueItem, Boolean> results = new LinkedHashMap<MailQueueItem, Boolean>();
+        private final int size;
+
+        public SpoolBatch(int size) {
+            this.size = size;
+        }
+
+        public void done(MailQueueItem item, boolean success) {
+            synchronized (results) {
+                results.put(item, success);
+                if (results.size() < size) {
+                    return;
+                }
+            }
+
+            for (Map.Entry<MailQueueItem, Boolean> result : results.entrySet()) {
+                try {
+                    result.getKey().done(result.getValue());
+                } catch (MailQueueException e) {
+                    if (logger.isErrorEnabled()) {
+                        logger.error("Unable to acknowledge mail " + result.getKey().getMail().getName(), e);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * The dispose operation is called at the end of a components lifecycle.
      * Instances of this class use this method to release and destroy any
@@ -242,4 +413,29 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
     public int getCurrentSpoolCount() {
         return processingActive.get();
     }
+
+    @Override
+    public String getExecutorMode() {
+        return executorMode;
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return processingActive.get();
+    }
+
+    @Override
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.get();
+    }
 }
@@ -31,6 +31,7 @@ import org.apache.james.lifecycle.api.Configurable;
 import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.apache.james.mailetcontainer.api.MailProcessor;
+import org.apache.james.queue.api.MailQueueFactory;
 import org.apache.james.user.api.UsersRepository;
 import org.apache.james.user.api.UsersRepositoryException;
 import org.apache.mailet.HostAddress;
@@ -41,6 +42,8 @@ import org.apache.mailet.MailetContext;
 import org.apache.mailet.base.RFC2822Headers;
 import org.slf4j.Logger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.mail.Address;
 import javax.mail.Message;
@@ -54,11 +57,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Vector;
 
 public class JamesMailetContext implements MailetContext, LogEnabled, Configurable {
@@ -67,6 +72,21 @@ public class JamesMailetContext implements MailetContext, LogEnabled, Configurab
      * A hash table of server attributes These are the MailetContext attributes
      */
     private final Hashtable<String, Object> attributes = new Hashtable<String, Object>();
+
+    /**
+     * Process sent mails on the thread of the caller
+     */
+    public final static String SYNC_HANDOFF = "sync";
+
+    /**
+     * Process sent mails in memory by a pool of threads
+     */
+    public final static String ASYNC_HANDOFF = "async";
+
+    /**
+     * Store sent mails in the spool
+     */
+    public final static String QUEUE_HANDOFF = "queue";
     protected DNSService dns;
 
     protected Logger log;
@@ -79,11 +99,22 @@ public class JamesMailetContext implements MailetContext, LogEnabled, Configurab
 
     private MailAddress postmaster;
 
+    private MailQueueFactory queueFactory;
+
+    private HierarchicalConfiguration handoffConfig;
+
+    private MailHandoff handoff;
+
     @Inject
     public void setMailProcessor(MailProcessor processorList) {
         this.processorList = processorList;
     }
 
+    @Inject
+    public void setMailQueueFactory(MailQueueFactory queueFactory) {
+        this.queueFactory = queueFactory;
+    }
+
     @Inject
     public void setDNSService(DNSService dns) {
         this.dns = dns;
@@ -402,11 +433,16 @@ public class JamesMailetContext implements MailetContext, LogEnabled, Configurab
     }
 
     /**
-     * TODO: Should we use the MailProcessorList or the MailQueue here ?
+     * Process the mail directly or hand it over to the {@link MailHandoff} if
+     * configured
      */
     @Override
     public void sendMail(Mail mail) throws MessagingException {
-        processorList.service(mail);
+        if (handoff != null) {
+            handoff.handoff(mail);
+        } else {
+            processorList.service(mail);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -488,5 +524,53 @@ public class JamesMailetContext implements MailetContext, LogEnabled, Configurab
         } catch (DomainListException e) {
             throw new ConfigurationException("Unable to access DomainList", e);
         }
+
+        String mode = config.getString("handoff[@mode]", SYNC_HANDOFF);
+        if (!SYNC_HANDOFF.equals(mode) && !ASYNC_HANDOFF.equals(mode) && !QUEUE_HANDOFF.equals(mode)) {
+            throw new ConfigurationException("Unknown handoff mode " + mode);
+        }
+        if (!config.configurationsAt("handoff").isEmpty()) {
+            handoffConfig = config.configurationAt("handoff");
+        }
+    }
+
+    /**
+     * Create the {@link MailHandoff} if an asynchronous handoff mode is
+     * configured
+     */
+    @PostConstruct
+    public void init() throws Exception {
+        if (handoffConfig == null) {
+            return;
+        }
+        String mode = handoffConfig.getString("[@mode]", SYNC_HANDOFF);
+        if (QUEUE_HANDOFF.equals(mode)) {
+            handoff = new MailHandoff(queueFactory.getQueue(MailQueueFactory.SPOOL), log);
+        } else if (ASYNC_HANDOFF.equals(mode)) {
+            int threads = handoffConfig.getInt("[@threads]", 10);
+            int maxPending = handoffConfig.getInt("[@maxPending]", 1000);
+            int stateThreads = handoffConfig.getInt("[@stateThreads]", Math.max(1, threads / 2));
+            if (threads < 1 || maxPending < 1 || stateThreads < 1) {
+                throw new ConfigurationException("The threads, maxPending and stateThreads of the handoff must be greater than 0");
+            }
+
+            Map<String, Integer> stateConcurrency = new HashMap<String, Integer>();
+            List<HierarchicalConfiguration> states = handoffConfig.configurationsAt("state");
+            for (HierarchicalConfiguration state : states) {
+                stateConcurrency.put(state.getString("[@name]"), state.getInt("[@threads]", stateThreads));
+            }
+            handoff = new MailHandoff(processorList, threads, maxPending, stateThreads, stateConcurrency, "org.apache.james:type=component,component=mailetcontainer,name=mailetcontext,sub-type=threadpool", log);
+        }
+        if (handoff != null && log.isInfoEnabled()) {
+            log.info("Mails sent by mailets are handed off in " + mode + " mode");
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (handoff != null) {
+            handoff.dispose();
+            handoff = null;
+        }
     }
 }
@@ -0,0 +1,251 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.mailetcontainer.api.MailProcessor;
+import org.apache.james.queue.api.MailQueue;
+import org.apache.james.util.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.mailet.Mail;
+import org.slf4j.Logger;
+
+/**
+ * Hands the {@link Mail}'s which are sent via the
+ * {@link org.apache.mailet.MailetContext} over to the {@link MailProcessor}
+ * without processing them on the stack of the calling thread.
+ * 
+ * If a {@link MailQueue} is given the {@link Mail}'s are stored in it, so they
+ * survive a restart and are processed by the spooler. Otherwise they are kept
+ * in a queue per state, which is processed by a shared pool of threads. The
+ * count of threads which process the {@link Mail}'s of one state is limited, so
+ * a burst of mails in one state can not starve the other states. If too many
+ * {@link Mail}'s are pending, the {@link Mail} is processed by the calling
+ * thread.
+ */
+public class MailHandoff {
+
+    private final MailProcessor processor;
+    private final MailQueue queue;
+    private final Logger logger;
+    private final Semaphore pending;
+    private final int maxPending;
+    private final int defaultConcurrency;
+    private final Map<String, Integer> stateConcurrency;
+    private final ConcurrentMap<String, StateQueue> stateQueues = new ConcurrentHashMap<String, StateQueue>();
+    private final ExecutorService executor;
+
+    /**
+     * Create a {@link MailHandoff} which stores the mails in the given
+     * {@link MailQueue}
+     * 
+     * @param queue
+     */
+    public MailHandoff(MailQueue queue, Logger logger) {
+        this.queue = queue;
+        this.logger = logger;
+        this.processor = null;
+        this.pending = null;
+        this.maxPending = 0;
+        this.defaultConcurrency = 0;
+        this.stateConcurrency = null;
+        this.executor = null;
+    }
+
+    /**
+     * Create a {@link MailHandoff} which processes the mails in memory
+     * 
+     * @param processor
+     * @param threads
+     *            the count of threads to process the mails
+     * @param maxPending
+     *            the count of mails which can wait for processing
+     * @param defaultConcurrency
+     *            the count of threads which process mails of one state at most
+     * @param stateConcurrency
+     *            the count of threads per state which differs from the default
+     * @param jmxPath
+     *            the jmx path of the thread pool or null
+     */
+    public MailHandoff(MailProcessor processor, int threads, int maxPending, int defaultConcurrency, Map<String, Integer> stateConcurrency, String jmxPath, Logger logger) {
+        this.queue = null;
+        this.logger = logger;
+        this.processor = processor;
+        this.pending = new Semaphore(maxPending);
+        this.maxPending = maxPending;
+        this.defaultConcurrency = defaultConcurrency;
+        this.stateConcurrency = stateConcurrency;
+        this.executor = JMXEnabledThreadPoolExecutor.newFixedThreadPool(jmxPath, "mailhandoff", threads);
+    }
+
+    /**
+     * Hand the given {@link Mail} over. The caller keeps the ownership of the
+     * given instance, so it can dispose it once this method returns.
+     * 
+     * @param mail
+     * @throws MessagingException
+     */
+    public void handoff(Mail mail) throws MessagingException {
+        if (queue != null) {
+            queue.enQueue(mail);
+            return;
+        }
+        if (executor.isShutdown() || !pending.tryAcquire()) {
+            // too many mails are waiting, so slow down the caller by
+            // processing the mail on its thread
+            if (logger.isDebugEnabled()) {
+                logger.debug("Processing mail " + mail.getName() + " synchronously as " + maxPending + " mails are pending");
+            }
+            processor.service(mail);
+            return;
+        }
+        Mail copy;
+        try {
+            copy = new MailImpl(mail, mail.getName());
+        } catch (MessagingException e) {
+            pending.release();
+            throw e;
+        } catch (RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+        // from now on the permit is released once the copy was processed
+        getStateQueue(mail.getState()).add(copy);
+    }
+
+    /**
+     * Return the count of mails which wait for processing
+     * 
+     * @return pending
+     */
+    public int getPendingCount() {
+        if (pending == null) {
+            return 0;
+        }
+        return maxPending - pending.availablePermits();
+    }
+
+    /**
+     * Stop processing after the pending mails were processed
+     */
+    public void dispose() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                    logger.warn("Unable to process " + getPendingCount() + " pending mails in time");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private StateQueue getStateQueue(String state) {
+        StateQueue stateQueue = stateQueues.get(state);
+        if (stateQueue == null) {
+            Integer concurrency = stateConcurrency.get(state);
+            stateQueue = new StateQueue(concurrency == null ? defaultConcurrency : concurrency);
+            StateQueue existing = stateQueues.putIfAbsent(state, stateQueue);
+            if (existing != null) {
+                stateQueue = existing;
+            }
+        }
+        return stateQueue;
+    }
+
+    /**
+     * Queue of the mails of one state which are processed by at most the
+     * configured count of threads of the pool
+     */
+    private final class StateQueue implements Runnable {
+
+        private final Queue<Mail> mails = new ConcurrentLinkedQueue<Mail>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final int maxConcurrency;
+
+        public StateQueue(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public void add(Mail mail) {
+            mails.add(mail);
+            schedule();
+        }
+
+        /**
+         * Start another thread for this state if there are mails and the limit
+         * is not reached yet
+         */
+        private void schedule() {
+            while (!mails.isEmpty()) {
+                int current = active.get();
+                if (current >= maxConcurrency) {
+                    return;
+                }
+                if (active.compareAndSet(current, current + 1)) {
+                    try {
+                        executor.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        // the pool was shut down in the meantime, so process
+                        // the queued mails on the calling thread. This gives
+                        // the slot back once the queue is empty
+                        run();
+                    }
+                    return;
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                Mail mail;
+                while ((mail = mails.poll()) != null) {
+                    try {
+                        processor.service(mail);
+                    } catch (Exception e) {
+                        logger.error("Exception processing mail " + mail.getName() + " in state " + mail.getState(), e);
+                    } finally {
+                        LifecycleUtil.dispose(mail);
+                        pending.release();
+                    }
+                }
+            } finally {
+                active.decrementAndGet();
+                // there may be mails which were added after the last poll
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.mailetcontainer.api.RecipientSet;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.Matcher;
+import org.apache.mailet.MatcherConfig;
+
+/**
+ * Group of consecutive {@link Matcher}'s which have no side effects. Once the
+ * first {@link Matcher} of the group is called for a {@link Mail} all
+ * {@link Matcher}'s of the group are evaluated concurrently. The results are
+ * kept till the {@link Matcher} is called for the same {@link Mail} by the
+ * processor, so they are applied in order.
+ * 
+ * The concurrent evaluation is done before any {@link org.apache.mailet.Mailet}
+ * of the group is called, so a result only reflects changes of the
+ * recipients made by the {@link org.apache.mailet.Mailet}'s of the group, not
+ * other changes to the {@link Mail}.
+ */
+public class ParallelMatcherGroup {
+
+    /**
+     * Marker for a matcher which returned <code>null</code>
+     */
+    private final static Object NO_MATCH = new Object();
+
+    private final List<Matcher> matchers;
+    private final ExecutorService executor;
+
+    /**
+     * The results of the pending {@link Matcher}'s per {@link Mail}. The keys
+     * are weak so the results of a {@link Mail} which left the processor
+     * before all {@link Matcher}'s were called do not leak
+     */
+    private final Map<Mail, Object[]> results = Collections.synchronizedMap(new WeakHashMap<Mail, Object[]>());
+
+    public ParallelMatcherGroup(List<Matcher> matchers, ExecutorService executor) {
+        this.matchers = new ArrayList<Matcher>(matchers);
+        this.executor = executor;
+    }
+
+    /**
+     * Return the {@link Matcher} which needs to be used by the processor in
+     * place of the {@link Matcher} with the given index
+     * 
+     * @param index
+     * @return matcher
+     */
+    public Matcher getMatcher(int index) {
+        return new GroupMatcher(index);
+    }
+
+    /**
+     * Evaluate all {@link Matcher}'s of the group for the given {@link Mail}
+     * and keep the results of all but the first
+     * 
+     * @param mail
+     * @return the result of the first matcher
+     * @throws MessagingException
+     */
+    private Collection<MailAddress> matchAll(final Mail mail) throws MessagingException {
+        List<Future<Collection<MailAddress>>> futures = new ArrayList<Future<Collection<MailAddress>>>(matchers.size() - 1);
+        for (int i = 1; i < matchers.size(); i++) {
+            final Matcher matcher = matchers.get(i);
+            futures.add(executor.submit(new Callable<Collection<MailAddress>>() {
+                public Collection<MailAddress> call() throws Exception {
+                    return matcher.match(mail);
+                }
+            }));
+        }
+
+        Object first;
+        try {
+            first = matchers.get(0).match(mail);
+        } catch (MessagingException e) {
+            first = e;
+        } catch (RuntimeException e) {
+            first = e;
+        }
+
+        Object[] pending = new Object[matchers.size()];
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                Collection<MailAddress> matched = futures.get(i).get();
+                pending[i + 1] = matched == null ? NO_MATCH : matched;
+            } catch (ExecutionException e) {
+                pending[i + 1] = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending[i + 1] = new MessagingException("Interrupted while waiting for the matcher", e);
+            }
+        }
+        results.put(mail, pending);
+
+        return toResult(first);
+    }
+
+    /**
+     * Return the result of the {@link Matcher} with the given index which was
+     * evaluated before, or <code>null</code> if there is none
+     * 
+     * @param mail
+     * @param index
+     * @return result or null
+     */
+    private Object take(Mail mail, int index) {
+        synchronized (results) {
+            Object[] pending = results.get(mail);
+            if (pending == null) {
+                return null;
+            }
+            Object result = pending[index];
+            pending[index] = null;
+            if (index == pending.length - 1) {
+                results.remove(mail);
+            }
+            return result;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<MailAddress> toResult(Object result) throws MessagingException {
+        if (result instanceof MessagingException) {
+            throw (MessagingException) result;
+        } else if (result instanceof RuntimeException) {
+            throw (RuntimeException) result;
+        } else if (result instanceof Error) {
+            throw (Error) result;
+        } else if (result instanceof Throwable) {
+            throw new MessagingException("Unable to evaluate matcher", (Exception) result);
+        } else if (result == NO_MATCH) {
+            return null;
+        }
+        return (Collection<MailAddress>) result;
+    }
+
+    /**
+     * {@link Matcher} which returns the result of the concurrent evaluation
+     */
+    private final class GroupMatcher implements Matcher {
+
+        private final int index;
+        private final Matcher matcher;
+
+        public GroupMatcher(int index) {
+            this.index = index;
+            this.matcher = matchers.get(index);
+        }
+
+        public void init(MatcherConfig config) throws MessagingException {
+            matcher.init(config);
+        }
+
+        @SuppressWarnings("unchecked")
+        public Collection<MailAddress> match(Mail mail) throws MessagingException {
+            if (index == 0) {
+                return matchAll(mail);
+            }
+            Object result = take(mail, index);
+            if (result == null) {
+                // the mail was not seen by the first matcher of the group, for
+                // example because it was split off
+                return matcher.match(mail);
+            }
+
+            Collection<MailAddress> matched = toResult(result);
+            if (matched == null) {
+                return null;
+            }
+            // the mailets of the group may have removed recipients in between
+            return new ArrayList<MailAddress>(RecipientSet.of(matched).intersection(mail.getRecipients()));
+        }
+
+        public void destroy() {
+            matcher.destroy();
+        }
+
+        public MatcherConfig getMatcherConfig() {
+            return matcher.getMatcherConfig();
+        }
+
+        public String getMatcherInfo() {
+            return matcher.getMatcherInfo();
+        }
+    }
+}
@@ -25,11 +25,14 @@ import javax.inject.Named;
 
 import org.apache.camel.CamelContext;
 import org.apache.camel.CamelContextAware;
+import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.james.mailetcontainer.api.MailProcessor;
 import org.apache.james.mailetcontainer.api.MailetLoader;
 import org.apache.james.mailetcontainer.api.MatcherLoader;
+import org.apache.james.mailetcontainer.impl.CompiledMailetProcessor;
 import org.apache.james.mailetcontainer.lib.AbstractStateCompositeProcessor;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailetContext;
 
@@ -42,6 +45,17 @@ import org.apache.mailet.MailetContext;
  */
 public class CamelCompositeProcessor extends AbstractStateCompositeProcessor implements CamelContextAware {
 
+    /**
+     * Engine which routes the mails of a processor through Camel
+     */
+    public final static String CAMEL_ENGINE = "camel";
+
+    /**
+     * Engine which calls the matchers and mailets of a processor directly, see
+     * {@link CompiledMailetProcessor}
+     */
+    public final static String COMPILED_ENGINE = "compiled";
+
     private CamelContext camelContext;
     private MailetContext mailetContext;
     private MatcherLoader matcherLoader;
@@ -93,10 +107,19 @@ public class CamelCompositeProcessor extends AbstractStateCompositeProcessor imp
      * #createMailProcessor(java.lang.String, org.apache.commons.configuration.HierarchicalConfiguration)
      */
     protected MailProcessor createMailProcessor(String name, HierarchicalConfiguration config) throws Exception {
-        CamelMailetProcessor processor = new CamelMailetProcessor();
+        String engine = config.getString("[@engine]", CAMEL_ENGINE);
+        AbstractStateMailetProcessor processor;
+        if (COMPILED_ENGINE.equalsIgnoreCase(engine)) {
+            processor = new CompiledMailetProcessor();
+        } else if (CAMEL_ENGINE.equalsIgnoreCase(engine)) {
+            CamelMailetProcessor camelProcessor = new CamelMailetProcessor();
+            camelProcessor.setCamelContext(camelContext);
+            processor = camelProcessor;
+        } else {
+            throw new ConfigurationException("Unknown engine " + engine + " for processor " + name);
+        }
         try {
             processor.setLog(logger);
-            processor.setCamelContext(camelContext);
             processor.setMailetContext(mailetContext);
             processor.setMailetLoader(mailetLoader);
             processor.setMatcherLoader(matcherLoader);
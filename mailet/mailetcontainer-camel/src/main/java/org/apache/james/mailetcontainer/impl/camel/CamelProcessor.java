@@ -27,6 +27,7 @@ import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.james.mailetcontainer.impl.MailetConfigImpl;
 import org.apache.james.mailetcontainer.impl.ProcessorUtil;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
 import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor.MailetProcessorListener;
 import org.apache.mailet.Mail;
 import org.apache.mailet.Mailet;
@@ -40,14 +41,14 @@ public class CamelProcessor implements Processor {
 
     private final Mailet mailet;
     private final Logger logger;
-    private final CamelMailetProcessor processor;
+    private final AbstractStateMailetProcessor processor;
 
     /**
      * Mailet to call on process
      * 
      * @param mailet
      */
-    public CamelProcessor(Mailet mailet, Logger logger, CamelMailetProcessor processor) {
+    public CamelProcessor(Mailet mailet, Logger logger, AbstractStateMailetProcessor processor) {
         this.mailet = mailet;
         this.logger = logger;
         this.processor = processor;
@@ -56,10 +57,19 @@ public class CamelProcessor implements Processor {
     /**
      * Call the wrapped mailet for the exchange
      */
-    @SuppressWarnings("unchecked")
     public void process(Exchange exchange) throws Exception {
-        Mail mail = exchange.getIn().getBody(Mail.class);
-        long start = System.currentTimeMillis();
+        process(exchange.getIn().getBody(Mail.class));
+    }
+
+    /**
+     * Call the wrapped mailet for the given mail
+     * 
+     * @param mail
+     * @throws MessagingException
+     */
+    @SuppressWarnings("unchecked")
+    public void process(Mail mail) throws MessagingException {
+        long start = System.nanoTime();
         MessagingException ex = null;
         try {
             mailet.service(mail);
@@ -87,7 +97,7 @@ public class CamelProcessor implements Processor {
 
         } finally {
             List<MailetProcessorListener> listeners = processor.getListeners();
-            long complete = System.currentTimeMillis() - start;
+            long complete = System.nanoTime() - start;
             for (MailetProcessorListener listener : listeners) {
                 listener.afterMailet(mailet, mail.getName(), mail.getState(), complete, ex);
             }
@@ -31,7 +31,9 @@ import org.apache.camel.Handler;
 import org.apache.camel.InOnly;
 import org.apache.camel.Property;
 import org.apache.james.core.MailImpl;
+import org.apache.james.mailetcontainer.api.RecipientSet;
 import org.apache.james.mailetcontainer.impl.ProcessorUtil;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
 import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor.MailetProcessorListener;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
@@ -71,10 +73,10 @@ public class MatcherSplitter {
      */
     @SuppressWarnings("unchecked")
     @Handler
-    public List<Mail> split(@Property(MATCHER_PROPERTY) Matcher matcher, @Property(ON_MATCH_EXCEPTION_PROPERTY) String onMatchException, @Property(LOGGER_PROPERTY) Logger logger, @Property(MAILETCONTAINER_PROPERTY) CamelMailetProcessor container, @Body Mail mail) throws MessagingException {
+    public List<Mail> split(@Property(MATCHER_PROPERTY) Matcher matcher, @Property(ON_MATCH_EXCEPTION_PROPERTY) String onMatchException, @Property(LOGGER_PROPERTY) Logger logger, @Property(MAILETCONTAINER_PROPERTY) AbstractStateMailetProcessor container, @Body Mail mail) throws MessagingException {
         Collection<MailAddress> matchedRcpts = null;
         Collection<MailAddress> origRcpts = new ArrayList<MailAddress>(mail.getRecipients());
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         MessagingException ex = null;
 
         try {
@@ -115,19 +117,14 @@ public class MatcherSplitter {
 
             // check if the matcher matched
             if (matchedRcpts != null && !matchedRcpts.isEmpty()) {
-                List<MailAddress> rcpts = new ArrayList<MailAddress>(mail.getRecipients());
-
-                for (MailAddress matchedRcpt : matchedRcpts) {
-                    // loop through the recipients and remove the recipients
-                    // that matched
-                    rcpts.remove(matchedRcpt);
-                }
+                // remove the recipients that matched
+                RecipientSet rcpts = new RecipientSet(mail.getRecipients()).difference(matchedRcpts);
 
                 if (rcpts.isEmpty()) {
                     // all recipients matched
                     fullMatch = true;
                 } else {
-                    mail.setRecipients(rcpts);
+                    mail.setRecipients(new ArrayList<MailAddress>(rcpts));
 
                     Mail newMail = new MailImpl(mail);
                     newMail.setRecipients(matchedRcpts);
@@ -153,7 +150,7 @@ public class MatcherSplitter {
             return mails;
         } finally {
 
-            long complete = System.currentTimeMillis() - start;
+            long complete = System.nanoTime() - start;
             List<MailetProcessorListener> listeners = container.getListeners();
             for (MailetProcessorListener listener : listeners) {
                 // need to check if its null or empty!
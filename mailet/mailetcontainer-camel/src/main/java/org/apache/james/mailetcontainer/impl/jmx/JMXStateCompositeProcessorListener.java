@@ -34,6 +34,7 @@ import org.apache.james.lifecycle.api.Disposable;
 import org.apache.james.mailetcontainer.api.MailProcessor;
 import org.apache.james.mailetcontainer.lib.AbstractStateCompositeProcessor;
 import org.apache.james.mailetcontainer.lib.AbstractStateCompositeProcessor.CompositeProcessorListener;
+import org.slf4j.Logger;
 
 /**
  * {@link CompositeProcessorListener} implementation which register MBeans for
@@ -123,6 +124,21 @@ public class JMXStateCompositeProcessorListener implements CompositeProcessorLis
         }
     }
 
+    /**
+     * Log the processing times of the last minute of all {@link MailProcessor}'s
+     * which processed mails
+     * 
+     * @param logger
+     */
+    public void logLatencies(Logger logger) {
+        for (MailProcessorManagement mgmt : mMap.values()) {
+            LatencyHistogram.Snapshot snapshot = mgmt.getLatencySnapshot();
+            if (snapshot.getCount() > 0) {
+                logger.info("Processor " + mgmt.getName() + ": " + snapshot);
+            }
+        }
+    }
+
     /**
      * @see org.apache.james.lifecycle.api.Disposable#dispose()
      */
@@ -39,6 +39,7 @@ import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor.MailetP
 import org.apache.mailet.MailAddress;
 import org.apache.mailet.Mailet;
 import org.apache.mailet.Matcher;
+import org.slf4j.Logger;
 
 /**
  * {@link MailetProcessorListener} implementation which register MBean's for all
@@ -93,6 +94,27 @@ public class JMXStateMailetProcessorListener implements MailetProcessorListener,
         }
     }
 
+    /**
+     * Log the processing times of the last minute of all {@link Mailet}'s and
+     * {@link Matcher}'s which processed mails
+     * 
+     * @param logger
+     */
+    public void logLatencies(Logger logger) {
+        for (MatcherManagement mgmt : matcherMap.values()) {
+            LatencyHistogram.Snapshot snapshot = mgmt.getLatencySnapshot();
+            if (snapshot.getCount() > 0) {
+                logger.info("Matcher " + mgmt.getMatcherName() + "=" + mgmt.getMatcherCondition() + " in processor " + name + ": " + snapshot);
+            }
+        }
+        for (MailetManagement mgmt : mailetMap.values()) {
+            LatencyHistogram.Snapshot snapshot = mgmt.getLatencySnapshot();
+            if (snapshot.getCount() > 0) {
+                logger.info("Mailet " + mgmt.getMailetName() + " in processor " + name + ": " + snapshot);
+            }
+        }
+    }
+
     /**
      * Register all JMX MBeans
      * 
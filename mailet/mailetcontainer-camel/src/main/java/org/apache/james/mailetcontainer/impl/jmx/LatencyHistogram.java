@@ -0,0 +1,242 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of processing times over a sliding window.
+ * 
+ * The times are recorded in microseconds into buckets with a logarithmic scale
+ * which are divided linearly into 16 sub-buckets, so a bucket covers at most 1/16
+ * of its values. This keeps the relative error of the percentiles below 7%
+ * while a histogram only needs a few hundred counters.
+ * 
+ * The window is divided into slots. Each slot is reused once the window moved
+ * past it. Recording threads are spread over several stripes of counters to
+ * avoid contention, so recording only increments one counter without locking.
+ * Values recorded while a slot is reused may get lost, which is acceptable
+ * for statistics.
+ */
+public class LatencyHistogram {
+
+    private final static int SUB_BUCKET_BITS = 4;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values above are recorded as this value, which is more than an hour
+     */
+    private final static long MAX_VALUE = (1L << 32) - 1;
+
+    private final static int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+    private final static int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Default window of one minute divided into slots of ten seconds
+     */
+    private final static int DEFAULT_SLOTS = 6;
+    private final static long DEFAULT_SLOT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Slot[] slots;
+    private final long slotNanos;
+    private final long created = System.nanoTime();
+
+    public LatencyHistogram() {
+        this(DEFAULT_SLOTS, DEFAULT_SLOT_NANOS);
+    }
+
+    /**
+     * Create a histogram whose window covers the given count of slots
+     * 
+     * @param slots
+     * @param slotNanos
+     *            the duration of a slot in nanoseconds
+     */
+    public LatencyHistogram(int slots, long slotNanos) {
+        // one more slot which is filled while the oldest is still complete
+        this.slots = new Slot[slots + 1];
+        for (int i = 0; i < this.slots.length; i++) {
+            this.slots[i] = new Slot();
+        }
+        this.slotNanos = slotNanos;
+    }
+
+    /**
+     * Record a processing time
+     * 
+     * @param nanos
+     *            the processing time in nanoseconds
+     */
+    public void record(long nanos) {
+        record(nanos, System.nanoTime());
+    }
+
+    void record(long nanos, long now) {
+        long epoch = (now - created) / slotNanos;
+        Slot slot = slots[(int) (epoch % slots.length)];
+        long slotEpoch = slot.epoch.get();
+        if (slotEpoch != epoch) {
+            if (slotEpoch < epoch && slot.epoch.compareAndSet(slotEpoch, epoch)) {
+                slot.clear();
+            } else if (slotEpoch > epoch) {
+                // the thread was delayed until the slot got reused
+                return;
+            }
+        }
+
+        long micros = nanos < 0 ? 0 : Math.min(MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        slot.counts.incrementAndGet(stripe * BUCKETS + bucketIndex(micros));
+    }
+
+    /**
+     * Return a {@link Snapshot} of the processing times which were recorded in
+     * the window
+     * 
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        return snapshot(System.nanoTime());
+    }
+
+    Snapshot snapshot(long now) {
+        long epoch = (now - created) / slotNanos;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (Slot slot : slots) {
+            long slotEpoch = slot.epoch.get();
+            // skip the slot which is about to be reused
+            if (slotEpoch < 0 || slotEpoch <= epoch - slots.length + 1 || slotEpoch > epoch) {
+                continue;
+            }
+            for (int i = 0; i < slot.counts.length(); i++) {
+                long count = slot.counts.get(i);
+                counts[i % BUCKETS] += count;
+                total += count;
+            }
+        }
+        // the window covers the complete slots and the current partial one
+        long windowNanos = Math.min(now - created, (slots.length - 2) * slotNanos + (now - created) % slotNanos);
+        return new Snapshot(counts, total, windowNanos);
+    }
+
+    /**
+     * Return the index of the bucket which counts the given value
+     */
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    /**
+     * Return the highest value which is counted by the bucket with the given
+     * index
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private final static class Slot {
+        private final AtomicLong epoch = new AtomicLong(-1);
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * STRIPES);
+
+        private void clear() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * The processing times which were recorded in the window of a
+     * {@link LatencyHistogram}
+     */
+    public final static class Snapshot {
+        private final long[] counts;
+        private final long total;
+        private final long windowNanos;
+
+        private Snapshot(long[] counts, long total, long windowNanos) {
+            this.counts = counts;
+            this.total = total;
+            this.windowNanos = windowNanos;
+        }
+
+        /**
+         * Return the count of recorded processing times
+         * 
+         * @return count
+         */
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * Return the processing time in ms which is not exceeded by the given
+         * fraction of the recorded processing times, or -1 if nothing was
+         * recorded
+         * 
+         * @param fraction
+         *            between 0 and 1
+         * @return percentile
+         */
+        public double getPercentile(double fraction) {
+            if (total == 0) {
+                return -1;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * fraction));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i) / 1000.0;
+                }
+            }
+            return MAX_VALUE / 1000.0;
+        }
+
+        /**
+         * Return the count of recorded processing times per second
+         * 
+         * @return throughput
+         */
+        public double getThroughput() {
+            if (windowNanos <= 0) {
+                return 0;
+            }
+            return total * (double) TimeUnit.SECONDS.toNanos(1) / windowNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, throughput=%.2f/s, p50=%.3fms, p95=%.3fms, p99=%.3fms, p999=%.3fms", total, getThroughput(), getPercentile(0.5), getPercentile(0.95), getPercentile(0.99), getPercentile(0.999));
+        }
+    }
+}
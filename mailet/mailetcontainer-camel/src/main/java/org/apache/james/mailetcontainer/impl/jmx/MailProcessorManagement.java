@@ -19,6 +19,7 @@
 
 package org.apache.james.mailetcontainer.impl.jmx;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.NotCompliantMBeanException;
@@ -38,6 +39,7 @@ public class MailProcessorManagement extends StandardMBean implements MailProces
     private final AtomicLong fastestProcessing = new AtomicLong(-1);
     private final AtomicLong slowestProcessing = new AtomicLong(-1);
     private final AtomicLong lastProcessing = new AtomicLong(-1);
+    private final LatencyHistogram latency = new LatencyHistogram();
 
     public MailProcessorManagement(String processorName) throws NotCompliantMBeanException {
         super(MailProcessorManagementMBean.class);
@@ -47,10 +49,13 @@ public class MailProcessorManagement extends StandardMBean implements MailProces
     /**
      * Update the stats
      * 
-     * @param processTime
+     * @param processNanos
+     *            the processing time in ns
      * @param success
      */
-    public void update(long processTime, boolean success) {
+    public void update(long processNanos, boolean success) {
+        latency.record(processNanos);
+        long processTime = TimeUnit.NANOSECONDS.toMillis(processNanos);
         long fastest = fastestProcessing.get();
 
         if (fastest > processTime || fastest == -1) {
@@ -125,4 +130,48 @@ public class MailProcessorManagement extends StandardMBean implements MailProces
         return lastProcessing.get();
     }
 
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getMedianProcessing()
+     */
+    public double getMedianProcessing() {
+        return latency.snapshot().getPercentile(0.5);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getPercentile95Processing()
+     */
+    public double getPercentile95Processing() {
+        return latency.snapshot().getPercentile(0.95);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getPercentile99Processing()
+     */
+    public double getPercentile99Processing() {
+        return latency.snapshot().getPercentile(0.99);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getPercentile999Processing()
+     */
+    public double getPercentile999Processing() {
+        return latency.snapshot().getPercentile(0.999);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getThroughput()
+     */
+    public double getThroughput() {
+        return latency.snapshot().getThroughput();
+    }
+
+    /**
+     * Return the processing times of the last minute
+     * 
+     * @return snapshot
+     */
+    public LatencyHistogram.Snapshot getLatencySnapshot() {
+        return latency.snapshot();
+    }
+
 }
@@ -18,6 +18,7 @@
  ****************************************************************/
 package org.apache.james.mailetcontainer.impl.jmx;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.NotCompliantMBeanException;
@@ -35,6 +36,7 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
     private final AtomicLong matchedCount = new AtomicLong(0);
     private final AtomicLong notMatchedCount = new AtomicLong(0);
     private final AtomicLong lastProcessing = new AtomicLong(-1);
+    private final LatencyHistogram latency = new LatencyHistogram();
 
     public MatcherManagement(MatcherConfig matcherConfig) throws NotCompliantMBeanException {
         super(MatcherManagementMBean.class);
@@ -42,7 +44,17 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
 
     }
 
-    public void update(long processTime, boolean success, boolean matched) {
+    /**
+     * Update the stats
+     * 
+     * @param processNanos
+     *            the processing time in ns
+     * @param success
+     * @param matched
+     */
+    public void update(long processNanos, boolean success, boolean matched) {
+        latency.record(processNanos);
+        long processTime = TimeUnit.NANOSECONDS.toMillis(processNanos);
         long fastest = fastestProcessing.get();
 
         if (fastest > processTime || fastest == -1) {
@@ -143,4 +155,48 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
     public long getLastProcessing() {
         return lastProcessing.get();
     }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getMedianProcessing()
+     */
+    public double getMedianProcessing() {
+        return latency.snapshot().getPercentile(0.5);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getPercentile95Processing()
+     */
+    public double getPercentile95Processing() {
+        return latency.snapshot().getPercentile(0.95);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getPercentile99Processing()
+     */
+    public double getPercentile99Processing() {
+        return latency.snapshot().getPercentile(0.99);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getPercentile999Processing()
+     */
+    public double getPercentile999Processing() {
+        return latency.snapshot().getPercentile(0.999);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getThroughput()
+     */
+    public double getThroughput() {
+        return latency.snapshot().getThroughput();
+    }
+
+    /**
+     * Return the processing times of the last minute
+     * 
+     * @return snapshot
+     */
+    public LatencyHistogram.Snapshot getLatencySnapshot() {
+        return latency.snapshot();
+    }
 }
@@ -23,7 +23,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.ArrayList;
 
-import org.apache.mailet.MailAddress;
+import org.apache.james.mailetcontainer.api.RecipientSet;
 import org.apache.mailet.Mail;
 import javax.mail.MessagingException;
 import org.apache.mailet.Matcher;
@@ -77,21 +77,11 @@ public class And extends GenericCompositeMatcher {
                     // them
                     // Ensure that the finalResult only contains recipients
                     // in the result collection
-                    Collection newResult = new ArrayList();
-                    MailAddress recipient;
-                    for (Object aFinalResult : finalResult) {
-                        recipient = (MailAddress) aFinalResult;
-                        // log("recipient="+recipient.toString());
-                        if (result.contains(recipient)) {
-                            newResult.add(recipient);
-                        }
-                    }
-                    recipient = null;
                     // basically the finalResult gets replaced with a
                     // smaller result
                     // otherwise finalResult would have been equal to result
                     // (in all cases)
-                    finalResult = newResult;
+                    finalResult = RecipientSet.of(finalResult).intersection(result);
                 }
             }
             result = null;
@@ -19,10 +19,10 @@
 
 package org.apache.james.mailetcontainer.impl.matchers;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 
+import org.apache.james.mailetcontainer.api.RecipientSet;
 import org.apache.mailet.Matcher;
 import org.apache.mailet.Mail;
 
@@ -51,8 +51,7 @@ public class Not extends GenericCompositeMatcher {
                 // Not is an empty list
                 finalResult = null;
             } else if (result != null) {
-                finalResult = new ArrayList(finalResult);
-                finalResult.removeAll(result);
+                finalResult = RecipientSet.of(finalResult).difference(result);
             }
         }
         return finalResult;
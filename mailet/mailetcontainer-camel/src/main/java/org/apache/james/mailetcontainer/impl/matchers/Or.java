@@ -19,7 +19,7 @@
 
 package org.apache.james.mailetcontainer.impl.matchers;
 
-import org.apache.mailet.MailAddress;
+import org.apache.james.mailetcontainer.api.RecipientSet;
 import org.apache.mailet.Mail;
 import org.apache.mailet.Matcher;
 
@@ -76,15 +76,7 @@ public class Or extends GenericCompositeMatcher {
                             // must OR them
                             // Ensure that the finalResult only contains one
                             // copy of the recipients in the result collection
-                            MailAddress recipient;
-                            for (Object aResult : result) {
-                                recipient = (MailAddress) aResult;
-                                if (!finalResult.contains(recipient)) {
-                                    System.out.println(recipient);
-                                    finalResult.add(recipient);
-                                }
-                            }
-                            recipient = null;
+                            finalResult = RecipientSet.of(finalResult).union(result);
                         }
                     }
                 }
@@ -23,7 +23,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.ArrayList;
 
-import org.apache.mailet.MailAddress;
+import org.apache.james.mailetcontainer.api.RecipientSet;
 import org.apache.mailet.Mail;
 import javax.mail.MessagingException;
 import org.apache.mailet.Matcher;
@@ -62,23 +62,15 @@ public class Xor extends GenericCompositeMatcher {
                 // so we can short-circuit building the XOR and return an empty
                 // set
                 if (finalResult == result) {
-                    // the XOR of the same collection is empty
-                    finalResult.clear();
+                    // the XOR of the same collection is empty. Do not clear
+                    // it, as it may be the recipients of the mail
+                    finalResult = new ArrayList(0);
                     // log("same collection - so clear");
                 } else {
                     // the two results are different collections, so we XOR them
                     // Ensure that the finalResult does not contain recipients
                     // in the result collection
-                    MailAddress recipient;
-                    for (Object aResult : result) {
-                        recipient = (MailAddress) (aResult);
-                        if (!finalResult.contains(recipient)) {
-                            finalResult.add(recipient);
-                        } else {
-                            finalResult.remove(recipient);
-                        }
-                    }
-                    recipient = null;
+                    finalResult = RecipientSet.of(finalResult).symmetricDifference(result);
                     // log("xor recipients into new finalResult="+finalResult);
                 }
                 // basically the finalResult gets replaced with a smaller result
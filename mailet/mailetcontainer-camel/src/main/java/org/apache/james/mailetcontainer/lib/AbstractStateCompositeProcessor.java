@@ -23,6 +23,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -35,6 +37,7 @@ import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.apache.james.mailetcontainer.api.MailProcessor;
 import org.apache.james.mailetcontainer.impl.jmx.JMXStateCompositeProcessorListener;
+import org.apache.james.util.concurrent.JMXEnabledScheduledThreadPoolExecutor;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 
@@ -51,6 +54,8 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
 
     private JMXStateCompositeProcessorListener jmxListener;
     private boolean enableJmx = true;
+    private int latencyLogInterval;
+    private ScheduledExecutorService latencyLogger;
 
     /**
      * @see org.apache.james.lifecycle.api.LogEnabled#setLog(org.slf4j.Logger)
@@ -79,7 +84,10 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
     public void configure(HierarchicalConfiguration config) throws ConfigurationException {
         this.config = config;
         this.enableJmx = config.getBoolean("[@enableJmx]", true);
-
+        this.latencyLogInterval = config.getInt("[@latencyLogInterval]", 0);
+        if (latencyLogInterval < 0) {
+            throw new ConfigurationException("latencyLogInterval must not be negative");
+        }
     }
 
     /**
@@ -88,7 +96,7 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
      * {@link Mail#getState()}
      */
     public void service(Mail mail) throws MessagingException {
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         MessagingException ex = null;
         MailProcessor processor = getProcessor(mail.getState());
 
@@ -109,7 +117,7 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
                 ex = e;
                 throw e;
             } finally {
-                long end = System.currentTimeMillis() - start;
+                long end = System.nanoTime() - start;
                 for (CompositeProcessorListener listener : listeners) {
                     listener.afterProcessor(processor, mail.getName(), end, ex);
                 }
@@ -178,14 +186,44 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
         if (enableJmx) {
             this.jmxListener = new JMXStateCompositeProcessorListener(this);
             addListener(jmxListener);
+
+            if (latencyLogInterval > 0) {
+                latencyLogger = new JMXEnabledScheduledThreadPoolExecutor(1, "org.apache.james:type=component,component=mailetcontainer,name=processor,sub-type=latencylogger", "latencylogger");
+                latencyLogger.scheduleAtFixedRate(new Runnable() {
+
+                    public void run() {
+                        logLatencies();
+                    }
+                }, latencyLogInterval, latencyLogInterval, TimeUnit.SECONDS);
+            }
         }
 
         // check if all needed processors are configured
         checkProcessors();
     }
 
+    /**
+     * Log the processing times of the last minute of all processors, mailets
+     * and matchers which processed mails
+     */
+    public void logLatencies() {
+        if (jmxListener == null) {
+            return;
+        }
+        jmxListener.logLatencies(logger);
+        for (String state : getProcessorStates()) {
+            MailProcessor processor = getProcessor(state);
+            if (processor instanceof AbstractStateMailetProcessor) {
+                ((AbstractStateMailetProcessor) processor).logLatencies();
+            }
+        }
+    }
+
     @PreDestroy
     public void dispose() {
+        if (latencyLogger != null) {
+            latencyLogger.shutdownNow();
+        }
         String names[] = getProcessorStates();
         for (String name : names) {
             MailProcessor processor = getProcessor(name);
@@ -223,7 +261,7 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
          * @param processor
          * @param mailName
          * @param processTime
-         *            in ms
+         *            in ns
          * @param e
          *            or null if no exception was thrown
          */
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -41,8 +42,10 @@ import org.apache.james.mailetcontainer.api.MatcherLoader;
 import org.apache.james.mailetcontainer.impl.MailetConfigImpl;
 import org.apache.james.mailetcontainer.impl.MatcherConfigImpl;
 import org.apache.james.mailetcontainer.impl.MatcherMailetPair;
+import org.apache.james.mailetcontainer.impl.ParallelMatcherGroup;
 import org.apache.james.mailetcontainer.impl.jmx.JMXStateMailetProcessorListener;
 import org.apache.james.mailetcontainer.impl.matchers.CompositeMatcher;
+import org.apache.james.util.concurrent.JMXEnabledThreadPoolExecutor;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
 import org.apache.mailet.Mailet;
@@ -70,6 +73,8 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
     private MailetLoader mailetLoader;
     private final List<MatcherMailetPair> pairs = new ArrayList<MatcherMailetPair>();
     private String state;
+    private int matcherThreads;
+    private ExecutorService matcherExecutor;
 
     public void setMatcherLoader(MatcherLoader matcherLoader) {
         this.matcherLoader = matcherLoader;
@@ -104,6 +109,9 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
             throw new ConfigurationException("Processor state of " + Mail.GHOST + " is reserved for internal use, choose a different one");
 
         this.enableJmx = config.getBoolean("[@enableJmx]", true);
+        this.matcherThreads = config.getInt("[@matcherThreads]", 4);
+        if (matcherThreads < 1)
+            throw new ConfigurationException("Processor matcherThreads attribute must be greater than 0");
         this.config = config;
 
     }
@@ -116,6 +124,7 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
     @PostConstruct
     public void init() throws Exception {
         parseConfiguration();
+        groupParallelMatchers();
         setupRouting(pairs);
 
         if (enableJmx) {
@@ -124,6 +133,16 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
         }
     }
 
+    /**
+     * Log the processing times of the last minute of the {@link Mailet}'s and
+     * {@link Matcher}'s if JMX is enabled
+     */
+    public void logLatencies() {
+        if (jmxListener != null) {
+            jmxListener.logLatencies(logger);
+        }
+    }
+
     /**
      * Destroy the container
      */
@@ -148,6 +167,10 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
             mailet.destroy();
 
         }
+
+        if (matcherExecutor != null) {
+            matcherExecutor.shutdownNow();
+        }
     }
 
     /**
@@ -397,6 +420,56 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
         }
     }
 
+    /**
+     * Replace the {@link Matcher}'s of consecutive {@link Mailet}'s which are
+     * configured with <code>parallelMatch="true"</code> by a
+     * {@link ParallelMatcherGroup}, so they get evaluated concurrently
+     */
+    private void groupParallelMatchers() {
+        int start = -1;
+        for (int i = 0; i <= pairs.size(); i++) {
+            boolean parallel = i < pairs.size() && isParallelMatch(pairs.get(i).getMailet());
+            if (parallel && start == -1) {
+                start = i;
+            } else if (!parallel && start != -1) {
+                if (i - start > 1) {
+                    groupParallelMatchers(start, i);
+                }
+                start = -1;
+            }
+        }
+    }
+
+    private void groupParallelMatchers(int start, int end) {
+        if (matcherExecutor == null) {
+            String jmxPath = null;
+            if (enableJmx) {
+                jmxPath = "org.apache.james:type=component,component=mailetcontainer,name=processor,processor=" + state + ",sub-type=matcherthreadpool";
+            }
+            matcherExecutor = JMXEnabledThreadPoolExecutor.newFixedThreadPool(jmxPath, "matcher-" + state, matcherThreads);
+        }
+
+        List<Matcher> matchers = new ArrayList<Matcher>();
+        for (int i = start; i < end; i++) {
+            matchers.add(pairs.get(i).getMatcher());
+        }
+        ParallelMatcherGroup group = new ParallelMatcherGroup(matchers, matcherExecutor);
+        for (int i = start; i < end; i++) {
+            pairs.set(i, new MatcherMailetPair(group.getMatcher(i - start), pairs.get(i).getMailet()));
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Matchers of mailets " + start + " to " + (end - 1) + " are evaluated concurrently in processor " + state);
+        }
+    }
+
+    private boolean isParallelMatch(Mailet mailet) {
+        MailetConfig mailetConfig = mailet.getMailetConfig();
+        if (mailetConfig instanceof MailetConfigImpl) {
+            return Boolean.valueOf(((MailetConfigImpl) mailetConfig).getInitAttribute("parallelMatch"));
+        }
+        return false;
+    }
+
     /**
      * Setup the routing for the configured {@link MatcherMailetPair}'s for this
      * {@link org.apache.james.mailetcontainer.impl.camel.CamelProcessor}
@@ -460,7 +533,7 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
          * @param mailName
          * @param state
          * @param processTime
-         *            in ms
+         *            in ns
          * @param e
          *            or null if no {@link MessagingException} was thrown
          */
@@ -474,7 +547,7 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
          * @param recipients
          * @param matches
          * @param processTime
-         *            in ms
+         *            in ns
          * @param e
          *            or null if no {@link MessagingException} was thrown
          */
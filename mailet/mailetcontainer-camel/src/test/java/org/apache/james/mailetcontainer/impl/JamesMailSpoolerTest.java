@@ -0,0 +1,191 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.core.MailImpl;
+import org.apache.james.mailetcontainer.api.MailProcessor;
+import org.apache.james.queue.api.MailQueue;
+import org.apache.james.queue.api.MailQueueFactory;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class JamesMailSpoolerTest {
+
+    private JamesMailSpooler spooler;
+
+    /**
+     * {@link MailQueue} which hands out up to the requested count of mails at
+     * once and records the outcome of every item
+     */
+    private final class RecordingQueue implements MailQueue {
+        private final BlockingQueue<MailQueueItem> items = new LinkedBlockingQueue<MailQueueItem>();
+        private final Map<String, Boolean> results = new ConcurrentHashMap<String, Boolean>();
+        private final AtomicInteger doneCalls = new AtomicInteger();
+        private final AtomicInteger maxBatch = new AtomicInteger();
+        private final CountDownLatch done;
+
+        public RecordingQueue(int mails) {
+            this.done = new CountDownLatch(mails);
+        }
+
+        public void enQueue(Mail mail, long delay, TimeUnit unit) throws MailQueueException {
+            enQueue(mail);
+        }
+
+        public void enQueue(final Mail mail) throws MailQueueException {
+            items.add(new MailQueueItem() {
+
+                public Mail getMail() {
+                    return mail;
+                }
+
+                public void done(boolean success) throws MailQueueException {
+                    doneCalls.incrementAndGet();
+                    results.put(mail.getName(), success);
+                    done.countDown();
+                }
+            });
+        }
+
+        public MailQueueItem deQueue() throws MailQueueException {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<MailQueueItem> deQueue(int max, long timeout, TimeUnit unit) throws MailQueueException {
+            List<MailQueueItem> batch = new ArrayList<MailQueueItem>();
+            try {
+                MailQueueItem item = items.poll(timeout, unit);
+                if (item != null) {
+                    batch.add(item);
+                    items.drainTo(batch, max - 1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (maxBatch) {
+                if (batch.size() > maxBatch.get()) {
+                    maxBatch.set(batch.size());
+                }
+            }
+            return batch;
+        }
+    }
+
+    private final class RecordingProcessor implements MailProcessor {
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+
+        public void service(Mail mail) throws MessagingException {
+            int current = active.incrementAndGet();
+            synchronized (maxActive) {
+                if (current > maxActive.get()) {
+                    maxActive.set(current);
+                }
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+                processed.incrementAndGet();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (spooler != null) {
+            spooler.dispose();
+        }
+    }
+
+    private JamesMailSpooler createSpooler(final MailQueue queue, MailProcessor processor, int threads, int maxConcurrency, int batchSize) throws Exception {
+        HierarchicalConfiguration config = new HierarchicalConfiguration();
+        config.addProperty("dequeueThreads", 1);
+        config.addProperty("threads", threads);
+        config.addProperty("maxConcurrency", maxConcurrency);
+        config.addProperty("batchSize", batchSize);
+
+        JamesMailSpooler spooler = new JamesMailSpooler();
+        spooler.setLog(LoggerFactory.getLogger(JamesMailSpoolerTest.class));
+        spooler.setMailProcessor(processor);
+        spooler.setMailQueueFactory(new MailQueueFactory() {
+
+            public MailQueue getQueue(String name) {
+                return queue;
+            }
+        });
+        spooler.configure(config);
+        return spooler;
+    }
+
+    private MailImpl createMail(String name) throws Exception {
+        MailImpl mail = new MailImpl();
+        mail.setName(name);
+        mail.setRecipients(Arrays.asList(new MailAddress("test@localhost")));
+        return mail;
+    }
+
+    @Test
+    public void testBatchedDequeueWithBoundedConcurrency() throws Exception {
+        RecordingQueue queue = new RecordingQueue(20);
+        for (int i = 0; i < 20; i++) {
+            queue.enQueue(createMail("mail" + i));
+        }
+        RecordingProcessor processor = new RecordingProcessor();
+        spooler = createSpooler(queue, processor, 10, 2, 5);
+        spooler.init();
+
+        assertTrue(queue.done.await(10, TimeUnit.SECONDS));
+        assertEquals(20, processor.processed.get());
+        assertTrue(processor.maxActive.get() <= 2);
+        assertTrue(queue.maxBatch.get() <= 5);
+
+        // every item is acknowledged exactly once and successfully
+        assertEquals(20, queue.doneCalls.get());
+        assertEquals(20, queue.results.size());
+        for (Boolean success : queue.results.values()) {
+            assertTrue(success);
+        }
+        assertEquals(0, spooler.getWaitingCount());
+        assertEquals(20, spooler.getCompletedCount());
+    }
+}
@@ -0,0 +1,129 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.mailetcontainer.api.MailProcessor;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class MailHandoffTest {
+
+    private MailHandoff handoff;
+
+    private final class RecordingProcessor implements MailProcessor {
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final Map<String, Thread> threads = new ConcurrentHashMap<String, Thread>();
+        private final CountDownLatch processed;
+        private final CountDownLatch release;
+
+        public RecordingProcessor(int mails, CountDownLatch release) {
+            this.processed = new CountDownLatch(mails);
+            this.release = release;
+        }
+
+        public void service(Mail mail) throws MessagingException {
+            int current = active.incrementAndGet();
+            synchronized (maxActive) {
+                if (current > maxActive.get()) {
+                    maxActive.set(current);
+                }
+            }
+            threads.put(mail.getName(), Thread.currentThread());
+            try {
+                if (release == null) {
+                    Thread.sleep(20);
+                } else if (mail.getName().equals("async")) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+                processed.countDown();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (handoff != null) {
+            handoff.dispose();
+        }
+    }
+
+    private MailImpl createMail(String name, String state) throws Exception {
+        MailImpl mail = new MailImpl();
+        mail.setName(name);
+        mail.setState(state);
+        mail.setRecipients(Arrays.asList(new MailAddress("test@localhost")));
+        return mail;
+    }
+
+    @Test
+    public void testStateConcurrencyIsLimited() throws Exception {
+        RecordingProcessor processor = new RecordingProcessor(6, null);
+        handoff = new MailHandoff(processor, 4, 100, 4, Collections.singletonMap("limited", 1), null, LoggerFactory.getLogger(MailHandoffTest.class));
+
+        for (int i = 0; i < 6; i++) {
+            handoff.handoff(createMail("mail" + i, "limited"));
+        }
+        assertEquals(true, processor.processed.await(10, TimeUnit.SECONDS));
+        assertEquals(1, processor.maxActive.get());
+        assertEquals(6, processor.threads.size());
+    }
+
+    @Test
+    public void testCallerProcessesMailIfTooManyArePending() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingProcessor processor = new RecordingProcessor(2, release);
+        handoff = new MailHandoff(processor, 2, 1, 2, new HashMap<String, Integer>(), null, LoggerFactory.getLogger(MailHandoffTest.class));
+
+        handoff.handoff(createMail("async", Mail.DEFAULT));
+        assertEquals(1, handoff.getPendingCount());
+
+        // the pending limit is reached, so this one is processed on the
+        // calling thread
+        handoff.handoff(createMail("sync", Mail.DEFAULT));
+        assertSame(Thread.currentThread(), processor.threads.get("sync"));
+        release.countDown();
+
+        assertEquals(true, processor.processed.await(10, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), processor.threads.get("async"));
+    }
+}
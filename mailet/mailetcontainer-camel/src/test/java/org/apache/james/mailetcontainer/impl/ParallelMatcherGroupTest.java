@@ -0,0 +1,117 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.core.MailImpl;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.Matcher;
+import org.apache.mailet.base.GenericMatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelMatcherGroupTest {
+
+    private ExecutorService executor;
+    private CountingMatcher matchAll;
+    private CountingMatcher matchNone;
+    private ParallelMatcherGroup group;
+
+    private final class CountingMatcher extends GenericMatcher {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final boolean matches;
+
+        public CountingMatcher(boolean matches) {
+            this.matches = matches;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Collection<MailAddress> match(Mail mail) throws MessagingException {
+            calls.incrementAndGet();
+            return matches ? mail.getRecipients() : null;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        matchAll = new CountingMatcher(true);
+        matchNone = new CountingMatcher(false);
+        group = new ParallelMatcherGroup(Arrays.<Matcher> asList(matchNone, matchAll, matchNone), executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private MailImpl createMail() throws Exception {
+        MailImpl mail = new MailImpl();
+        mail.setName(MailImpl.getId());
+        mail.setRecipients(Arrays.asList(new MailAddress("test@localhost"), new MailAddress("test2@localhost")));
+        return mail;
+    }
+
+    @Test
+    public void testMatchersAreEvaluatedOnce() throws Exception {
+        MailImpl mail = createMail();
+
+        assertNull(group.getMatcher(0).match(mail));
+        assertEquals(2, matchNone.calls.get());
+        assertEquals(1, matchAll.calls.get());
+
+        assertEquals(2, group.getMatcher(1).match(mail).size());
+        assertNull(group.getMatcher(2).match(mail));
+        assertEquals(2, matchNone.calls.get());
+        assertEquals(1, matchAll.calls.get());
+    }
+
+    @Test
+    public void testResultOnlyContainsCurrentRecipients() throws Exception {
+        MailImpl mail = createMail();
+
+        group.getMatcher(0).match(mail);
+        mail.setRecipients(Arrays.asList(new MailAddress("test2@localhost")));
+
+        Collection<MailAddress> matched = group.getMatcher(1).match(mail);
+        assertEquals(Arrays.asList(new MailAddress("test2@localhost")), matched);
+    }
+
+    @Test
+    public void testUnknownMailIsEvaluatedDirectly() throws Exception {
+        MailImpl mail = createMail();
+
+        assertEquals(2, group.getMatcher(1).match(mail).size());
+        assertEquals(1, matchAll.calls.get());
+        assertEquals(0, matchNone.calls.get());
+    }
+}
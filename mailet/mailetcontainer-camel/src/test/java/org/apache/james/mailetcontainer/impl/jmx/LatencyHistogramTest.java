@@ -0,0 +1,80 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        long lastHighest = -1;
+        for (int i = 0; i <= LatencyHistogram.bucketIndex(Integer.MAX_VALUE); i++) {
+            // every bucket starts right after the previous one
+            assertEquals(i, LatencyHistogram.bucketIndex(lastHighest + 1));
+            long highest = LatencyHistogram.highestValue(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(highest));
+            assertTrue(highest - lastHighest <= Math.max(1, highest / 16 + 1));
+            lastHighest = highest;
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500, snapshot.getPercentile(0.5), 500 * 0.07);
+        assertEquals(950, snapshot.getPercentile(0.95), 950 * 0.07);
+        assertEquals(990, snapshot.getPercentile(0.99), 990 * 0.07);
+        assertEquals(999, snapshot.getPercentile(0.999), 999 * 0.07);
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(-1, snapshot.getPercentile(0.5), 0);
+    }
+
+    @Test
+    public void testOldValuesLeaveTheWindow() {
+        long slot = TimeUnit.SECONDS.toNanos(1);
+        LatencyHistogram histogram = new LatencyHistogram(3, slot);
+        long start = System.nanoTime();
+        histogram.record(1000, start);
+        histogram.record(1000, start + slot);
+        assertEquals(2, histogram.snapshot(start + slot).getCount());
+        assertEquals(2, histogram.snapshot(start + 2 * slot).getCount());
+        assertEquals(1, histogram.snapshot(start + 3 * slot).getCount());
+        assertEquals(0, histogram.snapshot(start + 4 * slot).getCount());
+
+        // the slot of the first value is reused
+        histogram.record(1000, start + 4 * slot);
+        assertEquals(1, histogram.snapshot(start + 4 * slot).getCount());
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.apache.james.transport.mailets;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -31,12 +32,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.Vector;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -58,15 +65,22 @@ import javax.mail.internet.ParseException;
 
 import org.apache.james.dnsservice.api.DNSService;
 import org.apache.james.dnsservice.api.TemporaryResolutionException;
+import org.apache.james.core.MailImpl;
 import org.apache.james.dnsservice.library.MXHostAddressIterator;
 import org.apache.james.domainlist.api.DomainList;
 import org.apache.james.domainlist.api.DomainListException;
+import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.queue.api.DequeueLimitSupport;
 import org.apache.james.queue.api.MailPrioritySupport;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
 import org.apache.james.queue.api.MailQueueFactory;
+import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.api.ManageableMailQueue.MailQueueIterator;
+import org.apache.james.transport.mailets.RemoteDeliveryConnectionPool.PooledTransport;
+import org.apache.james.transport.mailets.RemoteDeliveryScheduler.Scheduled;
 import org.apache.james.transport.util.MailetContextLog;
 import org.apache.james.transport.util.Patterns;
 import org.apache.james.util.TimeConverter;
@@ -135,6 +149,36 @@ import org.apache.mailet.base.GenericMailet;
  * to authenticate the user using the AUTH command.
  * <li><b>heloName</b> (optional) - a String containing the name used in the SMTP HELO and EHLO commands. Default is the default domain,
  * which is typically <code>localhost</code>.</li>
+ * <li><b>maxMessagesPerConnection</b> (optional) - an Integer for the number of messages which are sent over one connection before
+ * it gets closed. Values greater than 1 keep connections open for the next mail to the same server. Default is 1.</li>
+ * <li><b>maxConnectionsPerHost</b> (optional) - an Integer for the maximal number of open connections to one server over all
+ * delivery threads. Default is 0, which means no limit.</li>
+ * <li><b>connectionIdleTimeout</b> (optional) - a Long for the time in milliseconds after which an unused open connection gets closed.
+ * Default is 30000</li>
+ * <li><b>maxConcurrentDeliveriesPerDestination</b> (optional) - an Integer for the maximal number of delivery threads which deliver
+ * to the same recipient domain (or to the gateway) at the same time. Default is 0, which means no limit.</li>
+ * <li><b>maxDeliveriesPerSecondPerDestination</b> (optional) - a Double for the maximal number of deliveries which are started per
+ * second for the same recipient domain. Default is 0, which means no limit.</li>
+ * <li><b>destinationFailureThreshold</b> (optional) - an Integer for the number of temporary delivery failures in a row after which
+ * a recipient domain gets paused. Mails for a paused domain are put back into the queue without counting as retry. Default is 0,
+ * which means a domain is never paused.</li>
+ * <li><b>destinationBackoff</b> (optional) - a Long for the time in milliseconds a recipient domain gets paused for the first time.
+ * The time doubles with each further failure. Default is 60000</li>
+ * <li><b>destinationMaxBackoff</b> (optional) - a Long for the maximal time in milliseconds a recipient domain gets paused.
+ * Default is 3600000</li>
+ * <li><b>sharedMessageStore</b> (optional) - a String containing the directory in which the message of a mail with recipients in
+ * more than one domain is stored once, so the queue entry for each domain only carries the envelope and the headers. The message is
+ * deleted once the last domain is done. Default is to queue the full message for each domain. Messages which are not referenced by the
+ * queue anymore are deleted on startup and periodically, so the directory must only be used by this mailet.</li>
+ * <li><b>sharedMessageStoreSweepInterval</b> (optional) - a Long for the time in milliseconds between two checks for messages in the
+ * <code>sharedMessageStore</code> which are not referenced by the queue anymore. A message is only deleted if it was not in use for
+ * this time. 0 disables the periodic check. Default is 3600000</li>
+ * <li><b>sharedMessageStoreSync</b> (optional) - a Boolean which tells whether each message of the <code>sharedMessageStore</code> is
+ * synced to the disk before its queue entries are written. It should match the sync setting of the queue. Default is true</li>
+ * <li><b>maxParkedDeliveries</b> (optional) - an Integer for the number of dequeued mails which are hold back in memory while their
+ * recipient domain is at its limit. Default is ten times <code>deliveryThreads</code>. Parked mails keep their queue entries, so if
+ * the queue can only hand out a limited count of entries at the same time, this is lowered to stay below it together with the
+ * <code>deliveryThreads</code>. Mails which can not be parked are put back into the queue.</li>
  * <li><b>mail.*</b> (optional) - Any property beginning with <code>mail.</code> described in the Javadoc for package
  * <a href="http://java.sun.com/products/javamail/javadocs/com/sun/mail/smtp/package-summary.html"><code>com.sun.mail.smtp</code></a>
  * can be set with a parameter of the corresponding name. For example the parameter
@@ -263,11 +307,50 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
     private boolean isSSLEnable = false;
 
+    private int maxConnectionsPerHost = 0;
+
+    private int maxMessagesPerConnection = 1;
+
+    private long connectionIdleTimeout = 30000;
+
+    private RemoteDeliveryConnectionPool connectionPool;
+
+    private int maxConcurrentDeliveriesPerDestination = 0;
+
+    private double maxDeliveriesPerSecondPerDestination = 0;
+
+    private int destinationFailureThreshold = 0;
+
+    private long destinationBackoff = 60000;
+
+    private long destinationMaxBackoff = 3600000;
+
+    private RemoteDeliveryScheduler scheduler;
+
+    /**
+     * Name of the attribute which holds the id of the message in the
+     * {@link RemoteDeliveryMessageStore}
+     */
+    private static final String MESSAGE_STORE_ID = "org.apache.james.transport.mailets.RemoteDelivery.messageStoreId";
+
+    private RemoteDeliveryMessageStore messageStore;
+
+    private long messageStoreSweepInterval = 3600000;
+
+    private Timer messageStoreSweeper;
+
+    private FileSystem fileSystem;
+
     @Inject
     public void setDomainList(@Named("domainlist") DomainList domainList) {
         this.domainList = domainList;
     }
 
+    @Inject
+    public void setFileSystem(@Named("filesystem") FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
     @Inject
     public void setMailQueueFactory(@Named("mailqueuefactory") MailQueueFactory queueFactory) {
         this.queueFactory = queueFactory;
@@ -436,16 +519,204 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
         heloName = getInitParameter("heloName");
 
+        try {
+            if (getInitParameter("maxConnectionsPerHost") != null) {
+                maxConnectionsPerHost = Integer.parseInt(getInitParameter("maxConnectionsPerHost"));
+            }
+        } catch (Exception e) {
+            log("Invalid maxConnectionsPerHost setting: " + getInitParameter("maxConnectionsPerHost"));
+        }
+
+        try {
+            if (getInitParameter("maxMessagesPerConnection") != null) {
+                maxMessagesPerConnection = Integer.parseInt(getInitParameter("maxMessagesPerConnection"));
+            }
+        } catch (Exception e) {
+            log("Invalid maxMessagesPerConnection setting: " + getInitParameter("maxMessagesPerConnection"));
+        }
+
+        try {
+            if (getInitParameter("connectionIdleTimeout") != null) {
+                connectionIdleTimeout = Long.parseLong(getInitParameter("connectionIdleTimeout"));
+            }
+        } catch (Exception e) {
+            log("Invalid connectionIdleTimeout setting: " + getInitParameter("connectionIdleTimeout"));
+        }
+
+        if (maxMessagesPerConnection > 1 || maxConnectionsPerHost > 0) {
+            connectionPool = new RemoteDeliveryConnectionPool(maxConnectionsPerHost, maxMessagesPerConnection, connectionIdleTimeout, connectionTimeout, logAdapter);
+        }
+
+        String sharedMessageStore = getInitParameter("sharedMessageStore");
+        if (sharedMessageStore != null && !sharedMessageStore.equals("")) {
+            boolean sync = true;
+            if (getInitParameter("sharedMessageStoreSync") != null) {
+                sync = Boolean.valueOf(getInitParameter("sharedMessageStoreSync"));
+            }
+            try {
+                messageStore = new RemoteDeliveryMessageStore(fileSystem.getFile(sharedMessageStore), sync);
+            } catch (FileNotFoundException e) {
+                throw new MessagingException("Unable to access sharedMessageStore " + sharedMessageStore, e);
+            } catch (IOException e) {
+                throw new MessagingException("Unable to create sharedMessageStore " + sharedMessageStore, e);
+            }
+
+            try {
+                if (getInitParameter("sharedMessageStoreSweepInterval") != null) {
+                    messageStoreSweepInterval = Long.parseLong(getInitParameter("sharedMessageStoreSweepInterval"));
+                }
+            } catch (Exception e) {
+                log("Invalid sharedMessageStoreSweepInterval setting: " + getInitParameter("sharedMessageStoreSweepInterval"));
+            }
+        }
+
         String prio = getInitParameter("usePriority");
         if (prio != null) {
             usePriority = Boolean.valueOf(prio);
         }
 
+        try {
+            if (getInitParameter("maxConcurrentDeliveriesPerDestination") != null) {
+                maxConcurrentDeliveriesPerDestination = Integer.parseInt(getInitParameter("maxConcurrentDeliveriesPerDestination"));
+            }
+        } catch (Exception e) {
+            log("Invalid maxConcurrentDeliveriesPerDestination setting: " + getInitParameter("maxConcurrentDeliveriesPerDestination"));
+        }
+
+        try {
+            if (getInitParameter("maxDeliveriesPerSecondPerDestination") != null) {
+                maxDeliveriesPerSecondPerDestination = Double.parseDouble(getInitParameter("maxDeliveriesPerSecondPerDestination"));
+            }
+        } catch (Exception e) {
+            log("Invalid maxDeliveriesPerSecondPerDestination setting: " + getInitParameter("maxDeliveriesPerSecondPerDestination"));
+        }
+
+        try {
+            if (getInitParameter("destinationFailureThreshold") != null) {
+                destinationFailureThreshold = Integer.parseInt(getInitParameter("destinationFailureThreshold"));
+            }
+        } catch (Exception e) {
+            log("Invalid destinationFailureThreshold setting: " + getInitParameter("destinationFailureThreshold"));
+        }
+
+        try {
+            if (getInitParameter("destinationBackoff") != null) {
+                destinationBackoff = Long.parseLong(getInitParameter("destinationBackoff"));
+            }
+        } catch (Exception e) {
+            log("Invalid destinationBackoff setting: " + getInitParameter("destinationBackoff"));
+        }
+
+        try {
+            if (getInitParameter("destinationMaxBackoff") != null) {
+                destinationMaxBackoff = Long.parseLong(getInitParameter("destinationMaxBackoff"));
+            }
+        } catch (Exception e) {
+            log("Invalid destinationMaxBackoff setting: " + getInitParameter("destinationMaxBackoff"));
+        }
+
         // Start Workers Threads.
         workersThreadCount = Integer.parseInt(getInitParameter("deliveryThreads"));
+
+        int maxParkedDeliveries = workersThreadCount * 10;
+        try {
+            if (getInitParameter("maxParkedDeliveries") != null) {
+                maxParkedDeliveries = Integer.parseInt(getInitParameter("maxParkedDeliveries"));
+            }
+        } catch (Exception e) {
+            log("Invalid maxParkedDeliveries setting: " + getInitParameter("maxParkedDeliveries"));
+        }
+        if (queue instanceof DequeueLimitSupport) {
+            // parked mails keep their queue items, so there must always be
+            // room for one more item per delivery thread and for the dequeue
+            int maxPendingItems = ((DequeueLimitSupport) queue).getMaxPendingItems();
+            int limit = Math.max(0, maxPendingItems - workersThreadCount - 1);
+            if (maxParkedDeliveries > limit) {
+                log("Limit maxParkedDeliveries to " + limit + " as the queue " + outgoing + " only allows " + maxPendingItems + " dequeued mails");
+                maxParkedDeliveries = limit;
+            }
+        }
+
+        if (maxConcurrentDeliveriesPerDestination > 0 || maxDeliveriesPerSecondPerDestination > 0 || destinationFailureThreshold > 0) {
+            String jmxName = "org.apache.james:type=component,component=mailetcontainer,name=remotedelivery,queue=" + outgoing + ",sub-type=scheduler";
+            scheduler = new RemoteDeliveryScheduler(maxConcurrentDeliveriesPerDestination, maxDeliveriesPerSecondPerDestination, maxParkedDeliveries, destinationFailureThreshold, destinationBackoff, destinationMaxBackoff, jmxName);
+        }
+
+        if (messageStore != null) {
+            // nothing is in use before the delivery threads are started, so
+            // every message which is not queued anymore can get deleted
+            sweepMessageStore(System.currentTimeMillis());
+            if (messageStoreSweepInterval > 0) {
+                messageStoreSweeper = new Timer("RemoteDelivery sharedMessageStore sweeper", true);
+                messageStoreSweeper.schedule(new TimerTask() {
+
+                    @Override
+                    public void run() {
+                        sweepMessageStore(System.currentTimeMillis() - messageStoreSweepInterval);
+                    }
+                }, messageStoreSweepInterval, messageStoreSweepInterval);
+            }
+        }
         initDeliveryThreads();
     }
 
+    /**
+     * Delete the messages of the {@link RemoteDeliveryMessageStore} which are
+     * not referenced by the queue anymore and were not in use since the given
+     * time. This catches messages whose queue entries were removed from the
+     * queue or never made it into the queue because of a crash.
+     *
+     * @param olderThan time in milliseconds since the epoch
+     */
+    private void sweepMessageStore(long olderThan) {
+        if (!(queue instanceof ManageableMailQueue)) {
+            log("Queue can not be browsed, so unreferenced messages of the sharedMessageStore are not deleted");
+            return;
+        }
+        Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+        try {
+            MailQueueIterator it = ((ManageableMailQueue) queue).browse();
+            try {
+                while (it.hasNext()) {
+                    Mail mail = it.next().getMail();
+                    String storeId = (String) mail.getAttribute(MESSAGE_STORE_ID);
+                    if (storeId != null) {
+                        Set<String> destinations = references.get(storeId);
+                        if (destinations == null) {
+                            destinations = new HashSet<String>();
+                            references.put(storeId, destinations);
+                        }
+                        destinations.add(getDestination(mail));
+                    }
+                    LifecycleUtil.dispose(mail);
+                }
+            } finally {
+                it.close();
+            }
+        } catch (Exception e) {
+            // the references may be incomplete, so better delete nothing
+            log("Unable to browse the queue for references to the sharedMessageStore", e);
+            return;
+        }
+        int deleted = messageStore.sweep(references, olderThan);
+        if (deleted > 0) {
+            log("Deleted " + deleted + " messages from the sharedMessageStore which were not referenced anymore");
+        }
+    }
+
+    /**
+     * Mark the stored message of the given mail as in use, so it is not deleted
+     * while the mail is out of the queue
+     *
+     * @param mail the dequeued mail
+     */
+    private void touchStoredMessage(Mail mail) {
+        String storeId = (String) mail.getAttribute(MESSAGE_STORE_ID);
+        if (storeId != null && messageStore != null) {
+            messageStore.touch(storeId, getDestination(mail));
+        }
+    }
+
     private void initDeliveryThreads() {
         for (int a = 0; a < workersThreadCount; a++) {
             String threadName = "Remote delivery thread (" + a + ")";
@@ -663,18 +934,37 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             // Store the new message containers, organized by server, in the
             // outgoing mail repository
             String name = mail.getName();
-            for (Map.Entry<String, Collection<MailAddress>> entry : targets.entrySet()) {
-                if (isDebug) {
-                    String logMessageBuffer = "Sending mail to " + entry.getValue() + " on host " + entry.getKey();
-                    log(logMessageBuffer);
+            Mail envelope = mail;
+            String storeId = null;
+            if (messageStore != null && targets.size() > 1) {
+                // Store the message only once and queue the headers for each
+                // server
+                storeId = messageStore.store(mail.getMessage(), targets.keySet());
+                envelope = new MailImpl(mail, name);
+                envelope.setMessage(messageStore.createPlaceholder(mail.getMessage()));
+                envelope.setAttribute(MESSAGE_STORE_ID, storeId);
+            }
+            try {
+                for (Map.Entry<String, Collection<MailAddress>> entry : targets.entrySet()) {
+                    if (isDebug) {
+                        String logMessageBuffer = "Sending mail to " + entry.getValue() + " on host " + entry.getKey();
+                        log(logMessageBuffer);
+                    }
+                    envelope.setRecipients(entry.getValue());
+                    String nameBuffer = name + "-to-" + entry.getKey();
+                    envelope.setName(nameBuffer);
+                    try {
+                        queue.enQueue(envelope);
+                    } catch (MailQueueException e) {
+                        log("Unable to queue mail " + envelope.getName() + " for recipients + " + envelope.getRecipients().toString(), e);
+                        if (storeId != null) {
+                            messageStore.release(storeId, entry.getKey());
+                        }
+                    }
                 }
-                mail.setRecipients(entry.getValue());
-                String nameBuffer = name + "-to-" + entry.getKey();
-                mail.setName(nameBuffer);
-                try {
-                    queue.enQueue(mail);
-                } catch (MailQueueException e) {
-                    log("Unable to queue mail " + mail.getName() + " for recipients + " + mail.getRecipients().toString(), e);
+            } finally {
+                if (envelope != mail) {
+                    LifecycleUtil.dispose(envelope);
                 }
             }
         } else {
@@ -710,6 +1000,27 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             t.interrupt();
         }
         notifyAll();
+
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+
+        if (messageStoreSweeper != null) {
+            messageStoreSweeper.cancel();
+        }
+
+        if (scheduler != null) {
+            // give the parked mails back to the queue
+            for (MailQueueItem item : scheduler.drain()) {
+                try {
+                    LifecycleUtil.dispose(item.getMail());
+                    item.done(false);
+                } catch (MailQueueException e) {
+                    log("Unable to release parked mail", e);
+                }
+            }
+            scheduler.dispose();
+        }
     }
 
     /**
@@ -762,91 +1073,43 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             props.put("mail.smtp.auth", "true");
         }
 
+        if (connectionPool != null) {
+            // check pooled connections with RSET instead of NOOP
+            props.put("mail.smtp.userset", "true");
+        }
+
         props.putAll(defprops);
 
         final Session session = obtainSession(props);
         try {
             while (!Thread.interrupted() && !destroyed) {
                 try {
-                    // Get the 'mail' object that is ready for deliverying. If
-                    // no
-                    // message is
-                    // ready, the 'accept' will block until message is ready.
-                    // The amount
-                    // of time to block is determined by the 'getWaitTime'
-                    // method of the
-                    // MultipleDelayFilter.
-                    MailQueueItem queueItem = queue.deQueue();
-                    Mail mail = queueItem.getMail();
-
-                    String key = mail.getName();
-
-                    try {
-                        if (isDebug) {
-                            String message = Thread.currentThread().getName() + " will process mail " + key;
-                            log(message);
-                        }
-
-                        // Deliver message
-                        if (deliver(mail, session)) {
-                            // Message was successfully delivered/fully
-                            // failed...
-                            // delete it
-                            LifecycleUtil.dispose(mail);
-                            // workRepository.remove(key);
-                        } else {
-                            // Something happened that will delay delivery.
-                            // Store it back in the retry repository.
-                            // workRepository.store(mail);
-                            int retries = 0;
-                            try {
-                                retries = Integer.parseInt(mail.getErrorMessage());
-                            } catch (NumberFormatException e) {
-                                // Something strange was happen with the
-                                // errorMessage..
-                            }
-
-                            long delay = getNextDelay(retries);
-
-                            if (usePriority) {
-                                // Use lowest priority for retries. See JAMES-1311
-                                mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
+                    if (scheduler == null) {
+                        // Get the 'mail' object that is ready for deliverying. If
+                        // no
+                        // message is
+                        // ready, the 'accept' will block until message is ready.
+                        // The amount
+                        // of time to block is determined by the 'getWaitTime'
+                        // method of the
+                        // MultipleDelayFilter.
+                        handle(queue.deQueue(), session);
+                    } else {
+                        Scheduled scheduled = scheduler.next();
+                        if (scheduled == null) {
+                            // poll more often while mails are parked, so they
+                            // are picked up once their destination has a free slot
+                            long timeout = scheduler.hasParked() ? 100 : 1000;
+                            List<MailQueueItem> items = queue.deQueue(1, timeout, TimeUnit.MILLISECONDS);
+                            if (items.isEmpty()) {
+                                continue;
                             }
-                            queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
-                            LifecycleUtil.dispose(mail);
-
-                            // This is an update, so we have to unlock and
-                            // notify or this mail is kept locked by this
-                            // thread.
-                            // workRepository.unlock(key);
-
-                            // Note: We do not notify because we updated an
-                            // already existing mail and we are now free to
-                            // handle
-                            // more mails.
-                            // Furthermore this mail should not be processed now
-                            // because we have a retry time scheduling.
+                            MailQueueItem queueItem = items.get(0);
+                            touchStoredMessage(queueItem.getMail());
+                            scheduled = scheduler.admit(getDestination(queueItem.getMail()), queueItem);
                         }
-
-                        // Clear the object handle to make sure it recycles
-                        // this object.
-                        mail = null;
-                        queueItem.done(true);
-                    } catch (Exception e) {
-                        // Prevent unexpected exceptions from causing looping by
-                        // removing message from outgoing.
-                        // DO NOT CHANGE THIS to catch Error! For example, if
-                        // there were an OutOfMemory condition caused because
-                        // something else in the server was abusing memory, we
-                        // would
-                        // not want to start purging the retrying spool!
-                        log("Exception caught in RemoteDelivery.run()", e);
-                        LifecycleUtil.dispose(mail);
-                        // workRepository.remove(key);
-                        queueItem.done(false);
-                        throw new MailQueueException("Unable to perform dequeue", e);
+                        schedule(scheduled, session);
                     }
-
                 } catch (Throwable e) {
                     if (!destroyed) {
                         log("Exception caught in RemoteDelivery.run()", e);
@@ -859,6 +1122,179 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         }
     }
 
+    /**
+     * Execute the decision of the {@link RemoteDeliveryScheduler} for a mail
+     *
+     * @param scheduled the scheduled mail
+     * @param session   javax.mail.Session
+     * @throws MailQueueException
+     */
+    private void schedule(Scheduled scheduled, Session session) throws MailQueueException {
+        MailQueueItem queueItem = scheduled.getItem();
+        switch (scheduled.getAction()) {
+        case DELIVER:
+            boolean success = false;
+            try {
+                success = handle(queueItem, session);
+            } finally {
+                scheduler.finished(scheduled, success);
+            }
+            break;
+        case REQUEUE:
+            // The destination is paused or too busy, so put the mail back
+            // without touching the retry count
+            Mail mail = queueItem.getMail();
+            try {
+                if (isDebug) {
+                    log("Destination " + scheduled.getDestination() + " is busy or paused, requeue mail " + mail.getName() + " for " + scheduled.getDelay() + " ms");
+                }
+                queue.enQueue(mail, scheduled.getDelay(), TimeUnit.MILLISECONDS);
+                LifecycleUtil.dispose(mail);
+                queueItem.done(true);
+            } catch (Exception e) {
+                log("Exception caught in RemoteDelivery.run()", e);
+                LifecycleUtil.dispose(mail);
+                queueItem.done(false);
+                throw new MailQueueException("Unable to perform dequeue", e);
+            }
+            break;
+        default:
+            // parked by the scheduler
+            break;
+        }
+    }
+
+    /**
+     * Return the destination of the given mail which is used by the
+     * {@link RemoteDeliveryScheduler}. This is the domain of the recipients,
+     * as mails get split per domain before they are queued, or the gateway
+     * if one is used.
+     *
+     * @param mail the mail
+     * @return destination
+     */
+    private String getDestination(Mail mail) {
+        if (gatewayServer != null) {
+            return "gateway";
+        }
+        Iterator<MailAddress> recipients = mail.getRecipients().iterator();
+        if (!recipients.hasNext()) {
+            return "";
+        }
+        return recipients.next().getDomain().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Deliver the mail of the given {@link MailQueueItem} and requeue it if
+     * the delivery failed temporary
+     *
+     * @param queueItem the dequeued item
+     * @param session   javax.mail.Session
+     * @return <code>false</code> if the delivery failed temporary
+     * @throws MailQueueException
+     */
+    private boolean handle(MailQueueItem queueItem, Session session) throws MailQueueException {
+        Mail mail = queueItem.getMail();
+
+        String key = mail.getName();
+
+        try {
+            if (isDebug) {
+                String message = Thread.currentThread().getName() + " will process mail " + key;
+                log(message);
+            }
+
+            // Load the message if only the headers were queued
+            String storeId = (String) mail.getAttribute(MESSAGE_STORE_ID);
+            MimeMessage placeholder = null;
+            if (storeId != null) {
+                if (!messageStore.isStored(storeId)) {
+                    // the message got lost, for example by a crash before it
+                    // reached the disk. Retrying can never succeed, so the
+                    // mail fails permanently with the queued headers only
+                    String destination = getDestination(mail);
+                    mail.removeAttribute(MESSAGE_STORE_ID);
+                    failMessage(mail, new MessagingException("The stored message " + storeId + " is missing"), true);
+                    LifecycleUtil.dispose(mail);
+                    messageStore.release(storeId, destination);
+                    queueItem.done(true);
+                    return true;
+                }
+                touchStoredMessage(mail);
+                placeholder = new MimeMessage(mail.getMessage());
+                mail.setMessage(messageStore.retrieve(storeId));
+            }
+
+            // Deliver message
+            boolean delivered = deliver(mail, session);
+            if (delivered) {
+                // Message was successfully delivered/fully
+                // failed...
+                // delete it
+                LifecycleUtil.dispose(mail);
+                if (storeId != null) {
+                    messageStore.release(storeId, getDestination(mail));
+                }
+                // workRepository.remove(key);
+            } else {
+                // Something happened that will delay delivery.
+                // Store it back in the retry repository.
+                // workRepository.store(mail);
+                int retries = 0;
+                try {
+                    retries = Integer.parseInt(mail.getErrorMessage());
+                } catch (NumberFormatException e) {
+                    // Something strange was happen with the
+                    // errorMessage..
+                }
+
+                long delay = getNextDelay(retries);
+
+                if (usePriority) {
+                    // Use lowest priority for retries. See JAMES-1311
+                    mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
+                }
+                if (placeholder != null) {
+                    // Only queue the headers again
+                    mail.setMessage(placeholder);
+                }
+                queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
+                LifecycleUtil.dispose(mail);
+
+                // This is an update, so we have to unlock and
+                // notify or this mail is kept locked by this
+                // thread.
+                // workRepository.unlock(key);
+
+                // Note: We do not notify because we updated an
+                // already existing mail and we are now free to
+                // handle
+                // more mails.
+                // Furthermore this mail should not be processed now
+                // because we have a retry time scheduling.
+            }
+
+            // Clear the object handle to make sure it recycles
+            // this object.
+            mail = null;
+            queueItem.done(true);
+            return delivered;
+        } catch (Exception e) {
+            // Prevent unexpected exceptions from causing looping by
+            // removing message from outgoing.
+            // DO NOT CHANGE THIS to catch Error! For example, if
+            // there were an OutOfMemory condition caused because
+            // something else in the server was abusing memory, we
+            // would
+            // not want to start purging the retrying spool!
+            log("Exception caught in RemoteDelivery.run()", e);
+            LifecycleUtil.dispose(mail);
+            // workRepository.remove(key);
+            queueItem.done(false);
+            throw new MailQueueException("Unable to perform dequeue", e);
+        }
+    }
+
     /**
      * We can assume that the recipients of this message are all going to the
      * same mail server. We will now rely on the DNS server to do DNS MX record
@@ -958,13 +1394,20 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                     // NOTIFY= after RCPT TO line.
 
                     Transport transport = null;
+                    PooledTransport pooled = null;
+                    boolean reuse = false;
                     try {
-                        transport = session.getTransport(outgoingMailServer);
                         try {
-                            if (authUser != null) {
-                                transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
+                            if (connectionPool != null) {
+                                pooled = connectionPool.borrow(session, outgoingMailServer, authUser, authPass);
+                                transport = pooled.getTransport();
                             } else {
-                                transport.connect();
+                                transport = session.getTransport(outgoingMailServer);
+                                if (authUser != null) {
+                                    transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
+                                } else {
+                                    transport.connect();
+                                }
                             }
                         } catch (MessagingException me) {
                             // Any error on connect should cause the mailet to
@@ -986,17 +1429,11 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                         // if the transport is a SMTPTransport (from sun) some
                         // performance enhancement can be done.
                         if (transport.getClass().getName().endsWith(".SMTPTransport")) {
-                            boolean supports8bitmime = false;
-                            try {
-                                Method supportsExtension = transport.getClass().getMethod("supportsExtension", new Class[]{String.class});
-                                supports8bitmime = (Boolean) supportsExtension.invoke(transport, "8BITMIME");
-                            } catch (NoSuchMethodException nsme) {
-                                // An SMTPAddressFailedException with no
-                                // getAddress method.
-                            } catch (IllegalAccessException iae) {
-                            } catch (IllegalArgumentException iae) {
-                            } catch (InvocationTargetException ite) {
-                                // Other issues with getAddress invokation.
+                            boolean supports8bitmime;
+                            if (pooled != null) {
+                                supports8bitmime = pooled.supportsExtension("8BITMIME");
+                            } else {
+                                supports8bitmime = RemoteDeliveryConnectionPool.supportsExtension(transport, "8BITMIME");
                             }
 
                             // if the message is alredy 8bit or binary and the
@@ -1031,6 +1468,7 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                             }
                         }
                         transport.sendMessage(message, addr);
+                        reuse = true;
                     } finally {
                         if (transport != null) {
                             try {
@@ -1041,7 +1479,13 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                                 // should be considered to be delivered because
                                 // the error happened outside
                                 // of the mail transaction (MAIL, RCPT, DATA).
-                                transport.close();
+                                if (pooled != null) {
+                                    // keep the connection open for the next
+                                    // mail if everything went well
+                                    connectionPool.release(pooled, reuse);
+                                } else {
+                                    transport.close();
+                                }
                             } catch (MessagingException e) {
                                 log("Warning: could not close the SMTP transport after sending mail (" + mail.getName() + ") to " + outgoingMailServer.getHostName() + " at " + outgoingMailServer.getHost() + " for " + mail.getRecipients() + "; probably the server has already closed the "
                                         + "connection. Message is considered to be delivered. Exception: " + e.getMessage());
@@ -0,0 +1,417 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.mailets;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.apache.mailet.HostAddress;
+import org.slf4j.Logger;
+
+/**
+ * Keeps connected {@link Transport}'s to remote SMTP servers open, so
+ * {@link RemoteDelivery} can send more than one message per connection.
+ * <p>
+ * A {@link Transport} is only handed out again to the {@link Session} it was
+ * created with, as the envelope sender is set via the properties of the
+ * {@link Session}. Before a {@link Transport} gets reused it is checked via
+ * {@link Transport#isConnected()}, which issues a <code>RSET</code> if
+ * <code>mail.smtp.userset</code> is set.
+ * </p>
+ */
+public class RemoteDeliveryConnectionPool {
+
+    /**
+     * Cache of the <code>supportsExtension(String)</code> methods of the
+     * {@link Transport} implementations. Classes without such a method are
+     * mapped to <code>null</code>
+     */
+    private final static Map<Class<?>, Method> SUPPORTS_EXTENSION = new ConcurrentHashMap<Class<?>, Method>();
+    private final static Method NO_METHOD;
+
+    static {
+        try {
+            NO_METHOD = Object.class.getMethod("toString");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Map<String, LinkedList<PooledTransport>> idle = new HashMap<String, LinkedList<PooledTransport>>();
+    private final Map<String, Integer> open = new HashMap<String, Integer>();
+    private final int maxConnectionsPerHost;
+    private final int maxMessagesPerConnection;
+    private final long idleTimeout;
+    private final long waitTimeout;
+    private final Logger logger;
+    private final ScheduledExecutorService evictor;
+    private boolean closed;
+
+    /**
+     * @param maxConnectionsPerHost
+     *            the maximal count of open connections per host, or 0 for no
+     *            limit
+     * @param maxMessagesPerConnection
+     *            the count of messages after which a connection gets closed
+     * @param idleTimeout
+     *            the time in milliseconds after which an idle connection gets
+     *            closed
+     * @param waitTimeout
+     *            the time in milliseconds to wait for a free connection if
+     *            the limit of a host was reached
+     * @param logger
+     */
+    public RemoteDeliveryConnectionPool(int maxConnectionsPerHost, int maxMessagesPerConnection, long idleTimeout, long waitTimeout, Logger logger) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.idleTimeout = idleTimeout;
+        this.waitTimeout = waitTimeout;
+        this.logger = logger;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RemoteDelivery connection evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long interval = Math.max(1000, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                evict();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return a connected {@link Transport} for the given server. The returned
+     * {@link PooledTransport} must be given back via
+     * {@link #release(PooledTransport, boolean)}.
+     * 
+     * @param session
+     * @param server
+     * @param user
+     *            the user to authenticate with or <code>null</code>
+     * @param password
+     * @return transport
+     * @throws MessagingException
+     *             if no connection could be established
+     */
+    public PooledTransport borrow(Session session, HostAddress server, String user, String password) throws MessagingException {
+        String key = server.toString();
+        while (true) {
+            PooledTransport pooled = takeIdle(session, key);
+            if (pooled == null) {
+                break;
+            }
+            if (pooled.transport.isConnected()) {
+                return pooled;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Discard stale connection to " + key);
+            }
+            destroy(pooled);
+        }
+
+        reserve(key);
+        Transport transport = null;
+        try {
+            transport = session.getTransport(server);
+            if (user != null) {
+                transport.connect(server.getHostName(), user, password);
+            } else {
+                transport.connect();
+            }
+            return new PooledTransport(key, session, transport);
+        } catch (MessagingException e) {
+            unreserve(key);
+            throw e;
+        } catch (RuntimeException e) {
+            unreserve(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Give the {@link PooledTransport} back after a message was sent. If
+     * reuse is <code>false</code>, for example because the delivery failed,
+     * or the connection has reached the maximal count of messages it gets
+     * closed.
+     * 
+     * @param pooled
+     * @param reuse
+     * @throws MessagingException
+     *             if closing the connection failed
+     */
+    public void release(PooledTransport pooled, boolean reuse) throws MessagingException {
+        pooled.messages++;
+        pooled.lastUsed = System.currentTimeMillis();
+        if (reuse && pooled.messages < maxMessagesPerConnection) {
+            synchronized (this) {
+                if (!closed) {
+                    LinkedList<PooledTransport> transports = idle.get(pooled.key);
+                    if (transports == null) {
+                        transports = new LinkedList<PooledTransport>();
+                        idle.put(pooled.key, transports);
+                    }
+                    transports.addFirst(pooled);
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+        try {
+            pooled.transport.close();
+        } finally {
+            unreserve(pooled.key);
+        }
+    }
+
+    /**
+     * Close all idle connections and stop the pool
+     */
+    public void close() {
+        evictor.shutdownNow();
+        List<PooledTransport> transports = new ArrayList<PooledTransport>();
+        synchronized (this) {
+            closed = true;
+            for (LinkedList<PooledTransport> list : idle.values()) {
+                transports.addAll(list);
+            }
+            idle.clear();
+            notifyAll();
+        }
+        for (PooledTransport pooled : transports) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Close all connections which were idle for longer than the idle timeout
+     */
+    void evict() {
+        List<PooledTransport> expired = new ArrayList<PooledTransport>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<LinkedList<PooledTransport>> lists = idle.values().iterator();
+            while (lists.hasNext()) {
+                LinkedList<PooledTransport> list = lists.next();
+                Iterator<PooledTransport> transports = list.iterator();
+                while (transports.hasNext()) {
+                    PooledTransport pooled = transports.next();
+                    if (now - pooled.lastUsed > idleTimeout) {
+                        transports.remove();
+                        expired.add(pooled);
+                    }
+                }
+                if (list.isEmpty()) {
+                    lists.remove();
+                }
+            }
+        }
+        for (PooledTransport pooled : expired) {
+            destroy(pooled);
+        }
+    }
+
+    private synchronized PooledTransport takeIdle(Session session, String key) {
+        LinkedList<PooledTransport> transports = idle.get(key);
+        if (transports != null) {
+            Iterator<PooledTransport> it = transports.iterator();
+            while (it.hasNext()) {
+                PooledTransport pooled = it.next();
+                if (pooled.session == session) {
+                    it.remove();
+                    return pooled;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count a new connection to the given host, waiting for a free slot if
+     * the limit is reached
+     */
+    private void reserve(String key) throws MessagingException {
+        PooledTransport victim = null;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitTimeout;
+            while (maxConnectionsPerHost > 0 && count(key) >= maxConnectionsPerHost) {
+                // close an idle connection of another session to make room
+                LinkedList<PooledTransport> transports = idle.get(key);
+                if (transports != null && !transports.isEmpty()) {
+                    victim = transports.removeLast();
+                    break;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0 || closed) {
+                    throw new MessagingException("Too many connections to " + key);
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MessagingException("Interrupted while waiting for a connection to " + key);
+                }
+            }
+            // the slot of the victim is taken over
+            if (victim == null) {
+                open.put(key, count(key) + 1);
+            }
+        }
+        if (victim != null) {
+            try {
+                victim.transport.close();
+            } catch (MessagingException e) {
+                // ignore on close
+            }
+        }
+    }
+
+    private synchronized void unreserve(String key) {
+        int count = count(key) - 1;
+        if (count <= 0) {
+            open.remove(key);
+        } else {
+            open.put(key, count);
+        }
+        notifyAll();
+    }
+
+    private int count(String key) {
+        Integer count = open.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private void destroy(PooledTransport pooled) {
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            // ignore on close
+        } finally {
+            unreserve(pooled.key);
+        }
+    }
+
+    /**
+     * Return <code>true</code> if the given {@link Transport} announced
+     * support for the given SMTP extension. This uses reflection as there is
+     * no api for it, so <code>false</code> is returned for {@link Transport}
+     * implementations which not offer a
+     * <code>supportsExtension(String)</code> method.
+     * 
+     * @param transport
+     * @param extension
+     * @return supported
+     */
+    public static boolean supportsExtension(Transport transport, String extension) {
+        Class<?> clazz = transport.getClass();
+        Method method = SUPPORTS_EXTENSION.get(clazz);
+        if (method == null) {
+            try {
+                method = clazz.getMethod("supportsExtension", String.class);
+            } catch (NoSuchMethodException e) {
+                method = NO_METHOD;
+            }
+            SUPPORTS_EXTENSION.put(clazz, method);
+        }
+        if (method == NO_METHOD) {
+            return false;
+        }
+        try {
+            return (Boolean) method.invoke(transport, extension);
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A connected {@link Transport} which belongs to a
+     * {@link RemoteDeliveryConnectionPool}
+     */
+    public final static class PooledTransport {
+        private final String key;
+        private final Session session;
+        private final Transport transport;
+        private final Map<String, Boolean> extensions = new HashMap<String, Boolean>();
+        private int messages;
+        private long lastUsed;
+
+        private PooledTransport(String key, Session session, Transport transport) {
+            this.key = key;
+            this.session = session;
+            this.transport = transport;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * Return <code>true</code> if the server announced support for the
+         * given SMTP extension. The result is cached for the lifetime of the
+         * connection.
+         * 
+         * @param extension
+         * @return supported
+         */
+        public boolean supportsExtension(String extension) {
+            Boolean supported = extensions.get(extension);
+            if (supported == null) {
+                supported = RemoteDeliveryConnectionPool.supportsExtension(transport, extension);
+                extensions.put(extension, supported);
+            }
+            return supported;
+        }
+
+        /**
+         * Return the count of messages which were sent over this connection
+         * before
+         * 
+         * @return messages
+         */
+        public int getMessageCount() {
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.mailets;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.lifecycle.api.Disposable;
+
+/**
+ * Stores the message of a mail with recipients in more then one domain once,
+ * so the per domain queue entries of {@link RemoteDelivery} only need to carry
+ * the envelope and the headers.
+ * <p>
+ * Every stored message gets its own directory which holds the message and one
+ * empty reference file per destination. The reference files are the reference
+ * count: once the reference file of the last destination got released the
+ * message is deleted. As this only depends on the file system it survives a
+ * restart.
+ * </p>
+ * <p>
+ * Messages whose queue entries got lost, because of a crash between storing
+ * and queueing or because the entries were removed from the queue, are
+ * deleted by {@link #sweep(Map, long)}. The directory must only be used by
+ * one {@link RemoteDelivery} mailet.
+ * </p>
+ */
+public class RemoteDeliveryMessageStore {
+
+    private final static String MESSAGE_FILE = "message.eml";
+    private final static String REF_SUFFIX = ".ref";
+
+    private final File directory;
+    private final boolean sync;
+    private final Session session = Session.getDefaultInstance(System.getProperties());
+
+    /**
+     * Create a store which calls <code>fsync</code> for every stored message
+     * 
+     * @param directory
+     *            the directory in which the messages are stored
+     * @throws IOException
+     */
+    public RemoteDeliveryMessageStore(File directory) throws IOException {
+        this(directory, true);
+    }
+
+    /**
+     * @param directory
+     *            the directory in which the messages are stored
+     * @param sync
+     *            if <code>true</code> every stored message is synced to the
+     *            disk, which is needed if the queue entries referencing it are
+     *            synced
+     * @throws IOException
+     */
+    public RemoteDeliveryMessageStore(File directory, boolean sync) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        this.directory = directory;
+        this.sync = sync;
+    }
+
+    /**
+     * Store the given message and reference it once for every destination
+     * 
+     * @param message
+     * @param destinations
+     * @return id of the stored message
+     * @throws MessagingException
+     */
+    public String store(MimeMessage message, Collection<String> destinations) throws MessagingException {
+        String id = UUID.randomUUID().toString();
+        File dir = new File(directory, id);
+        OutputStream out = null;
+        try {
+            if (!dir.mkdir()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            FileOutputStream fileOut = new FileOutputStream(new File(dir, MESSAGE_FILE));
+            out = new BufferedOutputStream(fileOut);
+            message.writeTo(out);
+            out.flush();
+            if (sync) {
+                fileOut.getFD().sync();
+            }
+            out.close();
+            out = null;
+            for (String destination : destinations) {
+                getRefFile(dir, destination).createNewFile();
+            }
+            return id;
+        } catch (IOException e) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    // ignore on error
+                }
+            }
+            delete(dir);
+            throw new MessagingException("Unable to store message " + id, e);
+        }
+    }
+
+    /**
+     * Return the stored message with the given id
+     * 
+     * @param id
+     * @return message
+     * @throws MessagingException
+     */
+    public MimeMessage retrieve(String id) throws MessagingException {
+        File file = new File(new File(directory, id), MESSAGE_FILE);
+        if (!file.isFile()) {
+            throw new MessagingException("No stored message with id " + id);
+        }
+        return new MimeMessageCopyOnWriteProxy(new FileSource(id, file));
+    }
+
+    /**
+     * Return <code>true</code> if a message with the given id is stored
+     * 
+     * @param id
+     * @return stored
+     */
+    public boolean isStored(String id) {
+        return new File(new File(directory, id), MESSAGE_FILE).isFile();
+    }
+
+    /**
+     * Release the reference of the given destination. The stored message is
+     * deleted once no destination references it anymore.
+     * 
+     * @param id
+     * @param destination
+     */
+    public synchronized void release(String id, String destination) {
+        File dir = new File(directory, id);
+        getRefFile(dir, destination).delete();
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.endsWith(REF_SUFFIX)) {
+                return;
+            }
+        }
+        delete(dir);
+    }
+
+    /**
+     * Mark the reference of the given destination as in use, so it is not
+     * deleted by a {@link #sweep(Map, long)} for some time even if the queue
+     * does not contain it at the moment
+     * 
+     * @param id
+     * @param destination
+     */
+    public void touch(String id, String destination) {
+        getRefFile(new File(directory, id), destination).setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Delete all references which are not contained in the given ones and were
+     * not created or touched since the given time, and every message which is
+     * not referenced anymore
+     * 
+     * @param references
+     *            the destinations which are still queued per message id
+     * @param olderThan
+     *            time in milliseconds since the epoch
+     * @return count of deleted messages
+     */
+    public synchronized int sweep(Map<String, Set<String>> references, long olderThan) {
+        int deleted = 0;
+        File[] dirs = directory.listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        for (File dir : dirs) {
+            if (!dir.isDirectory() || dir.lastModified() >= olderThan) {
+                continue;
+            }
+            Set<String> refNames = new HashSet<String>();
+            Set<String> destinations = references.get(dir.getName());
+            if (destinations != null) {
+                for (String destination : destinations) {
+                    refNames.add(getRefFile(dir, destination).getName());
+                }
+            }
+            boolean referenced = false;
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.getName().endsWith(REF_SUFFIX)) {
+                        continue;
+                    }
+                    if (refNames.contains(file.getName()) || file.lastModified() >= olderThan || !file.delete()) {
+                        referenced = true;
+                    }
+                }
+            }
+            if (!referenced) {
+                delete(dir);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Create a message which only contains the headers of the given message,
+     * to be queued instead of the full message
+     * 
+     * @param message
+     * @return placeholder
+     * @throws MessagingException
+     */
+    public MimeMessage createPlaceholder(MimeMessage message) throws MessagingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Enumeration<?> lines = message.getAllHeaderLines();
+            while (lines.hasMoreElements()) {
+                out.write(((String) lines.nextElement()).getBytes("US-ASCII"));
+                out.write('\r');
+                out.write('\n');
+            }
+            out.write('\r');
+            out.write('\n');
+        } catch (IOException e) {
+            // should never happen for in memory streams
+            throw new MessagingException("Unable to create placeholder", e);
+        }
+        return new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private File getRefFile(File dir, String destination) {
+        return new File(dir, destination.replaceAll("[^A-Za-z0-9.\\-]", "_") + REF_SUFFIX);
+    }
+
+    /**
+     * {@link MimeMessageSource} which reads a stored message
+     */
+    private final static class FileSource extends MimeMessageSource implements Disposable {
+        private final String id;
+        private final File file;
+        private final List<InputStream> streams = new ArrayList<InputStream>();
+
+        public FileSource(String id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        @Override
+        public String getSourceId() {
+            return id;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            InputStream in = new SharedFileInputStream(file);
+            streams.add(in);
+            return in;
+        }
+
+        @Override
+        public long getMessageSize() throws IOException {
+            return file.length();
+        }
+
+        @Override
+        public synchronized void dispose() {
+            for (InputStream in : streams) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore on dispose
+                }
+            }
+            streams.clear();
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.mailets;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+
+/**
+ * Decides which dequeued mail a {@link RemoteDelivery} worker thread delivers
+ * next, so a slow or unhealthy destination can not occupy all workers.
+ * <p>
+ * Every destination has a limit of concurrent deliveries and of deliveries per
+ * second. Mails for a destination which is at its limit are parked and handed
+ * out later, round-robin over all destinations with parked mails. If too many
+ * deliveries to a destination failed in a row the destination gets paused
+ * with an exponential backoff, and its mails are re-queued until the pause is
+ * over without counting as a delivery attempt.
+ * </p>
+ */
+public class RemoteDeliveryScheduler extends StandardMBean implements RemoteDeliverySchedulerMBean {
+
+    /**
+     * What the worker thread has to do with a {@link Scheduled} mail
+     */
+    public enum Action {
+        /**
+         * Deliver the mail now and call
+         * {@link RemoteDeliveryScheduler#finished(Scheduled, boolean)}
+         * afterwards
+         */
+        DELIVER,
+
+        /**
+         * Nothing to do, the mail was parked by the scheduler
+         */
+        PARKED,
+
+        /**
+         * Put the mail back into the queue with the delay of
+         * {@link Scheduled#getDelay()}
+         */
+        REQUEUE
+    }
+
+    private final Map<String, Destination> destinations = new HashMap<String, Destination>();
+    private final LinkedList<Destination> ring = new LinkedList<Destination>();
+    private final int maxConcurrency;
+    private final double maxRate;
+    private final int maxParked;
+    private final int failureThreshold;
+    private final long backoff;
+    private final long maxBackoff;
+    private final String jmxName;
+    private int parked;
+
+    /**
+     * @param maxConcurrency
+     *            the maximal count of concurrent deliveries per destination or
+     *            0 for no limit
+     * @param maxRate
+     *            the maximal count of deliveries per second per destination or
+     *            0 for no limit
+     * @param maxParked
+     *            the maximal count of mails which are parked over all
+     *            destinations
+     * @param failureThreshold
+     *            the count of failed deliveries in a row after which a
+     *            destination gets paused or 0 to never pause
+     * @param backoff
+     *            the time in milliseconds a destination gets paused for the
+     *            first time
+     * @param maxBackoff
+     *            the maximal time in milliseconds a destination gets paused
+     * @param jmxName
+     *            the name to register the MBean with or <code>null</code>
+     */
+    public RemoteDeliveryScheduler(int maxConcurrency, double maxRate, int maxParked, int failureThreshold, long backoff, long maxBackoff, String jmxName) {
+        super(RemoteDeliverySchedulerMBean.class, false);
+        this.maxConcurrency = maxConcurrency;
+        this.maxRate = maxRate;
+        this.maxParked = maxParked;
+        this.failureThreshold = failureThreshold;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.jmxName = jmxName;
+        if (jmxName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(jmxName));
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to register mbean", e);
+            }
+        }
+    }
+
+    /**
+     * Decide what to do with a mail which was just dequeued
+     * 
+     * @param destination
+     * @param item
+     * @return scheduled
+     */
+    public synchronized Scheduled admit(String destination, MailQueueItem item) {
+        Destination dest = getDestination(destination);
+        long now = System.currentTimeMillis();
+        long pause = dest.getPause(now);
+        if (pause > 0) {
+            return new Scheduled(dest, item, Action.REQUEUE, pause);
+        }
+        if (dest.parked.isEmpty() && dest.tryStart(now)) {
+            return new Scheduled(dest, item, Action.DELIVER, 0);
+        }
+        if (parked < maxParked) {
+            dest.parked.add(item);
+            parked++;
+            return new Scheduled(dest, item, Action.PARKED, 0);
+        }
+        return new Scheduled(dest, item, Action.REQUEUE, Math.max(1000, dest.getRateDelay(now)));
+    }
+
+    /**
+     * Return the next parked mail which can be delivered now or which needs
+     * to get re-queued because its destination was paused. The destinations
+     * are visited round-robin.
+     * 
+     * @return scheduled or <code>null</code> if there is nothing to do
+     */
+    public synchronized Scheduled next() {
+        if (parked == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < ring.size(); i++) {
+            Destination dest = ring.removeFirst();
+            ring.addLast(dest);
+            if (dest.parked.isEmpty()) {
+                continue;
+            }
+            long pause = dest.getPause(now);
+            if (pause > 0) {
+                parked--;
+                return new Scheduled(dest, dest.parked.removeFirst(), Action.REQUEUE, pause);
+            }
+            if (dest.tryStart(now)) {
+                parked--;
+                return new Scheduled(dest, dest.parked.removeFirst(), Action.DELIVER, 0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called once the delivery of a mail which was returned with
+     * {@link Action#DELIVER} is done
+     * 
+     * @param scheduled
+     * @param success
+     *            <code>false</code> if the delivery failed temporary
+     */
+    public synchronized void finished(Scheduled scheduled, boolean success) {
+        Destination dest = scheduled.destination;
+        long now = System.currentTimeMillis();
+        dest.active--;
+        if (success) {
+            dest.delivered++;
+            dest.failures = 0;
+            dest.countDelivery(now);
+        } else {
+            dest.failed++;
+            dest.failures++;
+            if (failureThreshold > 0 && dest.failures >= failureThreshold) {
+                int exp = Math.min(dest.failures - failureThreshold, 30);
+                long pause = Math.min(maxBackoff, backoff << exp);
+                dest.pausedUntil = now + pause;
+            }
+        }
+    }
+
+    /**
+     * Return <code>true</code> if there are parked mails
+     * 
+     * @return hasParked
+     */
+    public synchronized boolean hasParked() {
+        return parked > 0;
+    }
+
+    /**
+     * Return all parked mails, so they can be put back into the queue on
+     * shutdown
+     * 
+     * @return items
+     */
+    public synchronized List<MailQueueItem> drain() {
+        List<MailQueueItem> items = new ArrayList<MailQueueItem>();
+        for (Destination dest : ring) {
+            items.addAll(dest.parked);
+            dest.parked.clear();
+        }
+        parked = 0;
+        return items;
+    }
+
+    /**
+     * Unregister the MBean
+     */
+    public void dispose() {
+        if (jmxName != null) {
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                mbeanServer.unregisterMBean(new ObjectName(jmxName));
+            } catch (Exception e) {
+                // ignore here
+            }
+        }
+    }
+
+    private Destination getDestination(String name) {
+        Destination dest = destinations.get(name);
+        if (dest == null) {
+            dest = new Destination(name);
+            destinations.put(name, dest);
+            ring.add(dest);
+        }
+        return dest;
+    }
+
+    @Override
+    public synchronized String[] getDestinations() {
+        return destinations.keySet().toArray(new String[destinations.size()]);
+    }
+
+    @Override
+    public synchronized int getPendingCount(String destination) {
+        Destination dest = destinations.get(destination);
+        return dest == null ? 0 : dest.parked.size();
+    }
+
+    @Override
+    public synchronized int getActiveCount(String destination) {
+        Destination dest = destinations.get(destination);
+        return dest == null ? 0 : dest.active;
+    }
+
+    @Override
+    public synchronized long getDeliveredCount(String destination) {
+        Destination dest = destinations.get(destination);
+        return dest == null ? 0 : dest.delivered;
+    }
+
+    @Override
+    public synchronized long getFailedCount(String destination) {
+        Destination dest = destinations.get(destination);
+        return dest == null ? 0 : dest.failed;
+    }
+
+    @Override
+    public synchronized long getDeliveredLastMinute(String destination) {
+        Destination dest = destinations.get(destination);
+        if (dest == null) {
+            return 0;
+        }
+        dest.roll(System.currentTimeMillis());
+        return dest.lastMinuteCount;
+    }
+
+    @Override
+    public synchronized long getPausedUntil(String destination) {
+        Destination dest = destinations.get(destination);
+        if (dest == null || dest.pausedUntil <= System.currentTimeMillis()) {
+            return 0;
+        }
+        return dest.pausedUntil;
+    }
+
+    @Override
+    public synchronized void resume(String destination) {
+        Destination dest = destinations.get(destination);
+        if (dest != null) {
+            dest.pausedUntil = 0;
+            dest.failures = 0;
+        }
+    }
+
+    /**
+     * A mail together with the decision of the {@link RemoteDeliveryScheduler}
+     */
+    public final static class Scheduled {
+        private final Destination destination;
+        private final MailQueueItem item;
+        private final Action action;
+        private final long delay;
+
+        private Scheduled(Destination destination, MailQueueItem item, Action action, long delay) {
+            this.destination = destination;
+            this.item = item;
+            this.action = action;
+            this.delay = delay;
+        }
+
+        public MailQueueItem getItem() {
+            return item;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * Return the delay in milliseconds to use when the mail gets re-queued
+         * 
+         * @return delay
+         */
+        public long getDelay() {
+            return delay;
+        }
+
+        public String getDestination() {
+            return destination.name;
+        }
+    }
+
+    /**
+     * State of one destination
+     */
+    private final class Destination {
+        private final String name;
+        private final LinkedList<MailQueueItem> parked = new LinkedList<MailQueueItem>();
+        private int active;
+        private int failures;
+        private long pausedUntil;
+        private long delivered;
+        private long failed;
+        private long lastStart;
+        private long minute;
+        private long minuteCount;
+        private long lastMinuteCount;
+
+        public Destination(String name) {
+            this.name = name;
+        }
+
+        public long getPause(long now) {
+            return Math.max(0, pausedUntil - now);
+        }
+
+        public long getRateDelay(long now) {
+            if (maxRate <= 0) {
+                return 0;
+            }
+            return Math.max(0, lastStart + (long) (1000 / maxRate) - now);
+        }
+
+        public boolean tryStart(long now) {
+            if (maxConcurrency > 0 && active >= maxConcurrency) {
+                return false;
+            }
+            if (getRateDelay(now) > 0) {
+                return false;
+            }
+            active++;
+            lastStart = now;
+            return true;
+        }
+
+        public void countDelivery(long now) {
+            roll(now);
+            minuteCount++;
+        }
+
+        public void roll(long now) {
+            long current = now / 60000;
+            if (current != minute) {
+                lastMinuteCount = current == minute + 1 ? minuteCount : 0;
+                minute = current;
+                minuteCount = 0;
+            }
+        }
+    }
+}
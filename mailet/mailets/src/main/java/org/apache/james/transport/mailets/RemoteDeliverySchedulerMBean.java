@@ -0,0 +1,94 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.mailets;
+
+/**
+ * JMX MBean for the {@link RemoteDeliveryScheduler} of a
+ * {@link RemoteDelivery} instance
+ */
+public interface RemoteDeliverySchedulerMBean {
+
+    /**
+     * Return all destinations which were seen since startup
+     * 
+     * @return destinations
+     */
+    String[] getDestinations();
+
+    /**
+     * Return the count of mails for the given destination which wait for a
+     * free delivery slot
+     * 
+     * @param destination
+     * @return pending
+     */
+    int getPendingCount(String destination);
+
+    /**
+     * Return the count of mails which are delivered to the given destination
+     * right now
+     * 
+     * @param destination
+     * @return active
+     */
+    int getActiveCount(String destination);
+
+    /**
+     * Return the count of mails which were delivered to the given destination
+     * since startup
+     * 
+     * @param destination
+     * @return delivered
+     */
+    long getDeliveredCount(String destination);
+
+    /**
+     * Return the count of delivery attempts to the given destination which
+     * failed temporary since startup
+     * 
+     * @param destination
+     * @return failed
+     */
+    long getFailedCount(String destination);
+
+    /**
+     * Return the count of mails which were delivered to the given destination
+     * within the last minute
+     * 
+     * @param destination
+     * @return throughput
+     */
+    long getDeliveredLastMinute(String destination);
+
+    /**
+     * Return the time in milliseconds since the epoch until the given
+     * destination is paused, or 0 if it is not paused
+     * 
+     * @param destination
+     * @return pausedUntil
+     */
+    long getPausedUntil(String destination);
+
+    /**
+     * Resume the delivery to the given destination if it was paused
+     * 
+     * @param destination
+     */
+    void resume(String destination);
+}
@@ -19,7 +19,6 @@
 
 package org.apache.james.transport.matchers;
 
-import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.StringTokenizer;
 
@@ -27,6 +26,7 @@ import javax.inject.Inject;
 import javax.mail.MessagingException;
 
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.library.dnsbl.DNSBLLookup;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
 import org.apache.mailet.base.GenericMatcher;
@@ -56,11 +56,24 @@ public class InSpammerBlacklist extends GenericMatcher {
 
     private DNSService dnsServer;
 
+    private DNSBLLookup dnsblLookup;
+
     @Inject
     public void setDNSService(DNSService dnsService) {
         this.dnsServer = dnsService;
     }
 
+    /**
+     * Set the shared lookup of the blacklists. If none is set a lookup of the
+     * DNS service is used.
+     * 
+     * @param dnsblLookup
+     */
+    @Inject
+    public void setDNSBLLookup(DNSBLLookup dnsblLookup) {
+        this.dnsblLookup = dnsblLookup;
+    }
+
     public void init() throws MessagingException {
         network = getCondition();
 
@@ -68,31 +81,32 @@ public class InSpammerBlacklist extends GenericMatcher {
         if (network == null)
             throw new MessagingException("Please configure a blacklist");
 
+        if (dnsblLookup == null) {
+            dnsblLookup = new DNSBLLookup(dnsServer);
+        }
+
     }
 
     public Collection<MailAddress> match(Mail mail) {
         String host = mail.getRemoteAddr();
-        try {
-            // Have to reverse the octets first
-            StringBuilder sb = new StringBuilder();
-            StringTokenizer st = new StringTokenizer(host, " .", false);
+        // Have to reverse the octets first
+        StringBuilder sb = new StringBuilder();
+        StringTokenizer st = new StringTokenizer(host, " .", false);
 
-            while (st.hasMoreTokens()) {
-                sb.insert(0, st.nextToken() + ".");
-            }
-
-            // Add the network prefix for this blacklist
-            sb.append(network);
+        while (st.hasMoreTokens()) {
+            sb.insert(0, st.nextToken() + ".");
+        }
 
-            // Try to look it up
-            dnsServer.getByName(sb.toString());
+        // Add the network prefix for this blacklist
+        sb.append(network);
 
+        // Try to look it up
+        if (dnsblLookup.isListed(sb.toString())) {
             // If we got here, that's bad... it means the host
             // was found in the blacklist
             return mail.getRecipients();
-        } catch (UnknownHostException uhe) {
-            // This is good... it's not on the list
-            return null;
         }
+        // This is good... it's not on the list
+        return null;
     }
 }
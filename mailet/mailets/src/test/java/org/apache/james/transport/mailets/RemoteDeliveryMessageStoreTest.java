@@ -0,0 +1,139 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.mailets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteDeliveryMessageStoreTest {
+
+    private File directory;
+
+    private RemoteDeliveryMessageStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("messagestore", "");
+        directory.delete();
+        store = new RemoteDeliveryMessageStore(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] dirs = directory.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                dir.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private MimeMessage createMessage() throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setSubject("test");
+        message.setText("test");
+        message.saveChanges();
+        return message;
+    }
+
+    @Test
+    public void testReleaseOfLastDestinationDeletesMessage() throws Exception {
+        String id = store.store(createMessage(), Arrays.asList("a.example", "b.example"));
+
+        store.release(id, "a.example");
+        assertTrue(new File(directory, id).exists());
+        MimeMessage message = store.retrieve(id);
+        assertEquals("test", message.getSubject());
+        LifecycleUtil.dispose(message);
+
+        store.release(id, "b.example");
+        assertFalse(new File(directory, id).exists());
+    }
+
+    @Test
+    public void testSweepDeletesUnreferencedMessages() throws Exception {
+        String queued = store.store(createMessage(), Arrays.asList("a.example", "b.example"));
+        String lost = store.store(createMessage(), Arrays.asList("a.example", "b.example"));
+
+        Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+        references.put(queued, Collections.singleton("a.example"));
+        assertEquals(1, store.sweep(references, System.currentTimeMillis() + 1000));
+
+        try {
+            store.retrieve(lost);
+            fail("Message was not referenced anymore");
+        } catch (MessagingException e) {
+            // expected
+        }
+
+        // only the reference which is still queued is left
+        store.release(queued, "a.example");
+        assertFalse(new File(directory, queued).exists());
+    }
+
+    @Test
+    public void testSweepKeepsMessagesInUse() throws Exception {
+        String id = store.store(createMessage(), Arrays.asList("a.example", "b.example"));
+        store.touch(id, "a.example");
+
+        Map<String, Set<String>> references = Collections.emptyMap();
+        assertEquals(0, store.sweep(references, System.currentTimeMillis() - 60000));
+        assertTrue(new File(directory, id).exists());
+    }
+
+    @Test
+    public void testReleaseOfMissingMessage() throws Exception {
+        String id = store.store(createMessage(), Arrays.asList("a.example", "b.example"));
+        assertTrue(store.isStored(id));
+
+        // the message was lost, but the references are still there
+        assertTrue(new File(new File(directory, id), "message.eml").delete());
+        assertFalse(store.isStored(id));
+
+        store.release(id, "a.example");
+        store.release(id, "b.example");
+        assertFalse(new File(directory, id).exists());
+    }
+}
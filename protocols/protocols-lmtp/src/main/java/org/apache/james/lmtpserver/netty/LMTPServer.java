@@ -28,6 +28,7 @@ import org.apache.james.protocols.lib.handler.HandlersPackage;
 import org.apache.james.protocols.lib.netty.AbstractProtocolAsyncServer;
 import org.apache.james.protocols.lmtp.LMTPConfiguration;
 import org.apache.james.protocols.smtp.SMTPProtocol;
+import org.apache.james.smtpserver.MessageBufferSupport;
 import org.apache.james.smtpserver.netty.SMTPChannelUpstreamHandler;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
 
@@ -40,6 +41,7 @@ public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServe
     private long maxMessageSize = 0;
     private final LMTPConfigurationImpl lmtpConfig = new LMTPConfigurationImpl();
     private String lmtpGreeting;
+    private MessageBufferSupport messageBuffer;
 
 
     /**
@@ -73,6 +75,21 @@ public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServe
             // get the lmtpGreeting
             lmtpGreeting = configuration.getString("lmtpGreeting", null);
 
+            messageBuffer = new MessageBufferSupport(configuration);
+        }
+    }
+
+    @Override
+    protected void preInit() throws Exception {
+        super.preInit();
+        messageBuffer.init(getProtocolHandlerChain(), getFileSystem(), jmxName);
+    }
+
+    @Override
+    protected void postDestroy() {
+        super.postDestroy();
+        if (messageBuffer != null) {
+            messageBuffer.destroy();
         }
     }
 
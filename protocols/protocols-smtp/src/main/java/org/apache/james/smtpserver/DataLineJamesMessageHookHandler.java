@@ -66,10 +66,36 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
 
     private List<MessageHook> mHandlers;
 
+    /**
+     * Buffer to copy lines into which are not backed by an array, so not
+     * every line needs a new array
+     */
+    private static final ThreadLocal<byte[]> LINE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
     public Response onLine(SMTPSession session, ByteBuffer lineByteBuffer, LineHandler<SMTPSession> next) {
 
-        byte[] line = new byte[lineByteBuffer.remaining()];
-        lineByteBuffer.get(line, 0, line.length);
+        // Access the line in place if possible and only copy it otherwise
+        byte[] line;
+        int offset;
+        int length = lineByteBuffer.remaining();
+        if (lineByteBuffer.hasArray()) {
+            line = lineByteBuffer.array();
+            offset = lineByteBuffer.arrayOffset() + lineByteBuffer.position();
+            lineByteBuffer.position(lineByteBuffer.limit());
+        } else {
+            line = LINE_BUFFER.get();
+            if (line.length < length) {
+                line = new byte[Math.max(length, line.length * 2)];
+                LINE_BUFFER.set(line);
+            }
+            offset = 0;
+            lineByteBuffer.get(line, 0, length);
+        }
 
         MimeMessageInputStreamSource mmiss = (MimeMessageInputStreamSource) session.getAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, State.Transaction);
 
@@ -78,7 +104,7 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
 
             // 46 is "."
             // Stream terminated
-            if (line.length == 3 && line[0] == 46) {
+            if (length == 3 && line[offset] == 46) {
                 out.flush();
                 out.close();
 
@@ -121,14 +147,13 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
                 }
 
                 // DotStuffing.
-            } else if (line[0] == 46 && line[1] == 46) {
-                out.write(line, 1, line.length - 1);
+            } else if (length > 1 && line[offset] == 46 && line[offset + 1] == 46) {
+                out.write(line, offset + 1, length - 1);
                 // Standard write
             } else {
-                // TODO: maybe we should handle the Header/Body recognition here
-                // and if needed let a filter to cache the headers to apply some
-                // transformation before writing them to output.
-                out.write(line);
+                // TODO: maybe we should let a filter to cache the headers to
+                // apply some transformation before writing them to output.
+                out.write(line, offset, length);
             }
         } catch (IOException e) {
             LifecycleUtil.dispose(mmiss);
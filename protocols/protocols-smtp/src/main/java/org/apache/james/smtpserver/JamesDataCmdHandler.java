@@ -18,7 +18,10 @@
  ****************************************************************/
 package org.apache.james.smtpserver;
 
+import java.io.File;
+
 import org.apache.james.core.MailImpl;
+import org.apache.james.core.MessageBufferArena;
 import org.apache.james.core.MimeMessageInputStreamSource;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.SMTPResponse;
@@ -31,6 +34,28 @@ import org.apache.james.protocols.smtp.core.DataCmdHandler;
  */
 public class JamesDataCmdHandler extends DataCmdHandler {
 
+    private int spillThreshold = 1024 * 100;
+
+    private File spillDirectory;
+
+    private MessageBufferArena arena;
+
+    /**
+     * Set how the message data is buffered
+     *
+     * @param spillThreshold the count of bytes after which the data is written
+     *                       to a temporary file
+     * @param spillDirectory the directory for the temporary file or
+     *                       <code>null</code> for the default
+     * @param arena          the arena to hold the data off-heap or
+     *                       <code>null</code> to hold it on the heap
+     */
+    public void setMessageBuffer(int spillThreshold, File spillDirectory, MessageBufferArena arena) {
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+        this.arena = arena;
+    }
+
     /**
      * Handler method called upon receipt of a DATA command. Reads in message
      * data, creates header, and delivers to mail server service for delivery.
@@ -40,7 +65,7 @@ public class JamesDataCmdHandler extends DataCmdHandler {
      */
     protected SMTPResponse doDATA(SMTPSession session, String argument) {
         try {
-            MimeMessageInputStreamSource mmiss = new MimeMessageInputStreamSource(MailImpl.getId());
+            MimeMessageInputStreamSource mmiss = new MimeMessageInputStreamSource(MailImpl.getId(), spillThreshold, spillDirectory, arena);
             session.setAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, mmiss, State.Transaction);
         } catch (Exception e) {
             session.getLogger().warn("Error creating mimemessagesource for incoming data", e);
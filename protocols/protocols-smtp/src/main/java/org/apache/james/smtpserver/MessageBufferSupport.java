@@ -0,0 +1,104 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.smtpserver;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.james.core.MessageBufferArena;
+import org.apache.james.filesystem.api.FileSystem;
+import org.apache.james.protocols.api.handler.ProtocolHandlerChain;
+
+/**
+ * Holds the settings of a server which control how the DATA of a message is
+ * buffered while it is received, and applies them to the
+ * {@link JamesDataCmdHandler} of the server.
+ * <p>
+ * The settings are:
+ * <ul>
+ * <li><b>spillThreshold</b> - the size in kilobytes after which a message is
+ * written to a temporary file. Default is 100</li>
+ * <li><b>spillDirectory</b> - the directory for the temporary files. Default
+ * is the java.io.tmpdir</li>
+ * <li><b>offHeapBuffer</b> - the size in kilobytes of the off-heap memory
+ * which is shared by all sessions of the server to hold messages below the
+ * spillThreshold. If it is exhausted messages are written to a temporary
+ * file. Default is 0, which means messages are hold on the heap</li>
+ * </ul>
+ * </p>
+ */
+public class MessageBufferSupport {
+
+    private final int threshold;
+    private final String directory;
+    private final long offHeapBuffer;
+    private MessageBufferArena arena;
+    private String jmxName;
+
+    public MessageBufferSupport(Configuration config) {
+        this.threshold = config.getInt("spillThreshold", 100) * 1024;
+        this.directory = config.getString("spillDirectory", null);
+        this.offHeapBuffer = config.getLong("offHeapBuffer", 0) * 1024;
+    }
+
+    /**
+     * Apply the settings to all {@link JamesDataCmdHandler} of the given chain
+     * and register the {@link MessageBufferArena} in JMX if one is used
+     * 
+     * @param chain
+     * @param fileSystem
+     * @param jmxName
+     *            the jmxName of the server
+     * @throws Exception
+     */
+    public void init(ProtocolHandlerChain chain, FileSystem fileSystem, String jmxName) throws Exception {
+        File dir = null;
+        if (directory != null) {
+            dir = fileSystem.getFile(directory);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IllegalArgumentException("Unable to create spillDirectory " + directory);
+            }
+        }
+        if (offHeapBuffer > 0) {
+            arena = new MessageBufferArena(offHeapBuffer, MessageBufferArena.DEFAULT_CHUNK_SIZE);
+            this.jmxName = "org.apache.james:type=server,name=" + jmxName + ",sub-type=messagebuffer";
+            ManagementFactory.getPlatformMBeanServer().registerMBean(arena, new ObjectName(this.jmxName));
+        }
+        for (JamesDataCmdHandler handler : chain.getHandlers(JamesDataCmdHandler.class)) {
+            handler.setMessageBuffer(threshold, dir, arena);
+        }
+    }
+
+    /**
+     * Unregister the {@link MessageBufferArena} from JMX
+     */
+    public void destroy() {
+        if (jmxName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(jmxName));
+            } catch (Exception e) {
+                // ignore here
+            }
+            jmxName = null;
+        }
+    }
+}
@@ -18,10 +18,10 @@
  ****************************************************************/
 package org.apache.james.smtpserver.fastfail;
 
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -30,17 +30,43 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.library.dnsbl.DNSBLLookup;
 import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
 
 public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail.DNSRBLHandler implements InitializingLifecycleAwareProtocolHandler {
 
     private DNSService dns;
 
+    private DNSBLLookup dnsblLookup;
+
+    /**
+     * The zones of the white- and blacklists
+     */
+    private final List<String> zones = new ArrayList<String>();
+
     @Inject
     public void setDNSService(@Named("dnsservice") DNSService dns) {
         this.dns = dns;
     }
 
+    /**
+     * Set the shared lookup of the RBL's. If none is set a lookup of the DNS
+     * service is used.
+     * 
+     * @param dnsblLookup
+     */
+    @Inject
+    public void setDNSBLLookup(@Named("dnsbl") DNSBLLookup dnsblLookup) {
+        this.dnsblLookup = dnsblLookup;
+    }
+
+    private DNSBLLookup getDNSBLLookup() {
+        if (dnsblLookup == null) {
+            dnsblLookup = new DNSBLLookup(dns);
+        }
+        return dnsblLookup;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void init(Configuration config) throws ConfigurationException {
@@ -49,12 +75,14 @@ public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail
         ArrayList<String> rblserverCollection = new ArrayList<String>();
 
         Collections.addAll(rblserverCollection, handlerConfiguration.getStringArray("rblservers.whitelist"));
+        zones.addAll(rblserverCollection);
         if (rblserverCollection.size() > 0) {
             setWhitelist(rblserverCollection.toArray(new String[rblserverCollection.size()]));
             rblserverCollection.clear();
             validConfig = true;
         }
         Collections.addAll(rblserverCollection, handlerConfiguration.getStringArray("rblservers.blacklist"));
+        zones.addAll(rblserverCollection);
         if (rblserverCollection.size() > 0) {
             setBlacklist(rblserverCollection.toArray(new String[rblserverCollection.size()]));
             rblserverCollection.clear();
@@ -74,14 +102,22 @@ public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail
         // Do nothing
     }
 
+    /**
+     * The lists are checked one after the other, so the first check of an
+     * address starts the lookups in all lists and the following checks are
+     * answered by the cache
+     */
     @Override
     protected boolean resolve(String ip) {
-        try {
-            dns.getByName(ip);
-            return true;
-        } catch (UnknownHostException e) {
-            return false;
+        if (!zones.isEmpty() && ip.endsWith(zones.get(0))) {
+            String reversedOctets = ip.substring(0, ip.length() - zones.get(0).length());
+            List<String> queries = new ArrayList<String>(zones.size());
+            for (String zone : zones) {
+                queries.add(reversedOctets + zone);
+            }
+            getDNSBLLookup().prefetch(queries);
         }
+        return getDNSBLLookup().isListed(ip);
     }
 
     @Override
@@ -19,23 +19,29 @@
 package org.apache.james.smtpserver.fastfail;
 
 import java.io.IOException;
-import java.net.UnknownHostException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.mail.MessagingException;
+import javax.mail.internet.ContentType;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.internet.MimePart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParseException;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.library.dnsbl.DNSBLLookup;
+import org.apache.james.dnsservice.library.dnsbl.DNSBLLookup.Listing;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -66,8 +72,16 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
 
     private final static String URBLSERVER = "URBL_SERVER";
 
+    /**
+     * The characters which must be encoded as single bytes to scan the content
+     * as a stream
+     */
+    private final static String ASCII_PROBE = "az09@.:/";
+
     private DNSService dnsService;
 
+    private DNSBLLookup dnsblLookup;
+
     private Collection<String> uriRbl;
 
     private boolean getDetail = false;
@@ -92,6 +106,25 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         this.dnsService = dnsService;
     }
 
+    /**
+     * Sets the shared lookup of the URIRBL's. If none is set a lookup of the
+     * DNS service is used.
+     * 
+     * @param dnsblLookup
+     *            the dnsblLookup to set
+     */
+    @Inject
+    public final void setDNSBLLookup(@Named("dnsbl") DNSBLLookup dnsblLookup) {
+        this.dnsblLookup = dnsblLookup;
+    }
+
+    private DNSBLLookup getDNSBLLookup() {
+        if (dnsblLookup == null) {
+            dnsblLookup = new DNSBLLookup(dnsService);
+        }
+        return dnsblLookup;
+    }
+
     /**
      * Set the UriRBL Servers
      * 
@@ -161,8 +194,19 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         session.getLogger().debug("mime type is: \"" + part.getContentType() + "\"");
 
         if (part.isMimeType("text/plain") || part.isMimeType("text/html")) {
-            session.getLogger().debug("scanning: \"" + part.getContent().toString() + "\"");
-            HashSet<String> newDom = URIScanner.scanContentForDomains(domains, part.getContent().toString());
+            HashSet<String> newDom;
+            if (isAsciiCompatible(part)) {
+                // scan the transfer decoded content as it is read, without
+                // decoding the whole text
+                InputStream in = part.getInputStream();
+                try {
+                    newDom = URIStreamScanner.scanContentForDomains(domains, in);
+                } finally {
+                    in.close();
+                }
+            } else {
+                newDom = URIScanner.scanContentForDomains(domains, part.getContent().toString());
+            }
 
             // Check if new domains are found and add the domains
             if (newDom != null && newDom.size() > 0) {
@@ -187,6 +231,34 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         return domains;
     }
 
+    /**
+     * Return true if the charset of the given text part encodes the US-ASCII
+     * characters as single bytes, so the content can be scanned by a
+     * {@link URIStreamScanner}
+     * 
+     * @param part
+     *            the text part
+     * @return true if the content can be scanned as a stream
+     */
+    private boolean isAsciiCompatible(MimePart part) throws MessagingException {
+        String charset;
+        try {
+            charset = new ContentType(part.getContentType()).getParameter("charset");
+        } catch (ParseException e) {
+            // let the content decoding handle it
+            return false;
+        }
+        if (charset == null) {
+            return true;
+        }
+        try {
+            return Arrays.equals(ASCII_PROBE.getBytes("US-ASCII"), ASCII_PROBE.getBytes(MimeUtility.javaCharset(charset)));
+        } catch (UnsupportedEncodingException e) {
+            // let the content decoding handle it
+            return false;
+        }
+    }
+
     /**
      * Check method
      */
@@ -198,31 +270,18 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
 
             HashSet<String> domains = scanMailForDomains(message, session);
 
-            for (String domain : domains) {
-                Iterator<String> uRbl = uriRbl.iterator();
-                String target = domain;
-
-                while (uRbl.hasNext()) {
-                    try {
-                        String uRblServer = uRbl.next();
-                        String address = target + "." + uRblServer;
-
-                        if (session.getLogger().isDebugEnabled()) {
-                            session.getLogger().debug("Lookup " + address);
-                        }
-
-                        dnsService.getByName(address);
-
-                        // store server name for later use
-                        session.setAttachment(URBLSERVER, uRblServer, State.Transaction);
-                        session.setAttachment(LISTED_DOMAIN, target, State.Transaction);
+            if (session.getLogger().isDebugEnabled()) {
+                session.getLogger().debug("Lookup " + domains + " in " + uriRbl);
+            }
 
-                        return true;
+            // all domains are looked up in all servers at once
+            Listing listing = getDNSBLLookup().findListing(domains, uriRbl);
+            if (listing != null) {
+                // store server name for later use
+                session.setAttachment(URBLSERVER, listing.getZone(), State.Transaction);
+                session.setAttachment(LISTED_DOMAIN, listing.getName(), State.Transaction);
 
-                    } catch (UnknownHostException uhe) {
-                        // domain not found. keep processing
-                    }
-                }
+                return true;
             }
         } catch (MessagingException e) {
             session.getLogger().error(e.getMessage());
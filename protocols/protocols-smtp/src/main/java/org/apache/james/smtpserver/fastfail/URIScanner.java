@@ -213,34 +213,8 @@ public class URIScanner {
         // look for URIs
         Matcher mat = uriPattern.matcher(content);
         while (mat.find()) {
-            String found = mat.group();
-            Matcher cleanMat = uriCleanup.matcher(found);
-            if (cleanMat.find()) {
-                found = cleanMat.group(1);
-            }
-
-            cleanMat = uriCleanup2.matcher(found);
-            if (cleanMat.find()) {
-                found = cleanMat.replaceAll("");
-            }
-
-            cleanMat = uriCleanup3.matcher(found);
-            if (cleanMat.find()) {
-                found = "mailto://" + cleanMat.group(1) + cleanMat.group(2);
-            }
-
-            cleanMat = schemePattern.matcher(found);
-            if (!cleanMat.find()) {
-                if (found.matches("^(?i)www\\d*\\..*")) {
-                    found = "http://" + found;
-                } else if (found.matches("^(?i)ftp\\..*")) {
-                    found = "ftp://" + found;
-                }
-            }
-
-            String host = hostFromUriStr(found);
+            String host = hostFromFoundUri(mat.group());
             if (null != host) {
-                host = host.toLowerCase();
                 if (!set.contains(host)) {
                     set.add(host);
                 }
@@ -250,15 +224,8 @@ public class URIScanner {
         // look for "schemeless" email addresses, too
         mat = emailAddrPattern.matcher(content);
         while (mat.find()) {
-            String found = mat.group();
-            debugOut("******** mailfound=\"" + found + "\"");
-            found = "mailto://" + found;
-            debugOut("*******6 mailfoundfound=\"" + found + "\" after cleanup 6");
-
-            String host = hostFromUriStr(found);
+            String host = hostFromFoundEmailAddr(mat.group());
             if (null != host) {
-
-                host = host.toLowerCase();
                 if (!set.contains(host)) {
                     set.add(host);
                 }
@@ -267,6 +234,67 @@ public class URIScanner {
         return set;
     }
 
+    /**
+     * Cleans up a string which was found as URI and returns its lower case
+     * host portion.
+     * 
+     * @param found
+     *            a string which was found as URI, with or without a scheme
+     * @return the host portion of the URI, null if no host string could be
+     *         found
+     */
+    static protected String hostFromFoundUri(String found) {
+        Matcher cleanMat = uriCleanup.matcher(found);
+        if (cleanMat.find()) {
+            found = cleanMat.group(1);
+        }
+
+        cleanMat = uriCleanup2.matcher(found);
+        if (cleanMat.find()) {
+            found = cleanMat.replaceAll("");
+        }
+
+        cleanMat = uriCleanup3.matcher(found);
+        if (cleanMat.find()) {
+            found = "mailto://" + cleanMat.group(1) + cleanMat.group(2);
+        }
+
+        cleanMat = schemePattern.matcher(found);
+        if (!cleanMat.find()) {
+            if (found.matches("^(?i)www\\d*\\..*")) {
+                found = "http://" + found;
+            } else if (found.matches("^(?i)ftp\\..*")) {
+                found = "ftp://" + found;
+            }
+        }
+
+        String host = hostFromUriStr(found);
+        if (null != host) {
+            host = host.toLowerCase();
+        }
+        return host;
+    }
+
+    /**
+     * Returns the lower case host portion of a "schemeless" email address.
+     * 
+     * @param found
+     *            a string which was found as email address
+     * @return the host portion of the address, null if no host string could
+     *         be found
+     */
+    static protected String hostFromFoundEmailAddr(String found) {
+        debugOut("******** mailfound=\"" + found + "\"");
+        found = "mailto://" + found;
+        debugOut("*******6 mailfoundfound=\"" + found + "\" after cleanup 6");
+
+        String host = hostFromUriStr(found);
+        if (null != host) {
+            host = host.toLowerCase();
+        }
+        return host;
+    }
+
     /**
      * Extracts and returns the host portion of URI string.
      * 
@@ -0,0 +1,372 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.smtpserver.fastfail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+
+/**
+ * Scans a stream of bytes for URIs and "schemeless" email addresses, like
+ * {@link URIScanner} does for a character sequence, without holding the whole
+ * content in memory.
+ * <p>
+ * The bytes are split into tokens of the characters which can be part of a URI
+ * or an email address. Each token is scanned by hand for the starts of URIs
+ * and email addresses once it is complete, so there is no backtracking over
+ * the content. Tokens longer than {@link #WINDOW_SIZE} bytes are scanned in
+ * overlapping windows, so the memory needed does not depend on the length of
+ * the content. The found strings are cleaned up and distilled to hosts and
+ * domains by the same rules as {@link URIScanner} uses.
+ * </p>
+ * <p>
+ * As the scanner works on bytes it needs content in a charset which encodes
+ * the US-ASCII characters as single bytes, like US-ASCII, ISO-8859-* or UTF-8.
+ * </p>
+ */
+public class URIStreamScanner {
+
+    /**
+     * The count of bytes of a token which are scanned at once
+     */
+    public static final int WINDOW_SIZE = 2048;
+
+    /**
+     * The count of bytes at the end of a window which are kept for the next
+     * window of a long token. URIs and email addresses which start in these
+     * bytes are found in the next window, the others are long enough to hold
+     * their host in the current window.
+     */
+    private static final int OVERLAP = 512;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** Characters which may be part of a URI */
+    private static final int URI = 1;
+
+    /** Characters which may be part of the local part of an email address */
+    private static final int ATOM = 2;
+
+    /** Characters which may be part of a domain label */
+    private static final int ALNUM = 4;
+
+    /** Characters which are word characters of a regular expression */
+    private static final int WORD = 8;
+
+    private static final byte[] CLASSES = new byte[256];
+
+    static {
+        // see URIScanner.uricSet
+        for (char c : ";/?:@&=+$,[]\\#|-_.!~*'()%".toCharArray()) {
+            CLASSES[c] |= URI;
+        }
+        for (int c = 0x00; c <= 0x1f; c++) {
+            if (c != '\t' && c != '\n' && c != '\r') {
+                CLASSES[c] |= URI;
+            }
+        }
+        // see URIScanner.atom_char
+        for (int c = 0x21; c <= 0x7e; c++) {
+            if ("()<>@,;:\".\\[]".indexOf(c) < 0) {
+                CLASSES[c] |= ATOM;
+            }
+        }
+        for (int c = 0; c < 256; c++) {
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                CLASSES[c] |= URI | ALNUM | WORD;
+            }
+        }
+        CLASSES['_'] |= WORD;
+    }
+
+    private static final String[] SCHEMES = { "https:", "http:", "ftp:", "mailto:", "javascript:", "file:" };
+
+    private final byte[] token = new byte[WINDOW_SIZE];
+
+    private int length;
+
+    /**
+     * The byte in front of the window, which is a separator for the first
+     * window of a token
+     */
+    private byte before = ' ';
+
+    /**
+     * True if a URI which was found in the last window continues in this one
+     */
+    private boolean uriContinues;
+
+    /**
+     * The end of the last email address which was found in the last window,
+     * relative to this one
+     */
+    private int lastEmailAddrEnd;
+
+    private final HashSet<String> hosts = new HashSet<String>();
+
+    /**
+     * Scans the given stream for URIs and returns all unique domain strings
+     * derived from them which are not contained in the given HashSet yet.
+     * 
+     * @param domains
+     *            the domains which were found already
+     * @param in
+     *            the stream to scan, which is not closed
+     * @return newDomains the domains which were extracted
+     * @throws IOException
+     * @see URIScanner#scanContentForDomains(HashSet, CharSequence)
+     */
+    public static HashSet<String> scanContentForDomains(HashSet<String> domains, InputStream in) throws IOException {
+        URIStreamScanner scanner = new URIStreamScanner();
+        scanner.scan(in);
+
+        HashSet<String> newDomains = new HashSet<String>();
+        for (String host : scanner.getHosts()) {
+            String domain = URIScanner.domainFromHost(host);
+            if (null != domain) {
+                if (!domains.contains(domain)) {
+                    newDomains.add(domain);
+                }
+            }
+        }
+        return newDomains;
+    }
+
+    /**
+     * Scans the given stream to its end
+     * 
+     * @param in
+     *            the stream to scan, which is not closed
+     * @throws IOException
+     */
+    public void scan(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            scan(buffer, 0, read);
+        }
+        finish();
+    }
+
+    /**
+     * Scans the given chunk of the content. A token may continue in the next
+     * chunk, so {@link #finish()} must be called after the last chunk.
+     * 
+     * @param buffer
+     * @param offset
+     * @param count
+     */
+    public void scan(byte[] buffer, int offset, int count) {
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            byte b = buffer[i];
+            if ((CLASSES[b & 0xFF] & (URI | ATOM)) != 0) {
+                if (length == WINDOW_SIZE) {
+                    scanWindow();
+                }
+                token[length++] = b;
+            } else if (length > 0) {
+                scanToken();
+            }
+        }
+    }
+
+    /**
+     * Scans the token which is left at the end of the content
+     */
+    public void finish() {
+        if (length > 0) {
+            scanToken();
+        }
+    }
+
+    /**
+     * Returns the lower case hosts of the URIs and email addresses which were
+     * found so far
+     * 
+     * @return hosts
+     */
+    public HashSet<String> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Scans the last window of the token
+     */
+    private void scanToken() {
+        scanURIs(length, length, false);
+        scanEmailAddrs(length, length, false);
+        length = 0;
+        before = ' ';
+    }
+
+    /**
+     * Scans the full window of a token which continues, and keeps the overlap
+     * for the next window
+     */
+    private void scanWindow() {
+        int limit = WINDOW_SIZE - OVERLAP;
+        scanURIs(limit, WINDOW_SIZE, true);
+        scanEmailAddrs(limit, WINDOW_SIZE, true);
+        before = token[limit - 1];
+        System.arraycopy(token, limit, token, 0, OVERLAP);
+        length = OVERLAP;
+    }
+
+    /**
+     * Finds the URIs which start before limit in the window, see
+     * URIScanner.uriRE
+     */
+    private void scanURIs(int limit, int end, boolean continues) {
+        int p = 0;
+        if (uriContinues) {
+            // skip the rest of the URI which was found in the last window
+            while (p < end && is(token[p], URI)) {
+                p++;
+            }
+        }
+        uriContinues = continues && p == end;
+        while (p < limit) {
+            if (isURIStart(p, end)) {
+                int q = p;
+                while (q < end && is(token[q], URI)) {
+                    q++;
+                }
+                addHost(URIScanner.hostFromFoundUri(new String(token, p, q - p, ISO_8859_1)));
+                uriContinues = continues && q == end;
+                p = q;
+            } else {
+                p++;
+            }
+        }
+    }
+
+    private boolean isURIStart(int p, int end) {
+        // the start of a word, see \b
+        if (!is(token[p], WORD) || is(previous(p), WORD)) {
+            return false;
+        }
+        for (String scheme : SCHEMES) {
+            int next = p + scheme.length();
+            if (next < end && startsWith(p, end, scheme, false) && is(token[next], URI) && token[next] != ':') {
+                return true;
+            }
+        }
+        if (previous(p) == '.' || previous(p) == '=') {
+            return false;
+        }
+        if (startsWith(p, end, "ftp.", true)) {
+            return true;
+        }
+        if (startsWith(p, end, "www", true)) {
+            int q = p + 3;
+            while (q < end && token[q] >= '0' && token[q] <= '9') {
+                q++;
+            }
+            return q < end && token[q] == '.';
+        }
+        return false;
+    }
+
+    /**
+     * Finds the email addresses whose @ is before limit in the window, see
+     * URIScanner.Addr_spec_re
+     */
+    private void scanEmailAddrs(int limit, int end, boolean continues) {
+        // the end of the last address, as addresses do not overlap
+        int last = lastEmailAddrEnd;
+        for (int at = last; at < limit; at++) {
+            if (token[at] != '@') {
+                continue;
+            }
+
+            // the local part consists of words separated by single dots
+            int start = at;
+            while (start > last && (is(token[start - 1], ATOM) || token[start - 1] == '.')) {
+                start--;
+            }
+            if (start == at || token[at - 1] == '.') {
+                continue;
+            }
+            for (int i = at - 1; i >= start; i--) {
+                if (token[i] == '.' && (i == start || token[i - 1] == '.')) {
+                    start = i + 1;
+                    break;
+                }
+            }
+
+            // the domain consists of labels separated by dots
+            int domainEnd = -1;
+            int i = at + 1;
+            while (i < end && is(token[i], ALNUM)) {
+                int labelEnd = i + 1;
+                for (int j = i; j < end && (is(token[j], ALNUM) || token[j] == '-'); j++) {
+                    if (is(token[j], ALNUM)) {
+                        labelEnd = j + 1;
+                    }
+                }
+                domainEnd = labelEnd;
+                if (labelEnd < end && token[labelEnd] == '.') {
+                    i = labelEnd + 1;
+                } else {
+                    break;
+                }
+            }
+            if (domainEnd < 0) {
+                continue;
+            }
+
+            addHost(URIScanner.hostFromFoundEmailAddr(new String(token, start, domainEnd - start, ISO_8859_1)));
+            last = domainEnd;
+            at = domainEnd - 1;
+        }
+        lastEmailAddrEnd = continues ? Math.max(0, last - limit) : 0;
+    }
+
+    private byte previous(int p) {
+        return p > 0 ? token[p - 1] : before;
+    }
+
+    private void addHost(String host) {
+        if (null != host) {
+            hosts.add(host);
+        }
+    }
+
+    private boolean startsWith(int p, int end, String prefix, boolean ignoreCase) {
+        if (p + prefix.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            int c = token[p + i];
+            if (ignoreCase && c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean is(byte b, int characterClass) {
+        return (CLASSES[b & 0xFF] & characterClass) != 0;
+    }
+}
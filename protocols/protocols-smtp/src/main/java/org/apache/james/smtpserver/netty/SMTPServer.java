@@ -33,6 +33,7 @@ import org.apache.james.protocols.smtp.SMTPConfiguration;
 import org.apache.james.protocols.smtp.SMTPProtocol;
 import org.apache.james.smtpserver.CoreCmdHandlerLoader;
 import org.apache.james.smtpserver.ExtendedSMTPSession;
+import org.apache.james.smtpserver.MessageBufferSupport;
 import org.apache.james.smtpserver.jmx.JMXHandlersLoader;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
 
@@ -85,6 +86,8 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
     
     private SMTPChannelUpstreamHandler coreHandler;
 
+    private MessageBufferSupport messageBuffer;
+
     @Inject
     public void setDnsService(DNSService dns) {
         this.dns = dns;
@@ -93,6 +96,7 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
     @Override
     protected void preInit() throws Exception {
         super.preInit();
+        messageBuffer.init(getProtocolHandlerChain(), getFileSystem(), jmxName);
         if (authorizedAddresses != null) {
             java.util.StringTokenizer st = new java.util.StringTokenizer(authorizedAddresses, ", ", false);
             java.util.Collection<String> networks = new java.util.ArrayList<String>();
@@ -113,6 +117,14 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
         coreHandler = new SMTPChannelUpstreamHandler(transport, getLogger(), getEncryption());        
     }
 
+    @Override
+    protected void postDestroy() {
+        super.postDestroy();
+        if (messageBuffer != null) {
+            messageBuffer.destroy();
+        }
+    }
+
     @Override
     public void doConfigure(final HierarchicalConfiguration configuration) throws ConfigurationException {
         super.doConfigure(configuration);
@@ -174,6 +186,8 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
 
             verifyIdentity = configuration.getBoolean("verifyIdentity", true);
 
+            messageBuffer = new MessageBufferSupport(configuration);
+
         }
     }
 
@@ -0,0 +1,108 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.smtpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+
+import org.apache.james.smtpserver.fastfail.URIScanner;
+import org.apache.james.smtpserver.fastfail.URIStreamScanner;
+import org.junit.Test;
+
+public class URIStreamScannerTest {
+
+    private static final String CONTENT = "Visit http://www.bad.domain.de/path?x=1 or <https://Other.Example.COM:8080/>\r\n"
+            + "href=\"http://192.168.0.1/index.html\" and www2.schemeless.org/page, ftp.files.net\r\n"
+            + "mailto:someone@mail.example.co.uk (someone.else@sub.domain.com.au) javascript:void(0)\r\n"
+            + "no.www.example.net, x=www.example.org, foo..bar@baz.org, a@b@c.org, tail@host-.name.de\r\n"
+            + "<a href='ftp://ftp.example.info/file'>file</a> end@example.com";
+
+    private static HashSet<String> scanStream(byte[] content, int chunkSize) throws Exception {
+        URIStreamScanner scanner = new URIStreamScanner();
+        for (int offset = 0; offset < content.length; offset += chunkSize) {
+            scanner.scan(content, offset, Math.min(chunkSize, content.length - offset));
+        }
+        scanner.finish();
+        return scanner.getHosts();
+    }
+
+    @Test
+    public void testFindsSameDomainsAsURIScanner() throws Exception {
+        HashSet<String> expected = URIScanner.scanContentForDomains(new HashSet<String>(), CONTENT);
+        HashSet<String> domains = URIStreamScanner.scanContentForDomains(new HashSet<String>(), new ByteArrayInputStream(CONTENT.getBytes("US-ASCII")));
+
+        assertEquals(expected, domains);
+        assertTrue(domains.contains("domain.de"));
+        assertTrue(domains.contains("example.co.uk"));
+        assertTrue(domains.contains("1.0.168.192"));
+    }
+
+    @Test
+    public void testTokensAcrossChunks() throws Exception {
+        byte[] content = CONTENT.getBytes("US-ASCII");
+        HashSet<String> hosts = scanStream(content, content.length);
+        for (int chunkSize = 1; chunkSize < 20; chunkSize++) {
+            assertEquals(hosts, scanStream(content, chunkSize));
+        }
+        assertTrue(hosts.contains("other.example.com"));
+    }
+
+    @Test
+    public void testURIsAfterLongTokens() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 2100; i++) {
+            content.append('=');
+        }
+        content.append("http://evil.example.com/ ");
+        for (int i = 0; i < 10000; i++) {
+            content.append(i % 2 == 0 ? 'x' : '=');
+        }
+        content.append("http://www.other.example.org/ foo@mail.example.net");
+
+        byte[] bytes = content.toString().getBytes("US-ASCII");
+        HashSet<String> expected = URIScanner.scanContentForDomains(new HashSet<String>(), content);
+        HashSet<String> domains = URIStreamScanner.scanContentForDomains(new HashSet<String>(), new ByteArrayInputStream(bytes));
+
+        assertEquals(expected, domains);
+        assertTrue(domains.contains("example.com"));
+        assertTrue(domains.contains("example.org"));
+        assertTrue(domains.contains("example.net"));
+        for (int chunkSize = 1; chunkSize < 10; chunkSize++) {
+            assertEquals(scanStream(bytes, bytes.length), scanStream(bytes, chunkSize));
+        }
+    }
+
+    @Test
+    public void testLongTokens() throws Exception {
+        StringBuilder content = new StringBuilder("http://long.example.com/");
+        for (int i = 0; i < 100000; i++) {
+            content.append('a');
+        }
+        content.append(" http://next.example.org/");
+
+        HashSet<String> domains = URIStreamScanner.scanContentForDomains(new HashSet<String>(), new ByteArrayInputStream(content.toString().getBytes("US-ASCII")));
+
+        assertEquals(2, domains.size());
+        assertTrue(domains.contains("example.com"));
+        assertTrue(domains.contains("example.org"));
+    }
+}
@@ -23,7 +23,6 @@ import java.net.MalformedURLException;
 import java.util.List;
 import java.util.Map;
 
-import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
@@ -45,9 +44,13 @@ import org.apache.james.core.MimeMessageInputStream;
 import org.apache.james.core.MimeMessageSource;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.jms.JMSMailQueue;
+import org.apache.james.queue.jms.JMSMailQueueBatch;
+import org.apache.james.queue.jms.JMSSessionPool;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 import org.springframework.jms.connection.SessionProxy;
+import org.springframework.jms.connection.SingleConnectionFactory;
 
 /**
  * <p>
@@ -81,7 +84,10 @@ import org.springframework.jms.connection.SessionProxy;
  * {@link #NORMAL_PRIORITY}, {@link #HIGH_PRIORITY}
  * <p>
  * </p>
- * To have a good throughput you should use a caching connection factory. </p>
+ * The {@link JMSSessionPool} of the queue caches the JMS Sessions, so if a
+ * Spring {@link SingleConnectionFactory} like the
+ * <code>CachingConnectionFactory</code> is given, its target connection
+ * factory is used instead. </p>
  */
 public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
 
@@ -104,10 +110,57 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
      * @param logger
      */
     public ActiveMQMailQueue(final ConnectionFactory connectionFactory, final String queuename, boolean useBlob, final Logger logger) {
-        super(connectionFactory, queuename, logger);
+        super(targetConnectionFactory(connectionFactory), queuename, logger);
         this.useBlob = useBlob;
     }
 
+    /**
+     * Construct a new ActiveMQ based {@link MailQueue} with the given
+     * {@link JMSSessionPool} settings.
+     * 
+     * @param connectionFactory
+     * @param queuename
+     * @param useBlob
+     * @param maxIdleSessions
+     * @param sessionIdleTimeout
+     * @param logger
+     */
+    public ActiveMQMailQueue(final ConnectionFactory connectionFactory, final String queuename, boolean useBlob, int maxIdleSessions, long sessionIdleTimeout, final Logger logger) {
+        this(connectionFactory, queuename, useBlob, maxIdleSessions, JMSSessionPool.DEFAULT_MAX_ACTIVE, sessionIdleTimeout, logger);
+    }
+
+    /**
+     * Construct a new ActiveMQ based {@link MailQueue} with the given
+     * {@link JMSSessionPool} settings.
+     * 
+     * @param connectionFactory
+     * @param queuename
+     * @param useBlob
+     * @param maxIdleSessions
+     * @param maxActiveSessions
+     * @param sessionIdleTimeout
+     * @param logger
+     */
+    public ActiveMQMailQueue(final ConnectionFactory connectionFactory, final String queuename, boolean useBlob, int maxIdleSessions, int maxActiveSessions, long sessionIdleTimeout, final Logger logger) {
+        super(targetConnectionFactory(connectionFactory), queuename, maxIdleSessions, maxActiveSessions, sessionIdleTimeout, logger);
+        this.useBlob = useBlob;
+    }
+
+    /**
+     * Return the target of a Spring {@link SingleConnectionFactory}, which
+     * would otherwise cache the JMS Sessions a second time and hide the
+     * {@link javax.jms.ExceptionListener} of the {@link JMSSessionPool}
+     */
+    private static ConnectionFactory targetConnectionFactory(ConnectionFactory connectionFactory) {
+        if (connectionFactory instanceof SingleConnectionFactory) {
+            ConnectionFactory target = ((SingleConnectionFactory) connectionFactory).getTargetConnectionFactory();
+            if (target != null) {
+                return target;
+            }
+        }
+        return connectionFactory;
+    }
+
     /**
      * @see
      * org.apache.james.queue.jms.JMSMailQueue#populateMailMimeMessage(javax.jms.Message, org.apache.mailet.Mail)
@@ -139,8 +192,7 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
     /**
      * Produce the mail to the JMS Queue
      */
-    protected void produceMail(Session session, Map<String, Object> props, int msgPrio, Mail mail) throws JMSException, MessagingException, IOException {
-        MessageProducer producer = null;
+    protected void produceMail(PooledSession session, Map<String, Object> props, int msgPrio, Mail mail) throws JMSException, MessagingException, IOException {
         BlobMessage blobMessage = null;
         boolean reuse = false;
 
@@ -148,7 +200,7 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
 
             // check if we should use a blob message here
             if (useBlob) {
-                ActiveMQSession amqSession = getAMQSession(session);
+                ActiveMQSession amqSession = getAMQSession(session.getSession());
                 
                 /*
                  * Remove this optimization as it could lead to problems when the same blob content
@@ -187,13 +239,10 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
                 // store the queue name in the props
                 props.put(JAMES_QUEUE_NAME, queueName);
 
-                Queue queue = session.createQueue(queueName);
-
-                producer = session.createProducer(queue);
                 for (Map.Entry<String, Object> entry : props.entrySet()) {
                     blobMessage.setObjectProperty(entry.getKey(), entry.getValue());
                 }
-                producer.send(blobMessage, Message.DEFAULT_DELIVERY_MODE, msgPrio, Message.DEFAULT_TIME_TO_LIVE);
+                session.getProducer().send(blobMessage, Message.DEFAULT_DELIVERY_MODE, msgPrio, Message.DEFAULT_TIME_TO_LIVE);
                     
               
 
@@ -205,14 +254,6 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
                 ((ActiveMQBlobMessage) blobMessage).deleteFile();
             }
             throw e;
-        } finally {
-
-            try {
-                if (producer != null)
-                    producer.close();
-            } catch (JMSException e) {
-                // ignore here
-            }
         }
 
     }
@@ -238,9 +279,15 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
     }
 
     @Override
-    protected MailQueueItem createMailQueueItem(Connection connection, Session session, MessageConsumer consumer, Message message) throws JMSException, MessagingException {
+    protected MailQueueItem createMailQueueItem(PooledSession session, Message message) throws JMSException, MessagingException {
+        Mail mail = createMail(message);
+        return new ActiveMQMailQueueItem(mail, session, message, logger);
+    }
+
+    @Override
+    protected MailQueueItem createMailQueueBatchItem(JMSMailQueueBatch batch, Message message) throws JMSException, MessagingException {
         Mail mail = createMail(message);
-        return new ActiveMQMailQueueItem(mail, connection, session, consumer, message, logger);
+        return new ActiveMQMailQueueBatchItem(mail, message, batch, logger);
     }
 
     @Override
@@ -285,22 +332,20 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
     @Override
     public long getSize() throws MailQueueException {
 
-        Connection connection = null;
-        Session session = null;
+        PooledSession pooledSession = null;
         MessageConsumer consumer = null;
         MessageProducer producer = null;
         TemporaryQueue replyTo = null;
         long size;
 
         try {
-            connection = connectionFactory.createConnection();
-            connection.start();
+            pooledSession = sessionPool.borrow(false);
+            Session session = pooledSession.getSession();
 
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
             replyTo = session.createTemporaryQueue();
             consumer = session.createConsumer(replyTo);
 
-            Queue myQueue = session.createQueue(queueName);
+            Queue myQueue = pooledSession.getQueue();
             producer = session.createProducer(null);
 
             String queueName = "ActiveMQ.Statistics.Destination." + myQueue.getQueueName();
@@ -321,6 +366,10 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
             }
 
         } catch (Exception e) {
+            if (pooledSession != null) {
+                pooledSession.invalidate();
+                pooledSession = null;
+            }
             throw new MailQueueException("Unable to remove mails", e);
 
         } finally {
@@ -355,18 +404,9 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
                 } catch (JMSException e) {
                 }
             }
-            try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
 
-            try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e1) {
-                // ignore here
+            if (pooledSession != null) {
+                pooledSession.release();
             }
         }
 
@@ -0,0 +1,50 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.activemq;
+
+import javax.jms.Message;
+
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.jms.JMSMailQueueBatch;
+import org.apache.james.queue.jms.JMSMailQueueBatchItem;
+import org.apache.mailet.Mail;
+import org.slf4j.Logger;
+
+/**
+ * ActiveMQ {@link MailQueueItem} implementation which is part of a
+ * {@link JMSMailQueueBatch} and handles Blob-Messages as well
+ */
+public class ActiveMQMailQueueBatchItem extends JMSMailQueueBatchItem implements ActiveMQSupport {
+
+    private final Logger logger;
+
+    public ActiveMQMailQueueBatchItem(Mail mail, Message message, JMSMailQueueBatch batch, Logger logger) {
+        super(mail, message, batch);
+        this.logger = logger;
+    }
+
+    /**
+     * @see org.apache.james.queue.jms.JMSMailQueueBatchItem#committed()
+     */
+    @Override
+    protected void committed() {
+        ActiveMQMailQueueItem.deleteBlob(getMail(), message, logger);
+    }
+
+}
@@ -36,6 +36,6 @@ public class ActiveMQMailQueueFactory extends JMSMailQueueFactory {
 
     @Override
     protected MailQueue createMailQueue(String name) {
-        return new ActiveMQMailQueue(connectionFactory, name, useBlob, log);
+        return new ActiveMQMailQueue(connectionFactory, name, useBlob, maxIdleSessions, maxActiveSessions, sessionIdleTimeout, log);
     }
 }
@@ -21,16 +21,14 @@ package org.apache.james.queue.activemq;
 
 import java.io.IOException;
 
-import javax.jms.Connection;
 import javax.jms.JMSException;
 import javax.jms.Message;
-import javax.jms.MessageConsumer;
-import javax.jms.Session;
 
 import org.apache.activemq.command.ActiveMQBlobMessage;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
 import org.apache.james.queue.jms.JMSMailQueueItem;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 
@@ -43,8 +41,8 @@ public class ActiveMQMailQueueItem extends JMSMailQueueItem implements ActiveMQS
     private final Message message;
     private final Logger logger;
 
-    public ActiveMQMailQueueItem(Mail mail, Connection connection, Session session, MessageConsumer consumer, Message message, Logger logger) {
-        super(mail, connection, session, consumer);
+    public ActiveMQMailQueueItem(Mail mail, PooledSession session, Message message, Logger logger) {
+        super(mail, session);
         this.message = message;
         this.logger = logger;
     }
@@ -55,22 +53,33 @@ public class ActiveMQMailQueueItem extends JMSMailQueueItem implements ActiveMQS
     public void done(boolean success) throws MailQueueException {
         super.done(success);
         if (success) {
-            if (message instanceof ActiveMQBlobMessage && getMail().getAttribute(JAMES_REUSE_BLOB_URL) == null) {
+            deleteBlob(getMail(), message, logger);
+        }
 
-                // This should get removed once this jira issue was fixed
-                // https://issues.apache.org/activemq/browse/AMQ-1529
-                try {
-                    ((ActiveMQBlobMessage) message).deleteFile();
-                } catch (IOException e) {
-                    logger.info("Unable to delete blob message file for mail " + getMail().getName());
-                } catch (JMSException e) {
-                    logger.info("Unable to delete blob message file for mail " + getMail().getName());
-                }
-            }
-            getMail().removeAttribute(JAMES_REUSE_BLOB_URL);
+    }
 
-        }
+    /**
+     * Delete the blob file of the given {@link Message} if it is a blob message
+     * and the blob is not reused by the {@link Mail}
+     * 
+     * @param mail
+     * @param message
+     * @param logger
+     */
+    static void deleteBlob(Mail mail, Message message, Logger logger) {
+        if (message instanceof ActiveMQBlobMessage && mail.getAttribute(JAMES_REUSE_BLOB_URL) == null) {
 
+            // This should get removed once this jira issue was fixed
+            // https://issues.apache.org/activemq/browse/AMQ-1529
+            try {
+                ((ActiveMQBlobMessage) message).deleteFile();
+            } catch (IOException e) {
+                logger.info("Unable to delete blob message file for mail " + mail.getName());
+            } catch (JMSException e) {
+                logger.info("Unable to delete blob message file for mail " + mail.getName());
+            }
+        }
+        mail.removeAttribute(JAMES_REUSE_BLOB_URL);
     }
 
 }
\ No newline at end of file
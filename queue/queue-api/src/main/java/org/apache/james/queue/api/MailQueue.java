@@ -19,6 +19,7 @@
 
 package org.apache.james.queue.api;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.mail.MessagingException;
@@ -91,6 +92,25 @@ public interface MailQueue {
      */
     MailQueueItem deQueue() throws MailQueueException;
 
+    /**
+     * Dequeue up to max ready-to-process Mails of the queue. This method will
+     * block at most the given timeout until a Mail is ready and then return all
+     * Mails which are ready at this point, but not more than max. If no Mail
+     * gets ready within the timeout an empty {@link List} is returned.
+     * 
+     * Implementations are free to acknowledge the returned
+     * {@link MailQueueItem}'s as a group once
+     * {@link MailQueueItem#done(boolean)} was called on all of them, so callers
+     * MUST call it on every returned item.
+     * 
+     * @param max
+     * @param timeout
+     * @param unit
+     * @return items
+     * @throws MailQueueException
+     */
+    List<MailQueueItem> deQueue(int max, long timeout, TimeUnit unit) throws MailQueueException;
+
     /**
      * Exception which will get thrown if any problems occur while working the
      * {@link MailQueue}
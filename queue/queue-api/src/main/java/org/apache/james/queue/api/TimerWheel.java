@@ -0,0 +1,544 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed hierarchical timing wheel which can be used by {@link MailQueue}
+ * implementations to handle the delay of
+ * {@link MailQueue#enQueue(org.apache.mailet.Mail, long, TimeUnit)}.
+ * <p>
+ * Scheduling and cancelling a key are O(1) operations. Keys which are due in
+ * the near future are stored in the slots of the first wheel, keys which are
+ * due later are stored in the coarser slots of the higher wheels and get
+ * cascaded down once their slot comes up.
+ * </p>
+ * <p>
+ * All {@link TimerWheel} instances are driven by one shared timer thread. If a
+ * checkpoint file is given, all pending keys and their deadlines are written
+ * to it periodically and on {@link #dispose()}, so a {@link MailQueue} can use
+ * {@link #readCheckpoint()} on startup instead of reading every delayed item.
+ * </p>
+ */
+public class TimerWheel implements TimerWheelMBean {
+
+    /**
+     * Listener which gets notified once the deadline of a key was reached
+     */
+    public interface Listener {
+
+        /**
+         * Called by the timer thread when the deadline of the given key was
+         * reached
+         * 
+         * @param key
+         */
+        void expired(String key);
+    }
+
+    /**
+     * The default tick duration in milliseconds
+     */
+    public final static long DEFAULT_TICK = 100;
+
+    /**
+     * The default interval in milliseconds in which the checkpoint file is
+     * written if anything changed
+     */
+    public final static long DEFAULT_CHECKPOINT_INTERVAL = 30 * 1000;
+
+    private final static int CHECKPOINT_VERSION = 1;
+
+    // 256 slots of one tick, and 64 slots for each higher wheel
+    private final static int ROOT_BITS = 8;
+    private final static int LEVEL_BITS = 6;
+    private final static int LEVELS = 4;
+    private final static int ROOT_SIZE = 1 << ROOT_BITS;
+    private final static int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private final static int ROOT_MASK = ROOT_SIZE - 1;
+    private final static int LEVEL_MASK = LEVEL_SIZE - 1;
+
+    private final static ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "TimerWheel-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+    private final Listener listener;
+    private final long tick;
+    private final File checkpoint;
+    private final Slot[][] wheels = new Slot[LEVELS][];
+    private final long[] occupancy = new long[LEVELS];
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final ScheduledFuture<?> tickFuture;
+    private final ScheduledFuture<?> checkpointFuture;
+
+    private long currentTick;
+    private long scheduled;
+    private long expired;
+    private long cancelled;
+    private boolean dirty;
+
+    /**
+     * Create a new {@link TimerWheel}
+     * 
+     * @param listener
+     *            the listener to notify about expired keys
+     * @param tick
+     *            the tick duration in milliseconds
+     * @param checkpoint
+     *            the file to store checkpoints in or <code>null</code> if no
+     *            checkpoints should get written
+     */
+    public TimerWheel(Listener listener, long tick, File checkpoint) {
+        this.listener = listener;
+        this.tick = tick;
+        this.checkpoint = checkpoint;
+        wheels[0] = new Slot[ROOT_SIZE];
+        for (int i = 1; i < LEVELS; i++) {
+            wheels[i] = new Slot[LEVEL_SIZE];
+        }
+        for (int i = 0; i < LEVELS; i++) {
+            for (int a = 0; a < wheels[i].length; a++) {
+                wheels[i][a] = new Slot(i);
+            }
+        }
+        currentTick = System.currentTimeMillis() / tick;
+
+        tickFuture = TIMER.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                advance(System.currentTimeMillis());
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+
+        if (checkpoint != null) {
+            checkpointFuture = TIMER.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    writeCheckpoint(false);
+                }
+            }, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINT_INTERVAL, TimeUnit.MILLISECONDS);
+        } else {
+            checkpointFuture = null;
+        }
+    }
+
+    /**
+     * Schedule the given key to expire at the given deadline. If the key was
+     * already scheduled it gets re-scheduled. Keys with a deadline in the past
+     * will expire with the next tick.
+     * 
+     * @param key
+     * @param deadline
+     *            the deadline in milliseconds since the epoch
+     */
+    public synchronized void schedule(String key, long deadline) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            entry.unlink();
+        }
+        entry = new Entry(key, deadline);
+        entries.put(key, entry);
+        insert(entry);
+        scheduled++;
+        dirty = true;
+    }
+
+    /**
+     * Cancel the given key
+     * 
+     * @param key
+     * @return cancelled <code>true</code> if the key was pending
+     */
+    public synchronized boolean cancel(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.unlink();
+        cancelled++;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Return the deadline of the given key or -1 if it is not pending
+     * 
+     * @param key
+     * @return deadline
+     */
+    public synchronized long getDeadline(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return -1;
+        }
+        return entry.deadline;
+    }
+
+    private void insert(Entry entry) {
+        long expires = entry.expires;
+        long idx = expires - currentTick;
+        Slot slot;
+        if (idx < 0) {
+            // already due so just expire it with the next tick
+            slot = wheels[0][(int) (currentTick & ROOT_MASK)];
+        } else if (idx < ROOT_SIZE) {
+            slot = wheels[0][(int) (expires & ROOT_MASK)];
+        } else {
+            int level = 1;
+            while (level < LEVELS - 1 && idx >= 1L << (ROOT_BITS + level * LEVEL_BITS)) {
+                level++;
+            }
+            long max = 1L << (ROOT_BITS + level * LEVEL_BITS);
+            if (idx >= max) {
+                // too far in the future, so put it in the last slot which
+                // will cascade it down again
+                expires = currentTick + max - 1;
+            }
+            slot = wheels[level][(int) ((expires >> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK)];
+        }
+        slot.add(entry);
+    }
+
+    /**
+     * Advance the wheel up to the given time and notify the listener about
+     * all expired keys
+     * 
+     * @param now
+     */
+    void advance(long now) {
+        List<String> keys = new ArrayList<String>();
+        synchronized (this) {
+            long target = now / tick;
+            while (currentTick <= target) {
+                int index = (int) (currentTick & ROOT_MASK);
+                if (index == 0) {
+                    // cascade the higher wheels
+                    for (int level = 1; level < LEVELS; level++) {
+                        int lindex = (int) ((currentTick >> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK);
+                        cascade(wheels[level][lindex]);
+                        if (lindex != 0) {
+                            break;
+                        }
+                    }
+                }
+                Slot slot = wheels[0][index];
+                Entry entry = slot.head;
+                while (entry != null) {
+                    Entry next = entry.next;
+                    if (entry.expires <= currentTick) {
+                        entry.unlink();
+                        entries.remove(entry.key);
+                        keys.add(entry.key);
+                        expired++;
+                        dirty = true;
+                    }
+                    entry = next;
+                }
+                currentTick++;
+            }
+            // make sure we not skip the current tick next time
+            currentTick = target;
+        }
+
+        for (String key : keys) {
+            try {
+                listener.expired(key);
+            } catch (RuntimeException e) {
+                logger.error("Unable to handle expired key " + key, e);
+            }
+        }
+    }
+
+    private void cascade(Slot slot) {
+        Entry entry = slot.head;
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.unlink();
+            insert(entry);
+            entry = next;
+        }
+    }
+
+    /**
+     * Read the pending keys and their deadlines from the checkpoint file.
+     * 
+     * @return checkpoint the keys mapped to their deadline. This will be empty
+     *         if no checkpoint file exists
+     */
+    public Checkpoint readCheckpoint() {
+        Map<String, Long> deadlines = new HashMap<String, Long>();
+        long time = -1;
+        if (checkpoint != null && checkpoint.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+                if (in.readInt() == CHECKPOINT_VERSION) {
+                    long t = in.readLong();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String key = in.readUTF();
+                        deadlines.put(key, in.readLong());
+                    }
+                    time = t;
+                }
+            } catch (EOFException e) {
+                logger.info("Ignore truncated checkpoint " + checkpoint);
+                deadlines.clear();
+            } catch (IOException e) {
+                logger.info("Unable to read checkpoint " + checkpoint, e);
+                deadlines.clear();
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore on close
+                    }
+                }
+            }
+        }
+        return new Checkpoint(time, deadlines);
+    }
+
+    /**
+     * Write all pending keys to the checkpoint file if anything changed since
+     * the last checkpoint or force is <code>true</code>
+     */
+    void writeCheckpoint(boolean force) {
+        if (checkpoint == null) {
+            return;
+        }
+        long time;
+        List<Entry> pending;
+        synchronized (this) {
+            if (!dirty && !force) {
+                return;
+            }
+            time = System.currentTimeMillis();
+            pending = new ArrayList<Entry>(entries.values());
+            dirty = false;
+        }
+
+        File tmp = new File(checkpoint.getParentFile(), checkpoint.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            FileOutputStream fout = new FileOutputStream(tmp);
+            out = new DataOutputStream(new BufferedOutputStream(fout));
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeLong(time);
+            out.writeInt(pending.size());
+            for (Entry entry : pending) {
+                out.writeUTF(entry.key);
+                out.writeLong(entry.deadline);
+            }
+            out.flush();
+            fout.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(checkpoint)) {
+                // some platforms can not rename over an existing file
+                if (!checkpoint.delete() || !tmp.renameTo(checkpoint)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + checkpoint);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write checkpoint " + checkpoint, e);
+            synchronized (this) {
+                dirty = true;
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore on close
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the {@link TimerWheel} and write a last checkpoint
+     */
+    public void dispose() {
+        tickFuture.cancel(false);
+        if (checkpointFuture != null) {
+            checkpointFuture.cancel(false);
+        }
+        writeCheckpoint(true);
+    }
+
+    @Override
+    public synchronized long getPendingCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long[] getWheelOccupancy() {
+        return occupancy.clone();
+    }
+
+    @Override
+    public synchronized long getScheduledCount() {
+        return scheduled;
+    }
+
+    @Override
+    public synchronized long getExpiredCount() {
+        return expired;
+    }
+
+    @Override
+    public synchronized long getCancelledCount() {
+        return cancelled;
+    }
+
+    @Override
+    public long getTickDuration() {
+        return tick;
+    }
+
+    /**
+     * The content of a checkpoint file
+     */
+    public final static class Checkpoint {
+        private final long time;
+        private final Map<String, Long> deadlines;
+
+        private Checkpoint(long time, Map<String, Long> deadlines) {
+            this.time = time;
+            this.deadlines = deadlines;
+        }
+
+        /**
+         * Return the time in milliseconds since the epoch when the checkpoint
+         * was written or -1 if no checkpoint exists
+         * 
+         * @return time
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Return the deadline which was stored for the given key or
+         * <code>null</code> if the key was not pending when the checkpoint was
+         * written
+         * 
+         * @param key
+         * @return deadline
+         */
+        public Long getDeadline(String key) {
+            return deadlines.get(key);
+        }
+    }
+
+    /**
+     * A slot of one of the wheels which holds a doubly linked list of entries
+     */
+    private final class Slot {
+        private final int level;
+        private Entry head;
+
+        public Slot(int level) {
+            this.level = level;
+        }
+
+        public void add(Entry entry) {
+            entry.slot = this;
+            entry.prev = null;
+            entry.next = head;
+            if (head != null) {
+                head.prev = entry;
+            }
+            head = entry;
+            occupancy[level]++;
+        }
+    }
+
+    /**
+     * A pending key
+     */
+    private final class Entry {
+        private final String key;
+        private final long deadline;
+        private final long expires;
+        private Slot slot;
+        private Entry prev;
+        private Entry next;
+
+        public Entry(String key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+            // round up so a key never expires before its deadline
+            this.expires = (deadline + tick - 1) / tick;
+        }
+
+        public void unlink() {
+            if (slot == null) {
+                return;
+            }
+            if (prev != null) {
+                prev.next = next;
+            } else {
+                slot.head = next;
+            }
+            if (next != null) {
+                next.prev = prev;
+            }
+            occupancy[slot.level]--;
+            slot = null;
+            prev = null;
+            next = null;
+        }
+    }
+}
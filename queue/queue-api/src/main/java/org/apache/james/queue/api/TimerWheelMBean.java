@@ -0,0 +1,69 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.api;
+
+/**
+ * JMX MBean for a {@link TimerWheel}
+ */
+public interface TimerWheelMBean {
+
+    /**
+     * Return the count of keys which are waiting for their deadline
+     * 
+     * @return pendingCount
+     */
+    long getPendingCount();
+
+    /**
+     * Return the count of pending keys per wheel, starting with the wheel of
+     * the finest granularity
+     * 
+     * @return occupancy
+     */
+    long[] getWheelOccupancy();
+
+    /**
+     * Return the count of keys which were scheduled since startup
+     * 
+     * @return scheduledCount
+     */
+    long getScheduledCount();
+
+    /**
+     * Return the count of keys which expired since startup
+     * 
+     * @return expiredCount
+     */
+    long getExpiredCount();
+
+    /**
+     * Return the count of keys which were cancelled since startup
+     * 
+     * @return cancelledCount
+     */
+    long getCancelledCount();
+
+    /**
+     * Return the duration of one tick in milliseconds
+     * 
+     * @return tickDuration
+     */
+    long getTickDuration();
+}
@@ -0,0 +1,127 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+    private TimerWheel wheel;
+
+    @After
+    public void tearDown() {
+        if (wheel != null) {
+            wheel.dispose();
+        }
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        final List<String> expired = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(3);
+        wheel = new TimerWheel(new TimerWheel.Listener() {
+
+            @Override
+            public void expired(String key) {
+                expired.add(key);
+                latch.countDown();
+            }
+        }, 1, null);
+
+        long now = System.currentTimeMillis();
+        // the last key is too far away for the first wheel, so it needs to get cascaded
+        wheel.schedule("third", now + 600);
+        wheel.schedule("first", now + 50);
+        wheel.schedule("second", now + 200);
+        assertEquals(3, wheel.getPendingCount());
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() >= now + 600);
+        assertEquals(3, expired.size());
+        assertEquals("first", expired.get(0));
+        assertEquals("second", expired.get(1));
+        assertEquals("third", expired.get(2));
+        assertEquals(0, wheel.getPendingCount());
+        assertEquals(3, wheel.getExpiredCount());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final List<String> expired = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        wheel = new TimerWheel(new TimerWheel.Listener() {
+
+            @Override
+            public void expired(String key) {
+                expired.add(key);
+                latch.countDown();
+            }
+        }, 1, null);
+
+        long now = System.currentTimeMillis();
+        wheel.schedule("cancelled", now + 50);
+        wheel.schedule("expired", now + 100);
+        assertTrue(wheel.cancel("cancelled"));
+        assertFalse(wheel.cancel("cancelled"));
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, expired.size());
+        assertEquals("expired", expired.get(0));
+        assertEquals(1, wheel.getCancelledCount());
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        File checkpoint = File.createTempFile("timerwheel", ".checkpoint");
+        checkpoint.deleteOnExit();
+        TimerWheel.Listener listener = new TimerWheel.Listener() {
+
+            @Override
+            public void expired(String key) {
+                // nothing todo
+            }
+        };
+        long deadline = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+
+        TimerWheel w = new TimerWheel(listener, TimerWheel.DEFAULT_TICK, checkpoint);
+        w.schedule("key", deadline);
+        w.schedule("cancelled", deadline);
+        w.cancel("cancelled");
+        w.dispose();
+
+        wheel = new TimerWheel(listener, TimerWheel.DEFAULT_TICK, checkpoint);
+        TimerWheel.Checkpoint cp = wheel.readCheckpoint();
+        assertTrue(cp.getTime() > 0);
+        assertEquals(Long.valueOf(deadline), cp.getDeadline("key"));
+        assertEquals(null, cp.getDeadline("cancelled"));
+    }
+}
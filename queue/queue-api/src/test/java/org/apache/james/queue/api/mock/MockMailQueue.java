@@ -21,7 +21,9 @@ package org.apache.james.queue.api.mock;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -77,6 +79,42 @@ public class MockMailQueue implements MailQueue {
         }
     }
 
+    @Override
+    public List<MailQueueItem> deQueue(int max, long timeout, TimeUnit unit) throws MailQueueException {
+        if (throwException) {
+            throwException = false;
+            throw new MailQueueException("Mock");
+        }
+
+        List<MailQueueItem> items = new ArrayList<MailQueueItem>();
+        try {
+            Mail mail = queue.poll(timeout, unit);
+            while (mail != null) {
+                final Mail m = mail;
+                items.add(new MailQueueItem() {
+
+                    @Override
+                    public Mail getMail() {
+                        return m;
+                    }
+
+                    @Override
+                    public void done(boolean success) throws MailQueueException {
+                        // do nothing here
+                    }
+                });
+                if (items.size() >= max) {
+                    break;
+                }
+                mail = queue.poll();
+            }
+            return items;
+        } catch (InterruptedException e) {
+            log.error("", e);
+            throw new MailQueueException("Mock", e);
+        }
+    }
+
     private Mail cloneMail(Mail mail) {
         ByteArrayOutputStream baos = null;
         ByteArrayInputStream bais = null;
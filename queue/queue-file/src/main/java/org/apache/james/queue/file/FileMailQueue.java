@@ -19,16 +19,20 @@
 package org.apache.james.queue.file;
 
 import com.google.common.io.Closeables;
+import org.apache.james.core.MailEnvelopeCodec;
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
 import org.apache.james.core.MimeMessageSource;
 import org.apache.james.lifecycle.api.Disposable;
 import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.queue.api.DelayedDeliverySupport;
 import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.api.TimerWheel;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 
 import javax.mail.MessagingException;
 import javax.mail.util.SharedFileInputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -38,14 +42,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -54,32 +60,72 @@ import java.util.concurrent.atomic.AtomicLong;
  * <p/>
  * On create of the {@link FileMailQueue} the {@link #init()} will get called. This takes care of
  * loading the needed meta-data into memory for fast access.
+ * <p/>
+ * Delayed {@link Mail}'s are tracked by a {@link TimerWheel} which checkpoints its deadlines, so only the
+ * {@link Mail}'s which were modified after the last checkpoint need to get loaded on {@link #init()}.
  */
-public class FileMailQueue implements ManageableMailQueue {
+public class FileMailQueue implements ManageableMailQueue, DelayedDeliverySupport, Disposable {
 
     private final ConcurrentHashMap<String, FileItem> keyMappings = new ConcurrentHashMap<String, FileMailQueue.FileItem>();
     private final BlockingQueue<String> inmemoryQueue = new LinkedBlockingQueue<String>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final TimerWheel timerWheel;
+    // keys of delayed mails which are scheduled but whose files are still written
+    private final Set<String> writing = new HashSet<String>();
     private final static AtomicLong COUNTER = new AtomicLong();
     private final String queueDirName;
     private final File queueDir;
     private final Logger log;
 
     private final boolean sync;
+    private final MailEnvelopeCodec envelopeCodec;
     private final static String MSG_EXTENSION = ".msg";
     private final static String OBJECT_EXTENSION = ".obj";
     private final static String NEXT_DELIVERY = "FileQueueNextDelivery";
+    private final static String CHECKPOINT = "delay.checkpoint";
     private final static int SPLITCOUNT = 10;
 
+    // allow some skew between the file modification time and the checkpoint time
+    private final static long CHECKPOINT_SKEW = 2000;
+
     public FileMailQueue(File parentDir, String queuename, boolean sync, Logger log) throws IOException {
+        this(parentDir, queuename, sync, null, log);
+    }
+
+    /**
+     * Create a new {@link FileMailQueue} which writes the meta-data of the {@link Mail}'s with the given
+     * {@link MailEnvelopeCodec} or via Java serialization if it is <code>null</code>
+     *
+     * @param parentDir
+     * @param queuename
+     * @param sync
+     * @param envelopeCodec
+     * @param log
+     * @throws IOException
+     */
+    public FileMailQueue(File parentDir, String queuename, boolean sync, MailEnvelopeCodec envelopeCodec, Logger log) throws IOException {
         this.log = log;
         this.sync = sync;
+        this.envelopeCodec = envelopeCodec;
         this.queueDir = new File(parentDir, queuename);
         this.queueDirName = queueDir.getAbsolutePath();
+        this.timerWheel = new TimerWheel(new TimerWheel.Listener() {
+
+            @Override
+            public void expired(String key) {
+                synchronized (writing) {
+                    if (writing.remove(key)) {
+                        // enQueue will queue it once the files are written
+                        return;
+                    }
+                }
+                inmemoryQueue.add(key);
+            }
+        }, TimerWheel.DEFAULT_TICK, new File(queueDir, CHECKPOINT));
         init();
     }
 
     private void init() throws IOException {
+        TimerWheel.Checkpoint checkpoint = timerWheel.readCheckpoint();
 
         for (int i = 1; i <= SPLITCOUNT; i++) {
 
@@ -97,61 +143,38 @@ public class FileMailQueue implements ManageableMailQueue {
 
             for (final String name : files) {
 
-                ObjectInputStream oin = null;
-
                 try {
 
-                    final String msgFileName = name.substring(0, name.length() - OBJECT_EXTENSION.length()) + MSG_EXTENSION;
+                    final String key = name.substring(0, name.length() - OBJECT_EXTENSION.length());
+                    final String msgFileName = key + MSG_EXTENSION;
 
                     FileItem item = new FileItem(qDir.getAbsolutePath() + File.separator + name, qDir.getAbsolutePath() + File.separator + msgFileName);
 
-                    oin = new ObjectInputStream(new FileInputStream(item.getObjectFile()));
-                    Mail mail = (Mail) oin.readObject();
-                    Long next = (Long) mail.getAttribute(NEXT_DELIVERY);
+                    Long next = checkpoint.getDeadline(key);
                     if (next == null) {
-                        next = 0L;
+                        if (new File(item.getObjectFile()).lastModified() < checkpoint.getTime() - CHECKPOINT_SKEW) {
+                            // not pending when the checkpoint was written, so no need to read it
+                            next = 0L;
+                        } else {
+                            Mail mail = readMail(item.getObjectFile());
+                            next = (Long) mail.getAttribute(NEXT_DELIVERY);
+                            if (next == null) {
+                                next = 0L;
+                            }
+                        }
                     }
 
-                    final String key = mail.getName();
                     keyMappings.put(key, item);
                     if (next <= System.currentTimeMillis()) {
-
-                        try {
-                            inmemoryQueue.put(key);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new RuntimeException("Unable to init", e);
-                        }
+                        inmemoryQueue.add(key);
                     } else {
-
-                        // Schedule a task which will put the mail in the queue
-                        // for processing after a given delay
-                        scheduler.schedule(new Runnable() {
-
-                            @Override
-                            public void run() {
-                                try {
-                                    inmemoryQueue.put(key);
-                                } catch (InterruptedException e) {
-                                    Thread.currentThread().interrupt();
-                                    throw new RuntimeException("Unable to init", e);
-                                }
-                            }
-                        }, next - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                        timerWheel.schedule(key, next);
                     }
 
                 } catch (ClassNotFoundException e1) {
                     log.error("Unable to load Mail", e1);
                 } catch (IOException e) {
                     log.error("Unable to load Mail", e);
-                } finally {
-                    if (oin != null) {
-                        try {
-                            oin.close();
-                        } catch (Exception e) {
-                            // ignore on close
-                        }
-                    }
                 }
 
             }
@@ -164,6 +187,8 @@ public class FileMailQueue implements ManageableMailQueue {
         FileOutputStream out = null;
         FileOutputStream foout = null;
         ObjectOutputStream oout = null;
+        boolean scheduled = false;
+        boolean success = false;
         try {
             int i = (int) (Math.random() * SPLITCOUNT + 1);
 
@@ -171,13 +196,29 @@ public class FileMailQueue implements ManageableMailQueue {
             String name = queueDirName + "/" + i + "/" + key;
 
             final FileItem item = new FileItem(name + OBJECT_EXTENSION, name + MSG_EXTENSION);
+            long next = 0;
             if (delay > 0) {
-                mail.setAttribute(NEXT_DELIVERY, System.currentTimeMillis() + unit.toMillis(delay));
+                next = System.currentTimeMillis() + unit.toMillis(delay);
+                mail.setAttribute(NEXT_DELIVERY, next);
+
+                // The message should get delayed so schedule it for later. This
+                // is done before the files are written, so every checkpoint
+                // which is written after them contains the key and init() does
+                // not need to read the files
+                synchronized (writing) {
+                    writing.add(key);
+                }
+                timerWheel.schedule(key, next);
+                scheduled = true;
             }
             foout = new FileOutputStream(item.getObjectFile());
-            oout = new ObjectOutputStream(foout);
-            oout.writeObject(mail);
-            oout.flush();
+            if (envelopeCodec != null) {
+                envelopeCodec.encode(mail, foout);
+            } else {
+                oout = new ObjectOutputStream(foout);
+                oout.writeObject(mail);
+                oout.flush();
+            }
             if (sync) foout.getFD().sync();
             out = new FileOutputStream(item.getMessageFile());
 
@@ -187,25 +228,14 @@ public class FileMailQueue implements ManageableMailQueue {
 
             keyMappings.put(key, item);
 
-            if (delay > 0) {
-                // The message should get delayed so schedule it for later
-                scheduler.schedule(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            inmemoryQueue.put(key);
-
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new RuntimeException("Unable to init", e);
-                        }
-                    }
-                }, delay, unit);
-
-            } else {
+            boolean expired;
+            synchronized (writing) {
+                expired = !writing.remove(key);
+            }
+            if (!scheduled || expired) {
                 inmemoryQueue.put(key);
             }
+            success = true;
 
             //TODO: Think about exception handling in detail
         } catch (FileNotFoundException e) {
@@ -219,6 +249,12 @@ public class FileMailQueue implements ManageableMailQueue {
             throw new MailQueueException("Unable to enqueue mail", e);
 
         } finally {
+            if (scheduled && !success) {
+                synchronized (writing) {
+                    writing.remove(key);
+                }
+                timerWheel.cancel(key);
+            }
             if (out != null) {
                 try {
                     out.close();
@@ -260,66 +296,111 @@ public class FileMailQueue implements ManageableMailQueue {
                 item = keyMappings.get(k);
 
             }
-            final String key = k;
-            final FileItem fitem = item;
-            ObjectInputStream oin = null;
-            try {
-                final File objectFile = new File(fitem.getObjectFile());
-                final File msgFile = new File(fitem.getMessageFile());
-                oin = new ObjectInputStream(new FileInputStream(objectFile));
-                final Mail mail = (Mail) oin.readObject();
-                mail.setMessage(new MimeMessageCopyOnWriteProxy(new FileMimeMessageSource(msgFile)));
-                return new MailQueueItem() {
-
-                    @Override
-                    public Mail getMail() {
-                        return mail;
-                    }
-
-                    @Override
-                    public void done(boolean success) throws MailQueueException {
-                        if (!success) {
-                            try {
-                                inmemoryQueue.put(key);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                throw new MailQueueException("Unable to rollback", e);
-                            }
-                        } else {
-                            fitem.delete();
-                            keyMappings.remove(key);
-                        }
+            return createMailQueueItem(k, item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailQueueException("Unable to dequeue", e);
+        }
+    }
 
-                        LifecycleUtil.dispose(mail);
-                    }
-                };
-
-                // TODO: Think about exception handling in detail
-            } catch (FileNotFoundException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (IOException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (ClassNotFoundException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (MessagingException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-
-            } finally {
-                if (oin != null) {
-                    try {
-                        oin.close();
-                    } catch (IOException e) {
-                        // ignore on close
+    @Override
+    public List<MailQueueItem> deQueue(int max, long timeout, TimeUnit unit) throws MailQueueException {
+        List<MailQueueItem> items = new ArrayList<MailQueueItem>();
+        try {
+            String key = inmemoryQueue.poll(timeout, unit);
+            while (key != null) {
+                FileItem item = keyMappings.get(key);
+                if (item != null) {
+                    items.add(createMailQueueItem(key, item));
+                    if (items.size() >= max) {
+                        break;
                     }
                 }
+                key = inmemoryQueue.poll();
             }
-
+            return items;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            rollback(items);
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (MailQueueException e) {
+            rollback(items);
+            throw e;
+        }
+    }
+
+    /**
+     * Put the given already dequeued items back in the queue
+     */
+    private void rollback(List<MailQueueItem> items) {
+        for (MailQueueItem item : items) {
+            try {
+                item.done(false);
+            } catch (MailQueueException e) {
+                log.error("Unable to rollback mail " + item.getMail().getName(), e);
+            }
+        }
+    }
+
+    private MailQueueItem createMailQueueItem(final String key, final FileItem fitem) throws MailQueueException {
+        try {
+            final File msgFile = new File(fitem.getMessageFile());
+            final Mail mail = readMail(fitem.getObjectFile());
+            mail.setMessage(new MimeMessageCopyOnWriteProxy(new FileMimeMessageSource(msgFile)));
+            return new MailQueueItem() {
+
+                @Override
+                public Mail getMail() {
+                    return mail;
+                }
+
+                @Override
+                public void done(boolean success) throws MailQueueException {
+                    if (!success) {
+                        try {
+                            inmemoryQueue.put(key);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new MailQueueException("Unable to rollback", e);
+                        }
+                    } else {
+                        fitem.delete();
+                        keyMappings.remove(key);
+                        timerWheel.cancel(key);
+                    }
+
+                    LifecycleUtil.dispose(mail);
+                }
+            };
+
+            // TODO: Think about exception handling in detail
+        } catch (FileNotFoundException e) {
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (ClassNotFoundException e) {
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (MessagingException e) {
             throw new MailQueueException("Unable to dequeue", e);
         }
     }
 
+    /**
+     * Read the {@link Mail} from the given object file. Files which were written with the {@link MailEnvelopeCodec} and
+     * with Java serialization are both supported
+     */
+    private Mail readMail(String objectFile) throws IOException, ClassNotFoundException {
+        InputStream in = new BufferedInputStream(new FileInputStream(objectFile));
+        try {
+            if (MailEnvelopeCodec.isEncoded(in)) {
+                return (envelopeCodec != null ? envelopeCodec : new MailEnvelopeCodec()).decode(in);
+            }
+            return (Mail) new ObjectInputStream(in).readObject();
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
     private final class FileMimeMessageSource extends MimeMessageSource implements Disposable {
 
         private File file;
@@ -408,6 +489,7 @@ public class FileMailQueue implements ManageableMailQueue {
         long i = 0;
         while (keys.hasNext()) {
             String key = keys.next();
+            timerWheel.cancel(key);
             if (!inmemoryQueue.contains(key)) {
                 inmemoryQueue.add(key);
                 i++;
@@ -427,6 +509,7 @@ public class FileMailQueue implements ManageableMailQueue {
 
             item.delete();
             keyMappings.remove(key);
+            timerWheel.cancel(key);
             count++;
 
         }
@@ -444,6 +527,7 @@ public class FileMailQueue implements ManageableMailQueue {
             case Name:
                 FileItem item = keyMappings.remove(value);
                 if (item != null) {
+                    timerWheel.cancel(value);
                     item.delete();
                     return 1;
                 } else {
@@ -484,10 +568,8 @@ public class FileMailQueue implements ManageableMailQueue {
             public boolean hasNext() {
                 if (item == null) {
                     while (items.hasNext()) {
-                        ObjectInputStream in = null;
                         try {
-                            in = new ObjectInputStream(new FileInputStream(items.next().getObjectFile()));
-                            final Mail mail = (Mail) in.readObject();
+                            final Mail mail = readMail(items.next().getObjectFile());
                             item = new MailQueueItemView() {
 
                                 @Override
@@ -508,14 +590,6 @@ public class FileMailQueue implements ManageableMailQueue {
 
                         } catch (ClassNotFoundException e) {
                             log.info("Unable to load mail", e);
-                        } finally {
-                            if (in != null) {
-                                try {
-                                    in.close();
-                                } catch (IOException e) {
-                                    // ignore on close
-                                }
-                            }
                         }
                     }
                     return false;
@@ -531,4 +605,14 @@ public class FileMailQueue implements ManageableMailQueue {
         };
     }
 
+    @Override
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    @Override
+    public void dispose() {
+        timerWheel.dispose();
+    }
+
 }
@@ -18,17 +18,26 @@
  ****************************************************************/
 package org.apache.james.queue.file;
 
+import org.apache.james.core.MailEnvelopeCodec;
 import org.apache.james.filesystem.api.FileSystem;
+import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
+import org.apache.james.queue.api.DelayedDeliverySupport;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueueFactory;
 import org.slf4j.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.inject.Inject;
+import javax.management.ObjectName;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,9 +46,14 @@ import java.util.Map;
 public class FileMailQueueFactory implements MailQueueFactory, LogEnabled {
 
     private final Map<String, MailQueue> queues = new HashMap<String, MailQueue>();
+    private final List<String> mbeans = new ArrayList<String>();
     private FileSystem fs;
     private Logger log;
     private boolean sync = true;
+    private boolean journal = false;
+    private long segmentSize = JournalFileMailQueue.DEFAULT_SEGMENT_SIZE;
+    private boolean useJMX = true;
+    private MailEnvelopeCodec envelopeCodec;
 
     @Inject
     @Resource
@@ -59,20 +73,124 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled {
         this.sync = sync;
     }
 
+    /**
+     * If <code>true</code> the later created queues will be {@link JournalFileMailQueue} instances which append all
+     * {@link org.apache.mailet.Mail}'s to rolling segment files instead of writing two files per
+     * {@link org.apache.mailet.Mail}. This reduces the count of file creates, <code>fsync</code> and deletes a lot
+     * under load.
+     * <p/>
+     * The default is <code>false</code>
+     *
+     * @param journal
+     */
+    public void setJournal(boolean journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Set the size in bytes after which a {@link JournalFileMailQueue} starts a new segment. Only used if
+     * {@link #setJournal(boolean)} is <code>true</code>
+     * <p/>
+     * The default is {@link JournalFileMailQueue#DEFAULT_SEGMENT_SIZE}
+     *
+     * @param segmentSize
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * If <code>true</code> the later created queues store the meta-data of the {@link org.apache.mailet.Mail}'s in
+     * the compact format of the {@link MailEnvelopeCodec} instead of using Java serialization. Queues can read both
+     * formats, so this can be switched at any time.
+     * <p/>
+     * The default is <code>false</code>
+     *
+     * @param binaryEnvelope
+     */
+    public void setBinaryEnvelope(boolean binaryEnvelope) {
+        if (binaryEnvelope) {
+            if (envelopeCodec == null) {
+                envelopeCodec = new MailEnvelopeCodec();
+            }
+        } else {
+            envelopeCodec = null;
+        }
+    }
+
+    /**
+     * Set the {@link MailEnvelopeCodec} to use for storing the meta-data of the {@link org.apache.mailet.Mail}'s.
+     * This allows to use a {@link MailEnvelopeCodec} with custom {@link org.apache.james.core.AttributeCodec}'s
+     * registered.
+     *
+     * @param envelopeCodec
+     */
+    public void setEnvelopeCodec(MailEnvelopeCodec envelopeCodec) {
+        this.envelopeCodec = envelopeCodec;
+    }
+
+    /**
+     * If <code>true</code> the {@link org.apache.james.queue.api.TimerWheel} of the later created queues gets
+     * registered via JMX
+     * <p/>
+     * The default is <code>true</code>
+     *
+     * @param useJMX
+     */
+    public void setUseJMX(boolean useJMX) {
+        this.useJMX = useJMX;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        synchronized (queues) {
+            for (String mbean : mbeans) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(mbean));
+                } catch (Exception e) {
+                    log.info("Unable to unregister mbean " + mbean, e);
+                }
+            }
+            mbeans.clear();
+
+            for (MailQueue queue : queues.values()) {
+                LifecycleUtil.dispose(queue);
+            }
+        }
+    }
+
     @Override
     public MailQueue getQueue(String name) {
-        MailQueue queue = queues.get(name);
-        if (queue == null) {
-            synchronized (queues) {
+        synchronized (queues) {
+            MailQueue queue = queues.get(name);
+            if (queue == null) {
                 try {
-                    queue = new FileMailQueue(fs.getFile("file://var/store/queue"), name, sync, log);
+                    File parentDir = fs.getFile("file://var/store/queue");
+                    if (journal) {
+                        queue = new JournalFileMailQueue(parentDir, name, sync, segmentSize, envelopeCodec, log);
+                    } else {
+                        queue = new FileMailQueue(parentDir, name, sync, envelopeCodec, log);
+                    }
                     queues.put(name, queue);
+                    if (useJMX) {
+                        registerMBean(name, (DelayedDeliverySupport) queue);
+                    }
                 } catch (IOException e) {
                     throw new RuntimeException("Unable to access queue " + name, e);
                 }
             }
+            return queue;
+        }
+    }
+
+    private void registerMBean(String queuename, DelayedDeliverySupport queue) {
+        String mbeanName = "org.apache.james:type=component,name=queue,queue=" + queuename + ",sub-type=delay";
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(queue.getTimerWheel(), new ObjectName(mbeanName));
+            mbeans.add(mbeanName);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to register mbean", e);
         }
-        return queue;
     }
 
     @Override
@@ -0,0 +1,774 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import com.google.common.io.Closeables;
+import org.apache.james.core.MailEnvelopeCodec;
+import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.queue.api.DelayedDeliverySupport;
+import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.api.TimerWheel;
+import org.apache.mailet.Mail;
+import org.slf4j.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.util.SharedFileInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ManageableMailQueue} implementation which appends the {@link Mail}'s to rolling segment files instead of
+ * writing two files per {@link Mail} like {@link FileMailQueue} does.
+ * <p/>
+ * Each segment consists of a data file (<code>.seg</code>) which holds the serialized envelope followed by the raw
+ * message and a small index file (<code>.idx</code>) which holds the offsets of every record plus a marker for every
+ * record which was processed successfully. If <code>sync</code> is enabled, concurrent
+ * {@link #enQueue(Mail, long, TimeUnit)} callers share a single <code>fsync</code> of the segment (group commit).
+ * <p/>
+ * Once a segment was rolled over and all of its records were acknowledged via
+ * {@link MailQueueItem#done(boolean)} the segment gets removed from disk.
+ * <p/>
+ * Delayed {@link Mail}'s are tracked by a {@link TimerWheel}. No checkpoint is needed as the index already holds the
+ * next delivery time of every record.
+ */
+public class JournalFileMailQueue implements ManageableMailQueue, DelayedDeliverySupport, Disposable {
+
+    /**
+     * The default size in bytes after which a new segment is started
+     */
+    public final static long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final static String SEGMENT_EXTENSION = ".seg";
+    private final static String INDEX_EXTENSION = ".idx";
+    private final static byte RECORD_ADD = 1;
+    private final static byte RECORD_DONE = 2;
+
+    private final ConcurrentHashMap<String, JournalItem> keyMappings = new ConcurrentHashMap<String, JournalItem>();
+    private final BlockingQueue<String> inmemoryQueue = new LinkedBlockingQueue<String>();
+    private final TimerWheel timerWheel;
+    private final Map<Long, Segment> segments = new LinkedHashMap<Long, Segment>();
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final File queueDir;
+    private final boolean sync;
+    private final long segmentSize;
+    private final Logger log;
+    private final MailEnvelopeCodec envelopeCodec;
+
+    private Segment current;
+
+    public JournalFileMailQueue(File parentDir, String queuename, boolean sync, long segmentSize, Logger log) throws IOException {
+        this(parentDir, queuename, sync, segmentSize, null, log);
+    }
+
+    /**
+     * Create a new {@link JournalFileMailQueue} which writes the meta-data of the {@link Mail}'s with the given
+     * {@link MailEnvelopeCodec} or via Java serialization if it is <code>null</code>
+     *
+     * @param parentDir
+     * @param queuename
+     * @param sync
+     * @param segmentSize
+     * @param envelopeCodec
+     * @param log
+     * @throws IOException
+     */
+    public JournalFileMailQueue(File parentDir, String queuename, boolean sync, long segmentSize, MailEnvelopeCodec envelopeCodec, Logger log) throws IOException {
+        this.log = log;
+        this.sync = sync;
+        this.envelopeCodec = envelopeCodec;
+        this.segmentSize = segmentSize;
+        this.queueDir = new File(parentDir, queuename);
+        this.timerWheel = new TimerWheel(new TimerWheel.Listener() {
+
+            @Override
+            public void expired(String key) {
+                inmemoryQueue.add(key);
+            }
+        }, TimerWheel.DEFAULT_TICK, null);
+        init();
+    }
+
+    private void init() throws IOException {
+        if (!queueDir.exists() && !queueDir.mkdirs()) {
+            throw new IOException("Unable to create queue directory " + queueDir);
+        }
+
+        String[] files = queueDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_EXTENSION);
+            }
+        });
+        long[] ids = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            ids[i] = Long.parseLong(files[i].substring(0, files[i].length() - SEGMENT_EXTENSION.length()));
+        }
+        Arrays.sort(ids);
+
+        long nextId = 1;
+        for (long id : ids) {
+            Segment segment = recover(id);
+            if (segment.live.get() == 0) {
+                segment.delete();
+            } else {
+                segments.put(id, segment);
+            }
+            nextId = id + 1;
+        }
+        current = new Segment(nextId);
+        segments.put(nextId, current);
+    }
+
+    /**
+     * Replay the index of the segment with the given id and register all records which were not acknowledged yet
+     */
+    private Segment recover(long id) throws IOException {
+        Segment segment = new Segment(id, true);
+        Map<String, JournalItem> pending = new LinkedHashMap<String, JournalItem>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.indexFile)));
+        try {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    String key = in.readUTF();
+                    if (type == RECORD_ADD) {
+                        long offset = in.readLong();
+                        int envelopeLength = in.readInt();
+                        long messageLength = in.readLong();
+                        long next = in.readLong();
+                        if (offset + envelopeLength + messageLength <= segment.dataFile.length()) {
+                            pending.put(key, new JournalItem(key, segment, offset, envelopeLength, messageLength, next));
+                        }
+                    } else if (type == RECORD_DONE) {
+                        pending.remove(key);
+                    }
+                } catch (EOFException e) {
+                    // truncated index entry which was never synced, just ignore it
+                    log.info("Ignore truncated index entry in segment " + segment.indexFile);
+                    break;
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+
+        for (JournalItem item : pending.values()) {
+            segment.live.incrementAndGet();
+            keyMappings.put(item.key, item);
+            schedule(item.key, item.nextDelivery);
+        }
+        return segment;
+    }
+
+    @Override
+    public void enQueue(final Mail mail, long delay, TimeUnit unit) throws MailQueueException {
+        // the key must not collide with the keys of recovered records, which
+        // may belong to a mail of the same name
+        final String key = mail.getName() + "-" + UUID.randomUUID();
+        long next = 0;
+        if (delay > 0) {
+            next = System.currentTimeMillis() + unit.toMillis(delay);
+        }
+
+        try {
+            byte[] envelope = toEnvelope(mail);
+            JournalItem item;
+            long end;
+            Segment segment;
+            synchronized (appendLock) {
+                segment = current;
+                item = segment.append(key, envelope, mail, next);
+                end = segment.written;
+                if (end >= segmentSize) {
+                    roll();
+                }
+            }
+            if (sync) {
+                commit(segment, end);
+            }
+
+            keyMappings.put(key, item);
+            schedule(key, next);
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to enqueue mail", e);
+        } catch (MessagingException e) {
+            throw new MailQueueException("Unable to enqueue mail", e);
+        }
+    }
+
+    @Override
+    public void enQueue(Mail mail) throws MailQueueException {
+        enQueue(mail, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Make sure everything up to the given position of the segment is on disk. Callers which wait for the lock
+     * while another caller is syncing will find their data already synced and return without another
+     * <code>fsync</code>.
+     */
+    private void commit(Segment segment, long position) throws IOException {
+        synchronized (syncLock) {
+            if (segment.synced >= position) {
+                return;
+            }
+            segment.force();
+        }
+    }
+
+    /**
+     * Start a new segment. Must be called while holding the append lock
+     */
+    private void roll() throws IOException {
+        Segment old = current;
+        current = new Segment(old.id + 1);
+        synchronized (segments) {
+            segments.put(current.id, current);
+        }
+        synchronized (syncLock) {
+            old.force();
+        }
+        old.closeData();
+        compact(old);
+    }
+
+    /**
+     * Remove the given segment from disk if it is not the active segment anymore and all records were acknowledged
+     */
+    private void compact(Segment segment) {
+        if (segment.live.get() > 0 || segment == current) {
+            return;
+        }
+        synchronized (segments) {
+            if (segments.remove(segment.id) == null) {
+                return;
+            }
+        }
+        segment.delete();
+    }
+
+    private void schedule(String key, long next) {
+        if (next > System.currentTimeMillis()) {
+            // The message should get delayed so schedule it for later
+            timerWheel.schedule(key, next);
+        } else {
+            inmemoryQueue.add(key);
+        }
+    }
+
+    @Override
+    public MailQueueItem deQueue() throws MailQueueException {
+        try {
+            JournalItem item = null;
+            String k = null;
+            while (item == null) {
+                k = inmemoryQueue.take();
+                item = keyMappings.get(k);
+            }
+            return createMailQueueItem(k, item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailQueueException("Unable to dequeue", e);
+        }
+    }
+
+    @Override
+    public List<MailQueueItem> deQueue(int max, long timeout, TimeUnit unit) throws MailQueueException {
+        List<MailQueueItem> items = new ArrayList<MailQueueItem>();
+        try {
+            String key = inmemoryQueue.poll(timeout, unit);
+            while (key != null) {
+                JournalItem item = keyMappings.get(key);
+                if (item != null) {
+                    items.add(createMailQueueItem(key, item));
+                    if (items.size() >= max) {
+                        break;
+                    }
+                }
+                key = inmemoryQueue.poll();
+            }
+            return items;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rollback(items);
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (MailQueueException e) {
+            rollback(items);
+            throw e;
+        }
+    }
+
+    /**
+     * Put the given already dequeued items back in the queue
+     */
+    private void rollback(List<MailQueueItem> items) {
+        for (MailQueueItem item : items) {
+            try {
+                item.done(false);
+            } catch (MailQueueException e) {
+                log.error("Unable to rollback mail " + item.getMail().getName(), e);
+            }
+        }
+    }
+
+    private MailQueueItem createMailQueueItem(final String key, final JournalItem jitem) throws MailQueueException {
+        try {
+            final Mail mail = jitem.readMail();
+            mail.setMessage(new MimeMessageCopyOnWriteProxy(new SegmentMimeMessageSource(jitem)));
+            return new MailQueueItem() {
+
+                @Override
+                public Mail getMail() {
+                    return mail;
+                }
+
+                @Override
+                public void done(boolean success) throws MailQueueException {
+                    if (!success) {
+                        try {
+                            inmemoryQueue.put(key);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new MailQueueException("Unable to rollback", e);
+                        }
+                    } else if (keyMappings.remove(key) != null) {
+                        acknowledge(jitem);
+                    }
+
+                    LifecycleUtil.dispose(mail);
+                }
+            };
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (ClassNotFoundException e) {
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (MessagingException e) {
+            throw new MailQueueException("Unable to dequeue", e);
+        }
+    }
+
+    /**
+     * Mark the given item as processed in the index of its segment and compact the segment if possible
+     */
+    private void acknowledge(JournalItem item) throws MailQueueException {
+        timerWheel.cancel(item.key);
+        try {
+            item.segment.markDone(item.key);
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to mark mail as done", e);
+        }
+        if (item.segment.live.decrementAndGet() == 0) {
+            synchronized (appendLock) {
+                compact(item.segment);
+            }
+        }
+    }
+
+    private byte[] toEnvelope(Mail mail) throws IOException {
+        if (envelopeCodec != null) {
+            return envelopeCodec.encode(mail);
+        }
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(mail);
+        oout.close();
+        return bout.toByteArray();
+    }
+
+    /**
+     * A segment of the journal which consists of a data file and an index file
+     */
+    private final class Segment {
+        private final long id;
+        private final File dataFile;
+        private final File indexFile;
+        private final AtomicInteger live = new AtomicInteger();
+        private FileChannel data;
+        private DataOutputStream index;
+        private FileOutputStream indexOut;
+        private volatile long written;
+        private volatile long synced;
+
+        public Segment(long id) throws IOException {
+            this(id, false);
+        }
+
+        public Segment(long id, boolean recovered) throws IOException {
+            this.id = id;
+            this.dataFile = new File(queueDir, id + SEGMENT_EXTENSION);
+            this.indexFile = new File(queueDir, id + INDEX_EXTENSION);
+            if (!recovered) {
+                this.data = new RandomAccessFile(dataFile, "rw").getChannel();
+                this.data.position(data.size());
+                this.written = data.size();
+                this.synced = written;
+            }
+            this.indexOut = new FileOutputStream(indexFile, true);
+            this.index = new DataOutputStream(new BufferedOutputStream(indexOut));
+        }
+
+        /**
+         * Append the envelope and the message to the data file and add the record to the index. Must be called while
+         * holding the append lock
+         */
+        public JournalItem append(String key, byte[] envelope, Mail mail, long next) throws IOException, MessagingException {
+            long offset = written;
+            try {
+                data.write(ByteBuffer.wrap(envelope));
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(data));
+                mail.getMessage().writeTo(out);
+                out.flush();
+            } catch (IOException e) {
+                rollback(offset);
+                throw e;
+            } catch (MessagingException e) {
+                rollback(offset);
+                throw e;
+            }
+            long messageLength = data.position() - offset - envelope.length;
+            synchronized (this) {
+                index.writeByte(RECORD_ADD);
+                index.writeUTF(key);
+                index.writeLong(offset);
+                index.writeInt(envelope.length);
+                index.writeLong(messageLength);
+                index.writeLong(next);
+                index.flush();
+            }
+            live.incrementAndGet();
+            written = data.position();
+            return new JournalItem(key, this, offset, envelope.length, messageLength, next);
+        }
+
+        private void rollback(long offset) throws IOException {
+            data.truncate(offset);
+            data.position(offset);
+        }
+
+        public synchronized void markDone(String key) throws IOException {
+            if (index == null) {
+                return;
+            }
+            index.writeByte(RECORD_DONE);
+            index.writeUTF(key);
+            index.flush();
+        }
+
+        /**
+         * Force the data and index to disk. Must be called while holding the sync lock
+         */
+        public void force() throws IOException {
+            long position = written;
+            if (data != null) {
+                data.force(false);
+            }
+            synchronized (this) {
+                if (indexOut != null) {
+                    indexOut.getFD().sync();
+                }
+            }
+            synced = position;
+        }
+
+        public void closeData() {
+            Closeables.closeQuietly(data);
+            data = null;
+        }
+
+        public synchronized void close() {
+            closeData();
+            Closeables.closeQuietly(index);
+            index = null;
+            indexOut = null;
+        }
+
+        public void delete() {
+            close();
+            if (dataFile.exists() && !dataFile.delete()) {
+                log.info("Unable to delete segment " + dataFile);
+            }
+            if (indexFile.exists() && !indexFile.delete()) {
+                log.info("Unable to delete segment index " + indexFile);
+            }
+        }
+    }
+
+    /**
+     * Helper class which references the location of a {@link Mail} inside of a {@link Segment}
+     */
+    private final class JournalItem {
+        private final String key;
+        private final Segment segment;
+        private final long offset;
+        private final int envelopeLength;
+        private final long messageLength;
+        private final long nextDelivery;
+
+        public JournalItem(String key, Segment segment, long offset, int envelopeLength, long messageLength, long nextDelivery) {
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.envelopeLength = envelopeLength;
+            this.messageLength = messageLength;
+            this.nextDelivery = nextDelivery;
+        }
+
+        public long getMessageOffset() {
+            return offset + envelopeLength;
+        }
+
+        public Mail readMail() throws IOException, ClassNotFoundException {
+            byte[] envelope = new byte[envelopeLength];
+            RandomAccessFile file = new RandomAccessFile(segment.dataFile, "r");
+            try {
+                file.seek(offset);
+                file.readFully(envelope);
+            } finally {
+                Closeables.closeQuietly(file);
+            }
+            InputStream in = new ByteArrayInputStream(envelope);
+            if (MailEnvelopeCodec.isEncoded(in)) {
+                return (envelopeCodec != null ? envelopeCodec : new MailEnvelopeCodec()).decode(in);
+            }
+            ObjectInputStream oin = new ObjectInputStream(in);
+            try {
+                return (Mail) oin.readObject();
+            } finally {
+                Closeables.closeQuietly(oin);
+            }
+        }
+    }
+
+    /**
+     * {@link MimeMessageSource} which reads the message from its region inside a segment
+     */
+    private final class SegmentMimeMessageSource extends MimeMessageSource implements Disposable {
+
+        private final String sourceId;
+        private final long start;
+        private final long length;
+        private SharedFileInputStream in;
+
+        public SegmentMimeMessageSource(JournalItem item) throws IOException {
+            this.sourceId = item.segment.dataFile.getAbsolutePath() + "#" + item.key;
+            this.start = item.getMessageOffset();
+            this.length = item.messageLength;
+            this.in = new SharedFileInputStream(item.segment.dataFile);
+        }
+
+        @Override
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return in.newStream(start, start + length);
+        }
+
+        @Override
+        public long getMessageSize() throws IOException {
+            return length;
+        }
+
+        @Override
+        public void dispose() {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public long getSize() throws MailQueueException {
+        return keyMappings.size();
+    }
+
+    @Override
+    public long flush() throws MailQueueException {
+        Iterator<String> keys = keyMappings.keySet().iterator();
+        long i = 0;
+        while (keys.hasNext()) {
+            String key = keys.next();
+            timerWheel.cancel(key);
+            if (!inmemoryQueue.contains(key)) {
+                inmemoryQueue.add(key);
+                i++;
+            }
+        }
+        return i;
+    }
+
+    @Override
+    public long clear() throws MailQueueException {
+        final Iterator<Entry<String, JournalItem>> items = keyMappings.entrySet().iterator();
+        long count = 0;
+        while (items.hasNext()) {
+            Entry<String, JournalItem> entry = items.next();
+            if (keyMappings.remove(entry.getKey()) != null) {
+                acknowledge(entry.getValue());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long remove(Type type, String value) throws MailQueueException {
+        switch (type) {
+            case Name:
+                JournalItem item = keyMappings.remove(value);
+                if (item != null) {
+                    acknowledge(item);
+                    return 1;
+                } else {
+                    return 0;
+                }
+
+            default:
+                break;
+        }
+        throw new MailQueueException("Not supported yet");
+    }
+
+    @Override
+    public MailQueueIterator browse() throws MailQueueException {
+        final Iterator<JournalItem> items = keyMappings.values().iterator();
+        return new MailQueueIterator() {
+            private MailQueueItemView item = null;
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Read-only");
+            }
+
+            @Override
+            public MailQueueItemView next() {
+                if (hasNext()) {
+                    MailQueueItemView vitem = item;
+                    item = null;
+                    return vitem;
+                } else {
+                    throw new NoSuchElementException();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (item == null) {
+                    while (items.hasNext()) {
+                        final JournalItem jitem = items.next();
+                        try {
+                            final Mail mail = jitem.readMail();
+                            item = new MailQueueItemView() {
+
+                                @Override
+                                public long getNextDelivery() {
+                                    return jitem.nextDelivery;
+                                }
+
+                                @Override
+                                public Mail getMail() {
+                                    return mail;
+                                }
+                            };
+                            return true;
+                        } catch (IOException e) {
+                            log.info("Unable to load mail", e);
+                        } catch (ClassNotFoundException e) {
+                            log.info("Unable to load mail", e);
+                        }
+                    }
+                    return false;
+                } else {
+                    return true;
+                }
+            }
+
+            @Override
+            public void close() {
+                // do nothing
+            }
+        };
+    }
+
+    @Override
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    @Override
+    public void dispose() {
+        timerWheel.dispose();
+        synchronized (appendLock) {
+            try {
+                synchronized (syncLock) {
+                    current.force();
+                }
+            } catch (IOException e) {
+                log.error("Unable to sync segment " + current.dataFile, e);
+            }
+            synchronized (segments) {
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class JournalFileMailQueueTest {
+
+    private final static String QUEUE_NAME = "test";
+
+    private final Logger log = LoggerFactory.getLogger(JournalFileMailQueueTest.class);
+
+    private File parentDir;
+
+    private JournalFileMailQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        parentDir = File.createTempFile("journalqueue", "");
+        parentDir.delete();
+        parentDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.dispose();
+        }
+        delete(parentDir);
+    }
+
+    @Test
+    public void testEnqueueDequeue() throws Exception {
+        queue = createQueue(JournalFileMailQueue.DEFAULT_SEGMENT_SIZE);
+        assertEquals(0, queue.getSize());
+
+        queue.enQueue(createMail("mail1"));
+        queue.enQueue(createMail("mail2"));
+        assertEquals(2, queue.getSize());
+
+        MailQueueItem item = queue.deQueue();
+        checkMail("mail1", item.getMail());
+        item.done(false);
+
+        // the mail is back in the queue
+        assertEquals(2, queue.getSize());
+        item = queue.deQueue();
+        checkMail("mail2", item.getMail());
+        item.done(true);
+
+        item = queue.deQueue();
+        checkMail("mail1", item.getMail());
+        item.done(true);
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception {
+        queue = createQueue(JournalFileMailQueue.DEFAULT_SEGMENT_SIZE);
+        queue.enQueue(createMail("mail1"));
+        queue.enQueue(createMail("mail2"));
+        queue.enQueue(createMail("mail3"), 1, TimeUnit.HOURS);
+        queue.deQueue().done(true);
+        queue.dispose();
+
+        queue = createQueue(JournalFileMailQueue.DEFAULT_SEGMENT_SIZE);
+        assertEquals(2, queue.getSize());
+
+        // a mail with the name of a recovered one must not replace it
+        queue.enQueue(createMail("mail2"));
+        assertEquals(3, queue.getSize());
+
+        MailQueueItem item = queue.deQueue();
+        checkMail("mail2", item.getMail());
+        item.done(true);
+        item = queue.deQueue();
+        checkMail("mail2", item.getMail());
+        item.done(true);
+
+        // only the delayed mail is left
+        assertEquals(1, queue.getSize());
+        assertEquals(0, queue.deQueue(1, 100, TimeUnit.MILLISECONDS).size());
+    }
+
+    @Test
+    public void testRecoveryKeepsOrder() throws Exception {
+        queue = createQueue(JournalFileMailQueue.DEFAULT_SEGMENT_SIZE);
+        for (int i = 0; i < 10; i++) {
+            queue.enQueue(createMail("mail" + i));
+        }
+        queue.dispose();
+
+        queue = createQueue(JournalFileMailQueue.DEFAULT_SEGMENT_SIZE);
+        for (int i = 0; i < 10; i++) {
+            MailQueueItem item = queue.deQueue();
+            checkMail("mail" + i, item.getMail());
+            item.done(true);
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        // every mail gets a segment of its own
+        queue = createQueue(1);
+        queue.enQueue(createMail("mail1"));
+        queue.enQueue(createMail("mail2"));
+        queue.enQueue(createMail("mail3"));
+        assertEquals(4, listSegments().length);
+
+        queue.deQueue().done(true);
+        queue.deQueue().done(true);
+        assertEquals(2, listSegments().length);
+
+        queue.deQueue().done(true);
+        assertEquals(Arrays.asList("4.seg"), Arrays.asList(listSegments()));
+
+        // the segments are still compacted after a restart
+        queue.dispose();
+        queue = createQueue(1);
+        assertEquals(0, queue.getSize());
+        assertEquals(Arrays.asList("5.seg"), Arrays.asList(listSegments()));
+    }
+
+    private JournalFileMailQueue createQueue(long segmentSize) throws IOException {
+        return new JournalFileMailQueue(parentDir, QUEUE_NAME, true, segmentSize, log);
+    }
+
+    private String[] listSegments() {
+        String[] segments = new File(parentDir, QUEUE_NAME).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".seg");
+            }
+        });
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private Mail createMail(String name) throws MessagingException {
+        MailImpl mail = new MailImpl();
+        mail.setName(name);
+        mail.setLastUpdated(new Date());
+        mail.setRecipients(Arrays.asList(new MailAddress("test@test")));
+        mail.setSender(new MailAddress("sender@senderdomain"));
+
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setText("test " + name);
+        message.saveChanges();
+        mail.setMessage(message);
+        return mail;
+    }
+
+    private void checkMail(String name, Mail mail) throws MessagingException, IOException {
+        assertEquals(name, mail.getName());
+        assertEquals("sender@senderdomain", mail.getSender().toString());
+        assertEquals(1, mail.getRecipients().size());
+        assertEquals("test " + name, mail.getMessage().getContent());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        assertFalse(file.exists() && !file.delete());
+    }
+}
@@ -21,22 +21,25 @@ package org.apache.james.queue.jms;
 import com.google.common.io.Closeables;
 import org.apache.james.core.MailImpl;
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.james.queue.api.DelayedDeliverySupport;
+import org.apache.james.queue.api.DequeueLimitSupport;
 import org.apache.james.queue.api.MailPrioritySupport;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.api.TimerWheel;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
 import org.slf4j.Logger;
 
 import javax.jms.BytesMessage;
-import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
-import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 import javax.jms.Session;
 import javax.mail.MessagingException;
@@ -46,6 +49,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -55,6 +59,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
@@ -67,25 +72,91 @@ import java.util.concurrent.TimeUnit;
  * {@link Mail} objects.
  * </p>
  */
-public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPrioritySupport {
+public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPrioritySupport, DelayedDeliverySupport, DequeueLimitSupport, Disposable {
 
     protected final String queueName;
     protected final ConnectionFactory connectionFactory;
+    protected final JMSSessionPool sessionPool;
     protected final Logger logger;
     public final static String FORCE_DELIVERY = "FORCE_DELIVERY";
 
+    /**
+     * Time in milliseconds after which a cached dequeue {@link MessageConsumer}
+     * gets re-created, so its selector picks up delayed mails which are ready
+     * now but were not enqueued by this {@link JMSMailQueue}
+     */
+    private final static long SELECTOR_MAX_AGE = 10000;
+
+    /**
+     * Time in milliseconds to wait for a message before checking if the
+     * selector needs to get re-created
+     */
+    private final static long RECEIVE_TIMEOUT = 1000;
+
+    private final static AtomicLong COUNTER = new AtomicLong();
+
+    /**
+     * Gets incremented every time a delayed mail which was enqueued by this
+     * {@link JMSMailQueue} is ready, so the cached dequeue
+     * {@link MessageConsumer}'s get re-created with an up to date selector
+     */
+    private final AtomicLong selectorVersion = new AtomicLong();
+    private final TimerWheel timerWheel;
+
     public JMSMailQueue(final ConnectionFactory connectionFactory, final String queueName, final Logger logger) {
+        this(connectionFactory, queueName, JMSSessionPool.DEFAULT_MAX_IDLE, JMSSessionPool.DEFAULT_IDLE_TIMEOUT, logger);
+    }
+
+    /**
+     * Construct a new {@link JMSMailQueue} which keeps at most maxIdleSessions
+     * idle {@link Session}'s per acknowledge mode in its
+     * {@link JMSSessionPool} and closes {@link Session}'s which were idle for
+     * more than sessionIdleTimeout milliseconds
+     * 
+     * @param connectionFactory
+     * @param queueName
+     * @param maxIdleSessions
+     * @param sessionIdleTimeout
+     * @param logger
+     */
+    public JMSMailQueue(final ConnectionFactory connectionFactory, final String queueName, int maxIdleSessions, long sessionIdleTimeout, final Logger logger) {
+        this(connectionFactory, queueName, maxIdleSessions, JMSSessionPool.DEFAULT_MAX_ACTIVE, sessionIdleTimeout, logger);
+    }
+
+    /**
+     * Construct a new {@link JMSMailQueue} like
+     * {@link #JMSMailQueue(ConnectionFactory, String, int, long, Logger)} which
+     * opens at most maxActiveSessions {@link Session}'s per acknowledge mode at
+     * the same time
+     * 
+     * @param connectionFactory
+     * @param queueName
+     * @param maxIdleSessions
+     * @param maxActiveSessions
+     * @param sessionIdleTimeout
+     * @param logger
+     */
+    public JMSMailQueue(final ConnectionFactory connectionFactory, final String queueName, int maxIdleSessions, int maxActiveSessions, long sessionIdleTimeout, final Logger logger) {
         this.connectionFactory = connectionFactory;
         this.queueName = queueName;
         this.logger = logger;
+        this.sessionPool = new JMSSessionPool(connectionFactory, queueName, maxIdleSessions, maxActiveSessions, sessionIdleTimeout, logger);
+        this.timerWheel = new TimerWheel(new TimerWheel.Listener() {
+
+            @Override
+            public void expired(String key) {
+                selectorVersion.incrementAndGet();
+            }
+        }, TimerWheel.DEFAULT_TICK, null);
     }
 
     /**
      * <p>
      * Dequeues a mail when it is ready to process. As JMS does not support delay scheduling out-of-the box,
-     * we use a messageselector to check if a mail is ready. For this a
-     * {@link MessageConsumer#receive(long)} is used with a timeout of 10
-     * seconds.
+     * we use a messageselector to check if a mail is ready. The
+     * {@link MessageConsumer} is cached in the pooled {@link Session} and
+     * only re-created once a delayed mail which was enqueued by this
+     * {@link JMSMailQueue} is ready or its selector is older than ten seconds.
      * </p>
      * <p>
      * Many JMS implementations support better solutions for this, so this
@@ -94,90 +165,111 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
      */
     @Override
     public MailQueueItem deQueue() throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
-        Message message;
-        MessageConsumer consumer = null;
-
         while (true) {
+            PooledSession session = null;
             try {
-                connection = connectionFactory.createConnection();
-                connection.start();
-
-                session = connection.createSession(true, Session.SESSION_TRANSACTED);
-                Queue queue = session.createQueue(queueName);
-                consumer = session.createConsumer(queue, getMessageSelector());
-
-                message = consumer.receive(10000);
+                // keep waiting if all sessions are held by dequeued mails
+                session = sessionPool.borrow(true, RECEIVE_TIMEOUT);
+                if (session == null) {
+                    continue;
+                }
+                Message message = getConsumer(session).receive(RECEIVE_TIMEOUT);
 
                 if (message != null) {
-                    return createMailQueueItem(connection, session, consumer, message);
+                    return createMailQueueItem(session, message);
                 } else {
-                    session.commit();
+                    session.release();
+                }
+            } catch (Exception e) {
+                invalidate(session);
+                throw new MailQueueException("Unable to dequeue next message", e);
+            }
+        }
+    }
 
-                    if (consumer != null) {
+    /**
+     * Dequeue up to max ready Mails using one transacted {@link Session}. All
+     * returned items belong to one {@link JMSMailQueueBatch}, so the
+     * {@link Session} is only committed once after all items were processed.
+     */
+    @Override
+    public List<MailQueueItem> deQueue(int max, long timeout, TimeUnit unit) throws MailQueueException {
+        PooledSession session = null;
 
-                        try {
-                            consumer.close();
-                        } catch (JMSException e1) {
-                            // ignore on rollback
-                        }
-                    }
-                    try {
-                        if (session != null)
-                            session.close();
-                    } catch (JMSException e1) {
-                        // ignore here
-                    }
+        try {
+            // give up like an empty queue if all sessions are held by
+            // dequeued mails for the whole timeout
+            session = sessionPool.borrow(true, unit.toMillis(timeout));
+            if (session == null) {
+                return Collections.emptyList();
+            }
 
-                    try {
-                        if (connection != null)
-                            connection.close();
-                    } catch (JMSException e1) {
-                        // ignore here
-                    }
-                }
+            List<Message> messages = new ArrayList<Message>();
 
-            } catch (Exception e) {
-                if (session != null) {
-                    try {
-                        session.rollback();
-                    } catch (JMSException e1) {
-                        // ignore on rollback
-                    }
+            MessageConsumer consumer = getConsumer(session);
+
+            // a timeout of 0 would block forever, so make sure we wait at least 1 ms
+            Message message = consumer.receive(Math.max(1, Math.min(RECEIVE_TIMEOUT, unit.toMillis(timeout))));
+            while (message != null) {
+                messages.add(message);
+                if (messages.size() >= max) {
+                    break;
                 }
+                message = consumer.receiveNoWait();
+            }
 
-                if (consumer != null) {
+            if (messages.isEmpty()) {
+                session.release();
+                return Collections.emptyList();
+            }
 
-                    try {
-                        consumer.close();
-                    } catch (JMSException e1) {
-                        // ignore on rollback
-                    }
-                }
-                try {
-                    if (session != null)
-                        session.close();
-                } catch (JMSException e1) {
-                    // ignore here
-                }
+            JMSMailQueueBatch batch = new JMSMailQueueBatch(this, session, messages.size());
+            List<MailQueueItem> items = new ArrayList<MailQueueItem>(messages.size());
+            for (Message m : messages) {
+                items.add(createMailQueueBatchItem(batch, m));
+            }
+            return items;
+        } catch (Exception e) {
+            invalidate(session);
+            throw new MailQueueException("Unable to dequeue next messages", e);
+        }
+    }
+
+    /**
+     * Return the cached dequeue {@link MessageConsumer} of the given
+     * {@link PooledSession} or create a new one if it is missing or its
+     * selector is outdated
+     */
+    private MessageConsumer getConsumer(PooledSession session) throws JMSException {
+        long version = selectorVersion.get();
+        MessageConsumer consumer = session.getConsumer(SELECTOR_MAX_AGE, version);
+        if (consumer == null) {
+            consumer = session.createConsumer(getMessageSelector(), version);
+        }
+        return consumer;
+    }
 
+    /**
+     * Rollback and close the given {@link PooledSession} after an error
+     */
+    protected void invalidate(PooledSession session) {
+        if (session != null) {
+            if (session.getSession() != null) {
                 try {
-                    if (connection != null)
-                        connection.close();
+                    if (session.getSession().getTransacted()) {
+                        session.getSession().rollback();
+                    }
                 } catch (JMSException e1) {
-                    // ignore here
+                    // ignore on rollback
                 }
-                throw new MailQueueException("Unable to dequeue next message", e);
             }
+            session.invalidate();
         }
-
     }
 
     @Override
     public void enQueue(Mail mail, long delay, TimeUnit unit) throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
+        PooledSession session = null;
 
         long mydelay = 0;
 
@@ -186,10 +278,7 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
         }
 
         try {
-
-            connection = connectionFactory.createConnection();
-            connection.start();
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session = sessionPool.borrow(false);
 
             int msgPrio = NORMAL_PRIORITY;
             Object prio = mail.getAttribute(MAIL_PRIORITY);
@@ -201,30 +290,15 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
 
             produceMail(session, props, msgPrio, mail);
 
-        } catch (Exception e) {
-            if (session != null) {
-                try {
-                    session.rollback();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
-            }
-            throw new MailQueueException("Unable to enqueue mail " + mail, e);
-
-        } finally {
-            try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e) {
-                // ignore here
-            }
+            session.release();
 
-            try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e) {
-                // ignore here
+            if (mydelay > 0) {
+                // make sure the dequeue selectors get re-created once the mail is ready
+                timerWheel.schedule(mail.getName() + "-" + COUNTER.incrementAndGet(), System.currentTimeMillis() + mydelay);
             }
+        } catch (Exception e) {
+            invalidate(session);
+            throw new MailQueueException("Unable to enqueue mail " + mail, e);
         }
     }
 
@@ -234,47 +308,31 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
     }
 
     /**
-     * Produce the mail to the JMS Queue
+     * Produce the mail to the JMS Queue using the cached
+     * {@link MessageProducer} of the given {@link PooledSession}
      */
-    protected void produceMail(Session session, Map<String, Object> props, int msgPrio, Mail mail) throws JMSException, MessagingException, IOException {
-        MessageProducer producer = null;
-
-        try {
-            Queue queue = session.createQueue(queueName);
-
-            producer = session.createProducer(queue);
-            ObjectMessage message = session.createObjectMessage();
-
-            for (Map.Entry<String, Object> entry : props.entrySet()) {
-                message.setObjectProperty(entry.getKey(), entry.getValue());
-            }
+    protected void produceMail(PooledSession session, Map<String, Object> props, int msgPrio, Mail mail) throws JMSException, MessagingException, IOException {
+        ObjectMessage message = session.getSession().createObjectMessage();
 
-            long size = mail.getMessageSize();
-            ByteArrayOutputStream out;
-            if (size > -1) {
-                out = new ByteArrayOutputStream((int) size);
-            } else {
-                out = new ByteArrayOutputStream();
-            }
-            mail.getMessage().writeTo(out);
-
-            // store the byte array in a ObjectMessage so we can use a
-            // SharedByteArrayInputStream later
-            // without the need of copy the day
-            message.setObject(out.toByteArray());
-
-            producer.send(message, Message.DEFAULT_DELIVERY_MODE, msgPrio, Message.DEFAULT_TIME_TO_LIVE);
-
-        } finally {
+        for (Map.Entry<String, Object> entry : props.entrySet()) {
+            message.setObjectProperty(entry.getKey(), entry.getValue());
+        }
 
-            try {
-                if (producer != null)
-                    producer.close();
-            } catch (JMSException e) {
-                // ignore here
-            }
+        long size = mail.getMessageSize();
+        ByteArrayOutputStream out;
+        if (size > -1) {
+            out = new ByteArrayOutputStream((int) size);
+        } else {
+            out = new ByteArrayOutputStream();
         }
+        mail.getMessage().writeTo(out);
 
+        // store the byte array in a ObjectMessage so we can use a
+        // SharedByteArrayInputStream later
+        // without the need of copy the day
+        message.setObject(out.toByteArray());
+
+        session.getProducer().send(message, Message.DEFAULT_DELIVERY_MODE, msgPrio, Message.DEFAULT_TIME_TO_LIVE);
     }
 
     /**
@@ -464,17 +522,29 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
     /**
      * Create a {@link org.apache.james.queue.api.MailQueue.MailQueueItem} for the given parameters
      *
-     * @param connection
      * @param session
-     * @param consumer
      * @param message
      * @return item
      * @throws JMSException
      * @throws MessagingException
      */
-    protected MailQueueItem createMailQueueItem(Connection connection, Session session, MessageConsumer consumer, Message message) throws JMSException, MessagingException {
+    protected MailQueueItem createMailQueueItem(PooledSession session, Message message) throws JMSException, MessagingException {
+        final Mail mail = createMail(message);
+        return new JMSMailQueueItem(mail, session);
+    }
+
+    /**
+     * Create a {@link org.apache.james.queue.api.MailQueue.MailQueueItem} which is part of the given {@link JMSMailQueueBatch}
+     *
+     * @param batch
+     * @param message
+     * @return item
+     * @throws JMSException
+     * @throws MessagingException
+     */
+    protected MailQueueItem createMailQueueBatchItem(JMSMailQueueBatch batch, Message message) throws JMSException, MessagingException {
         final Mail mail = createMail(message);
-        return new JMSMailQueueItem(mail, connection, session, consumer);
+        return new JMSMailQueueBatchItem(mail, message, batch);
     }
 
     protected String getMessageSelector() {
@@ -484,17 +554,12 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
     @SuppressWarnings("unchecked")
     @Override
     public long getSize() throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
+        PooledSession session = null;
         QueueBrowser browser = null;
         int size = 0;
         try {
-            connection = connectionFactory.createConnection();
-            connection.start();
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            Queue queue = session.createQueue(queueName);
-
-            browser = session.createBrowser(queue);
+            session = sessionPool.borrow(false);
+            browser = session.getSession().createBrowser(session.getQueue());
 
             Enumeration<Message> messages = browser.getEnumeration();
 
@@ -502,51 +567,28 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
                 messages.nextElement();
                 size++;
             }
+            browser.close();
+            session.release();
             return size;
         } catch (Exception e) {
+            close(browser);
+            invalidate(session);
             logger.error("Unable to get size of queue " + queueName, e);
             throw new MailQueueException("Unable to get size of queue " + queueName, e);
-        } finally {
-            try {
-                if (browser != null)
-                    browser.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
-
-            try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
-
-            try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
         }
     }
 
     @Override
     public long flush() throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
+        PooledSession session = null;
         Message message = null;
         MessageConsumer consumer = null;
-        MessageProducer producer = null;
         boolean first = true;
         long count = 0;
         try {
-            connection = connectionFactory.createConnection();
-            connection.start();
-
-            session = connection.createSession(true, Session.SESSION_TRANSACTED);
-            Queue queue = session.createQueue(queueName);
-            consumer = session.createConsumer(queue);
-            producer = session.createProducer(queue);
+            session = sessionPool.borrow(true);
+            consumer = session.getSession().createConsumer(session.getQueue());
+            MessageProducer producer = session.getProducer();
 
             while (first || message != null) {
                 if (first) {
@@ -558,53 +600,21 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
                 first = false;
 
                 if (message != null) {
-                    Message m = copy(session, message);
+                    Message m = copy(session.getSession(), message);
                     m.setBooleanProperty(FORCE_DELIVERY, true);
                     producer.send(m, message.getJMSDeliveryMode(), message.getJMSPriority(), message.getJMSExpiration());
                     count++;
                 }
             }
-            session.commit();
+            session.getSession().commit();
+            consumer.close();
+            session.release();
             return count;
         } catch (Exception e) {
             logger.error("Unable to flush mail", e);
-            try {
-                session.rollback();
-            } catch (JMSException e1) {
-                // ignore on rollback
-            }
+            close(consumer);
+            invalidate(session);
             throw new MailQueueException("Unable to get size of queue " + queueName, e);
-        } finally {
-            if (consumer != null) {
-
-                try {
-                    consumer.close();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
-            }
-            if (producer != null) {
-
-                try {
-                    producer.close();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
-            }
-
-            try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
-
-            try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
         }
     }
 
@@ -628,20 +638,15 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
      * @return messages
      */
     public List<Message> removeWithSelector(String selector) throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
+        PooledSession session = null;
         Message message = null;
         MessageConsumer consumer = null;
         boolean first = true;
         List<Message> messages = new ArrayList<Message>();
 
         try {
-            connection = connectionFactory.createConnection();
-            connection.start();
-
-            session = connection.createSession(true, Session.SESSION_TRANSACTED);
-            Queue queue = session.createQueue(queueName);
-            consumer = session.createConsumer(queue, selector);
+            session = sessionPool.borrow(true);
+            consumer = session.getSession().createConsumer(session.getQueue(), selector);
             while (first || message != null) {
                 if (first) {
                     // give the consumer 2000 ms to receive messages
@@ -654,37 +659,38 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
                     messages.add(message);
                 }
             }
-            session.commit();
+            session.getSession().commit();
+            consumer.close();
+            session.release();
             return messages;
         } catch (Exception e) {
-            try {
-                session.rollback();
-            } catch (JMSException e1) {
-                // ignore on rollback
-            }
+            close(consumer);
+            invalidate(session);
             throw new MailQueueException("Unable to remove mails", e);
+        }
+    }
 
-        } finally {
-            if (consumer != null) {
-
-                try {
-                    consumer.close();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
-            }
-
+    /**
+     * Close the given {@link MessageConsumer} and ignore any error
+     */
+    protected void close(MessageConsumer consumer) {
+        if (consumer != null) {
             try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e1) {
+                consumer.close();
+            } catch (JMSException e) {
                 // ignore here
             }
+        }
+    }
 
+    /**
+     * Close the given {@link QueueBrowser} and ignore any error
+     */
+    protected void close(QueueBrowser browser) {
+        if (browser != null) {
             try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e1) {
+                browser.close();
+            } catch (JMSException e) {
                 // ignore here
             }
         }
@@ -731,21 +737,15 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
     @Override
     @SuppressWarnings("unchecked")
     public MailQueueIterator browse() throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
+        PooledSession session = null;
         QueueBrowser browser = null;
         try {
-            connection = connectionFactory.createConnection();
-            connection.start();
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            Queue queue = session.createQueue(queueName);
-
-            browser = session.createBrowser(queue);
+            session = sessionPool.borrow(false);
+            browser = session.getSession().createBrowser(session.getQueue());
 
             final Enumeration<Message> messages = browser.getEnumeration();
 
-            final Connection myConnection = connection;
-            final Session mySession = session;
+            final PooledSession mySession = session;
             final QueueBrowser myBrowser = browser;
 
             return new MailQueueIterator() {
@@ -791,55 +791,42 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
 
                 @Override
                 public void close() {
-
                     try {
-                        if (myBrowser != null)
-                            myBrowser.close();
+                        myBrowser.close();
+                        mySession.release();
                     } catch (JMSException e1) {
-                        // ignore here
-                    }
-
-                    try {
-                        if (mySession != null)
-                            mySession.close();
-                    } catch (JMSException e1) {
-                        // ignore here
-                    }
-
-                    try {
-                        if (myConnection != null)
-                            myConnection.close();
-                    } catch (JMSException e1) {
-                        // ignore here
+                        mySession.invalidate();
                     }
                 }
             };
 
         } catch (Exception e) {
-
-            try {
-                if (browser != null)
-                    browser.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
-
-            try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
-
-            try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e1) {
-                // ignore here
-            }
+            close(browser);
+            invalidate(session);
             logger.error("Unable to browse queue " + queueName, e);
             throw new MailQueueException("Unable to browse queue " + queueName, e);
         }
     }
 
+    @Override
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * Every dequeued {@link MailQueueItem} keeps a transacted {@link Session}
+     * until it is done, so this is the count of transacted {@link Session}'s
+     * which may be open at the same time
+     */
+    @Override
+    public int getMaxPendingItems() {
+        return sessionPool.getMaxActive();
+    }
+
+    @Override
+    public void dispose() {
+        timerWheel.dispose();
+        sessionPool.dispose();
+    }
+
 }
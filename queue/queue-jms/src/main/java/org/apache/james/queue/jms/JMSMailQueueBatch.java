@@ -0,0 +1,97 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.james.queue.api.MailQueue.MailQueueException;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
+
+/**
+ * Group of {@link JMSMailQueueBatchItem}'s which were received in one
+ * transacted {@link Session}. The {@link Session} is committed once
+ * {@link JMSMailQueueBatchItem#done(boolean)} was called for every item of the
+ * batch. Items which were not processed successfully are send to the queue
+ * again as part of the same transaction, so they will get dequeued again.
+ */
+public class JMSMailQueueBatch {
+
+    private final JMSMailQueue queue;
+    private final PooledSession session;
+    private final List<JMSMailQueueBatchItem> succeeded = new ArrayList<JMSMailQueueBatchItem>();
+    private final List<Message> failed = new ArrayList<Message>();
+    private int pending;
+
+    public JMSMailQueueBatch(JMSMailQueue queue, PooledSession session, int size) {
+        this.queue = queue;
+        this.session = session;
+        this.pending = size;
+    }
+
+    /**
+     * Record the outcome for the given item and commit the batch if it was the
+     * last pending item
+     * 
+     * @param item
+     * @param success
+     * @throws MailQueueException
+     */
+    public void done(JMSMailQueueBatchItem item, boolean success) throws MailQueueException {
+        List<JMSMailQueueBatchItem> committed;
+        synchronized (this) {
+            if (success) {
+                succeeded.add(item);
+            } else {
+                failed.add(item.getMessage());
+            }
+            pending--;
+            if (pending > 0) {
+                return;
+            }
+            commit();
+            committed = new ArrayList<JMSMailQueueBatchItem>(succeeded);
+        }
+
+        for (JMSMailQueueBatchItem c : committed) {
+            c.committed();
+        }
+    }
+
+    private void commit() throws MailQueueException {
+        try {
+            if (!failed.isEmpty()) {
+                MessageProducer producer = session.getProducer();
+                for (Message m : failed) {
+                    producer.send(queue.copy(session.getSession(), m), m.getJMSDeliveryMode(), m.getJMSPriority(), m.getJMSExpiration());
+                }
+            }
+            session.getSession().commit();
+            session.release();
+        } catch (JMSException ex) {
+            queue.invalidate(session);
+            throw new MailQueueException("Unable to commit dequeue operation for batch of queue " + queue.queueName, ex);
+        }
+    }
+}
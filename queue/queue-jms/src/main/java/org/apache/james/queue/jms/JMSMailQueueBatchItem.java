@@ -0,0 +1,65 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.jms;
+
+import javax.jms.Message;
+
+import org.apache.james.queue.api.MailQueue.MailQueueException;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.mailet.Mail;
+
+/**
+ * JMS {@link MailQueueItem} implementation which is part of a
+ * {@link JMSMailQueueBatch}
+ */
+public class JMSMailQueueBatchItem implements MailQueueItem {
+
+    protected final Mail mail;
+    protected final Message message;
+    protected final JMSMailQueueBatch batch;
+
+    public JMSMailQueueBatchItem(Mail mail, Message message, JMSMailQueueBatch batch) {
+        this.mail = mail;
+        this.message = message;
+        this.batch = batch;
+    }
+
+    @Override
+    public void done(boolean success) throws MailQueueException {
+        batch.done(this, success);
+    }
+
+    /**
+     * Callback which is called after the {@link JMSMailQueueBatch} this item
+     * belongs to was committed and the item was processed successfully
+     */
+    protected void committed() {
+        // do nothing by default
+    }
+
+    @Override
+    public Mail getMail() {
+        return mail;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+}
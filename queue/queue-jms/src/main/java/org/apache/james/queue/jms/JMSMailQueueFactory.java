@@ -33,6 +33,9 @@ import org.apache.james.queue.library.AbstractMailQueueFactory;
 public class JMSMailQueueFactory extends AbstractMailQueueFactory {
 
     protected ConnectionFactory connectionFactory;
+    protected int maxIdleSessions = JMSSessionPool.DEFAULT_MAX_IDLE;
+    protected int maxActiveSessions = JMSSessionPool.DEFAULT_MAX_ACTIVE;
+    protected long sessionIdleTimeout = JMSSessionPool.DEFAULT_IDLE_TIMEOUT;
 
     @Inject
     @Resource(name = "jmsConnectionFactory")
@@ -40,9 +43,40 @@ public class JMSMailQueueFactory extends AbstractMailQueueFactory {
         this.connectionFactory = connectionFactory;
     }
 
+    /**
+     * Set the maximal count of idle JMS Sessions which are pooled per queue and
+     * acknowledge mode. The default is {@link JMSSessionPool#DEFAULT_MAX_IDLE}
+     * 
+     * @param maxIdleSessions
+     */
+    public void setMaxIdleSessions(int maxIdleSessions) {
+        this.maxIdleSessions = maxIdleSessions;
+    }
+
+    /**
+     * Set the maximal count of JMS Sessions which are open at the same time per
+     * queue and acknowledge mode. The default is
+     * {@link JMSSessionPool#DEFAULT_MAX_ACTIVE}
+     * 
+     * @param maxActiveSessions
+     */
+    public void setMaxActiveSessions(int maxActiveSessions) {
+        this.maxActiveSessions = maxActiveSessions;
+    }
+
+    /**
+     * Set the time in milliseconds after which an idle pooled JMS Session is
+     * closed. The default is {@link JMSSessionPool#DEFAULT_IDLE_TIMEOUT}
+     * 
+     * @param sessionIdleTimeout
+     */
+    public void setSessionIdleTimeout(long sessionIdleTimeout) {
+        this.sessionIdleTimeout = sessionIdleTimeout;
+    }
+
     @Override
     protected MailQueue createMailQueue(String name) {
-        return new JMSMailQueue(connectionFactory, name, log);
+        return new JMSMailQueue(connectionFactory, name, maxIdleSessions, maxActiveSessions, sessionIdleTimeout, log);
     }
     
 }
@@ -19,13 +19,12 @@
 
 package org.apache.james.queue.jms;
 
-import javax.jms.Connection;
 import javax.jms.JMSException;
-import javax.jms.MessageConsumer;
 import javax.jms.Session;
 
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 
 /**
@@ -34,52 +33,30 @@ import org.apache.mailet.Mail;
 public class JMSMailQueueItem implements MailQueueItem {
 
     protected final Mail mail;
-    protected final Connection connection;
-    protected final Session session;
-    protected final MessageConsumer consumer;
+    protected final PooledSession session;
 
-    public JMSMailQueueItem(Mail mail, Connection connection, Session session, MessageConsumer consumer) {
+    public JMSMailQueueItem(Mail mail, PooledSession session) {
         this.mail = mail;
-        this.connection = connection;
         this.session = session;
-        this.consumer = consumer;
     }
 
+    /**
+     * Commit or rollback the transacted {@link Session} and give it back to
+     * the {@link JMSSessionPool}
+     */
     @Override
     public void done(boolean success) throws MailQueueException {
         try {
             if (success) {
-                session.commit();
+                session.getSession().commit();
             } else {
-                try {
-                    session.rollback();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
+                session.getSession().rollback();
             }
+            session.release();
         } catch (JMSException ex) {
-            throw new MailQueueException("Unable to commit dequeue operation for mail " + mail.getName(), ex);
-        } finally {
-            if (consumer != null) {
-
-                try {
-                    consumer.close();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
-            }
-            try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e) {
-                // ignore here
-            }
-
-            try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e) {
-                // ignore here
+            session.invalidate();
+            if (success) {
+                throw new MailQueueException("Unable to commit dequeue operation for mail " + mail.getName(), ex);
             }
         }
     }
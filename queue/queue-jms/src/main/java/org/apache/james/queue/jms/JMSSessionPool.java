@@ -0,0 +1,479 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.jms;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.apache.james.lifecycle.api.Disposable;
+import org.slf4j.Logger;
+
+/**
+ * Pool of long-lived JMS {@link Session}'s for one queue. All {@link Session}'s
+ * share one {@link Connection} which is only re-created if the JMS provider
+ * reports an error on it.
+ * <p>
+ * Each {@link PooledSession} caches its {@link MessageProducer} and its
+ * {@link MessageConsumer}, so they are not created for every operation. At
+ * most <code>maxIdle</code> {@link Session}'s per acknowledge mode are kept
+ * in the pool, and {@link Session}'s which were idle for more then
+ * <code>idleTimeout</code> milliseconds are closed. No more than
+ * <code>maxActive</code> {@link Session}'s per acknowledge mode are open at the
+ * same time, so {@link #borrow(boolean)} waits up to <code>maxWait</code>
+ * milliseconds until one is given back if the limit is reached. The limits are
+ * separate, because transacted {@link Session}'s are held by dequeued mails
+ * until they were processed, and must not keep enqueues from getting one.
+ * </p>
+ * <p>
+ * The pool caches {@link Session}'s itself, so it should be used with the
+ * {@link ConnectionFactory} of the JMS provider and not with one which caches
+ * {@link Session}'s on its own. If the provider does not allow to register an
+ * {@link ExceptionListener}, the {@link Connection} is re-created every time a
+ * {@link PooledSession} is invalidated.
+ * </p>
+ * <p>
+ * As the dequeue {@link MessageConsumer} stays open while its {@link Session}
+ * is idle in the pool, the JMS provider should be configured to not prefetch
+ * messages. Otherwise prefetched messages may be hidden from other consumers
+ * until the {@link Session} is used again or closed.
+ * </p>
+ */
+public class JMSSessionPool implements ExceptionListener, Disposable {
+
+    /**
+     * Default count of idle {@link Session}'s which are kept per acknowledge
+     * mode
+     */
+    public final static int DEFAULT_MAX_IDLE = 10;
+
+    /**
+     * Default count of {@link Session}'s which may be open at the same time
+     */
+    public final static int DEFAULT_MAX_ACTIVE = 100;
+
+    /**
+     * Default time in milliseconds {@link #borrow(boolean)} waits for a
+     * {@link Session} if <code>maxActive</code> {@link Session}'s are open
+     */
+    public final static long DEFAULT_MAX_WAIT = 30 * 1000;
+
+    /**
+     * Default time in milliseconds after which an idle {@link Session} is
+     * closed
+     */
+    public final static long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    private final ConnectionFactory connectionFactory;
+    private final String queueName;
+    private final Logger logger;
+    private final int maxIdle;
+    private final int maxActive;
+    private final long idleTimeout;
+    private final long maxWait;
+
+    // most recently used sessions are at the head
+    private final LinkedList<PooledSession> transacted = new LinkedList<PooledSession>();
+    private final LinkedList<PooledSession> nonTransacted = new LinkedList<PooledSession>();
+
+    private Connection connection;
+    private boolean listening;
+    private long generation;
+    private int activeTransacted;
+    private int activeNonTransacted;
+    private boolean disposed;
+
+    public JMSSessionPool(ConnectionFactory connectionFactory, String queueName, int maxIdle, long idleTimeout, Logger logger) {
+        this(connectionFactory, queueName, maxIdle, DEFAULT_MAX_ACTIVE, idleTimeout, logger);
+    }
+
+    public JMSSessionPool(ConnectionFactory connectionFactory, String queueName, int maxIdle, int maxActive, long idleTimeout, Logger logger) {
+        this(connectionFactory, queueName, maxIdle, maxActive, idleTimeout, DEFAULT_MAX_WAIT, logger);
+    }
+
+    public JMSSessionPool(ConnectionFactory connectionFactory, String queueName, int maxIdle, int maxActive, long idleTimeout, long maxWait, Logger logger) {
+        if (maxActive < 1) {
+            throw new IllegalArgumentException("maxActive must be at least 1");
+        }
+        this.connectionFactory = connectionFactory;
+        this.queueName = queueName;
+        this.maxIdle = maxIdle;
+        this.maxActive = maxActive;
+        this.idleTimeout = idleTimeout;
+        this.maxWait = maxWait;
+        this.logger = logger;
+    }
+
+    /**
+     * Return the count of {@link Session}'s per acknowledge mode which may be
+     * open at the same time
+     * 
+     * @return maxActive
+     */
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    /**
+     * Borrow a {@link PooledSession} from the pool. A new {@link Session} is
+     * created if no idle one is available. If <code>maxActive</code>
+     * {@link Session}'s of the acknowledge mode are open already, this waits
+     * up to <code>maxWait</code> milliseconds until one is given back. The
+     * returned {@link PooledSession} MUST be given back by either calling
+     * {@link PooledSession#release()} or {@link PooledSession#invalidate()}
+     * 
+     * @param tx
+     *            if <code>true</code> a transacted {@link Session} is returned
+     * @return session
+     * @throws JMSException
+     *             if no {@link Session} was given back in time
+     */
+    public PooledSession borrow(boolean tx) throws JMSException {
+        PooledSession session = borrow(tx, maxWait);
+        if (session == null) {
+            throw new JMSException("No session of queue " + queueName + " was available within " + maxWait + " ms");
+        }
+        return session;
+    }
+
+    /**
+     * Borrow a {@link PooledSession} from the pool like
+     * {@link #borrow(boolean)}, but wait at most the given time for one
+     * 
+     * @param tx
+     *            if <code>true</code> a transacted {@link Session} is returned
+     * @param timeout
+     *            the milliseconds to wait if <code>maxActive</code>
+     *            {@link Session}'s are open
+     * @return session or <code>null</code> if none was given back in time
+     * @throws JMSException
+     */
+    public PooledSession borrow(boolean tx, long timeout) throws JMSException {
+        long now = System.currentTimeMillis();
+        long deadline = now + timeout;
+        Connection con;
+        long gen;
+        synchronized (this) {
+            LinkedList<PooledSession> idle = tx ? transacted : nonTransacted;
+            while (true) {
+                if (disposed) {
+                    throw new JMSException("Session pool for queue " + queueName + " was already disposed");
+                }
+                evict(idle, now);
+                if (!idle.isEmpty()) {
+                    return idle.removeFirst();
+                }
+                if ((tx ? activeTransacted : activeNonTransacted) < maxActive) {
+                    break;
+                }
+                if (now >= deadline) {
+                    return null;
+                }
+                try {
+                    wait(deadline - now);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JMSException("Interrupted while waiting for a session of queue " + queueName);
+                }
+                now = System.currentTimeMillis();
+            }
+            con = getConnection();
+            gen = generation;
+            if (tx) {
+                activeTransacted++;
+            } else {
+                activeNonTransacted++;
+            }
+        }
+        try {
+            Session session = con.createSession(tx, tx ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE);
+            return new PooledSession(session, tx, gen);
+        } catch (JMSException e) {
+            closed(tx);
+            // the connection seems to be broken, so make sure we use a new
+            // one next time
+            reset();
+            throw e;
+        }
+    }
+
+    private Connection getConnection() throws JMSException {
+        if (connection == null) {
+            Connection con = connectionFactory.createConnection();
+            try {
+                con.setExceptionListener(this);
+                listening = true;
+            } catch (JMSException e) {
+                // some providers don't allow to set an ExceptionListener, so
+                // the connection gets reset if a session is invalidated
+                logger.debug("Unable to register ExceptionListener for queue " + queueName, e);
+                listening = false;
+            }
+            try {
+                con.start();
+            } catch (JMSException e) {
+                try {
+                    con.close();
+                } catch (JMSException e1) {
+                    // ignore here
+                }
+                throw e;
+            }
+            connection = con;
+        }
+        return connection;
+    }
+
+    /**
+     * Close all {@link PooledSession}'s which were idle for longer than the
+     * idle timeout. Must be called while holding the lock
+     */
+    private void evict(LinkedList<PooledSession> idle, long now) {
+        while (!idle.isEmpty() && now - idle.getLast().lastUsed > idleTimeout) {
+            idle.removeLast().close();
+        }
+    }
+
+    /**
+     * Called once a {@link Session} of this pool was closed
+     */
+    private synchronized void closed(boolean tx) {
+        if (tx) {
+            activeTransacted--;
+        } else {
+            activeNonTransacted--;
+        }
+        notifyAll();
+    }
+
+    private void invalidate(PooledSession session) {
+        session.close();
+        boolean resetConnection;
+        synchronized (this) {
+            // without an ExceptionListener we don't get notified about a
+            // broken connection, so don't take any risk
+            resetConnection = !listening && session.generation == generation;
+        }
+        if (resetConnection) {
+            reset();
+        }
+    }
+
+    private void release(PooledSession session) {
+        synchronized (this) {
+            if (!disposed && session.generation == generation) {
+                LinkedList<PooledSession> idle = session.tx ? transacted : nonTransacted;
+                session.lastUsed = System.currentTimeMillis();
+                idle.addFirst(session);
+                // wake up callers which wait for a session
+                notifyAll();
+                evict(idle, session.lastUsed);
+                if (idle.size() <= maxIdle) {
+                    return;
+                }
+                idle.removeLast();
+            }
+        }
+        session.close();
+    }
+
+    /**
+     * Throw away the {@link Connection} and all idle {@link Session}'s if the
+     * JMS provider reports a problem. The next call to
+     * {@link #borrow(boolean)} will create a new {@link Connection}
+     */
+    @Override
+    public void onException(JMSException e) {
+        logger.info("Reset connection of queue " + queueName + " after error", e);
+        reset();
+    }
+
+    private void reset() {
+        Connection con;
+        synchronized (this) {
+            generation++;
+            closeAll(transacted);
+            closeAll(nonTransacted);
+            con = connection;
+            connection = null;
+        }
+        if (con != null) {
+            try {
+                con.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+        }
+    }
+
+    private void closeAll(LinkedList<PooledSession> sessions) {
+        Iterator<PooledSession> it = sessions.iterator();
+        while (it.hasNext()) {
+            it.next().close();
+            it.remove();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            disposed = true;
+            notifyAll();
+        }
+        reset();
+    }
+
+    /**
+     * A {@link Session} which belongs to a {@link JMSSessionPool}
+     */
+    public final class PooledSession {
+        private final Session session;
+        private final boolean tx;
+        private final long generation;
+        private Queue queue;
+        private MessageProducer producer;
+        private MessageConsumer consumer;
+        private long consumerCreated;
+        private long consumerVersion;
+        private long lastUsed;
+        private boolean closed;
+
+        private PooledSession(Session session, boolean tx, long generation) {
+            this.session = session;
+            this.tx = tx;
+            this.generation = generation;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Return the queue of the pool
+         */
+        public Queue getQueue() throws JMSException {
+            if (queue == null) {
+                queue = session.createQueue(queueName);
+            }
+            return queue;
+        }
+
+        /**
+         * Return the cached {@link MessageProducer} for the queue of the pool
+         */
+        public MessageProducer getProducer() throws JMSException {
+            if (producer == null) {
+                producer = session.createProducer(getQueue());
+            }
+            return producer;
+        }
+
+        /**
+         * Return the cached {@link MessageConsumer} for the queue of the pool
+         * or <code>null</code> if there is none, it was created more than
+         * maxAge milliseconds ago or it was created for another selector
+         * version. In this case a new one needs to get created via
+         * {@link #createConsumer(String, long)}.
+         * 
+         * @param maxAge
+         * @param version
+         * @return consumer
+         */
+        public MessageConsumer getConsumer(long maxAge, long version) {
+            if (consumer != null && (consumerVersion != version || System.currentTimeMillis() - consumerCreated > maxAge)) {
+                closeConsumer();
+            }
+            return consumer;
+        }
+
+        /**
+         * Create a new {@link MessageConsumer} for the queue of the pool with
+         * the given selector and cache it in this {@link PooledSession}
+         * 
+         * @param selector
+         * @param version
+         *            the version of the selector
+         * @return consumer
+         * @throws JMSException
+         */
+        public MessageConsumer createConsumer(String selector, long version) throws JMSException {
+            closeConsumer();
+            consumer = session.createConsumer(getQueue(), selector);
+            consumerCreated = System.currentTimeMillis();
+            consumerVersion = version;
+            return consumer;
+        }
+
+        /**
+         * Give the {@link PooledSession} back to the pool, so it can be reused
+         */
+        public void release() {
+            JMSSessionPool.this.release(this);
+        }
+
+        /**
+         * Close the {@link PooledSession} because it can not be used anymore.
+         * This should be called if any error was reported while using it.
+         */
+        public void invalidate() {
+            JMSSessionPool.this.invalidate(this);
+        }
+
+        private void closeConsumer() {
+            if (consumer != null) {
+                try {
+                    consumer.close();
+                } catch (JMSException e) {
+                    // ignore here
+                }
+                consumer = null;
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeConsumer();
+            if (producer != null) {
+                try {
+                    producer.close();
+                } catch (JMSException e) {
+                    // ignore here
+                }
+                producer = null;
+            }
+            try {
+                session.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+            closed(tx);
+        }
+    }
+}
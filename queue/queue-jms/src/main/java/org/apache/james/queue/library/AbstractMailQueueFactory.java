@@ -31,6 +31,7 @@ import javax.management.ObjectName;
 
 import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
+import org.apache.james.queue.api.DelayedDeliverySupport;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueueFactory;
 import org.apache.james.queue.api.MailQueueManagementMBean;
@@ -60,7 +61,7 @@ public abstract class AbstractMailQueueFactory implements MailQueueFactory, LogE
 
     @PreDestroy
     public void destroy() {
-        for (String mbean : mbeans) {
+        for (String mbean : new ArrayList<String>(mbeans)) {
             unregisterMBean(mbean);
         }
 
@@ -109,6 +110,11 @@ public abstract class AbstractMailQueueFactory implements MailQueueFactory, LogE
                 mbeanServer.registerMBean(mbean, new ObjectName(mbeanName));
                 mbeans.add(mbeanName);
             }
+            if (queue instanceof DelayedDeliverySupport) {
+                String delayName = mbeanName + ",sub-type=delay";
+                mbeanServer.registerMBean(((DelayedDeliverySupport) queue).getTimerWheel(), new ObjectName(delayName));
+                mbeans.add(delayName);
+            }
         } catch (Exception e) {
             throw new RuntimeException("Unable to register mbean", e);
         }
@@ -44,6 +44,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -61,7 +62,11 @@ public abstract class AbstractJMSMailQueueTest {
     public abstract void setQueue(JMSMailQueue queue);
 
     protected ActiveMQConnectionFactory createConnectionFactory() {
-        return new ActiveMQConnectionFactory("vm://localhost?create=false");
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://localhost?create=false");
+        // Disable prefetch as the queue caches its consumers. This is the same
+        // as in the default configuration. See JAMES-1253
+        factory.getPrefetchPolicy().setQueuePrefetch(0);
+        return factory;
     }
 
     protected JMSMailQueue createQueue(ConnectionFactory factory, String queueName) {
@@ -116,6 +121,75 @@ public abstract class AbstractJMSMailQueueTest {
         assertEquals(0, queue.getSize());
     }
 
+    @Test
+    public void testBatchDeQueue() throws MessagingException, InterruptedException, IOException, MailAddressException {
+        final JMSMailQueue queue = getQueue();
+        // should be empty
+        assertEquals(0, queue.getSize());
+
+        Mail mail = createMail();
+        Mail mail2 = createMail();
+        Mail mail3 = createMail();
+
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        queue.enQueue(mail3);
+
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        assertEquals(3, queue.getSize());
+
+        List<MailQueueItem> items = queue.deQueue(2, 2, TimeUnit.SECONDS);
+        assertEquals(2, items.size());
+        checkMail(mail, items.get(0).getMail());
+        checkMail(mail2, items.get(1).getMail());
+
+        // the batch is only acknowledged once all items are done
+        items.get(0).done(true);
+        items.get(1).done(false);
+
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        // mail2 failed so it should be in the queue again
+        assertEquals(2, queue.getSize());
+
+        items = queue.deQueue(10, 2, TimeUnit.SECONDS);
+        assertEquals(2, items.size());
+        for (MailQueueItem item : items) {
+            item.done(true);
+        }
+
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        // should be empty
+        assertEquals(0, queue.getSize());
+        assertTrue(queue.deQueue(10, 200, TimeUnit.MILLISECONDS).isEmpty());
+    }
+
+    @Test
+    public void testBatchDeQueueGivesUpIfAllSessionsAreInUse() throws MessagingException, InterruptedException, IOException, MailAddressException {
+        JMSMailQueue queue = new JMSMailQueue(createConnectionFactory(), "limited", JMSSessionPool.DEFAULT_MAX_IDLE, 1,
+                JMSSessionPool.DEFAULT_IDLE_TIMEOUT, LoggerFactory.getLogger(AbstractJMSMailQueueTest.class));
+        try {
+            assertEquals(1, queue.getMaxPendingItems());
+            queue.enQueue(createMail());
+            queue.enQueue(createMail());
+
+            List<MailQueueItem> items = queue.deQueue(1, 2, TimeUnit.SECONDS);
+            assertEquals(1, items.size());
+
+            // the only transacted session is held by the dequeued mail
+            assertTrue(queue.deQueue(1, 200, TimeUnit.MILLISECONDS).isEmpty());
+
+            items.get(0).done(true);
+            items = queue.deQueue(1, 2, TimeUnit.SECONDS);
+            assertEquals(1, items.size());
+            items.get(0).done(true);
+        } finally {
+            queue.dispose();
+        }
+    }
+
     @Test
     public void testDelayedDeQueue() throws MessagingException, InterruptedException, IOException, MailAddressException {
         final JMSMailQueue queue = getQueue();
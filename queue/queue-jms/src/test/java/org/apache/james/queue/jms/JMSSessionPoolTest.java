@@ -0,0 +1,147 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.jms;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class JMSSessionPoolTest {
+
+    private static BrokerService broker;
+
+    private JMSSessionPool pool;
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public static void setUpBroker() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("sessionpool");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+    }
+
+    @AfterClass
+    public static void tearDownBroker() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://sessionpool?create=false");
+        pool = new JMSSessionPool(factory, "test", 10, 1, JMSSessionPool.DEFAULT_IDLE_TIMEOUT, LoggerFactory.getLogger(JMSSessionPoolTest.class));
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        pool.dispose();
+    }
+
+    private Future<PooledSession> borrowAsync(final boolean tx) {
+        return executor.submit(new Callable<PooledSession>() {
+
+            @Override
+            public PooledSession call() throws Exception {
+                return pool.borrow(tx);
+            }
+        });
+    }
+
+    @Test
+    public void testBorrowBlocksIfMaxActiveIsReached() throws Exception {
+        PooledSession session = pool.borrow(true);
+        Future<PooledSession> next = borrowAsync(true);
+        try {
+            next.get(200, TimeUnit.MILLISECONDS);
+            fail("Only one session may be open");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        session.release();
+        assertSame(session, next.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAcknowledgeModesHaveOwnLimit() throws Exception {
+        // a transacted session held by a dequeue must not block enqueues
+        PooledSession tx = pool.borrow(true);
+        PooledSession session = borrowAsync(false).get(5, TimeUnit.SECONDS);
+        assertNotSame(tx, session);
+        session.release();
+        tx.release();
+    }
+
+    @Test
+    public void testBorrowGivesUpAfterTimeout() throws Exception {
+        PooledSession session = pool.borrow(true);
+        assertNull(pool.borrow(true, 100));
+        session.release();
+        assertSame(session, pool.borrow(true, 100));
+        session.release();
+    }
+
+    @Test(expected = JMSException.class)
+    public void testBorrowFailsAfterMaxWait() throws Exception {
+        JMSSessionPool waitingPool = new JMSSessionPool(new ActiveMQConnectionFactory("vm://sessionpool?create=false"), "test", 10, 1,
+                JMSSessionPool.DEFAULT_IDLE_TIMEOUT, 100, LoggerFactory.getLogger(JMSSessionPoolTest.class));
+        try {
+            waitingPool.borrow(false);
+            waitingPool.borrow(false);
+        } finally {
+            waitingPool.dispose();
+        }
+    }
+
+    @Test
+    public void testInvalidatedSessionIsNotReused() throws Exception {
+        PooledSession session = pool.borrow(true);
+        session.invalidate();
+
+        PooledSession next = borrowAsync(true).get(5, TimeUnit.SECONDS);
+        assertNotSame(session, next);
+        next.release();
+    }
+}